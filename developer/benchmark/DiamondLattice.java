@@ -0,0 +1,121 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Scaling of cycle marking on deep diamond lattices.
+
+  A lattice of `depth` levels and `width` nodes per level. Node j of level i
+  has as neighbors nodes j and (j + 1) % width of level i + 1. Every pair of
+  adjacent levels forms diamonds, so the number of distinct paths from the top
+  grows as 2^depth, while the node count is only depth * width.
+
+  For each lattice, times `graph_mark_cycles` (the SCC engine), and then the
+  bounded leftmost descent, the three argument form of `graph_mark_cycles`.
+  The descent follows every path and keeps no visited set, so it is given
+  `time_limit_ms` and reported as not finished when it runs out.
+
+  A lattice with `cycle` set has an edge from the bottom level back to the top,
+  making every node a cycle member.
+
+  Run with `developer/tool/benchmark`.
+*/
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DiamondLattice{
+
+  static long time_limit_ms = 2000;
+
+  public static Label label(int level ,int j){
+    return new Label("n_" + level + "_" + j);
+  }
+
+  public static Map<Label ,Node> lattice(int depth ,int width ,boolean cycle){
+    Map<Label ,Node> node_map = new HashMap<>();
+    for( int i = 0; i < depth; i++ ){
+      for( int j = 0; j < width; j++ ){
+        Node node = new Node();
+        node.put("type" ,"symbol");
+        if( i + 1 < depth ){
+          node.neighbor_LabelList().add( label(i + 1 ,j) );
+          if(width > 1) node.neighbor_LabelList().add( label(i + 1 ,(j + 1) % width) );
+        }else if(cycle){
+          node.neighbor_LabelList().add( label(0 ,j) );
+        }
+        node_map.put( label(i ,j) ,node );
+      }
+    }
+    return node_map;
+  }
+
+  public static LabelList root_list(int width){
+    LabelList root_list = new LabelList();
+    for( int j = 0; j < width; j++ ) root_list.add( label(0 ,j) );
+    return root_list;
+  }
+
+  static String time_SCC(int depth ,int width ,boolean cycle){
+    Map<Label ,Node> node_map = lattice(depth ,width ,cycle);
+    GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,new LabelList() ,-1 ,false);
+    TokenSet result = new TokenSet();
+    long t0 = System.nanoTime();
+    graph.graph_mark_SCC( root_list(width) ,result ,false );
+    long t1 = System.nanoTime();
+    return String.format("%10.3f ms %s" ,(t1 - t0) / 1e6 ,result);
+  }
+
+  // runs the leftmost descent on a daemon thread so that it can be abandoned
+  static String time_descent(int depth ,int width ,boolean cycle) throws InterruptedException{
+    Map<Label ,Node> node_map = lattice(depth ,width ,cycle);
+    GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,new LabelList() ,-1 ,false);
+    long[] t = new long[2];
+    Thread thread = new Thread( () -> {
+      t[0] = System.nanoTime();
+      graph.graph_mark_cycles( root_list(width) ,-1 ,false );
+      t[1] = System.nanoTime();
+    });
+    thread.setDaemon(true);
+    thread.start();
+    thread.join(time_limit_ms);
+    if( thread.isAlive() ) return "did not finish in " + time_limit_ms + " ms";
+    return String.format("%10.3f ms" ,(t[1] - t[0]) / 1e6);
+  }
+
+  public static void main(String[] args) throws InterruptedException{
+    int[] depth_list = {4 ,8 ,16 ,32 ,1024 ,8192 ,65536};
+    int[] width_list = {2 ,16};
+
+    // lookup is chatty, so the report gets the real stdout and the graph code
+    // gets nothing
+    PrintStream report = System.out;
+    System.setOut( new PrintStream(OutputStream.nullOutputStream()) );
+
+    report.println("SCC engine");
+    report.println("depth width cycle nodes | time result");
+    for( int width : width_list ){
+      for( int depth : depth_list ){
+        for( boolean cycle : new boolean[]{false ,true} ){
+          report.println(
+            depth + " " + width + " " + cycle + " " + depth * width
+            + " | " + time_SCC(depth ,width ,cycle)
+          );
+        }
+      }
+    }
+
+    // an abandoned descent keeps running, so these go last
+    report.println("leftmost descent");
+    report.println("depth width cycle nodes | time");
+    for( int depth : new int[]{4 ,8 ,16 ,32} ){
+      for( boolean cycle : new boolean[]{false ,true} ){
+        report.println(
+          depth + " 2 " + cycle + " " + depth * 2
+          + " | " + time_descent(depth ,2 ,cycle)
+        );
+      }
+    }
+  }
+
+}
@@ -0,0 +1,440 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Generates large synthetic graphs, for measuring how the analyses scale.
+
+  The graph is layered: the `node_count` nodes are split into `depth` levels of
+  equal width, numbered in order, and an edge goes from a node to a node of the
+  next level. Level 0 are the roots, the last level the leaves.
+
+    fan out      each node picks its count of neighbors from a distribution,
+                 fixed, uniform over 0 .. 2 * mean, or a power law with the given
+                 mean, so a few nodes have very many neighbors, capped at
+                 `fan_out_max`
+
+    reachable    each node of level i + 1 is first given a parent in level i, so
+                 every node is reachable from the roots. The other neighbors are
+                 picked at random from the next level.
+
+    diamonds     with probability `diamond_density`, a neighbor is instead picked
+                 from the neighbors of a sibling, i.e. a node with the same
+                 parent, so that two paths from the parent meet again
+
+    cycles       `cycle_count` nodes are given an extra edge back to an ancestor
+                 on their parent chain, each closing a cycle
+
+    productions  with probability `production_share`, an interior node is left
+                 out of the node map, and is made on lookup by a production
+                 keyed on the "p/" label prefix
+
+  The same seed and settings give the same graph. The structure is kept in int
+  arrays, so a graph of tens of millions of nodes can be generated, and then
+  handed over as a GraphCompact without making a Node per node. `node_map`
+  and `production_list` give the same graph in the HashMap form.
+
+  Labels are "n_<id>" for nodes in the map, and "p/n_<id>" for produced nodes.
+  Leaves are typed "leaf", other nodes "symbol". After `leaf_files_write`, leaf
+  labels are the paths of files in the given directory.
+
+  This is benchmark code rather than part of the library. It is compiled with
+  the other benchmarks by `developer/tool/benchmark` and `developer/tool/jmh`,
+  and is not in Ariadne.jar.
+*/
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+public class GraphGenerator{
+
+  public static final int fan_out_fixed = 0;
+  public static final int fan_out_uniform = 1;
+  public static final int fan_out_power_law = 2;
+
+  public static final String production_prefix = "p/";
+
+  // leaf files are spread over subdirectories of this many files
+  private static final int leaf_directory_width = 4096;
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public GraphGenerator(long seed ,int node_count ,int depth){
+    if(node_count < 1) throw new IllegalArgumentException("GraphGenerator: node_count must be at least 1");
+    if(depth < 1) throw new IllegalArgumentException("GraphGenerator: depth must be at least 1");
+    this.seed = seed;
+    this.node_count = node_count;
+    this.depth = Math.min(depth ,node_count);
+    this.width = (node_count + this.depth - 1) / this.depth;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private final long seed;
+  private final int node_count;
+  private final int depth;
+  private final int width;
+
+  private int fan_out_kind = fan_out_fixed;
+  private double fan_out_mean = 2;
+  private int fan_out_max = 1024;
+  private double diamond_density = 0;
+  private int cycle_count = 0;
+  private double production_share = 0;
+
+  // the generated structure, null until `generate` has run
+  private int[] neighbor_offset = null;
+  private int[] neighbor_target = null;
+  private int edge_count = 0;
+  private BitSet cycle_source_set;
+  private BitSet produced_set;
+
+  private Path leaf_directory = null;
+
+  // settings change the graph, so they drop a generated one
+
+  public void fan_out(int kind ,double mean){
+    if(kind < fan_out_fixed || kind > fan_out_power_law){
+      throw new IllegalArgumentException("GraphGenerator: unknown fan out kind " + kind);
+    }
+    this.fan_out_kind = kind;
+    this.fan_out_mean = Math.max(0 ,mean);
+    neighbor_offset = null;
+  }
+
+  public void fan_out_max(int fan_out_max){
+    this.fan_out_max = Math.max(1 ,fan_out_max);
+    neighbor_offset = null;
+  }
+
+  public void diamond_density(double diamond_density){
+    this.diamond_density = diamond_density;
+    neighbor_offset = null;
+  }
+
+  public void cycle_count(int cycle_count){
+    this.cycle_count = Math.max(0 ,cycle_count);
+    neighbor_offset = null;
+  }
+
+  public void production_share(double production_share){
+    this.production_share = production_share;
+    neighbor_offset = null;
+  }
+
+  public long seed(){
+    return seed;
+  }
+
+  public int node_count(){
+    return node_count;
+  }
+
+  public int depth(){
+    return depth;
+  }
+
+  public int edge_count(){
+    generate();
+    return edge_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    levels
+  */
+
+  private int level(int id){
+    return id / width;
+  }
+
+  private int level_begin(int level){
+    return Math.min(level * width ,node_count);
+  }
+
+  private int level_end(int level){
+    return Math.min( (level + 1) * width ,node_count );
+  }
+
+  /*--------------------------------------------------------------------------------
+    generation
+  */
+
+  private int fan_out_sample(SplittableRandom random){
+    int fan_out;
+    switch(fan_out_kind){
+      case fan_out_uniform:
+        fan_out = random.nextInt( (int)Math.round(2 * fan_out_mean) + 1 );
+        break;
+      case fan_out_power_law:
+        // Pareto with exponent 2, of which the mean is twice the minimum
+        double minimum = fan_out_mean / 2;
+        fan_out = (int)( minimum / Math.sqrt(1 - random.nextDouble()) );
+        break;
+      default:
+        fan_out = (int)Math.round(fan_out_mean);
+    }
+    return Math.min(fan_out ,fan_out_max);
+  }
+
+  private void edge_add(int target){
+    if(edge_count == neighbor_target.length){
+      neighbor_target = Arrays.copyOf( neighbor_target ,(int)Math.min( 2L * neighbor_target.length ,Integer.MAX_VALUE - 8 ) );
+    }
+    neighbor_target[edge_count++] = target;
+  }
+
+  private boolean edge_q(int edge_begin ,int target){
+    for( int edge_i = edge_begin; edge_i < edge_count; edge_i++ ){
+      if(neighbor_target[edge_i] == target) return true;
+    }
+    return false;
+  }
+
+  // a neighbor in the level below that of a sibling of `id`, or -1 if there is none yet
+  private int sibling_neighbor(int id ,int[] parent ,SplittableRandom random){
+    int parent_id = parent[id];
+    if(parent_id < 0) return -1;
+    int parent_degree = neighbor_offset[parent_id + 1] - neighbor_offset[parent_id];
+    if(parent_degree == 0) return -1;
+    int sibling = neighbor_target[ neighbor_offset[parent_id] + random.nextInt(parent_degree) ];
+    // only siblings before `id` have their neighbors yet
+    if( sibling >= id || level(sibling) != level(id) ) return -1;
+    int sibling_degree = neighbor_offset[sibling + 1] - neighbor_offset[sibling];
+    if(sibling_degree == 0) return -1;
+    int target = neighbor_target[ neighbor_offset[sibling] + random.nextInt(sibling_degree) ];
+    return ( level(target) == level(id) + 1 ) ? target : -1;
+  }
+
+  /*
+    Fills in the neighbor arrays, level by level. Before the nodes of a level
+    are given their neighbors, each node of the next level is given a parent in
+    this one, and the children of each parent are bucketed.
+  */
+  public void generate(){
+    if(neighbor_offset != null) return;
+    SplittableRandom random = new SplittableRandom(seed);
+
+    cycle_source_set = new BitSet(node_count);
+    if( depth > 1 ){
+      int candidate_count = node_count - width;
+      for( int i = 0; i < Math.min(cycle_count ,candidate_count); ){
+        int id = width + random.nextInt(candidate_count);
+        if( !cycle_source_set.get(id) ){
+          cycle_source_set.set(id);
+          i++;
+        }
+      }
+    }
+    produced_set = new BitSet(node_count);
+    if( production_share > 0 ){
+      for( int id = level_end(0); id < level_begin(depth - 1); id++ ){
+        if( random.nextDouble() < production_share ) produced_set.set(id);
+      }
+    }
+
+    int[] parent = new int[node_count];
+    Arrays.fill(parent ,-1);
+    neighbor_offset = new int[node_count + 1];
+    neighbor_target = new int[ (int)Math.min( (long)Math.ceil(node_count * (fan_out_mean + 1)) + 16 ,Integer.MAX_VALUE - 8 ) ];
+    edge_count = 0;
+
+    for( int level = 0; level < depth; level++ ){
+      int begin = level_begin(level);
+      int end = level_end(level);
+      int next_begin = level_begin(level + 1);
+      int next_end = level_end(level + 1);
+      int next_width = next_end - next_begin;
+
+      // parents for the next level, and the children of each node of this level
+      int[] child_offset = new int[end - begin + 1];
+      int[] child = new int[next_width];
+      for( int id = next_begin; id < next_end; id++ ){
+        parent[id] = begin + random.nextInt(end - begin);
+        child_offset[ parent[id] - begin + 1 ]++;
+      }
+      for( int i = 0; i < end - begin; i++ ) child_offset[i + 1] += child_offset[i];
+      int[] child_fill = Arrays.copyOf(child_offset ,child_offset.length);
+      for( int id = next_begin; id < next_end; id++ ) child[ child_fill[ parent[id] - begin ]++ ] = id;
+
+      for( int id = begin; id < end; id++ ){
+        neighbor_offset[id] = edge_count;
+        int edge_begin = edge_count;
+        for( int i = child_offset[id - begin]; i < child_offset[id - begin + 1]; i++ ) edge_add( child[i] );
+        if(next_width > 0){
+          int extra_count = Math.min( fan_out_sample(random) ,next_width ) - (edge_count - edge_begin);
+          for( int i = 0; i < extra_count; i++ ){
+            int target = -1;
+            if( diamond_density > 0 && random.nextDouble() < diamond_density ) target = sibling_neighbor(id ,parent ,random);
+            if(target < 0) target = next_begin + random.nextInt(next_width);
+            if( !edge_q(edge_begin ,target) ) edge_add(target);
+          }
+        }
+        if( cycle_source_set.get(id) ){
+          int ancestor = parent[id];
+          int step_count = random.nextInt(level);
+          while( step_count-- > 0 && parent[ancestor] >= 0 ) ancestor = parent[ancestor];
+          edge_add(ancestor);
+        }
+      }
+    }
+    neighbor_offset[node_count] = edge_count;
+    // a node left without neighbors is a leaf, and leaves are not produced
+    for( int id = produced_set.nextSetBit(0); id >= 0; id = produced_set.nextSetBit(id + 1) ){
+      if( neighbor_offset[id] == neighbor_offset[id + 1] ) produced_set.clear(id);
+    }
+
+    if(debug) System.out.println("GraphGenerator.generate:: " + this);
+  }
+
+  /*--------------------------------------------------------------------------------
+    the generated graph
+  */
+
+  public boolean leaf_q(int id){
+    generate();
+    return neighbor_offset[id] == neighbor_offset[id + 1];
+  }
+
+  public boolean produced_q(int id){
+    generate();
+    return produced_set.get(id);
+  }
+
+  public Label label(int id){
+    if( leaf_directory != null && leaf_q(id) ) return new Label( leaf_fp(leaf_directory ,id).toString() );
+    if( produced_q(id) ) return new Label(production_prefix + "n_" + id);
+    return new Label("n_" + id);
+  }
+
+  private Node node(int id){
+    Node node = new Node();
+    node.put( "type" ,leaf_q(id) ? "leaf" : "symbol" );
+    LabelList neighbor_list = node.neighbor_LabelList();
+    for( int edge_i = neighbor_offset[id]; edge_i < neighbor_offset[id + 1]; edge_i++ ){
+      neighbor_list.add( label(neighbor_target[edge_i]) );
+    }
+    return node;
+  }
+
+  public LabelList root_list(){
+    generate();
+    LabelList root_list = new LabelList();
+    for( int id = 0; id < level_end(0); id++ ) root_list.add( label(id) );
+    return root_list;
+  }
+
+  // the nodes not made by the production
+  public Map<Label ,Node> node_map(){
+    generate();
+    Map<Label ,Node> node_map = new HashMap<>( (int)Math.min( 2L * node_count ,1 << 30 ) );
+    for( int id = 0; id < node_count; id++ ){
+      if( !produced_set.get(id) ) node_map.put( label(id) ,node(id) );
+    }
+    return node_map;
+  }
+
+  // makes the produced nodes, from the label
+  public ProductionList production_list(){
+    generate();
+    ProductionList production_list = new ProductionList();
+    production_list.add(
+      Production.keyed(
+        ProductionKey.prefix(production_prefix + "n_")
+        ,node_label -> {
+          int id;
+          try{
+            id = Integer.parseInt( node_label.get().substring( production_prefix.length() + 2 ) );
+          }catch(NumberFormatException e){
+            return null;
+          }
+          if( id < 0 || id >= node_count || !produced_set.get(id) ) return null;
+          return node(id);
+        }
+      )
+    );
+    return production_list;
+  }
+
+  /*
+    The whole graph as a GraphCompact, produced nodes included, with node ids
+    equal to the generator ids. Only the labels are made per node.
+  */
+  public GraphCompact compact(){
+    generate();
+    Label[] label_array = new Label[node_count];
+    byte[] type_code = new byte[node_count];
+    List<Token> type_token_list = new ArrayList<>( List.of(Token.intern("") ,Token.symbol ,Token.leaf) );
+    for( int id = 0; id < node_count; id++ ){
+      label_array[id] = label(id);
+      type_code[id] = (byte)( leaf_q(id) ? 2 : 1 );
+    }
+    return new GraphCompact(
+      label_array
+      ,node_count
+      ,type_code
+      ,type_token_list
+      ,Arrays.copyOf(neighbor_offset ,neighbor_offset.length)
+      ,Arrays.copyOf(neighbor_target ,edge_count)
+    );
+  }
+
+  /*--------------------------------------------------------------------------------
+    leaf files
+  */
+
+  private static Path leaf_fp(Path directory ,int id){
+    return directory.resolve( Integer.toString(id / leaf_directory_width) ).resolve("n_" + id);
+  }
+
+  /*
+    Writes a small file for each leaf under `directory`, and from then on labels
+    the leaves with the file paths. Returns the count of files written.
+  */
+  public int leaf_files_write(Path directory) throws IOException{
+    generate();
+    int file_count = 0;
+    int subdirectory = -1;
+    for( int id = 0; id < node_count; id++ ){
+      if( !leaf_q(id) ) continue;
+      Path fp = leaf_fp(directory ,id);
+      if( id / leaf_directory_width != subdirectory ){
+        subdirectory = id / leaf_directory_width;
+        Files.createDirectories( fp.getParent() );
+      }
+      Files.write( fp ,("leaf " + id + "\n").getBytes(StandardCharsets.UTF_8) );
+      file_count++;
+    }
+    leaf_directory = directory;
+    return file_count;
+  }
+
+  public Path leaf_directory(){
+    return leaf_directory;
+  }
+
+  @Override
+  public String toString(){
+    return
+      "GraphGenerator(seed " + seed
+      + " ,nodes " + node_count
+      + " ,depth " + depth
+      + " ,edges " + ( (neighbor_offset == null) ? "-" : Integer.toString(edge_count) )
+      + " ,cycles " + cycle_count
+      + " ,produced " + ( (produced_set == null) ? "-" : Integer.toString(produced_set.cardinality()) )
+      + ")";
+  }
+
+}
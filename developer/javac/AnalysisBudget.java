@@ -0,0 +1,114 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A bound on the work a graph analysis may do.
+
+  `max_depth` bounds only the length of one descent path. A graph that is wide
+  rather than deep, or productions that are slow, can still keep an analysis
+  running for as long as they like. A budget instead bounds the total count of
+  nodes visited, edges followed, and production calls, and the wall clock time.
+
+  The traversals charge the budget as they go, and stop when it is exhausted,
+  returning what they have found so far with the `budget_exhausted` token. So
+  cancellation is cooperative: `cancel` from another thread exhausts the budget,
+  and the traversal stops at its next charge.
+
+  A limit <= 0 is no limit. Node and edge charges read the clock only every
+  `clock_stride` charges of their kind, so such a charge is an increment and a
+  compare. A production call may run for any length of time, so each production
+  charge reads the clock.
+
+  A budget is used up by one analysis at a time, but that analysis may charge it
+  from several threads, e.g. CycleMarkParallel, so the counts are atomic.
+*/
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AnalysisBudget{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public AnalysisBudget(long node_limit ,long edge_limit ,long production_limit ,long time_limit_ms){
+    this.node_limit = node_limit;
+    this.edge_limit = edge_limit;
+    this.production_limit = production_limit;
+    this.deadline_ns = (time_limit_ms > 0) ? System.nanoTime() + time_limit_ms * 1_000_000L : 0;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static final int clock_stride = 256;
+
+  private final long node_limit;
+  private final long edge_limit;
+  private final long production_limit;
+  private final long deadline_ns;
+
+  private final AtomicLong node_count = new AtomicLong();
+  private final AtomicLong edge_count = new AtomicLong();
+  private final AtomicLong production_count = new AtomicLong();
+
+  // set once, by a limit or by `cancel`
+  private volatile boolean exhausted = false;
+
+  /*--------------------------------------------------------------------------------
+    interface
+  */
+
+  // each returns false when the budget is exhausted
+  public boolean node_q(){
+    long count = node_count.incrementAndGet();
+    if( count > node_limit && node_limit > 0 ) exhausted = true;
+    return tick( count % clock_stride == 0 );
+  }
+
+  public boolean edge_q(){
+    long count = edge_count.incrementAndGet();
+    if( count > edge_limit && edge_limit > 0 ) exhausted = true;
+    return tick( count % clock_stride == 0 );
+  }
+
+  public boolean production_q(){
+    if( production_count.incrementAndGet() > production_limit && production_limit > 0 ) exhausted = true;
+    return tick(true);
+  }
+
+  private boolean tick(boolean clock_q){
+    if( clock_q && deadline_ns != 0 && System.nanoTime() - deadline_ns > 0 ) exhausted = true;
+    return !exhausted;
+  }
+
+  public boolean exhausted_q(){
+    return exhausted;
+  }
+
+  public void cancel(){
+    exhausted = true;
+  }
+
+  public long node_count(){
+    return node_count.get();
+  }
+
+  public long edge_count(){
+    return edge_count.get();
+  }
+
+  public long production_count(){
+    return production_count.get();
+  }
+
+  @Override
+  public String toString(){
+    return
+      "AnalysisBudget{nodes=" + node_count.get() + "/" + node_limit
+      + ", edges=" + edge_count.get() + "/" + edge_limit
+      + ", productions=" + production_count.get() + "/" + production_limit
+      + ", exhausted=" + exhausted + "}";
+  }
+
+}
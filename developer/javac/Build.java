@@ -0,0 +1,373 @@
+package com.ReasoningTechnology.Ariadne;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+public class Build {
+
+    // In a build server, the graph marked up for the last request, kept while the
+    // definition class file and the roots are unchanged. The nodes made by
+    // productions are made again for each request.
+    private static boolean resident = false;
+    private static String residentKey = null;
+    private static GraphDirectedAcyclic residentGraph = null;
+
+    // Loads the definition classes from the working directory before asking the
+    // parent, so that a server sees a recompiled definition. Ariadne classes come
+    // from the parent, so that the definition and the server share them.
+    static class DefinitionClassLoader extends URLClassLoader {
+        DefinitionClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loadedClass = findLoadedClass(name);
+                if (loadedClass == null && !name.startsWith("java.") && !name.startsWith("com.ReasoningTechnology.Ariadne.")) {
+                    try {
+                        loadedClass = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        loadedClass = null;
+                    }
+                }
+                if (loadedClass == null) return super.loadClass(name, resolve);
+                if (resolve) resolveClass(loadedClass);
+                return loadedClass;
+            }
+        }
+    }
+
+    // Function to load the graph class dynamically
+    public static Class<?> includeAClass(String aClassFp) {
+        ClassLoader classLoader = Build.class.getClassLoader();
+        if (resident) {
+            try {
+                classLoader = new DefinitionClassLoader(new URL[]{Paths.get("").toUri().toURL()}, classLoader);
+            } catch (Exception e) {
+                System.out.println("Error making a class loader for the working directory: " + e.getMessage());
+            }
+        }
+        String className = aClassFp.replace('/', '.').replace(".class", "");
+        try {
+            return classLoader.loadClass(className);
+        } catch (Exception e) {
+            System.out.println("Error loading class '" + className + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Build function
+    public static int build(String graphDefinitionFp, List<String> rootNodeLabels, int workerCount, String buildDatabaseFp, String snapshotFp, String traceFp, String historyFp, boolean watch) {
+        // Print summary of what we are doing
+        System.out.println("build:: Building targets for graph '" + graphDefinitionFp + ".class'");
+        if (rootNodeLabels.isEmpty()) {
+            System.out.println("No build targets specified. Please provide root node labels to build.");
+            return 0;
+        }
+        System.out.println("Building targets: " + String.join(", ", rootNodeLabels));
+
+        // Load the dependency graph class from arg[1]
+        Class<?> graphDefinitionClass = includeAClass(graphDefinitionFp);
+        if (graphDefinitionClass != null) {
+            System.out.println("build:: loaded " + graphDefinitionFp + ".class");
+        } else {
+            System.out.println("build:: failed to load " + graphDefinitionFp + ".class");
+            return 1;
+        }
+
+        // A server reuses the graph it marked up for the same definition and roots
+        String key = null;
+        if (resident) {
+            try {
+                key = graphDefinitionFp + "\n" + String.join("\n", rootNodeLabels) + "\n" + Arrays.toString(GraphSnapshot.fingerprint(graphDefinitionClass));
+            } catch (Exception e) {
+                key = null;
+            }
+            if (key != null && key.equals(residentKey)) {
+                System.out.println("build:: definition unchanged, reusing the resident graph");
+                LabelList rootNodeLabelList = new LabelList();
+                for (String rootNodeLabel : rootNodeLabels) rootNodeLabelList.add(new Label(rootNodeLabel));
+                producedReset(residentGraph, rootNodeLabelList);
+                buildFailedClear(residentGraph, rootNodeLabelList);
+                return runBuilds(residentGraph, rootNodeLabelList, workerCount, buildDatabaseFp, traceFp, historyFp, watch);
+            }
+        }
+
+        // A snapshot made from the same definition class stands in for evaluating
+        // the node map and marking its cycles
+        byte[] fingerprint = null;
+        GraphCompact snapshotGraph = null;
+        if (snapshotFp != null) {
+            try {
+                fingerprint = GraphSnapshot.fingerprint(graphDefinitionClass);
+                snapshotGraph = GraphSnapshot.read(Paths.get(snapshotFp), fingerprint);
+            } catch (Exception e) {
+                System.out.println("build:: could not read snapshot, evaluating the definition: " + e.getMessage());
+            }
+            System.out.println("build:: snapshot " + (snapshotGraph != null ? "used" : "is stale or missing"));
+        }
+
+        // Get the node_map and node_f_list from the graph class
+        // Assuming these methods are static and return the appropriate types
+        // Replace with actual method calls if they are different
+        Object nodeMap = null;
+        Object nodeFList = null;
+        Object buildResolver = null;
+        try {
+            nodeFList = graphDefinitionClass.getMethod("getNodeFList").invoke(null);
+            // a definition may give its build functions by label, so that a
+            // snapshot run need not make the node map at all
+            if (snapshotGraph != null) {
+                try {
+                    buildResolver = graphDefinitionClass.getMethod("getBuildResolver").invoke(null);
+                } catch (NoSuchMethodException e) {
+                    buildResolver = null;
+                }
+            }
+            if (snapshotGraph == null || buildResolver == null) {
+                nodeMap = graphDefinitionClass.getMethod("getNodeMap").invoke(null);
+            }
+        } catch (Exception e) {
+            System.out.println("Error invoking methods on graphDefinitionClass: " + e.getMessage());
+            return 1;
+        }
+        System.out.println("node_map: " + nodeMap);
+        System.out.println("node_f_list: " + nodeFList);
+
+        // Mark up the graph, then run the build scripts on `workerCount` workers
+        try {
+            LabelList rootNodeLabelList = new LabelList();
+            for (String rootNodeLabel : rootNodeLabels) rootNodeLabelList.add(new Label(rootNodeLabel));
+            GraphDirectedAcyclic graph;
+            if (snapshotGraph != null) {
+                if (buildResolver != null) {
+                    @SuppressWarnings("unchecked")
+                    Function<Label, Runnable> resolver = (Function<Label, Runnable>) buildResolver;
+                    GraphSnapshot.build_bind(snapshotGraph, resolver);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Map<Label, Node> definedNodeMap = (Map<Label, Node>) nodeMap;
+                    GraphSnapshot.build_bind(snapshotGraph, label -> {
+                        Node node = definedNodeMap.get(label);
+                        Object buildF = (node == null) ? null : node.get("build");
+                        return (buildF instanceof Runnable) ? (Runnable) buildF : null;
+                    });
+                }
+                graph = new GraphDirectedAcyclic(snapshotGraph, (ProductionList) nodeFList, rootNodeLabelList);
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<Label, Node> definedNodeMap = (Map<Label, Node>) nodeMap;
+                graph = new GraphDirectedAcyclic(definedNodeMap, (ProductionList) nodeFList, rootNodeLabelList);
+                if (snapshotFp != null && fingerprint != null) {
+                    GraphSnapshot.write(Paths.get(snapshotFp), fingerprint, GraphSnapshot.marked(definedNodeMap));
+                }
+            }
+            if (key != null) {
+                residentKey = key;
+                residentGraph = graph;
+            }
+            return runBuilds(graph, rootNodeLabelList, workerCount, buildDatabaseFp, traceFp, historyFp, watch);
+        } catch (Exception e) {
+            System.out.println("Error creating or building GraphDirectedAcyclic: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // Runs the build scripts on a marked up graph
+    static int runBuilds(GraphDirectedAcyclic graph, LabelList rootNodeLabelList, int workerCount, String buildDatabaseFp, String traceFp, String historyFp, boolean watch) {
+        // a production may recognize a label now that it did not while the graph was marked up
+        if (graph.lookup_cache() != null) graph.lookup_cache().negative_clear();
+        try {
+            BuildParallel buildParallel = new BuildParallel(graph, workerCount);
+            if (traceFp != null) buildParallel.build_trace(new BuildTrace());
+            TokenSet errorTokenSet = new TokenSet();
+            // with a history of build durations, the longest chains are started first
+            try (DurationHistory durationHistory = (historyFp == null) ? null : new DurationHistory(Paths.get(historyFp))) {
+                buildParallel.duration_history(durationHistory);
+                if (buildDatabaseFp == null) {
+                    graph.build_database(null);
+                    errorTokenSet = runBuild(graph, buildParallel, rootNodeLabelList, watch);
+                } else {
+                    // up to date checks compare content digests instead of mtimes
+                    try (BuildDatabase buildDatabase = new BuildDatabase(Paths.get(buildDatabaseFp))) {
+                        graph.build_database(buildDatabase);
+                        errorTokenSet = runBuild(graph, buildParallel, rootNodeLabelList, watch);
+                    } finally {
+                        graph.build_database(null);
+                    }
+                }
+            }
+            if (traceFp != null) {
+                buildParallel.build_trace().chrome_trace_write(Paths.get(traceFp));
+                System.out.print(buildParallel.build_trace().report(10));
+                System.out.println("build:: trace written to " + traceFp);
+            }
+            return errorTokenSet.isEmpty() ? 0 : 1;
+        } catch (Exception e) {
+            System.out.println("Error building GraphDirectedAcyclic: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // A resident graph outlives the files its productions look at, so the nodes
+    // they made are made again, and the cycles are marked again, as they may
+    // now pass through other produced nodes
+    static void producedReset(GraphDirectedAcyclic graph, LabelList rootNodeLabelList) {
+        if (graph.recognizer_f_list().isEmpty()) return;
+        graph.produced_forget();
+        graph.mark_clear_all(Token.cycle_member);
+        graph.graph_mark_cycles(rootNodeLabelList);
+    }
+
+    // A resident graph keeps its marks, so the nodes that failed last time are tried again
+    static void buildFailedClear(GraphDirectedAcyclic graph, LabelList rootNodeLabelList) {
+        Set<Label> visitedSet = new HashSet<>();
+        Deque<Label> stack = new ArrayDeque<>(rootNodeLabelList);
+        while (!stack.isEmpty()) {
+            Label nodeLabel = stack.pop();
+            if (!visitedSet.add(nodeLabel)) continue;
+            Node node = graph.lookup(nodeLabel, false);
+            if (node == null) continue;
+            node.clear_mark(Token.build_failed);
+            stack.addAll(node.neighbor_LabelList());
+        }
+    }
+
+    // Runs the build once, or with `watch`, keeps rebuilding as files change until interrupted
+    static TokenSet runBuild(GraphDirectedAcyclic graph, BuildParallel buildParallel, LabelList rootNodeLabelList, boolean watch) throws java.io.IOException {
+        if (!watch) return buildParallel.run_build_scripts_f(rootNodeLabelList);
+        BuildWatch buildWatch = new BuildWatch(graph, buildParallel, rootNodeLabelList);
+        Thread stopHook = new Thread(buildWatch::stop);
+        Runtime.getRuntime().addShutdownHook(stopHook);
+        try {
+            buildWatch.run();
+        } finally {
+            // the watch may also end by an interrupt, while the JVM carries on
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+        return new TokenSet();
+    }
+
+    // Entry point when run as a script
+    public static void main(String[] args) {
+        System.exit(command(List.of(args), Paths.get(".ariadne")));
+    }
+
+    // Runs a command line, returns the exit status
+    //
+    // `--server` starts a build server for the working directory, which then
+    // serves the `build` commands run there, see BuildServer, and returns when
+    // it is stopped. Without a server, or with `--no-server`, the build runs in
+    // this process.
+    public static int command(List<String> args, Path stateDirectory) {
+        List<String> argList = new ArrayList<>(args);
+
+        if (argList.remove("--server")) {
+            resident = true;
+            BuildServer buildServer = new BuildServer(stateDirectory, Build::run);
+            Thread stopHook = new Thread(buildServer::stop);
+            Runtime.getRuntime().addShutdownHook(stopHook);
+            try {
+                buildServer.run();
+                return 0;
+            } catch (Exception e) {
+                System.out.println("build:: server failed: " + e.getMessage());
+                return 1;
+            } finally {
+                resident = false;
+                residentKey = null;
+                residentGraph = null;
+                try {
+                    Runtime.getRuntime().removeShutdownHook(stopHook);
+                } catch (IllegalStateException e) {
+                    // already shutting down
+                }
+            }
+        }
+
+        // a watch is long running itself, so it is not handed to a server
+        boolean serverAllowed = !argList.remove("--no-server") && !argList.contains("--watch");
+        if (serverAllowed) {
+            int status = BuildServer.request(stateDirectory, argList, System.out);
+            if (status >= 0) return status;
+        }
+        if (argList.equals(List.of(BuildServer.stop_argument))) {
+            System.out.println("build:: no server is running here");
+            return 0;
+        }
+        return run(argList);
+    }
+
+    static final String usage = "Usage: ./build [--server | --server-stop | --no-server] [-j N] [--content-hash <db_fp>] [--snapshot <fp>] [--trace <fp>] [--history <fp>] [--watch] <graph_definition.class> [root_node_labels...]";
+
+    // Removes `option <fp>` from argList and returns the fp, or null when the
+    // option is not given. Throws IllegalArgumentException when no fp follows
+    // the option, so that it is not taken for the graph definition.
+    static String optionValue(List<String> argList, String option) {
+        int optionIndex = argList.indexOf(option);
+        if (optionIndex < 0) return null;
+        if (optionIndex + 1 >= argList.size() || argList.get(optionIndex + 1).startsWith("--")) {
+            throw new IllegalArgumentException("build:: " + option + " needs a file path");
+        }
+        argList.remove(optionIndex);
+        return argList.remove(optionIndex);
+    }
+
+    // Parses the build arguments and builds, returns the exit status
+    public static int run(List<String> args) {
+        // `-j N` sets the number of build workers, default is one per processor
+        List<String> argList = new ArrayList<>(args);
+        int workerCount;
+        try {
+            workerCount = BuildParallel.worker_count_parse(argList);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        // `--content-hash <db_fp>` checks path nodes by content digest, recorded in db_fp
+        // `--snapshot <fp>` keeps the marked up graph in fp, reused while the definition is unchanged
+        // `--trace <fp>` writes a Chrome trace of the build to fp, and reports the critical path
+        // `--history <fp>` keeps node build durations in fp, and schedules the longest chains first
+        String buildDatabaseFp, snapshotFp, traceFp, historyFp;
+        try {
+            buildDatabaseFp = optionValue(argList, "--content-hash");
+            snapshotFp = optionValue(argList, "--snapshot");
+            traceFp = optionValue(argList, "--trace");
+            historyFp = optionValue(argList, "--history");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.out.println(usage);
+            return 1;
+        }
+
+        // `--watch` keeps the graph loaded, and rebuilds what depends upon each changed file
+        boolean watch = argList.remove("--watch");
+
+        if (argList.isEmpty()) {
+            System.out.println(usage);
+            return 1;
+        }
+
+        // Get graph definition file and root node labels
+        String graphDefinitionFp = argList.get(0);
+        List<String> rootNodeLabels = argList.subList(1, argList.size());
+        return build(graphDefinitionFp, rootNodeLabels, workerCount, buildDatabaseFp, snapshotFp, traceFp, historyFp, watch);
+    }
+}
@@ -0,0 +1,414 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Persistent record of file content digests, for content based up to date checks.
+
+  The mtime check, `File.newer_than_all`, rebuilds a target whenever a
+  dependency has a newer mtime, so a branch switch or a `touch` causes a
+  rebuild even when no content changed. Clock skew between machines can also
+  cause a needed rebuild to be missed.
+
+  With a BuildDatabase, a path node is up to date when its target exists, and
+  both the digest of its dependencies and the digest of the target are the same
+  as when the node was last built. mtimes are still used, but only to decide
+  whether a file must be read again: a file is rehashed only when its size or
+  mtime differ from those recorded with its digest. A file modified within
+  `racy_window_ms` of being hashed might be modified again with no visible change
+  of mtime, so its stats are not recorded, and it is hashed again next time.
+
+  The database is a single file, memory mapped, that records are appended to.
+  A later record for a label replaces an earlier one, and `forget` appends a
+  tombstone, so a forgotten node stays forgotten after the file is read again.
+  On open the records are read into maps keyed by interned label. `compact`
+  rewrites the file with only the live records, and is run on open and on close
+  when more than half of the records are dead.
+
+  Each record ends with a CRC-32 of its body. A process that dies mid append can
+  leave a torn record at the end of the log. On open the log is read up to the
+  first record that is short, or fails its CRC, and is cut there, so what was
+  recorded before it is kept. A database is a cache, so a file of another
+  version is emptied rather than read.
+
+  File layout:
+
+    header   magic "ADB2"
+
+    record   int    record length in bytes, not counting this int, 0 ends the log
+             byte   kind, file_kind, node_kind or forget_kind
+             int    label length, then the label in UTF-8
+             file_kind:    long size ,long mtime_ms ,digest
+             node_kind:    input digest ,output digest
+             forget_kind:  nothing more
+             int    CRC-32 of the record from the kind up to here
+
+  A digest is SHA-256, 32 bytes.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class BuildDatabase implements AutoCloseable{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public BuildDatabase(Path db_fp) throws IOException{
+    this.db_fp = db_fp;
+    channel = FileChannel.open(
+      db_fp
+      ,StandardOpenOption.CREATE
+      ,StandardOpenOption.READ
+      ,StandardOpenOption.WRITE
+    );
+    long file_size = channel.size();
+    map( Math.max(file_size ,map_size_initial) );
+    if(file_size == 0){
+      buffer.put(magic);
+      return;
+    }
+    byte[] file_magic = new byte[magic.length];
+    buffer.get(file_magic);
+    if( Arrays.equals(file_magic ,magic_prior) ){
+      System.err.println("BuildDatabase: " + db_fp + " is of an earlier version, starting it over");
+      buffer.position(0);
+      buffer.put(magic);
+      buffer.putInt( buffer.position() ,0 );
+      return;
+    }
+    if( !Arrays.equals(file_magic ,magic) ){
+      throw new IOException("BuildDatabase: not a build database: " + db_fp);
+    }
+    load();
+    if( record_count > compact_record_min && record_count > 2 * live_count() ) compact();
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private static final byte[] magic = "ADB2".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] magic_prior = "ADB1".getBytes(StandardCharsets.US_ASCII);
+  private static final long map_size_initial = 1 << 16;
+  private static final int compact_record_min = 1024;
+  private static final byte file_kind = 1;
+  private static final byte node_kind = 2;
+  private static final byte forget_kind = 3;
+  public static final int digest_length = 32;
+  private static final long racy_window_ms = 2000;
+
+  private final Path db_fp;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+
+  private static class FileRecord{
+    final long size;
+    final long mtime_ms;
+    final byte[] digest;
+    FileRecord(long size ,long mtime_ms ,byte[] digest){
+      this.size = size;
+      this.mtime_ms = mtime_ms;
+      this.digest = digest;
+    }
+  }
+
+  private static class NodeRecord{
+    final byte[] input_digest;
+    final byte[] output_digest;
+    NodeRecord(byte[] input_digest ,byte[] output_digest){
+      this.input_digest = input_digest;
+      this.output_digest = output_digest;
+    }
+  }
+
+  private final Map<Label ,FileRecord> file_map = new HashMap<>();
+  private final Map<Label ,NodeRecord> node_map = new HashMap<>();
+  private int record_count = 0;
+  private long hash_count = 0;
+
+  /*--------------------------------------------------------------------------------
+    the log
+  */
+
+  // maps the file at `size` bytes, keeping the current position
+  private void map(long size) throws IOException{
+    int position = (buffer == null) ? 0 : buffer.position();
+    if(buffer != null) buffer.force();
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE ,0 ,size);
+    buffer.position(position);
+  }
+
+  // CRC-32 of `length` bytes of the log from `position`
+  private int crc(int position ,int length){
+    ByteBuffer body = buffer.duplicate();
+    body.limit(position + length);
+    body.position(position);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int)crc.getValue();
+  }
+
+  // the smallest record, a forget of the empty label
+  private static final int record_length_min = 1 + Integer.BYTES + Integer.BYTES;
+
+  private void load(){
+    while( buffer.remaining() >= Integer.BYTES ){
+      int record_start = buffer.position();
+      int record_length = buffer.getInt();
+      if(record_length == 0){
+        buffer.position(record_start);
+        break;
+      }
+      int body_length = record_length - Integer.BYTES;
+      if(
+         record_length < record_length_min
+         || record_length > buffer.remaining()
+         || crc(buffer.position() ,body_length) != buffer.getInt(buffer.position() + body_length)
+         || !record_read(body_length)
+         ){
+        // a torn or corrupt record, the log is cut here and appends go on from it
+        System.err.println("BuildDatabase: " + db_fp + " has a bad record at " + record_start + ", keeping the " + record_count + " records before it");
+        buffer.position(record_start);
+        buffer.putInt(record_start ,0);
+        break;
+      }
+      record_count++;
+      buffer.position( record_start + Integer.BYTES + record_length );
+    }
+    if(debug) System.out.println("BuildDatabase.load:: " + record_count + " records from " + db_fp);
+  }
+
+  // reads the record body at the position into the maps, false when it does not parse
+  private boolean record_read(int body_length){
+    int body_end = buffer.position() + body_length;
+    byte kind = buffer.get();
+    int label_length = buffer.getInt();
+    if( label_length < 0 || label_length > body_end - buffer.position() ) return false;
+    byte[] label_bytes = new byte[label_length];
+    buffer.get(label_bytes);
+    Label node_label = Label.intern( new String(label_bytes ,StandardCharsets.UTF_8) );
+    int rest_length = body_end - buffer.position();
+    if(kind == file_kind && rest_length == 2 * Long.BYTES + digest_length){
+      long size = buffer.getLong();
+      long mtime_ms = buffer.getLong();
+      file_map.put( node_label ,new FileRecord(size ,mtime_ms ,digest_get()) );
+      return true;
+    }
+    if(kind == node_kind && rest_length == 2 * digest_length){
+      byte[] input_digest = digest_get();
+      node_map.put( node_label ,new NodeRecord(input_digest ,digest_get()) );
+      return true;
+    }
+    if(kind == forget_kind && rest_length == 0){
+      node_map.remove(node_label);
+      return true;
+    }
+    return false;
+  }
+
+  private byte[] digest_get(){
+    byte[] digest = new byte[digest_length];
+    buffer.get(digest);
+    return digest;
+  }
+
+  private void append(byte kind ,Label node_label ,long size ,long mtime_ms ,byte[] digest_0 ,byte[] digest_1){
+    byte[] label_bytes = node_label.get().getBytes(StandardCharsets.UTF_8);
+    int record_length = 1 + Integer.BYTES + label_bytes.length
+      + ( (kind == file_kind) ? 2 * Long.BYTES + digest_length : (kind == node_kind) ? 2 * digest_length : 0 )
+      + Integer.BYTES;
+    try{
+      // room for the record and the terminating 0
+      long needed = (long)buffer.position() + Integer.BYTES + record_length + Integer.BYTES;
+      if( needed > buffer.capacity() ) map( Math.max(needed ,2L * buffer.capacity()) );
+    }catch(IOException e){
+      System.err.println("BuildDatabase: could not grow " + db_fp + ": " + e.getMessage());
+      return;
+    }
+    buffer.putInt(record_length);
+    int body_start = buffer.position();
+    buffer.put(kind);
+    buffer.putInt(label_bytes.length);
+    buffer.put(label_bytes);
+    if(kind == file_kind){
+      buffer.putLong(size);
+      buffer.putLong(mtime_ms);
+      buffer.put(digest_0);
+    }else if(kind == node_kind){
+      buffer.put(digest_0);
+      buffer.put(digest_1);
+    }
+    buffer.putInt( crc(body_start ,buffer.position() - body_start) );
+    buffer.putInt( buffer.position() ,0 );
+    record_count++;
+  }
+
+  /*--------------------------------------------------------------------------------
+    digests
+  */
+
+  private static MessageDigest digest_new(){
+    try{
+      return MessageDigest.getInstance("SHA-256");
+    }catch(NoSuchAlgorithmException e){
+      throw new IllegalStateException("BuildDatabase: SHA-256 is not available" ,e);
+    }
+  }
+
+  /*
+    Given a file path, returns the digest of its content, or null when it does
+    not exist. The file is read only when its size or mtime differ from those
+    recorded with the last digest.
+  */
+  public byte[] file_digest(Label fp_label ,FileStatCache stat_cache) throws IOException{
+    String fp_string = fp_label.get();
+    long size;
+    long mtime_ms;
+    if(stat_cache != null){
+      mtime_ms = stat_cache.last_modified_ms(fp_string);
+      size = stat_cache.size(fp_string);
+    }else{
+      Path fp_object = Paths.get(fp_string);
+      if( !Files.exists(fp_object) ) return null;
+      mtime_ms = Files.getLastModifiedTime(fp_object).toMillis();
+      size = Files.size(fp_object);
+    }
+    if(mtime_ms < 0) return null;
+
+    Label key = fp_label.intern();
+    synchronized(this){
+      FileRecord record = file_map.get(key);
+      if( record != null && record.size == size && record.mtime_ms == mtime_ms ) return record.digest;
+    }
+
+    MessageDigest digest = digest_new();
+    try( InputStream in = Files.newInputStream(Paths.get(fp_string)) ){
+      byte[] block = new byte[1 << 16];
+      int n;
+      while( (n = in.read(block)) > 0 ) digest.update(block ,0 ,n);
+    }
+    byte[] file_digest = digest.digest();
+
+    // a recently modified file might change again within the same mtime tick
+    if( System.currentTimeMillis() - mtime_ms < racy_window_ms ) mtime_ms = -1;
+
+    synchronized(this){
+      hash_count++;
+      file_map.put( key ,new FileRecord(size ,mtime_ms ,file_digest) );
+      append(file_kind ,key ,size ,mtime_ms ,file_digest ,null);
+    }
+    return file_digest;
+  }
+
+  // Digest over the label and content digest of each dependency, in order. Null if one is missing.
+  public byte[] input_digest(LabelList dependency_list ,FileStatCache stat_cache) throws IOException{
+    MessageDigest digest = digest_new();
+    for( Label dependency_label : dependency_list ){
+      byte[] file_digest = file_digest(dependency_label ,stat_cache);
+      if(file_digest == null) return null;
+      digest.update( dependency_label.get().getBytes(StandardCharsets.UTF_8) );
+      digest.update( (byte)0 );
+      digest.update(file_digest);
+    }
+    return digest.digest();
+  }
+
+  /*--------------------------------------------------------------------------------
+    interface
+  */
+
+  /*
+    True when the target exists, and neither it nor any dependency has changed
+    content since `record_build` was last called for it.
+  */
+  public boolean up_to_date_q(Label node_label ,LabelList dependency_list ,FileStatCache stat_cache) throws IOException{
+    NodeRecord record;
+    synchronized(this){
+      record = node_map.get( node_label.intern() );
+    }
+    if(record == null) return false;
+    byte[] output_digest = file_digest(node_label ,stat_cache);
+    if( output_digest == null || !Arrays.equals(output_digest ,record.output_digest) ) return false;
+    byte[] input_digest = input_digest(dependency_list ,stat_cache);
+    return input_digest != null && Arrays.equals(input_digest ,record.input_digest);
+  }
+
+  // Records the current dependency and target digests. Returns false if a file is missing.
+  public boolean record_build(Label node_label ,LabelList dependency_list ,FileStatCache stat_cache) throws IOException{
+    byte[] output_digest = file_digest(node_label ,stat_cache);
+    byte[] input_digest = input_digest(dependency_list ,stat_cache);
+    if( output_digest == null || input_digest == null ) return false;
+    Label key = node_label.intern();
+    synchronized(this){
+      node_map.put( key ,new NodeRecord(input_digest ,output_digest) );
+      append(node_kind ,key ,0 ,0 ,input_digest ,output_digest);
+    }
+    return true;
+  }
+
+  // Drops the record of the node, so it is not up to date until built again, also after a reopen.
+  public synchronized void forget(Label node_label){
+    Label key = node_label.intern();
+    if( node_map.remove(key) != null ) append(forget_kind ,key ,0 ,0 ,null ,null);
+  }
+
+  private int live_count(){
+    return file_map.size() + node_map.size();
+  }
+
+  // number of files read to compute a digest since open
+  public synchronized long hash_count(){
+    return hash_count;
+  }
+
+  /*
+    Rewrites the file with only the live records. The log grows by one record
+    each time a file or node changes, so this is worth doing when the record
+    count is well above the live count.
+  */
+  public synchronized void compact() throws IOException{
+    if( record_count <= live_count() ) return;
+    buffer.position(magic.length);
+    buffer.putInt( buffer.position() ,0 );
+    record_count = 0;
+    for( Map.Entry<Label ,FileRecord> entry : file_map.entrySet() ){
+      FileRecord record = entry.getValue();
+      append(file_kind ,entry.getKey() ,record.size ,record.mtime_ms ,record.digest ,null);
+    }
+    for( Map.Entry<Label ,NodeRecord> entry : node_map.entrySet() ){
+      NodeRecord record = entry.getValue();
+      append(node_kind ,entry.getKey() ,0 ,0 ,record.input_digest ,record.output_digest);
+    }
+    buffer.force();
+  }
+
+  public synchronized int record_count(){
+    return record_count;
+  }
+
+  @Override
+  public synchronized void close() throws IOException{
+    if(channel == null) return;
+    if( record_count > 2 * live_count() ) compact();
+    buffer.force();
+    channel.close();
+    channel = null;
+  }
+
+}
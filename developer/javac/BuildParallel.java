@@ -0,0 +1,669 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Runs the build scripts for a DAG on a pool of worker threads.
+
+  The sequential build walk (`all_DAG_DF` feeding `run_build_scripts_f` in the
+  deprecated Graph) reverses a depth first order, and then runs the build
+  scripts one at a time. Here instead a node is handed to the pool as soon as
+  all of its neighbor nodes (its dependencies) have finished, so independent
+  nodes build at the same time.
+
+  The pool is a work stealing ForkJoinPool with `worker_count` threads, i.e. the
+  `-j N` of the build command. When a worker finishes a node it forks each
+  dependent for which that node was the last outstanding dependency. Idle
+  workers steal the forked nodes.
+
+  The decision made for each node is the same as in the sequential walk,
+  `can_be_built_q` and then `should_be_built_q`, and a path node that is still
+  out of date after its build script has run is marked `build_failed`. When the
+  graph has a BuildDatabase, `built_q` also records the digests of a built path
+  node. As a node is only run after its dependencies have finished, these
+  predicates see the final state of the dependencies, just as they do in depth
+  first order.
+
+  Cycle members are not returned by `GraphDirectedAcyclic.lookup`, so they are
+  never scheduled, and nodes that depend upon them are skipped by
+  `can_be_built_q`. Should the jobs still hold a cycle, e.g. after an edit that
+  was not marked, the jobs that could never become ready are found before the
+  build starts. Those on the cycle are marked cycle_member, all of them are
+  skipped, and the build reports cycle_exists rather than waiting forever.
+
+  When the thread running the build is interrupted, the jobs not yet started
+  are skipped and the workers interrupted. The build returns, with
+  build_interrupted, once the build scripts that were running have ended.
+
+  Given a BuildTrace, each job records its start, decision and end times and its
+  outcome there.
+
+  Given a DurationHistory, the time each build script takes is recorded there,
+  and the ready jobs are no longer run in fork order. A build ends when its
+  longest chain of dependents ends, so a long chain that starts late leaves the
+  other workers idle at the tail. Instead each job is given a priority, the
+  estimated time of the longest path from it through its dependents, and the
+  workers take the ready job of highest priority from a shared queue. There is
+  no stealing then, the queue is the one source of work, and a worker waiting
+  on it is blocked as a ForkJoinPool.ManagedBlocker. A node
+  without history is estimated from the mean of the history, or 1 ms when the
+  history is empty, scaled up by log2 of 1 + its count of dependencies, as a node
+  that gathers many inputs, e.g. a link, tends to take longer.
+
+  In a rebuild most jobs find their node up to date and end at once, so their
+  history, which records the build script, would overstate them. Before the
+  build each job is guessed to be rebuilt or not, see
+  `GraphDirectedAcyclic.likely_built_q`, and a job is also guessed rebuilt when
+  one of its dependencies is. A job guessed not to be rebuilt is estimated at
+  zero, so the workers start first the chains of jobs that will run their
+  scripts. Ties are broken by job id, i.e. the order the jobs were found in, so
+  that the order of the ready jobs does not change from run to run.
+*/
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BuildParallel{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  // worker_count <= 0 means one worker per available processor
+  public BuildParallel(GraphDirectedAcyclic graph ,int worker_count){
+    if(graph == null){
+      throw new IllegalArgumentException("BuildParallel: a 'graph' (GraphDirectedAcyclic) must be provided.");
+    }
+    this.graph = graph;
+    this.worker_count = (worker_count > 0) ? worker_count : Runtime.getRuntime().availableProcessors();
+  }
+
+  public BuildParallel(GraphDirectedAcyclic graph){
+    this(graph ,0);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private GraphDirectedAcyclic graph;
+  private int worker_count;
+  private BuildTrace build_trace = null;
+  private DurationHistory duration_history = null;
+  // set when the build is interrupted, the jobs not yet begun are then skipped
+  private volatile boolean stopping = false;
+
+  public int worker_count(){
+    return worker_count;
+  }
+
+  public BuildTrace build_trace(){
+    return build_trace;
+  }
+
+  // null for no tracing
+  public void build_trace(BuildTrace build_trace){
+    this.build_trace = build_trace;
+  }
+
+  public DurationHistory duration_history(){
+    return duration_history;
+  }
+
+  // null for fork order scheduling, and no duration recording
+  public void duration_history(DurationHistory duration_history){
+    this.duration_history = duration_history;
+  }
+
+  /*--------------------------------------------------------------------------------
+    Jobs
+
+    A job is a node that takes part in the build. `pending_count` is the number
+    of its dependencies that have not yet finished. `dependent_list` holds the
+    jobs that have this job as a dependency. `id` numbers the jobs in job map
+    order, and names the job in a BuildTrace. `priority_ns` orders the ready
+    queue when there is a DurationHistory.
+  */
+
+  private static class Job{
+    final int id;
+    final Label label;
+    final Node node;
+    final AtomicInteger pending_count = new AtomicInteger(0);
+    final List<Job> dependent_list = new ArrayList<>();
+    final List<Job> dependency_list = new ArrayList<>();
+    long decided_ns = 0;
+    long priority_ns = 0;
+
+    Job(int id ,Label label ,Node node){
+      this.id = id;
+      this.label = label;
+      this.node = node;
+    }
+  }
+
+  /*
+    Given the root node labels, finds each node reachable through `lookup`, and
+    wires up the dependency counts between them.
+
+    A neighbor that can not be looked up does not get a job, and is not counted
+    as a pending dependency. `can_be_built_q` will later skip the nodes that
+    depend upon it.
+
+    Given a region, only the nodes in it get jobs. The nodes outside are taken
+    to be done.
+  */
+  private Map<Label ,Job> job_map(LabelList root_node_LabelList ,Set<Label> region ,TokenSet error_token_set ,boolean verbose){
+    Map<Label ,Job> job_map = new LinkedHashMap<>();
+
+    Deque<Label> stack = new ArrayDeque<>();
+    for( Label root_label : root_node_LabelList ) stack.push(root_label);
+
+    while( !stack.isEmpty() ){
+      Label node_label = stack.pop();
+      if( job_map.containsKey(node_label) ) continue;
+      if( region != null && !region.contains(node_label) ) continue;
+
+      Node node = graph.lookup(node_label ,debug);
+      if(node == null){
+        if(verbose) System.out.println("BuildParallel.job_map:: lookup failed for: " + node_label);
+        error_token_set.add(Token.lookup_fail);
+        continue;
+      }
+      job_map.put( node_label ,new Job(job_map.size() ,node_label ,node) );
+
+      for( Label neighbor_label : node.neighbor_LabelList() ) stack.push(neighbor_label);
+    }
+
+    for( Job job : job_map.values() ){
+      // a dependency listed twice is only waited upon once
+      for( Label neighbor_label : new LinkedHashSet<>(job.node.neighbor_LabelList()) ){
+        Job dependency_job = job_map.get(neighbor_label);
+        if(dependency_job == null) continue;
+        dependency_job.dependent_list.add(job);
+        job.dependency_list.add(dependency_job);
+        job.pending_count.incrementAndGet();
+      }
+    }
+
+    return job_map;
+  }
+
+  /*--------------------------------------------------------------------------------
+    run the build scripts
+  */
+
+  private class JobTask extends RecursiveAction{
+    private static final long serialVersionUID = 1L;
+    private final Job job;
+    private final CountDownLatch done_latch;
+    private final TokenSet error_token_set;
+    private final boolean verbose;
+
+    JobTask(Job job ,CountDownLatch done_latch ,TokenSet error_token_set ,boolean verbose){
+      this.job = job;
+      this.done_latch = done_latch;
+      this.error_token_set = error_token_set;
+      this.verbose = verbose;
+    }
+
+    @Override
+    protected void compute(){
+      job_run(job ,done_latch ,error_token_set ,verbose);
+      // release the dependents, even when this job failed, so that they are
+      // counted down and skipped by `can_be_built_q`
+      for( Job dependent_job : job.dependent_list ){
+        if( dependent_job.pending_count.decrementAndGet() == 0 ){
+          new JobTask(dependent_job ,done_latch ,error_token_set ,verbose).fork();
+        }
+      }
+    }
+  }
+
+  /*
+    With a DurationHistory, there is one QueueTask per worker, and each takes the
+    ready job of highest priority until it is handed `stop_job`. A worker that
+    waits on the queue does so through a ManagedBlocker, so the pool knows it is
+    blocked rather than busy.
+  */
+  private static final Job stop_job = new Job(-1 ,null ,null);
+
+  private static final class TakeBlocker implements ForkJoinPool.ManagedBlocker{
+    private final PriorityBlockingQueue<Job> ready_queue;
+    private Job job = null;
+
+    TakeBlocker(PriorityBlockingQueue<Job> ready_queue){
+      this.ready_queue = ready_queue;
+    }
+
+    @Override
+    public boolean block() throws InterruptedException{
+      if(job == null) job = ready_queue.take();
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable(){
+      if(job == null) job = ready_queue.poll();
+      return job != null;
+    }
+  }
+
+  private static Job ready_take(PriorityBlockingQueue<Job> ready_queue) throws InterruptedException{
+    TakeBlocker take_blocker = new TakeBlocker(ready_queue);
+    ForkJoinPool.managedBlock(take_blocker);
+    return take_blocker.job;
+  }
+
+  private class QueueTask extends RecursiveAction{
+    private static final long serialVersionUID = 1L;
+    private final PriorityBlockingQueue<Job> ready_queue;
+    private final CountDownLatch done_latch;
+    private final TokenSet error_token_set;
+    private final boolean verbose;
+
+    QueueTask(PriorityBlockingQueue<Job> ready_queue ,CountDownLatch done_latch ,TokenSet error_token_set ,boolean verbose){
+      this.ready_queue = ready_queue;
+      this.done_latch = done_latch;
+      this.error_token_set = error_token_set;
+      this.verbose = verbose;
+    }
+
+    @Override
+    protected void compute(){
+      try{
+        for( Job job = ready_take(ready_queue); job != stop_job; job = ready_take(ready_queue) ){
+          job_run(job ,done_latch ,error_token_set ,verbose);
+          for( Job dependent_job : job.dependent_list ){
+            if( dependent_job.pending_count.decrementAndGet() == 0 ) ready_queue.add(dependent_job);
+          }
+        }
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // highest priority first, then job map order
+  private static int priority_compare(Job a ,Job b){
+    if(a.priority_ns != b.priority_ns) return Long.compare(b.priority_ns ,a.priority_ns);
+    return Integer.compare(a.id ,b.id);
+  }
+
+  // runs the job, records its times, and counts it done
+  private void job_run(Job job ,CountDownLatch done_latch ,TokenSet error_token_set ,boolean verbose){
+    BuildTrace trace = build_trace;
+    DurationHistory history = duration_history;
+    boolean timed = trace != null || history != null;
+    long start_ns = timed ? System.nanoTime() : 0;
+    byte outcome = BuildTrace.outcome_failed;
+    try{
+      outcome = run_job(job ,error_token_set ,verbose);
+    }finally{
+      if(timed){
+        long end_ns = System.nanoTime();
+        if(trace != null) trace.record(job.id ,start_ns ,job.decided_ns ,end_ns ,outcome);
+        if( history != null && outcome == BuildTrace.outcome_built ) history.record(job.label ,end_ns - job.decided_ns);
+      }
+      done_latch.countDown();
+    }
+  }
+
+  private void error_add(TokenSet error_token_set ,Token error){
+    synchronized(error_token_set){
+      error_token_set.add(error);
+    }
+  }
+
+  // same decisions as the node function of the sequential `run_build_scripts_f`, returns the BuildTrace outcome
+  private byte run_job(Job job ,TokenSet error_token_set ,boolean verbose){
+    if(stopping){
+      System.out.println("run_build_scripts_f:: Skipping build for " + job.label + " as the build was interrupted.");
+      return BuildTrace.outcome_skipped;
+    }
+    if( !graph.can_be_built_q(job.label ,job.node) ){
+      System.out.println("run_build_scripts_f:: Skipping build for " + job.label + " due to problems with dependencies.");
+      return BuildTrace.outcome_skipped;
+    }
+    try{
+      boolean should_be_built = graph.should_be_built_q(job.label ,job.node ,verbose);
+      if( build_trace != null || duration_history != null ) job.decided_ns = System.nanoTime();
+      if( !should_be_built ){
+        if(verbose) System.out.println("run_build_scripts_f:: " + job.label + " already up to date");
+        return BuildTrace.outcome_up_to_date;
+      }
+
+      System.out.println("run_build_scripts_f:: Running build script for " + job.label);
+      Object build_f = job.node.get("build");
+      try{
+        if(build_f instanceof Runnable) ( (Runnable)build_f ).run();
+      }finally{
+        // the build script may have written the node's path
+        FileStatCache file_stat_cache = graph.file_stat_cache();
+        if(file_stat_cache != null) file_stat_cache.invalidate( job.label.get() );
+      }
+
+      // For path nodes, check if the build updated the target path
+      if( !graph.built_q(job.label ,job.node ,verbose) ){
+        System.out.println("run_build_scripts_f:: Build failed for " + job.label);
+        job.node.mark(Token.build_failed);
+        return BuildTrace.outcome_failed;
+      }
+      return BuildTrace.outcome_built;
+    }catch(IOException e){
+      System.out.println("run_build_scripts_f:: Could not check whether " + job.label + " is up to date: " + e.getMessage());
+      job.node.mark(Token.build_failed);
+      error_add(error_token_set ,Token.up_to_date_check_failed);
+    }catch(RuntimeException e){
+      System.out.println("run_build_scripts_f:: Build script threw for " + job.label + ": " + e);
+      job.node.mark(Token.build_failed);
+      error_add(error_token_set ,Token.build_script_exception);
+    }
+    return BuildTrace.outcome_failed;
+  }
+
+  /*
+    The jobs that would never become ready, as a dependency of theirs waits,
+    directly or through others, upon a cycle among the jobs. Found by counting
+    down a copy of the pending counts from the ready jobs, in job id order.
+
+    The cycle members are marked by the GraphDirectedAcyclic constructor and
+    not looked up, so there are none of these unless a cycle member lost its
+    mark, or the graph was edited without being marked again. As the latch
+    waits only for the jobs that can run, such a build still ends.
+  */
+  private List<Job> stuck_job_list(Map<Label ,Job> job_map){
+    Job[] job_array = job_map.values().toArray( new Job[job_map.size()] );
+    int[] pending_array = new int[job_array.length];
+    int[] queue = new int[job_array.length];
+    int queue_count = 0;
+    for( Job job : job_array ){
+      pending_array[job.id] = job.pending_count.get();
+      if( pending_array[job.id] == 0 ) queue[queue_count++] = job.id;
+    }
+    for( int next = 0; next < queue_count; next++ ){
+      for( Job dependent_job : job_array[ queue[next] ].dependent_list ){
+        if( --pending_array[dependent_job.id] == 0 ) queue[queue_count++] = dependent_job.id;
+      }
+    }
+    List<Job> stuck_job_list = new ArrayList<>();
+    if( queue_count == job_array.length ) return stuck_job_list;
+    for( Job job : job_array ){
+      if( pending_array[job.id] > 0 ) stuck_job_list.add(job);
+    }
+    return stuck_job_list;
+  }
+
+  /*
+    Marks the stuck jobs that are on a cycle as cycle_member, as the
+    GraphDirectedAcyclic constructor would have. The other stuck jobs only
+    depend upon a cycle. Every dependency of a stuck job that is itself stuck is
+    an edge of the search, so the cycles found are cycles of the jobs.
+  */
+  private void stuck_mark(List<Job> stuck_job_list){
+    Map<Job ,Integer> id_map = new IdentityHashMap<>();
+    for( Job job : stuck_job_list ) id_map.put(job ,id_map.size());
+    int[] neighbor_offset = new int[ stuck_job_list.size() + 1 ];
+    List<Integer> neighbor_list = new ArrayList<>();
+    for( int id = 0; id < stuck_job_list.size(); id++ ){
+      neighbor_offset[id] = neighbor_list.size();
+      for( Job dependency_job : stuck_job_list.get(id).dependency_list ){
+        Integer dependency_id = id_map.get(dependency_job);
+        if(dependency_id != null) neighbor_list.add(dependency_id);
+      }
+    }
+    neighbor_offset[ stuck_job_list.size() ] = neighbor_list.size();
+    int[] neighbor_target = new int[ neighbor_list.size() ];
+    for( int i = 0; i < neighbor_target.length; i++ ) neighbor_target[i] = neighbor_list.get(i);
+
+    StronglyConnected scc = new StronglyConnected( stuck_job_list.size() ,neighbor_offset ,neighbor_target );
+    scc.search_all();
+    for( int c = 0; c < scc.component_count(); c++ ){
+      if( !scc.cyclic_q(c) ) continue;
+      for( int i = scc.member_begin(c); i < scc.member_end(c); i++ ){
+        stuck_job_list.get( scc.member(i) ).node.mark(Token.cycle_member);
+      }
+    }
+  }
+
+  private void trace_begin(Map<Label ,Job> job_map){
+    Label[] label_array = new Label[ job_map.size() ];
+    int[][] dependency_array = new int[ job_map.size() ][];
+    for( Job job : job_map.values() ){
+      label_array[job.id] = job.label;
+      dependency_array[job.id] = new int[ job.dependency_list.size() ];
+      for( int i = 0; i < job.dependency_list.size(); i++ ) dependency_array[job.id][i] = job.dependency_list.get(i).id;
+    }
+    build_trace.begin(label_array ,dependency_array);
+  }
+
+  /*
+    Guesses, for each job by id, whether its node will be rebuilt: when its
+    node is guessed stale, or a dependency is guessed rebuilt. Dependencies are
+    done first, by counting down a copy of the pending counts, as in
+    `stuck_job_list`. Stuck jobs are never run, and are left guessed rebuilt.
+  */
+  private boolean[] likely_built_array(Map<Label ,Job> job_map){
+    Job[] job_array = job_map.values().toArray( new Job[job_map.size()] );
+    boolean[] likely_built = new boolean[job_array.length];
+    Arrays.fill(likely_built ,true);
+    int[] pending_array = new int[job_array.length];
+    int[] queue = new int[job_array.length];
+    int queue_count = 0;
+    for( Job job : job_array ){
+      pending_array[job.id] = job.pending_count.get();
+      if( pending_array[job.id] == 0 ) queue[queue_count++] = job.id;
+    }
+    for( int next = 0; next < queue_count; next++ ){
+      Job job = job_array[ queue[next] ];
+      boolean likely_q = graph.likely_built_q(job.label ,job.node);
+      for( Job dependency_job : job.dependency_list ){
+        if(likely_q) break;
+        likely_q = likely_built[dependency_job.id];
+      }
+      likely_built[job.id] = likely_q;
+      for( Job dependent_job : job.dependent_list ){
+        if( --pending_array[dependent_job.id] == 0 ) queue[queue_count++] = dependent_job.id;
+      }
+    }
+    return likely_built;
+  }
+
+  /*
+    Sets the priority of each job to its estimated duration plus the largest
+    priority among its dependents. Dependents are done first, in post order.
+    A job guessed not to be rebuilt is estimated at zero.
+  */
+  private void priority_set(Map<Label ,Job> job_map){
+    long base_ns = duration_history.mean_duration_ns();
+    if(base_ns <= 0) base_ns = 1_000_000L;
+    boolean[] likely_built = likely_built_array(job_map);
+
+    Set<Job> seen_set = Collections.newSetFromMap( new IdentityHashMap<>() );
+    Deque<Job> stack = new ArrayDeque<>();
+    Deque<Integer> next_stack = new ArrayDeque<>();
+    for( Job root_job : job_map.values() ){
+      if( !seen_set.add(root_job) ) continue;
+      stack.push(root_job);
+      next_stack.push(0);
+      while( !stack.isEmpty() ){
+        Job job = stack.peek();
+        int next = next_stack.pop();
+        if( next < job.dependent_list.size() ){
+          next_stack.push(next + 1);
+          Job dependent_job = job.dependent_list.get(next);
+          if( seen_set.add(dependent_job) ){
+            stack.push(dependent_job);
+            next_stack.push(0);
+          }
+          continue;
+        }
+        stack.pop();
+        long estimate_ns = likely_built[job.id] ? duration_history.duration_ns(job.label) : 0;
+        if(estimate_ns < 0){
+          int log2 = 31 - Integer.numberOfLeadingZeros( 1 + job.dependency_list.size() );
+          estimate_ns = base_ns * (1 + log2);
+        }
+        long longest = 0;
+        for( Job dependent_job : job.dependent_list ) longest = Math.max(longest ,dependent_job.priority_ns);
+        job.priority_ns = estimate_ns + longest;
+      }
+    }
+  }
+
+  /*
+    Runs the build scripts for the nodes reachable from `root_node_LabelList`,
+    assuming the graph has been marked up already, i.e. the GraphDirectedAcyclic
+    constructor has run.
+
+    Given a `region`, only the nodes in it are run, e.g. the nodes that depend
+    upon a changed file, see BuildWatch. A null region is the whole graph.
+
+    Returns a set of error tokens encountered while building.
+  */
+  public TokenSet run_build_scripts_f(LabelList root_node_LabelList ,Set<Label> region ,boolean verbose){
+    TokenSet error_token_set = new TokenSet();
+
+    if( root_node_LabelList == null || root_node_LabelList.isEmpty() ){
+      error_token_set.add(Token.empty_root_node_label_list);
+      return error_token_set;
+    }
+
+    Map<Label ,Job> job_map = job_map(root_node_LabelList ,region ,error_token_set ,verbose);
+    if( job_map.isEmpty() ) return error_token_set;
+
+    // collect the ready jobs before any are started, as running jobs count down
+    // the others
+    List<Job> ready_job_list = new ArrayList<>();
+    for( Job job : job_map.values() ){
+      if( job.pending_count.get() == 0 ) ready_job_list.add(job);
+    }
+
+    if(verbose) System.out.println(
+      "run_build_scripts_f:: running " + job_map.size() + " nodes on " + worker_count + " workers ..."
+    );
+
+    List<Job> stuck_job_list = stuck_job_list(job_map);
+    if( !stuck_job_list.isEmpty() ){
+      stuck_mark(stuck_job_list);
+      for( Job job : stuck_job_list ){
+        if( job.node.has_mark(Token.cycle_member) ){
+          System.out.println("run_build_scripts_f:: Skipping build for " + job.label + " as it is a cycle member.");
+        }else{
+          System.out.println("run_build_scripts_f:: Skipping build for " + job.label + " as it depends upon a cycle.");
+        }
+      }
+      error_token_set.add(Token.cycle_exists);
+    }
+
+    // file stats are cached for the duration of this build, the priorities included
+    FileStatCache prior_file_stat_cache = graph.file_stat_cache();
+    graph.file_stat_cache( new FileStatCache() );
+
+    if(build_trace != null) trace_begin(job_map);
+    if(duration_history != null) priority_set(job_map);
+
+    CountDownLatch done_latch = new CountDownLatch( job_map.size() - stuck_job_list.size() );
+    ForkJoinPool pool = new ForkJoinPool(
+      worker_count
+      ,ForkJoinPool.defaultForkJoinWorkerThreadFactory
+      ,null
+      ,true
+    );
+    PriorityBlockingQueue<Job> ready_queue = null;
+    boolean interrupted = false;
+    stopping = false;
+    try{
+      if(duration_history == null){
+        for( Job job : ready_job_list ){
+          pool.execute( new JobTask(job ,done_latch ,error_token_set ,verbose) );
+        }
+      }else{
+        ready_queue = new PriorityBlockingQueue<>( job_map.size() ,BuildParallel::priority_compare );
+        ready_queue.addAll(ready_job_list);
+        for( int i = 0; i < worker_count; i++ ){
+          pool.execute( new QueueTask(ready_queue ,done_latch ,error_token_set ,verbose) );
+        }
+      }
+      done_latch.await();
+    }catch(InterruptedException e){
+      interrupted = true;
+      stopping = true;
+      error_add(error_token_set ,Token.build_interrupted);
+    }finally{
+      if(ready_queue != null){
+        // every job is done, or the build was interrupted
+        for( int i = 0; i < worker_count; i++ ) ready_queue.add(stop_job);
+      }
+      // when interrupted the jobs not yet started are skipped, and the workers
+      // interrupted, and either way the build scripts still running are waited for
+      if(interrupted) pool.shutdownNow();
+      else pool.shutdown();
+      pool_await(pool);
+      if(interrupted) Thread.currentThread().interrupt();
+      if(verbose) System.out.println("run_build_scripts_f:: " + graph.file_stat_cache());
+      graph.file_stat_cache(prior_file_stat_cache);
+    }
+
+    return error_token_set;
+  }
+  // waits for the pool to end, an interrupt here is kept for the caller
+  private static void pool_await(ForkJoinPool pool){
+    boolean interrupted = false;
+    while(true){
+      try{
+        if( pool.awaitTermination(1 ,TimeUnit.SECONDS) ) break;
+      }catch(InterruptedException e){
+        interrupted = true;
+      }
+    }
+    if(interrupted) Thread.currentThread().interrupt();
+  }
+
+  public TokenSet run_build_scripts_f(LabelList root_node_LabelList ,boolean verbose){
+    return run_build_scripts_f(root_node_LabelList ,null ,verbose);
+  }
+  public TokenSet run_build_scripts_f(LabelList root_node_LabelList){
+    return run_build_scripts_f(root_node_LabelList ,null ,true);
+  }
+
+  /*
+    Given the command line arguments, removes a `-j N` or `-jN` pair, and returns
+    N. Returns 0, i.e. one worker per processor, when no worker count is given.
+    Throws IllegalArgumentException when the count is not a number, so that a
+    resident server can report it and carry on.
+  */
+  public static int worker_count_parse(List<String> arg_list){
+    for( int i = 0; i < arg_list.size(); i++ ){
+      String arg = arg_list.get(i);
+      if( !arg.startsWith("-j") ) continue;
+      String count_string = arg.substring(2);
+      arg_list.remove(i);
+      if( count_string.isEmpty() && i < arg_list.size() ){
+        count_string = arg_list.remove(i);
+      }
+      try{
+        return Integer.parseInt(count_string);
+      }catch(NumberFormatException e){
+        throw new IllegalArgumentException("BuildParallel: bad worker count given to -j: '" + count_string + "'");
+      }
+    }
+    return 0;
+  }
+
+}
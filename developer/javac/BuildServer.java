@@ -0,0 +1,319 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A long lived build process per workspace, and the client side of talking to it.
+
+  Each `build` starts a fresh JVM, loads the graph definition class, and marks
+  up the graph again, before it even looks at a file. A server instead stays up,
+  and keeps what the handler it is given keeps, e.g. the marked graph, its
+  lookup cache, and code the JIT has already compiled. `build` then only sends
+  its arguments, and the output is streamed back.
+
+  A Unix domain socket would do, but SocketChannel has those only from Java 16,
+  and this code targets Java 11. So the server listens on a loopback TCP port, and
+  the file `<state_directory>/server` gives the port and a random secret. The
+  file is readable only by its owner where the file system has POSIX
+  permissions, and a request must give the secret, so only the user who started
+  the server can use it.
+
+  Protocol, DataInput/DataOutput encoding:
+
+    client   UTF secret ,UTF working directory ,int argument count ,UTF each argument
+    server   boolean accepted
+             then, when accepted, frames: int length > 0 and that many bytes of
+             output, until int -1 ,int exit status
+
+  A request is declined when the secret is wrong, or the working directory is
+  not that of the server, as the labels of path nodes are relative to it, or
+  the argument count is negative or above `arg_count_max`. The secret is read
+  and checked before anything else is read, and a client that stalls mid
+  request times out after `request_timeout_ms`, so a stray connection can
+  neither make the server allocate nor hold it up. The
+  client then runs the build in process, as it does when there is no server.
+  The single argument `--server-stop` stops the server.
+
+  Requests are served one at a time, as two builds of one workspace would write
+  the same files. While a request is served System.out and System.err go to the
+  client, which also catches the output of the build worker threads.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BuildServer{
+
+  public static final String stop_argument = "--server-stop";
+
+  public static int arg_count_max = 1 << 12;
+  public static int request_timeout_ms = 10000;
+
+  // runs one build request in the server, returns its exit status
+  public interface Handler{
+    int run(List<String> arg_list) throws Exception;
+  }
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public BuildServer(Path state_directory ,Handler handler){
+    this.state_directory = state_directory;
+    this.handler = handler;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final Path state_directory;
+  private final Handler handler;
+  private volatile ServerSocket server_socket = null;
+  private String secret;
+  private int request_count = 0;
+
+  public static Path server_fp(Path state_directory){
+    return state_directory.resolve("server");
+  }
+
+  public static Path working_directory(){
+    return Paths.get("").toAbsolutePath().normalize();
+  }
+
+  public int request_count(){
+    return request_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    server
+  */
+
+  private void server_file_write(int port) throws IOException{
+    Files.createDirectories(state_directory);
+    Path server_fp = server_fp(state_directory);
+    Path temp_fp = server_fp.resolveSibling("server.tmp");
+    Files.deleteIfExists(temp_fp);
+    Files.createFile(temp_fp);
+    try{
+      Files.setPosixFilePermissions( temp_fp ,PosixFilePermissions.fromString("rw-------") );
+    }catch(UnsupportedOperationException e){
+      // not a POSIX file system
+    }
+    Files.write( temp_fp ,(port + " " + secret + "\n").getBytes(StandardCharsets.UTF_8) );
+    Files.move(temp_fp ,server_fp ,StandardCopyOption.REPLACE_EXISTING ,StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // output of a request, sent to the client as frames
+  private static class FrameOutputStream extends OutputStream{
+    private final DataOutputStream out;
+    FrameOutputStream(DataOutputStream out){
+      this.out = out;
+    }
+    @Override
+    public synchronized void write(int b) throws IOException{
+      write( new byte[]{(byte)b} ,0 ,1 );
+    }
+    @Override
+    public synchronized void write(byte[] b ,int offset ,int length) throws IOException{
+      if(length <= 0) return;
+      out.writeInt(length);
+      out.write(b ,offset ,length);
+    }
+    @Override
+    public synchronized void flush() throws IOException{
+      out.flush();
+    }
+  }
+
+  private static void decline(DataOutputStream out ,String reason) throws IOException{
+    out.writeBoolean(false);
+    out.flush();
+    if(debug) System.out.println("BuildServer.serve:: declined a request, " + reason);
+  }
+
+  // returns false when the request stops the server
+  private boolean serve(Socket socket) throws IOException{
+    socket.setSoTimeout(request_timeout_ms);
+    DataInputStream in = new DataInputStream( new BufferedInputStream(socket.getInputStream()) );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream(socket.getOutputStream()) );
+
+    String request_secret = in.readUTF();
+    if( !MessageDigest.isEqual( secret.getBytes(StandardCharsets.UTF_8) ,request_secret.getBytes(StandardCharsets.UTF_8) ) ){
+      decline(out ,"wrong secret");
+      return true;
+    }
+    String request_directory = in.readUTF();
+    int arg_count = in.readInt();
+    if(arg_count < 0 || arg_count > arg_count_max){
+      decline(out ,"argument count " + arg_count);
+      return true;
+    }
+    List<String> arg_list = new ArrayList<>(arg_count);
+    for( int i = 0; i < arg_count; i++ ) arg_list.add( in.readUTF() );
+    if( !working_directory().equals( Paths.get(request_directory).toAbsolutePath().normalize() ) ){
+      decline(out ,"working directory " + request_directory);
+      return true;
+    }
+    out.writeBoolean(true);
+    if( arg_list.size() == 1 && stop_argument.equals(arg_list.get(0)) ){
+      out.writeInt(-1);
+      out.writeInt(0);
+      out.flush();
+      return false;
+    }
+
+    request_count++;
+    PrintStream prior_out = System.out;
+    PrintStream prior_err = System.err;
+    PrintStream client_stream = new PrintStream( new FrameOutputStream(out) ,true ,"UTF-8" );
+    int status;
+    System.setOut(client_stream);
+    System.setErr(client_stream);
+    try{
+      status = handler.run(arg_list);
+    }catch(Exception e){
+      client_stream.println("BuildServer:: build threw: " + e);
+      status = 1;
+    }finally{
+      client_stream.flush();
+      System.setOut(prior_out);
+      System.setErr(prior_err);
+    }
+    out.writeInt(-1);
+    out.writeInt(status);
+    out.flush();
+    return true;
+  }
+
+  /*
+    Listens on a loopback port, writes the server file, and serves requests until
+    stopped. Removes the server file on the way out.
+  */
+  public void run() throws IOException{
+    byte[] secret_bytes = new byte[16];
+    new SecureRandom().nextBytes(secret_bytes);
+    StringBuilder secret_hex = new StringBuilder();
+    for( byte b : secret_bytes ) secret_hex.append( String.format("%02x" ,b & 0xff) );
+    secret = secret_hex.toString();
+
+    server_socket = new ServerSocket();
+    server_socket.bind( new InetSocketAddress(InetAddress.getLoopbackAddress() ,0) );
+    server_file_write( server_socket.getLocalPort() );
+    System.out.println("BuildServer:: serving " + working_directory() + " on port " + server_socket.getLocalPort());
+    try{
+      boolean serving = true;
+      while(serving){
+        try( Socket socket = server_socket.accept() ){
+          serving = serve(socket);
+        }catch(SocketException e){
+          if( server_socket.isClosed() ) break;
+          System.err.println("BuildServer: request failed: " + e.getMessage());
+        }catch(IOException e){
+          System.err.println("BuildServer: request failed: " + e.getMessage());
+        }catch(RuntimeException e){
+          // e.g. an invalid working directory path, the server carries on
+          System.err.println("BuildServer: request failed: " + e);
+        }
+      }
+    }finally{
+      server_socket.close();
+      Files.deleteIfExists( server_fp(state_directory) );
+      System.out.println("BuildServer:: stopped after " + request_count + " requests");
+    }
+  }
+
+  public void stop(){
+    ServerSocket socket = server_socket;
+    if(socket == null) return;
+    try{
+      socket.close();
+    }catch(IOException e){
+      System.err.println("BuildServer: closing the server socket: " + e.getMessage());
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    client
+  */
+
+  /*
+    Sends the request to the server of `state_directory`, and copies its output
+    to `output`. Returns the exit status, or -1 when there is no server, or it
+    declined, in which case the build is to be run in process.
+  */
+  public static int request(Path state_directory ,List<String> arg_list ,OutputStream output){
+    Path server_fp = server_fp(state_directory);
+    if( !Files.isReadable(server_fp) ) return -1;
+    String[] field;
+    int port;
+    try{
+      field = new String( Files.readAllBytes(server_fp) ,StandardCharsets.UTF_8 ).trim().split(" ");
+      port = Integer.parseInt(field[0]);
+    }catch(IOException | RuntimeException e){
+      return -1;
+    }
+    if(field.length != 2) return -1;
+
+    Socket socket = new Socket();
+    try{
+      socket.connect( new InetSocketAddress(InetAddress.getLoopbackAddress() ,port) ,1000 );
+    }catch(IOException e){
+      // a stale server file, left by a server that died
+      if(debug) System.out.println("BuildServer.request:: no server on port " + port);
+      try{ socket.close(); }catch(IOException ignored){}
+      return -1;
+    }
+
+    boolean accepted = false;
+    try( Socket connection = socket ){
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream(connection.getOutputStream()) );
+      out.writeUTF( field[1] );
+      out.writeUTF( working_directory().toString() );
+      out.writeInt( arg_list.size() );
+      for( String arg : arg_list ) out.writeUTF(arg);
+      out.flush();
+
+      DataInputStream in = new DataInputStream( new BufferedInputStream(connection.getInputStream()) );
+      accepted = in.readBoolean();
+      if( !accepted ) return -1;
+      byte[] block = new byte[1 << 16];
+      while(true){
+        int length = in.readInt();
+        if(length < 0) break;
+        while(length > 0){
+          int n = in.read( block ,0 ,Math.min(length ,block.length) );
+          if(n < 0) throw new IOException("connection closed");
+          output.write(block ,0 ,n);
+          length -= n;
+        }
+        output.flush();
+      }
+      return in.readInt();
+    }catch(IOException e){
+      if( !accepted ) return -1;
+      System.err.println("BuildServer: lost the connection to the server: " + e.getMessage());
+      return 1;
+    }
+  }
+
+}
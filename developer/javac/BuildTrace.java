@@ -0,0 +1,361 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Records when each node of a build ran, on which thread, and what became of it.
+
+  Given to `BuildParallel.build_trace`. For each node the build records the time
+  it started, the time the up to date decision was made, the time it finished,
+  and the outcome:
+
+    skipped     `can_be_built_q` was false, a dependency had a problem
+    up_to_date  `should_be_built_q` was false
+    built       the build script ran and `built_q` was true
+    failed      the build script ran and did not bring the node up to date, or
+                the check or the script threw
+
+  Recording is on the build's hot path, so a record is five array stores into a
+  buffer owned by the recording thread: no lock, no allocation, no strings. A
+  node is named by its job id, and the labels are only looked up on export. Each
+  thread has a ring buffer of `ring_capacity` records, and when a ring is full
+  the oldest records are overwritten and counted as dropped.
+
+  After the build:
+
+    chrome_trace_write  the records as Chrome trace event JSON, for
+                        chrome://tracing or https://ui.perfetto.dev. The up to
+                        date decision shows as a nested "decide" slice.
+
+    report              the critical path, i.e. the chain of dependencies with
+                        the largest total time, which bounds the build time
+                        however many workers there are, and the slowest nodes
+*/
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+public class BuildTrace{
+
+  public static final byte outcome_skipped = 0;
+  public static final byte outcome_up_to_date = 1;
+  public static final byte outcome_built = 2;
+  public static final byte outcome_failed = 3;
+
+  private static final String[] outcome_name = {"skipped" ,"up_to_date" ,"built" ,"failed"};
+
+  public static String outcome_name(byte outcome){
+    return outcome_name[outcome];
+  }
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public BuildTrace(int ring_capacity){
+    this.ring_capacity = Math.max(1 ,ring_capacity);
+  }
+
+  public BuildTrace(){
+    this(1 << 16);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final int ring_capacity;
+
+  // given by `begin`, the job ids index these
+  private Label[] label_array = new Label[0];
+  private int[][] dependency_array = new int[0][];
+  private long begin_ns = 0;
+
+  private static class Ring{
+    final long thread_id;
+    final String thread_name;
+    final int[] job_id;
+    final long[] start_ns;
+    final long[] decided_ns;
+    final long[] end_ns;
+    final byte[] outcome;
+    long count = 0;
+
+    Ring(int capacity){
+      Thread thread = Thread.currentThread();
+      this.thread_id = thread.getId();
+      this.thread_name = thread.getName();
+      job_id = new int[capacity];
+      start_ns = new long[capacity];
+      decided_ns = new long[capacity];
+      end_ns = new long[capacity];
+      outcome = new byte[capacity];
+    }
+  }
+
+  private final List<Ring> ring_list = new ArrayList<>();
+  private volatile ThreadLocal<Ring> ring_local = new ThreadLocal<>();
+
+  public int ring_capacity(){
+    return ring_capacity;
+  }
+
+  public Label label(int job_id){
+    return label_array[job_id];
+  }
+
+  /*--------------------------------------------------------------------------------
+    recording
+  */
+
+  /*
+    Starts a trace of a build of the given jobs, dropping the records of any
+    earlier build. `dependency_array[id]` holds the job ids that job `id` depends
+    upon.
+  */
+  public synchronized void begin(Label[] label_array ,int[][] dependency_array){
+    this.label_array = label_array;
+    this.dependency_array = dependency_array;
+    ring_list.clear();
+    ring_local = new ThreadLocal<>();
+    begin_ns = System.nanoTime();
+  }
+
+  private Ring ring(){
+    ThreadLocal<Ring> local = ring_local;
+    Ring ring = local.get();
+    if(ring == null){
+      ring = new Ring(ring_capacity);
+      synchronized(this){
+        ring_list.add(ring);
+      }
+      local.set(ring);
+    }
+    return ring;
+  }
+
+  // decided_ns is 0 when no up to date decision was made
+  public void record(int job_id ,long start_ns ,long decided_ns ,long end_ns ,byte outcome){
+    Ring ring = ring();
+    int i = (int)(ring.count % ring_capacity);
+    ring.job_id[i] = job_id;
+    ring.start_ns[i] = start_ns;
+    ring.decided_ns[i] = decided_ns;
+    ring.end_ns[i] = end_ns;
+    ring.outcome[i] = outcome;
+    ring.count++;
+  }
+
+  /*--------------------------------------------------------------------------------
+    reading the records
+  */
+
+  private static int held_count(Ring ring ,int capacity){
+    return (int)Math.min(ring.count ,capacity);
+  }
+
+  public synchronized long record_count(){
+    long count = 0;
+    for( Ring ring : ring_list ) count += held_count(ring ,ring_capacity);
+    return count;
+  }
+
+  public synchronized long dropped_count(){
+    long count = 0;
+    for( Ring ring : ring_list ) count += ring.count - held_count(ring ,ring_capacity);
+    return count;
+  }
+
+  // the duration of each job in ns, -1 for a job without a record
+  private long[] duration_array(byte[] outcome_array){
+    long[] duration = new long[label_array.length];
+    Arrays.fill(duration ,-1);
+    for( Ring ring : ring_list ){
+      for( int i = 0; i < held_count(ring ,ring_capacity); i++ ){
+        int id = ring.job_id[i];
+        duration[id] = ring.end_ns[i] - ring.start_ns[i];
+        outcome_array[id] = ring.outcome[i];
+      }
+    }
+    return duration;
+  }
+
+  /*--------------------------------------------------------------------------------
+    Chrome trace export
+  */
+
+  private static void json_string(StringBuilder out ,String s){
+    out.append('"');
+    for( int i = 0; i < s.length(); i++ ){
+      char c = s.charAt(i);
+      switch(c){
+        case '"': out.append("\\\""); break;
+        case '\\': out.append("\\\\"); break;
+        case '\n': out.append("\\n"); break;
+        case '\r': out.append("\\r"); break;
+        case '\t': out.append("\\t"); break;
+        default:
+          if(c < 0x20) out.append( String.format("\\u%04x" ,(int)c) );
+          else out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  private static void microseconds(StringBuilder out ,long ns){
+    out.append( String.format(Locale.ROOT ,"%.3f" ,ns / 1e3) );
+  }
+
+  private void slice(StringBuilder out ,String name ,String category ,long tid ,long start_ns ,long end_ns ,String outcome){
+    out.append(",\n{\"name\":");
+    json_string(out ,name);
+    out.append(",\"cat\":\"").append(category).append("\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(tid);
+    out.append(",\"ts\":");
+    microseconds(out ,start_ns - begin_ns);
+    out.append(",\"dur\":");
+    microseconds(out ,end_ns - start_ns);
+    if(outcome != null) out.append(",\"args\":{\"outcome\":\"").append(outcome).append("\"}");
+    out.append('}');
+  }
+
+  // Writes the records as a Chrome trace event JSON object, one slice per node.
+  public synchronized void chrome_trace_write(Path fp) throws IOException{
+    try( BufferedWriter writer = Files.newBufferedWriter(fp ,StandardCharsets.UTF_8) ){
+      StringBuilder out = new StringBuilder();
+      out.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+      out.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"Ariadne build\"}}");
+      for( Ring ring : ring_list ){
+        out.append(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(ring.thread_id).append(",\"args\":{\"name\":");
+        json_string(out ,ring.thread_name);
+        out.append("}}");
+        for( int i = 0; i < held_count(ring ,ring_capacity); i++ ){
+          String outcome = outcome_name( ring.outcome[i] );
+          slice( out ,label_array[ ring.job_id[i] ].get() ,outcome ,ring.thread_id ,ring.start_ns[i] ,ring.end_ns[i] ,outcome );
+          if(ring.decided_ns[i] != 0){
+            slice( out ,"decide" ,"decide" ,ring.thread_id ,ring.start_ns[i] ,ring.decided_ns[i] ,null );
+          }
+          if( out.length() > 1 << 16 ){
+            writer.append(out);
+            out.setLength(0);
+          }
+        }
+      }
+      out.append("\n]}\n");
+      writer.append(out);
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    report
+  */
+
+  /*
+    The job ids of the critical path, from the first dependency to the last
+    dependent. The path time of a job is its duration plus the largest path time
+    among its dependencies.
+  */
+  private int[] critical_path(long[] duration){
+    int job_count = label_array.length;
+    long[] path_ns = new long[job_count];
+    int[] path_dependency = new int[job_count];
+    Arrays.fill(path_ns ,-1);
+
+    // post order, so that the dependencies of a job are done before it
+    int[] stack = new int[job_count];
+    int[] next_dependency = new int[job_count];
+    boolean[] on_stack = new boolean[job_count];
+    for( int root = 0; root < job_count; root++ ){
+      if(path_ns[root] >= 0) continue;
+      int top = 0;
+      stack[top++] = root;
+      on_stack[root] = true;
+      while(top > 0){
+        int id = stack[top - 1];
+        if( next_dependency[id] < dependency_array[id].length ){
+          int dependency = dependency_array[id][ next_dependency[id]++ ];
+          if( path_ns[dependency] < 0 && !on_stack[dependency] ){
+            stack[top++] = dependency;
+            on_stack[dependency] = true;
+          }
+          continue;
+        }
+        top--;
+        on_stack[id] = false;
+        long longest = 0;
+        path_dependency[id] = -1;
+        for( int dependency : dependency_array[id] ){
+          if( path_ns[dependency] > longest ){
+            longest = path_ns[dependency];
+            path_dependency[id] = dependency;
+          }
+        }
+        path_ns[id] = Math.max(duration[id] ,0) + longest;
+      }
+    }
+
+    int end = -1;
+    for( int id = 0; id < job_count; id++ ){
+      if( end < 0 || path_ns[id] > path_ns[end] ) end = id;
+    }
+    List<Integer> path = new ArrayList<>();
+    for( int id = end; id >= 0; id = path_dependency[id] ) path.add(id);
+    int[] path_array = new int[path.size()];
+    for( int i = 0; i < path_array.length; i++ ) path_array[i] = path.get(path_array.length - 1 - i);
+    return path_array;
+  }
+
+  private void report_line(StringBuilder out ,int id ,long[] duration ,byte[] outcome_array){
+    out.append( String.format(
+      "  %10.3f ms  %-10s  %s%n"
+      ,Math.max(duration[id] ,0) / 1e6
+      ,(duration[id] < 0) ? "-" : outcome_name(outcome_array[id])
+      ,label_array[id]
+    ));
+  }
+
+  // The critical path and the `top_n` slowest nodes, as text.
+  public synchronized String report(int top_n){
+    byte[] outcome_array = new byte[label_array.length];
+    long[] duration = duration_array(outcome_array);
+
+    long first_ns = Long.MAX_VALUE;
+    long last_ns = Long.MIN_VALUE;
+    for( Ring ring : ring_list ){
+      for( int i = 0; i < held_count(ring ,ring_capacity); i++ ){
+        first_ns = Math.min(first_ns ,ring.start_ns[i]);
+        last_ns = Math.max(last_ns ,ring.end_ns[i]);
+      }
+    }
+
+    StringBuilder out = new StringBuilder();
+    out.append( String.format(
+      "BuildTrace:: %d nodes, %d records on %d threads, %.3f ms, %d records dropped%n"
+      ,label_array.length ,record_count() ,ring_list.size()
+      ,(first_ns <= last_ns) ? (last_ns - first_ns) / 1e6 : 0.0
+      ,dropped_count()
+    ));
+    if(label_array.length == 0) return out.toString();
+
+    int[] path = critical_path(duration);
+    long path_ns = 0;
+    for( int id : path ) path_ns += Math.max(duration[id] ,0);
+    out.append( String.format("critical path, %.3f ms over %d nodes:%n" ,path_ns / 1e6 ,path.length) );
+    for( int id : path ) report_line(out ,id ,duration ,outcome_array);
+
+    Integer[] id_array = new Integer[label_array.length];
+    for( int id = 0; id < id_array.length; id++ ) id_array[id] = id;
+    Arrays.sort( id_array ,Comparator.comparingLong( (Integer id) -> duration[id] ).reversed() );
+    int shown = Math.min(top_n ,id_array.length);
+    out.append( String.format("slowest %d nodes:%n" ,shown) );
+    for( int i = 0; i < shown; i++ ) report_line(out ,id_array[i] ,duration ,outcome_array);
+    return out.toString();
+  }
+
+}
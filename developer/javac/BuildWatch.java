@@ -0,0 +1,302 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Watch mode: builds, then rebuilds whenever a file the build depends upon
+  changes, keeping the graph resident between builds.
+
+  Each build from the command line pays for JVM startup, for evaluating the
+  graph definition and marking it up, and for a stat of every file. Here that is
+  done once. Then:
+
+    1. The directory of every leaf and path node reachable from the roots is
+       registered with a WatchService.
+
+    2. The first event starts a batch. Events are collected until none has
+       arrived for `debounce_ms`, so that a burst, e.g. an editor saving
+       several files, or a `git checkout`, gives one build.
+
+    3. The changed paths are mapped back to node labels, and the dirty cone is
+       found: the changed nodes and all the nodes that depend upon them,
+       through a DependentIndex made when the graph was indexed. It is made
+       here, rather than taken from the graph, as it also holds the nodes made
+       by productions.
+
+    4. BuildParallel runs only the jobs in the cone. Nodes outside the cone
+       did not change, so they are not looked at, nor their files stat'ed.
+
+  A build writes the targets of path nodes, which the watch service then
+  reports. After each build the mtimes of the files in the cone are noted, and
+  an event for a file whose mtime is still the one noted is dropped, so a build
+  does not trigger another build. Nodes keep their marks from one build to the
+  next, so the `build_failed` marks in the cone are cleared before it is
+  rebuilt.
+
+  When the watch service overflows, events have been lost, so the whole graph
+  is rebuilt. A directory that does not exist when watching starts is not
+  watched.
+
+  `run` returns when `stop` is called from another thread, or the thread is
+  interrupted. The graph structure is not watched: a change to the graph
+  definition needs a restart.
+*/
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class BuildWatch{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public BuildWatch(GraphDirectedAcyclic graph ,BuildParallel build_parallel ,LabelList root_node_LabelList){
+    this.graph = graph;
+    this.build_parallel = build_parallel;
+    this.root_node_LabelList = root_node_LabelList;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final GraphDirectedAcyclic graph;
+  private final BuildParallel build_parallel;
+  private final LabelList root_node_LabelList;
+
+  private long debounce_ms = 200;
+  private boolean verbose = false;
+  private volatile WatchService watch_service = null;
+  private volatile boolean stop = false;
+
+  // file of each leaf and path node, dependents of each node, from `index`
+  private final Map<Path ,Label> file_label_map = new HashMap<>();
+  private final Map<Label ,Path> label_file_map = new HashMap<>();
+  private final DependentIndex dependent_index = new DependentIndex();
+  private final Map<WatchKey ,Path> key_directory_map = new HashMap<>();
+  private final Map<Label ,Long> settled_mtime_map = new HashMap<>();
+  private final Set<Label> indexed_set = new HashSet<>();
+
+  private volatile int build_count = 0;
+
+  public long debounce_ms(){
+    return debounce_ms;
+  }
+
+  public void debounce_ms(long debounce_ms){
+    this.debounce_ms = debounce_ms;
+  }
+
+  public void verbose(boolean verbose){
+    this.verbose = verbose;
+  }
+
+  public int build_count(){
+    return build_count;
+  }
+
+  public int watched_file_count(){
+    return file_label_map.size();
+  }
+
+  public int watched_directory_count(){
+    return key_directory_map.size();
+  }
+
+  /*--------------------------------------------------------------------------------
+    index
+  */
+
+  private static Path path(Label node_label){
+    return Paths.get( node_label.get() ).toAbsolutePath().normalize();
+  }
+
+  // finds the nodes reachable from the roots, their files, and their dependents
+  private void index(){
+    Deque<Label> stack = new ArrayDeque<>();
+    for( Label root_label : root_node_LabelList ) stack.push(root_label);
+    while( !stack.isEmpty() ){
+      Label node_label = stack.pop();
+      if( !indexed_set.add(node_label) ) continue;
+      Node node = graph.lookup(node_label ,false);
+      if(node == null) continue;
+      Object type = node.get("type");
+      if( "path".equals(type) || "leaf".equals(type) ){
+        Path fp = path(node_label);
+        file_label_map.put(fp ,node_label);
+        label_file_map.put(node_label ,fp);
+      }
+      dependent_index.node_add(node_label ,node);
+      for( Label neighbor_label : node.neighbor_LabelList() ) stack.push(neighbor_label);
+    }
+  }
+
+  private void register() throws IOException{
+    Set<Path> directory_set = new HashSet<>();
+    for( Path fp : file_label_map.keySet() ){
+      Path directory = fp.getParent();
+      if( directory != null && directory_set.add(directory) && Files.isDirectory(directory) ){
+        WatchKey key = directory.register(
+          watch_service
+          ,StandardWatchEventKinds.ENTRY_CREATE
+          ,StandardWatchEventKinds.ENTRY_MODIFY
+          ,StandardWatchEventKinds.ENTRY_DELETE
+        );
+        key_directory_map.put(key ,directory);
+      }
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    changes
+  */
+
+  private static long mtime(Path fp){
+    try{
+      return Files.getLastModifiedTime(fp).toMillis();
+    }catch(IOException e){
+      return -1;
+    }
+  }
+
+  // notes the mtimes of the files of the given nodes, all when null
+  private void settle(Set<Label> region){
+    for( Map.Entry<Label ,Path> entry : label_file_map.entrySet() ){
+      if( region == null || region.contains(entry.getKey()) ){
+        settled_mtime_map.put( entry.getKey() ,mtime(entry.getValue()) );
+      }
+    }
+  }
+
+  /*
+    Waits for a change, then for the events to stop for `debounce_ms`. Returns
+    the labels of the changed files, or null when the whole graph is to be
+    rebuilt. Throws ClosedWatchServiceException once stopped.
+  */
+  private Set<Label> changed_label_set() throws InterruptedException{
+    while(true){
+      Set<Label> changed_set = new HashSet<>();
+      boolean overflow = false;
+      WatchKey key = watch_service.take();
+      while(key != null){
+        Path directory = key_directory_map.get(key);
+        for( WatchEvent<?> event : key.pollEvents() ){
+          if( event.kind() == StandardWatchEventKinds.OVERFLOW ){
+            overflow = true;
+            continue;
+          }
+          if(directory == null) continue;
+          Label node_label = file_label_map.get( directory.resolve( (Path)event.context() ) );
+          if(node_label != null) changed_set.add(node_label);
+        }
+        key.reset();
+        key = watch_service.poll(debounce_ms ,TimeUnit.MILLISECONDS);
+      }
+      if(overflow) return null;
+
+      // drop the events that are only the previous build writing its targets
+      changed_set.removeIf( node_label -> {
+        Long settled_mtime = settled_mtime_map.get(node_label);
+        return settled_mtime != null && settled_mtime == mtime( label_file_map.get(node_label) );
+      });
+      if( !changed_set.isEmpty() ) return changed_set;
+      if(debug) System.out.println("BuildWatch.changed_label_set:: only build outputs changed");
+    }
+  }
+
+  // the changed nodes and every node that depends upon one of them
+  public Set<Label> dirty_cone(Set<Label> changed_set){
+    return dependent_index.dependent_cone(changed_set);
+  }
+
+  /*--------------------------------------------------------------------------------
+    interface
+  */
+
+  // a node that failed in an earlier build is tried again once it is in the cone,
+  // and a label no production recognized last time is tried again
+  private TokenSet build(Set<Label> region){
+    LookupCache lookup_cache = graph.lookup_cache();
+    if(lookup_cache != null) lookup_cache.negative_clear();
+    for( Label node_label : (region == null) ? indexed_set : region ){
+      Node node = graph.lookup(node_label ,false);
+      if(node != null) node.clear_mark(Token.build_failed);
+    }
+    build_count++;
+    TokenSet error_token_set = build_parallel.run_build_scripts_f(root_node_LabelList ,region ,verbose);
+    settle(region);
+    // a watch usually ends with an interrupt, so the history is kept after each build
+    DurationHistory duration_history = build_parallel.duration_history();
+    if(duration_history != null){
+      try{
+        duration_history.save();
+      }catch(IOException e){
+        System.err.println("BuildWatch: saving the duration history: " + e.getMessage());
+      }
+    }
+    return error_token_set;
+  }
+
+  /*
+    Builds the roots, then rebuilds the dirty cone after each batch of changes,
+    until stopped.
+  */
+  public void run() throws IOException{
+    watch_service = FileSystems.getDefault().newWatchService();
+    try{
+      index();
+      register();
+      System.out.println(
+        "BuildWatch:: watching " + file_label_map.size() + " files in " + key_directory_map.size() + " directories"
+      );
+      TokenSet error_token_set = build(null);
+      if( !error_token_set.isEmpty() ) System.out.println("BuildWatch:: build errors: " + error_token_set);
+
+      while( !stop ){
+        Set<Label> changed_set = changed_label_set();
+        if(stop) break;
+        Set<Label> region = (changed_set == null) ? null : dirty_cone(changed_set);
+        System.out.println(
+          "BuildWatch:: "
+          + ( (changed_set == null) ? "events lost, rebuilding all" : changed_set.size() + " changed, rebuilding " + region.size() + " nodes" )
+        );
+        error_token_set = build(region);
+        if( !error_token_set.isEmpty() ) System.out.println("BuildWatch:: build errors: " + error_token_set);
+      }
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }catch(ClosedWatchServiceException e){
+      // stopped
+    }finally{
+      watch_service.close();
+    }
+  }
+
+  public void stop(){
+    stop = true;
+    WatchService service = watch_service;
+    if(service != null){
+      try{
+        service.close();
+      }catch(IOException e){
+        System.err.println("BuildWatch: closing the watch service: " + e.getMessage());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,206 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Marks the cycles reachable from root nodes, resolving the nodes on a pool of
+  worker threads.
+
+  The time `graph_mark_SCC` takes is mostly the lookups, i.e. the map lookups
+  and production calls, rather than Tarjan's algorithm itself, which touches each
+  node and edge once. And a request with hundreds of root targets often reaches
+  largely disjoint subgraphs. So the work is split in two:
+
+    1. discovery: a task per label looks the label up, records its neighbor
+       list, and forks a task for each neighbor not yet claimed. Claiming is an
+       add to a concurrent set, so a subgraph shared by several roots is looked
+       up once. The tasks are CountedCompleters, so a long chain of nodes does
+       not nest joins on the stack.
+
+    2. marking: the discovered nodes are numbered into int arrays, and
+       StronglyConnected finds the SCCs, in one pass on the calling thread. The
+       members of the cyclic SCCs are then marked `cycle_member`, through the
+       nodes discovery looked up.
+
+  As the SCCs are found by the same algorithm over the same edges, the marks are
+  those the sequential `graph_mark_SCC` makes. Step 2 numbers the nodes in
+  depth first order from the roots, so the SCC list is the same on each run.
+
+  The lookups run concurrently, so the graph must allow that: a GraphConcurrent,
+  or a graph whose productions are thread safe. The LookupCache of Graph is.
+  When the graph has an AnalysisBudget, discovery stops once it is exhausted.
+  The cycles found among the nodes discovered are still marked, as they are
+  cycles.
+*/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+public class CycleMarkParallel{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  // worker_count <= 0 means one worker per available processor
+  public CycleMarkParallel(GraphDirectedAcyclic graph ,int worker_count){
+    this.graph = graph;
+    this.worker_count = (worker_count > 0) ? worker_count : Runtime.getRuntime().availableProcessors();
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final GraphDirectedAcyclic graph;
+  private final int worker_count;
+
+  public int worker_count(){
+    return worker_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    discovery
+  */
+
+  private static class Discovery{
+    final Set<Label> claimed_set = ConcurrentHashMap.newKeySet();
+    final Map<Label ,Node> node_map = new ConcurrentHashMap<>();
+    final Set<Label> undefined_node_set = ConcurrentHashMap.newKeySet();
+  }
+
+  private class DiscoverTask extends CountedCompleter<Void>{
+    private static final long serialVersionUID = 1L;
+    private final Label node_label;
+    private final Discovery discovery;
+
+    DiscoverTask(CountedCompleter<?> parent ,Label node_label ,Discovery discovery){
+      super(parent);
+      this.node_label = node_label;
+      this.discovery = discovery;
+    }
+
+    @Override
+    public void compute(){
+      AnalysisBudget budget = graph.analysis_budget();
+      if( budget == null || budget.node_q() ){
+        Node node = graph.lookup_marked(node_label);
+        if(node == null){
+          if( budget == null || !budget.exhausted_q() ) discovery.undefined_node_set.add(node_label);
+        }else{
+          discovery.node_map.put(node_label ,node);
+          for( Label neighbor_label : node.neighbor_LabelList() ){
+            if( discovery.claimed_set.add(neighbor_label) ){
+              addToPendingCount(1);
+              new DiscoverTask(this ,neighbor_label ,discovery).fork();
+            }
+          }
+        }
+      }
+      tryComplete();
+    }
+  }
+
+  private class RootTask extends CountedCompleter<Void>{
+    private static final long serialVersionUID = 1L;
+    private final LabelList root_node_LabelList;
+    private final Discovery discovery;
+
+    RootTask(LabelList root_node_LabelList ,Discovery discovery){
+      this.root_node_LabelList = root_node_LabelList;
+      this.discovery = discovery;
+    }
+
+    @Override
+    public void compute(){
+      for( Label root_label : root_node_LabelList ){
+        if( discovery.claimed_set.add(root_label) ){
+          addToPendingCount(1);
+          new DiscoverTask(this ,root_label ,discovery).fork();
+        }
+      }
+      tryComplete();
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    marking
+  */
+
+  // numbers the discovered nodes depth first from the roots
+  private StronglyConnected.Numbering numbering(LabelList root_node_LabelList ,Discovery discovery){
+    Set<Label> numbered_set = new HashSet<>( discovery.node_map.size() * 2 );
+    List<Label> label_list = new ArrayList<>( discovery.node_map.size() );
+    List<Node> node_list = new ArrayList<>( discovery.node_map.size() );
+    Deque<Label> stack = new ArrayDeque<>();
+    for( int i = root_node_LabelList.size() - 1; i >= 0; i-- ) stack.push( root_node_LabelList.get(i) );
+    while( !stack.isEmpty() ){
+      Label node_label = stack.pop();
+      Node node = discovery.node_map.get(node_label);
+      if( node == null || !numbered_set.add(node_label) ) continue;
+      label_list.add(node_label);
+      node_list.add(node);
+      LabelList neighbor_list = node.neighbor_LabelList();
+      for( int i = neighbor_list.size() - 1; i >= 0; i-- ) stack.push( neighbor_list.get(i) );
+    }
+    // undefined neighbors, and those not discovered before the budget ran out, are numbered after
+    return new StronglyConnected.Numbering(label_list ,node_list);
+  }
+
+  /*
+    Same contract as `GraphDirectedAcyclic.graph_mark_SCC`: marks the members of
+    the cyclic SCCs reachable from the roots, adds the tokens of
+    `graph_mark_cycles_set` to `ret_value`, and returns the cyclic SCCs.
+  */
+  public List<LabelList> graph_mark_SCC(LabelList root_node_LabelList ,TokenSet ret_value ,boolean verbose){
+    if( root_node_LabelList.isEmpty() ){
+      ret_value.add(Token.empty_root_label_list);
+      return new ArrayList<>();
+    }
+
+    Discovery discovery = new Discovery();
+    ForkJoinPool pool = new ForkJoinPool(worker_count);
+    try{
+      pool.invoke( new RootTask(root_node_LabelList ,discovery) );
+    }finally{
+      pool.shutdown();
+    }
+    if(verbose) System.out.println(
+      "CycleMarkParallel.graph_mark_SCC:: discovered " + discovery.node_map.size() + " nodes on " + worker_count + " workers"
+    );
+
+    StronglyConnected.Numbering numbering = numbering(root_node_LabelList ,discovery);
+    StronglyConnected scc_engine = numbering.search(null);
+    for( Label root_label : root_node_LabelList ){
+      int root = numbering.id(root_label);
+      if( root >= 0 && root < numbering.defined_count ) scc_engine.search(root);
+    }
+    List<LabelList> scc_list = new ArrayList<>();
+    for( int c = 0; c < scc_engine.component_count(); c++ ){
+      if( !scc_engine.cyclic_q(c) ) continue;
+      LabelList scc = new LabelList();
+      for( int i = scc_engine.member_begin(c); i < scc_engine.member_end(c); i++ ){
+        int id = scc_engine.member(i);
+        scc.add( numbering.label_array[id] );
+        numbering.node_array[id].mark(Token.cycle_member);
+      }
+      scc_list.add(scc);
+      if(verbose) Util.print_list("Found cycle:" ,scc);
+    }
+    graph.scc_record(scc_list);
+
+    AnalysisBudget budget = graph.analysis_budget();
+    if( !scc_list.isEmpty() ) ret_value.add(Token.cycle_exists);
+    if( !discovery.undefined_node_set.isEmpty() ) ret_value.add(Token.undefined_node_exists);
+    if( budget != null && budget.exhausted_q() ) ret_value.add(Token.budget_exhausted);
+    return scc_list;
+  }
+
+}
@@ -0,0 +1,231 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  The reverse of the graph edges: for each label, the nodes that depend upon it.
+
+  Edges are kept forward, in `Node.neighbor_LabelList`, so the question "what
+  must be rebuilt when this file changes" would otherwise be a scan of every node.
+  This index is made in one pass over a node map, and then kept current by
+  `node_add`, `node_remove`, `edge_add` and `edge_remove`, which
+  GraphDirectedAcyclic calls from its own edit methods.
+
+  Labels are interned, and the dependents of a label are kept as an int array of
+  label ids, indexed by the id of the label depended upon. So the index is two
+  ints per edge plus the array headers, and `dependent_cone` walks int arrays and
+  a bit set rather than maps of labels.
+
+  An edge given twice is kept twice, as the forward list keeps it twice, and
+  removing one copy leaves the other. An edge to a label that has no node is
+  kept, so the node is found as a dependent once the label gets one.
+
+  The index only knows about what it is told. Nodes made by productions are not
+  in the node map, and are entered with `node_add` by whoever looks them up, and
+  a neighbor list changed directly, not through the graph edit methods, leaves
+  the index behind.
+
+  The index holds the interned label of each id it keeps, so the id stays given
+  to that label, see InternTable.
+
+  Not thread safe for writes. Queries may run concurrently with each other.
+*/
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class DependentIndex{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public DependentIndex(){
+    this(0);
+  }
+
+  // `id_capacity`, when known, sizes the arrays for labels of id below it
+  public DependentIndex(int id_capacity){
+    dependent_array = new int[ Math.max(id_capacity ,16) ][];
+    dependent_count_array = new int[ dependent_array.length ];
+    label_by_id = new Label[ dependent_array.length ];
+  }
+
+  // one pass over the map definition
+  public static DependentIndex of(Map<Label ,Node> node_map){
+    DependentIndex index = new DependentIndex( Label.intern_count() );
+    for( Map.Entry<Label ,Node> entry : node_map.entrySet() ){
+      index.node_add( entry.getKey() ,entry.getValue() );
+    }
+    return index;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  // dependent_array[id] holds the ids of the dependents of label id, the first dependent_count_array[id] of them
+  private int[][] dependent_array;
+  private int[] dependent_count_array;
+  private Label[] label_by_id;
+  private long edge_count = 0;
+
+  public long edge_count(){
+    return edge_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    edits
+  */
+
+  private void capacity(int id){
+    if(id < dependent_array.length) return;
+    int length = Math.max( id + 1 ,dependent_array.length + (dependent_array.length >> 1) );
+    dependent_array = Arrays.copyOf(dependent_array ,length);
+    dependent_count_array = Arrays.copyOf(dependent_count_array ,length);
+    label_by_id = Arrays.copyOf(label_by_id ,length);
+  }
+
+  // the id of the label, which the index then holds
+  private int id(Label node_label){
+    Label interned = node_label.intern();
+    int id = interned.id();
+    capacity(id);
+    label_by_id[id] = interned;
+    return id;
+  }
+
+  private Label label(int id){
+    return (id < label_by_id.length && label_by_id[id] != null) ? label_by_id[id] : Label.by_id(id);
+  }
+
+  private void entry_add(int to_id ,int from_id){
+    capacity(to_id);
+    int[] list = dependent_array[to_id];
+    int count = dependent_count_array[to_id];
+    if(list == null){
+      list = new int[2];
+      dependent_array[to_id] = list;
+    }else if(count == list.length){
+      list = Arrays.copyOf(list ,count << 1);
+      dependent_array[to_id] = list;
+    }
+    list[count] = from_id;
+    dependent_count_array[to_id] = count + 1;
+    edge_count++;
+  }
+
+  private boolean entry_remove(int to_id ,int from_id){
+    if(to_id >= dependent_array.length) return false;
+    int[] list = dependent_array[to_id];
+    int count = dependent_count_array[to_id];
+    for( int i = 0; i < count; i++ ){
+      if(list[i] == from_id){
+        // order among dependents carries no meaning, so the last takes the place of the one removed
+        list[i] = list[count - 1];
+        dependent_count_array[to_id] = count - 1;
+        if(count == 1) dependent_array[to_id] = null;
+        edge_count--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // enters the edges of `node`, to be called when the node is added to the graph
+  public void node_add(Label node_label ,Node node){
+    int from_id = id(node_label);
+    for( Label neighbor_label : node.neighbor_LabelList() ){
+      entry_add( id(neighbor_label) ,from_id );
+    }
+  }
+
+  // removes the edges of `node`, to be called with the node being removed from the graph
+  public void node_remove(Label node_label ,Node node){
+    int from_id = node_label.intern().id();
+    for( Label neighbor_label : node.neighbor_LabelList() ){
+      entry_remove( neighbor_label.intern().id() ,from_id );
+    }
+  }
+
+  public void edge_add(Label from_label ,Label to_label){
+    entry_add( id(to_label) ,id(from_label) );
+  }
+
+  // removes one copy of the edge, returns false when there was none
+  public boolean edge_remove(Label from_label ,Label to_label){
+    return entry_remove( to_label.intern().id() ,from_label.intern().id() );
+  }
+
+  /*--------------------------------------------------------------------------------
+    queries
+  */
+
+  public int dependent_count(Label node_label){
+    int id = node_label.intern().id();
+    return (id < dependent_count_array.length) ? dependent_count_array[id] : 0;
+  }
+
+  // the nodes with an edge to node_label, one entry per edge
+  public LabelList dependent_list(Label node_label){
+    int id = node_label.intern().id();
+    LabelList dependent_list = new LabelList();
+    if(id >= dependent_array.length) return dependent_list;
+    int[] list = dependent_array[id];
+    for( int i = 0; i < dependent_count_array[id]; i++ ) dependent_list.add( label(list[i]) );
+    return dependent_list;
+  }
+
+  /*
+    The ids of the changed labels and of every label that depends upon one of them,
+    directly or transitively, each once. The changed labels come first, then the
+    dependents in the order found.
+  */
+  public int[] dependent_cone_id(int[] changed_id_array){
+    int[][] dependent_array = this.dependent_array;
+    int[] dependent_count_array = this.dependent_count_array;
+    long[] seen = new long[ (Label.intern_count() >> 6) + 1 ];
+    int[] cone = new int[ Math.max(changed_id_array.length ,16) ];
+    int cone_count = 0;
+    for( int id : changed_id_array ){
+      if( (seen[id >> 6] & (1L << id)) != 0 ) continue;
+      seen[id >> 6] |= 1L << id;
+      cone[cone_count++] = id;
+    }
+    // the cone doubles as the work queue, everything after `next` is yet to be expanded
+    for( int next = 0; next < cone_count; next++ ){
+      int id = cone[next];
+      if(id >= dependent_array.length) continue;
+      int[] list = dependent_array[id];
+      for( int i = 0 ,count = dependent_count_array[id]; i < count; i++ ){
+        int dependent_id = list[i];
+        if( (seen[dependent_id >> 6] & (1L << dependent_id)) != 0 ) continue;
+        seen[dependent_id >> 6] |= 1L << dependent_id;
+        if(cone_count == cone.length) cone = Arrays.copyOf(cone ,cone_count << 1);
+        cone[cone_count++] = dependent_id;
+      }
+    }
+    if(debug) System.out.println("DependentIndex.dependent_cone_id:: " + changed_id_array.length + " changed, cone of " + cone_count);
+    return Arrays.copyOf(cone ,cone_count);
+  }
+
+  // the changed labels and every label that depends upon one of them
+  public Set<Label> dependent_cone(Collection<Label> changed_collection){
+    int[] changed_id_array = new int[ changed_collection.size() ];
+    int i = 0;
+    for( Label changed_label : changed_collection ) changed_id_array[i++] = changed_label.intern().id();
+    int[] cone = dependent_cone_id(changed_id_array);
+    Set<Label> cone_set = new LinkedHashSet<>( cone.length * 2 );
+    for( int id : cone ) cone_set.add( label(id) );
+    return cone_set;
+  }
+
+  @Override
+  public String toString(){
+    return "DependentIndex(" + edge_count + " edges)";
+  }
+
+}
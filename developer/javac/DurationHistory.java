@@ -0,0 +1,185 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Build durations of nodes, kept from one build to the next.
+
+  BuildParallel records the time each build script took here, and with a
+  history it schedules the ready nodes longest remaining path first, see
+  `BuildParallel.duration_history`. A node's duration is an exponentially
+  weighted average over its builds, `weight_new` given to the newest, so one
+  unusually slow build does not dominate the estimate.
+
+  The history is small, one entry per built node, so it is read into a map on
+  open, and written out whole by `save`, via a temporary file and a rename, so a
+  build that dies part way leaves the previous history in place. `close` saves
+  when there have been changes.
+
+  File layout:
+
+    header   magic "ADH1" ,int entry count
+    entry    int label length, then the label in UTF-8 ,long duration_ns ,int sample count
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DurationHistory implements AutoCloseable{
+
+  private static final byte[] magic = "ADH1".getBytes(StandardCharsets.US_ASCII);
+  private static final double weight_new = 0.5;
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  // reads the history in `history_fp`, a missing or unreadable file is an empty history
+  public DurationHistory(Path history_fp){
+    this.history_fp = history_fp;
+    if( history_fp != null && Files.isRegularFile(history_fp) ){
+      try{
+        read();
+      }catch(IOException e){
+        System.err.println("DurationHistory: ignoring unreadable history " + history_fp + ": " + e.getMessage());
+        entry_map.clear();
+      }
+    }
+  }
+
+  // a history that is not saved
+  public DurationHistory(){
+    this(null);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final Path history_fp;
+
+  private static class Entry{
+    final long duration_ns;
+    final int sample_count;
+    Entry(long duration_ns ,int sample_count){
+      this.duration_ns = duration_ns;
+      this.sample_count = sample_count;
+    }
+  }
+
+  private final Map<Label ,Entry> entry_map = new HashMap<>();
+  private boolean changed = false;
+
+  public synchronized int size(){
+    return entry_map.size();
+  }
+
+  /*--------------------------------------------------------------------------------
+    interface
+  */
+
+  // the estimated duration, or -1 when the node has not been built before
+  public synchronized long duration_ns(Label node_label){
+    Entry entry = entry_map.get( node_label.intern() );
+    return (entry == null) ? -1 : entry.duration_ns;
+  }
+
+  public synchronized int sample_count(Label node_label){
+    Entry entry = entry_map.get( node_label.intern() );
+    return (entry == null) ? 0 : entry.sample_count;
+  }
+
+  // the mean over all nodes of the estimated duration, or -1 for an empty history
+  public synchronized long mean_duration_ns(){
+    if( entry_map.isEmpty() ) return -1;
+    long sum = 0;
+    for( Entry entry : entry_map.values() ) sum += entry.duration_ns;
+    return sum / entry_map.size();
+  }
+
+  public synchronized void record(Label node_label ,long duration_ns){
+    Label key = node_label.intern();
+    Entry entry = entry_map.get(key);
+    if(entry == null){
+      entry_map.put( key ,new Entry(duration_ns ,1) );
+    }else{
+      long average = Math.round( weight_new * duration_ns + (1 - weight_new) * entry.duration_ns );
+      entry_map.put( key ,new Entry(average ,entry.sample_count + 1) );
+    }
+    changed = true;
+  }
+
+  public synchronized void forget(Label node_label){
+    if( entry_map.remove( node_label.intern() ) != null ) changed = true;
+  }
+
+  /*--------------------------------------------------------------------------------
+    file
+  */
+
+  // the smallest entry, an empty label with its length, duration and sample count
+  private static final int entry_bytes_min = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+  // the counts and lengths are checked against the file size, so a damaged file is unreadable rather than a huge allocation
+  private void read() throws IOException{
+    long file_size = Files.size(history_fp);
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream(Files.newInputStream(history_fp)) ) ){
+      byte[] file_magic = new byte[magic.length];
+      in.readFully(file_magic);
+      if( !Arrays.equals(file_magic ,magic) ) throw new IOException("bad magic");
+      int count = in.readInt();
+      if( count < 0 || count > file_size / entry_bytes_min ) throw new IOException("bad entry count " + count);
+      for( int i = 0; i < count; i++ ){
+        int label_length = in.readInt();
+        if( label_length < 0 || label_length > file_size ) throw new IOException("bad label length " + label_length);
+        byte[] label_bytes = new byte[label_length];
+        in.readFully(label_bytes);
+        long duration_ns = in.readLong();
+        int sample_count = in.readInt();
+        entry_map.put( Label.intern( new String(label_bytes ,StandardCharsets.UTF_8) ) ,new Entry(duration_ns ,sample_count) );
+      }
+    }catch(EOFException e){
+      throw new IOException("truncated");
+    }
+    if(debug) System.out.println("DurationHistory.read:: " + entry_map.size() + " entries from " + history_fp);
+  }
+
+  public synchronized void save() throws IOException{
+    if(history_fp == null) return;
+    Path temp_fp = history_fp.resolveSibling( history_fp.getFileName() + ".tmp" );
+    try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(Files.newOutputStream(temp_fp)) ) ){
+      out.write(magic);
+      out.writeInt( entry_map.size() );
+      for( Map.Entry<Label ,Entry> map_entry : entry_map.entrySet() ){
+        byte[] label_bytes = map_entry.getKey().get().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(label_bytes.length);
+        out.write(label_bytes);
+        out.writeLong( map_entry.getValue().duration_ns );
+        out.writeInt( map_entry.getValue().sample_count );
+      }
+    }
+    Files.move(temp_fp ,history_fp ,StandardCopyOption.REPLACE_EXISTING ,StandardCopyOption.ATOMIC_MOVE);
+    changed = false;
+  }
+
+  @Override
+  public synchronized void close() throws IOException{
+    if(changed) save();
+  }
+
+  @Override
+  public synchronized String toString(){
+    return "DurationHistory(" + entry_map.size() + " nodes" + ( (history_fp == null) ? "" : " ," + history_fp ) + ")";
+  }
+
+}
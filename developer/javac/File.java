@@ -46,6 +46,12 @@ public class File {
     return Files.exists(fp_object);
   }
 
+  // Same as above, but asks the stat cache when one is given.
+  public static boolean file_exists_q(String fp_string, FileStatCache stat_cache) {
+    if (stat_cache == null) return file_exists_q(fp_string);
+    return stat_cache.exists_q(fp_string);
+  }
+
   /*
     Given a target_fp and a list of list of dependency_fp.
 
@@ -70,4 +76,23 @@ public class File {
     });
   }
 
+  /*
+    Same as above, but asks the stat cache when one is given. The dependency
+    stats are prefetched in parallel.
+  */
+  public static boolean newer_than_all(String target_fp_string, List<String> dependency_fp_list, FileStatCache stat_cache) throws IOException {
+    if (stat_cache == null) return newer_than_all(target_fp_string, dependency_fp_list);
+
+    long target_last_modified_time = stat_cache.last_modified_ms(target_fp_string);
+    if (target_last_modified_time < 0) return false;
+
+    stat_cache.prefetch(dependency_fp_list);
+    for (String dependency_fp : dependency_fp_list) {
+      long dependency_last_modified_time = stat_cache.last_modified_ms(dependency_fp);
+      if (dependency_last_modified_time < 0) return false;
+      if (target_last_modified_time <= dependency_last_modified_time) return false;
+    }
+    return true;
+  }
+
 }
@@ -0,0 +1,169 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Holds one `readAttributes` result per file path, for the duration of a build.
+
+  The up to date checks ask whether a file exists and when it was last
+  modified. A popular file, such as a shared header or jar, is a dependency of
+  many nodes, and without a cache it is stat'ed once per dependent, and twice
+  each time, once by `Files.exists` and again by `Files.getLastModifiedTime`.
+
+  Here a path is read from the file system at most once, and the result,
+  including 'does not exist', is kept until `invalidate` is called for the path.
+  The build walk invalidates a node's path after its build script runs, as the
+  script may have written it.
+
+  `prefetch` reads the attributes of a list of paths in parallel. On a network
+  mounted workspace stat latency, not bandwidth, is the cost, so overlapping
+  the requests hides most of it. The reads run on a small pool of daemon
+  threads kept for this, not on the common ForkJoin pool, as the build jobs
+  that call `prefetch` already occupy ForkJoin workers, and blocking I/O there
+  would starve them.
+
+  A file is read outside of any map lock, so a slow stat does not hold up
+  other paths that hash to the same bin. Two threads that miss on one path at
+  once may both read it, and the first result stored is kept.
+*/
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FileStatCache{
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  // prefetching fewer paths than this is not worth the hand off to other threads
+  public static int prefetch_threshold = 8;
+
+  public static int prefetch_thread_count = 8;
+
+  private static volatile ExecutorService prefetch_executor = null;
+
+  private static ExecutorService prefetch_executor(){
+    if(prefetch_executor == null){
+      synchronized(FileStatCache.class){
+        if(prefetch_executor == null){
+          prefetch_executor = Executors.newFixedThreadPool(
+            prefetch_thread_count
+            ,runnable -> {
+              Thread thread = new Thread(runnable ,"FileStatCache.prefetch");
+              thread.setDaemon(true);
+              return thread;
+            }
+          );
+        }
+      }
+    }
+    return prefetch_executor;
+  }
+
+  // an empty Optional records that the file does not exist
+  private final ConcurrentHashMap<String ,Optional<BasicFileAttributes>> attribute_map = new ConcurrentHashMap<>();
+
+  private final LongAdder read_count = new LongAdder();
+  private final LongAdder request_count = new LongAdder();
+
+  /*--------------------------------------------------------------------------------
+   interface
+  */
+
+  private Optional<BasicFileAttributes> read(String fp_string){
+    read_count.increment();
+    try{
+      Path fp_object = Paths.get(fp_string);
+      return Optional.of( Files.readAttributes(fp_object ,BasicFileAttributes.class) );
+    }catch(NoSuchFileException e){
+      return Optional.empty();
+    }catch(IOException e){
+      if(debug) System.out.println("FileStatCache.read:: " + fp_string + ": " + e);
+      return Optional.empty();
+    }
+  }
+
+  // null when the file does not exist, or can not be read
+  public BasicFileAttributes attributes(String fp_string){
+    request_count.increment();
+    Optional<BasicFileAttributes> attributes = attribute_map.get(fp_string);
+    if(attributes == null) attributes = cache(fp_string);
+    return attributes.orElse(null);
+  }
+
+  // reads the file and stores the result, unless another thread stored one first
+  private Optional<BasicFileAttributes> cache(String fp_string){
+    Optional<BasicFileAttributes> attributes = read(fp_string);
+    Optional<BasicFileAttributes> prior = attribute_map.putIfAbsent(fp_string ,attributes);
+    return (prior != null) ? prior : attributes;
+  }
+
+  public boolean exists_q(String fp_string){
+    return attributes(fp_string) != null;
+  }
+
+  // -1 when the file does not exist
+  public long last_modified_ms(String fp_string){
+    BasicFileAttributes attributes = attributes(fp_string);
+    return (attributes == null) ? -1 : attributes.lastModifiedTime().toMillis();
+  }
+
+  // -1 when the file does not exist
+  public long size(String fp_string){
+    BasicFileAttributes attributes = attributes(fp_string);
+    return (attributes == null) ? -1 : attributes.size();
+  }
+
+  public void invalidate(String fp_string){
+    attribute_map.remove(fp_string);
+  }
+
+  public void clear(){
+    attribute_map.clear();
+  }
+
+  // Reads the attributes of the paths not yet cached, in parallel.
+  public void prefetch(List<String> fp_list){
+    if( fp_list.size() < prefetch_threshold ){
+      return;
+    }
+    List<CompletableFuture<?>> future_list = new ArrayList<>();
+    for( String fp_string : fp_list ){
+      if( attribute_map.containsKey(fp_string) ) continue;
+      future_list.add( CompletableFuture.runAsync( () -> cache(fp_string) ,prefetch_executor() ) );
+    }
+    CompletableFuture.allOf( future_list.toArray(new CompletableFuture<?>[0]) ).join();
+  }
+
+  // number of times the file system was asked
+  public long read_count(){
+    return read_count.sum();
+  }
+
+  // number of times the cache was asked
+  public long request_count(){
+    return request_count.sum();
+  }
+
+  @Override
+  public String toString(){
+    return
+      "FileStatCache: " + attribute_map.size() + " paths"
+      + ", " + request_count.sum() + " requests"
+      + ", " + read_count.sum() + " file system reads";
+  }
+
+}
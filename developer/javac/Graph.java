@@ -1,7 +1,13 @@
 package com.ReasoningTechnology.Ariadne;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class Graph{
 
@@ -27,11 +33,180 @@ public class Graph{
   private static boolean debug = true;
   private Map<Label ,Node> node_map;
   private ProductionList recognizer_f_list;
+  private LookupCache lookup_cache = new LookupCache();
+  private AnalysisBudget analysis_budget = null;
+  private MarkRegistry mark_registry = null;
+
+  /*
+    The graph marks of nodes made by productions. Such a node is held only by the
+    lookup cache, so once evicted, or on every lookup when there is no cache, the
+    label is produced again as a new node. Its cycle_member and build_failed marks
+    are kept here, by label id, rather than in the node, so the new node has them
+    too. Used while the graph has no mark registry of its own.
+  */
+  private MarkRegistry produced_mark_registry = new MarkRegistry(Token.cycle_member ,Token.build_failed);
 
   /*--------------------------------------------------------------------------------
    interface
   */
 
+  protected Map<Label ,Node> node_map(){
+    return node_map;
+  }
+
+  // for a subclass that replaces its storage, e.g. to edit a graph read as compact storage
+  protected void node_map(Map<Label ,Node> node_map){
+    this.node_map = node_map;
+  }
+
+  protected ProductionList recognizer_f_list(){
+    return recognizer_f_list;
+  }
+
+  // null when production results are not cached
+  public LookupCache lookup_cache(){
+    return lookup_cache;
+  }
+
+  // give null to run the productions on every lookup
+  public void lookup_cache(LookupCache lookup_cache){
+    this.lookup_cache = lookup_cache;
+  }
+
+  // null when analysis is not bounded, see AnalysisBudget
+  public AnalysisBudget analysis_budget(){
+    return analysis_budget;
+  }
+
+  public void analysis_budget(AnalysisBudget analysis_budget){
+    this.analysis_budget = analysis_budget;
+  }
+
+  // null when each node keeps all of its marks, see MarkRegistry
+  public MarkRegistry mark_registry(){
+    return mark_registry;
+  }
+
+  /*
+    The nodes of the map definition keep their registered marks in the registry
+    from here on, as do nodes made by productions once looked up. Marks already
+    set are moved over, and the graph marks of produced nodes are registered
+    with it and copied in. Given null, the marks are moved back into the nodes.
+
+    Compact storage keeps its marks in its own bit columns, so it can not be given
+    a registry.
+  */
+  public void mark_registry(MarkRegistry mark_registry){
+    if( mark_registry != null && node_map instanceof NodeMapCompact ){
+      throw new UnsupportedOperationException("Graph: compact storage keeps its own mark bits, it takes no MarkRegistry");
+    }
+    if(produced_mark_registry != null){
+      if(mark_registry != null) produced_mark_copy(produced_mark_registry ,mark_registry);
+      else if(this.mark_registry != null) produced_mark_copy(this.mark_registry ,produced_mark_registry);
+    }
+    if(this.mark_registry != null) this.mark_registry.graph_detach(this);
+    if(mark_registry != null) mark_registry.graph_attach(this);
+    this.mark_registry = mark_registry;
+    for( Map.Entry<Label ,Node> entry : node_map.entrySet() ){
+      if(mark_registry == null) entry.getValue().mark_registry_detach();
+      else entry.getValue().mark_registry_attach( mark_registry ,entry.getKey().intern() );
+    }
+  }
+
+  // called by the registry when a mark is registered after it was given to this graph
+  void mark_migrate(MarkRegistry mark_registry ,Token mark ,int mark_index){
+    for( Node node : node_map.values() ) node.mark_registry_migrate(mark_registry ,mark ,mark_index);
+    if(lookup_cache == null) return;
+    for( Node node : lookup_cache.node_list() ) node.mark_registry_migrate(mark_registry ,mark ,mark_index);
+  }
+
+  // copies the produced node marks of `from` into `to`, registering them there
+  private void produced_mark_copy(MarkRegistry from ,MarkRegistry to){
+    for( Token mark : produced_mark_registry.mark_token_list() ){
+      int from_index = from.mark_index(mark);
+      if(from_index < 0) continue;
+      int to_index = to.register(mark);
+      for( int id = from.next(from_index ,0); id >= 0; id = from.next(from_index ,id + 1) ){
+        if( !node_map.containsKey( from.label(id) ) ) to.set(to_index ,id);
+      }
+    }
+    if(to == produced_mark_registry) return;
+    for( int mark_index = 0; mark_index < from.mark_count(); mark_index++ ) from.clear_all(mark_index);
+  }
+
+  // null when the graph marks of produced nodes are kept in the nodes, e.g. when produced nodes are never dropped
+  protected MarkRegistry produced_mark_registry(){
+    return produced_mark_registry;
+  }
+
+  protected void produced_mark_registry(MarkRegistry produced_mark_registry){
+    this.produced_mark_registry = produced_mark_registry;
+  }
+
+  // the registry a node made by a production keeps its marks in, or null
+  private MarkRegistry produced_registry(){
+    return (mark_registry != null) ? mark_registry : produced_mark_registry;
+  }
+
+  /*
+    Forgets the marks kept for a produced node of this label, e.g. when a node of
+    the map definition takes the label, or gives it up to the productions.
+  */
+  protected void produced_mark_forget(Label node_label){
+    if(produced_mark_registry == null) return;
+    int id = node_label.intern().id();
+    for( int mark_index = 0; mark_index < produced_mark_registry.mark_count(); mark_index++ ){
+      produced_mark_registry.clear(mark_index ,id);
+    }
+  }
+
+  /*
+    Forgets the nodes made by productions, and their cycle_member and build_failed
+    marks, so each label is produced again on its next lookup. For a graph kept
+    from one build to the next, e.g. by a build server, as what a production
+    makes may depend upon files that have since changed. The marks of the map
+    definition nodes are kept.
+  */
+  public void produced_forget(){
+    if(lookup_cache != null) lookup_cache.clear();
+    MarkRegistry registry = produced_registry();
+    if(registry == null) return;
+    for( Token mark : new Token[]{Token.cycle_member ,Token.build_failed} ){
+      int mark_index = registry.mark_index(mark);
+      if(mark_index < 0) continue;
+      for( int id = registry.next(mark_index ,0); id >= 0; id = registry.next(mark_index ,id + 1) ){
+        Label node_label = registry.label(id);
+        if( node_label == null || !node_map.containsKey(node_label) ) registry.clear(mark_index ,id);
+      }
+    }
+  }
+
+  // Removes the mark from every node. A registered mark is a fill of one bitmap,
+  // otherwise the nodes of the map definition are visited.
+  public void mark_clear_all(Token mark){
+    int produced_index = (produced_mark_registry == null) ? -1 : produced_mark_registry.mark_index(mark);
+    if(produced_index >= 0) produced_mark_registry.clear_all(produced_index);
+    int mark_index = (mark_registry == null) ? -1 : mark_registry.mark_index(mark);
+    if(mark_index >= 0){
+      mark_registry.clear_all(mark_index);
+      return;
+    }
+    for( Node node : node_map.values() ) node.clear_mark(mark);
+  }
+
+  // Runs the productions in order, returns the first node made, or null.
+  // The list's ProductionIndex skips productions whose key does not match.
+  protected Node produce(Label node_label){
+    if(analysis_budget != null) analysis_budget.production_q();
+    return this.recognizer_f_list.index().produce(node_label);
+  }
+
+  // Called by `lookup` when the map does not hold the label. Runs the
+  // productions, through the lookup cache when there is one.
+  protected Node resolve(Label node_label){
+    return (lookup_cache != null) ? lookup_cache.resolve(node_label ,this::produce) : produce(node_label);
+  }
+
   // Lookup method to find a node by its label
   public Node lookup(Label node_label ,boolean verbose){
     if( node_label == null || node_label.isEmpty() ){
@@ -43,10 +218,22 @@ public class Graph{
 
     // Try to retrieve the node from the map
     Node node = this.node_map.get(node_label);
+    if(node != null){
+      if(verbose) System.out.println("lookup:: found node: " + node);
+      return node;
+    }
+
+    // The map lookup failed, try the production list, unless the budget is
+    // spent. That null is not cached, as the label has not been tried.
+    if( !this.recognizer_f_list.isEmpty() && !(analysis_budget != null && analysis_budget.exhausted_q()) ){
+      node = resolve(node_label);
+      MarkRegistry registry = produced_registry();
+      if( node != null && registry != null ) node.mark_registry_attach( registry ,node_label.intern() );
+    }
 
     if(verbose){
       if(node != null){
-        System.out.println("lookup:: found node: " + node);
+        System.out.println("lookup:: found node from production: " + node);
       } else {
         System.out.println("lookup:: node not found for label: " + node_label);
       }
@@ -60,6 +247,83 @@ public class Graph{
     return lookup(node_label ,true);
   }
 
+  /*
+    Looks up every label of the list, e.g. a neighbor list, and returns the
+    nodes in list order, with null where `lookup` would give null.
+
+    The map is read in one pass. The labels it does not hold are resolved once
+    each, however often they appear, through the lookup cache as for `lookup`.
+
+    Given an executor, the misses are grouped by the production that would be
+    tried first for them, see `ProductionIndex.first_candidate`, and the groups,
+    in chunks of `lookup_all_chunk`, are resolved on it concurrently, so the
+    productions must be safe to run on several threads at once. An analysis
+    budget is charged from each of them, and each stops once it is exhausted,
+    so the calls running then may take the count a little past its limit.
+  */
+  public NodeList lookup_all(LabelList node_label_list ,Executor executor){
+    NodeList node_list = new NodeList();
+    Map<Label ,Node> miss_map = null;
+    for( Label node_label : node_label_list ){
+      Node node = (node_label == null || node_label.isEmpty()) ? null : this.node_map.get(node_label);
+      node_list.add(node);
+      if( node == null && node_label != null && !node_label.isEmpty() && !this.recognizer_f_list.isEmpty() ){
+        if(miss_map == null) miss_map = new LinkedHashMap<>();
+        miss_map.put(node_label ,null);
+      }
+    }
+    if(miss_map == null) return node_list;
+
+    if( executor == null || miss_map.size() == 1 ){
+      lookup_group( new ArrayList<>(miss_map.keySet()) ,miss_map );
+    }else{
+      Map<Integer ,List<Label>> group_map = new LinkedHashMap<>();
+      ProductionIndex index = this.recognizer_f_list.index();
+      for( Label miss_label : miss_map.keySet() ){
+        group_map.computeIfAbsent( index.first_candidate(miss_label) ,k -> new ArrayList<>() ).add(miss_label);
+      }
+      Map<Label ,Node> result_map = new ConcurrentHashMap<>();
+      List<CompletableFuture<Void>> future_list = new ArrayList<>();
+      for( List<Label> group : group_map.values() ){
+        // a large group is split, so the misses of one production are also spread over the executor
+        for( int i = 0; i < group.size(); i += lookup_all_chunk ){
+          List<Label> chunk = group.subList( i ,Math.min(i + lookup_all_chunk ,group.size()) );
+          future_list.add( CompletableFuture.runAsync( () -> lookup_group(chunk ,result_map) ,executor ) );
+        }
+      }
+      CompletableFuture.allOf( future_list.toArray(new CompletableFuture<?>[0]) ).join();
+      miss_map.putAll(result_map);
+    }
+
+    MarkRegistry registry = produced_registry();
+    for( int i = 0; i < node_list.size(); i++ ){
+      if( node_list.get(i) != null ) continue;
+      Label node_label = node_label_list.get(i);
+      Node node = (node_label == null) ? null : miss_map.get(node_label);
+      if(node == null) continue;
+      if(registry != null) node.mark_registry_attach( registry ,node_label.intern() );
+      node_list.set(i ,node);
+    }
+    return node_list;
+  }
+
+  public NodeList lookup_all(LabelList node_label_list){
+    return lookup_all(node_label_list ,null);
+  }
+
+  // labels resolved per task by `lookup_all` given an executor
+  public static int lookup_all_chunk = 256;
+
+  // resolves the labels of one group into result_map, a ConcurrentHashMap takes no null, so misses are left out
+  private void lookup_group(List<Label> group ,Map<Label ,Node> result_map){
+    for( Label node_label : group ){
+      // as in `lookup`, once the budget is spent the productions are not tried
+      if( analysis_budget != null && analysis_budget.exhausted_q() ) return;
+      Node node = resolve(node_label);
+      if(node != null) result_map.put(node_label ,node);
+    }
+  }
+
 
   
 
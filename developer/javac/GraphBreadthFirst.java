@@ -0,0 +1,196 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Lazy breadth first exploration of the nodes reachable from root nodes.
+
+  The depth first traversals plunge down a path before returning, so a
+  production that makes an unbounded graph, say one that gives an ever longer
+  label each time, can keep them from ever returning. This explorer instead
+  hands out nodes one at a time in breadth first order, and resolves a label,
+  through the node map and then the productions, only when the caller asks for
+  the next node. The caller may stop at any point, and the explorer has then
+  done no more work than was consumed.
+
+  Cycles are marked a level at a time. Each cycle has a node that is consumed
+  last, and that node has an edge to an already consumed node, its successor on
+  the cycle. Such nodes are collected while a level is consumed, and once the
+  level is done, before the first node of the next level is handed out, one
+  SCC search is run from all of them together, restricted to the consumed
+  nodes. So a level costs one search, however many edges lead back, rather
+  than one search per edge. The restriction keeps the search from resolving
+  labels the caller has not reached. Members handed out before their cycle was
+  marked were handed out before the mark was set, so a caller that needs the
+  whole cycle asks `graph.scc(label)` once the mark appears.
+
+  Memory is the set of labels consumed, and the queue of those seen but not yet
+  consumed, which is the frontier. The levels behind the frontier cannot be let
+  go, as an edge of a directed graph may lead back to any earlier level, not
+  only to the one before, and the cycle search is restricted to the consumed
+  nodes. The level of a label is not kept, the frontier holding at most two
+  levels, the current one first, so a count of the labels left in the current
+  level is enough. The nodes that lead back, and the arrays of the search, are
+  kept for one level and then let go.
+
+  When the graph has an AnalysisBudget, each node consumed and each edge
+  examined is charged to it, and the exploration ends when it is exhausted.
+
+  `stream()` gives the same exploration as a sequential Stream.
+*/
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class GraphBreadthFirst implements Iterator<Map.Entry<Label ,Node>>{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public GraphBreadthFirst(GraphDirectedAcyclic graph ,LabelList root_node_LabelList){
+    this.graph = graph;
+    for( Label root_label : root_node_LabelList ) discover(root_label);
+    frontier_level_count = frontier.size();
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+  private final GraphDirectedAcyclic graph;
+
+  private final Deque<Label> frontier = new ArrayDeque<>();
+  // the labels in the frontier, or taken from it and not yet consumed
+  private final Set<Label> queued_set = new HashSet<>();
+  // level of the labels at the head of the frontier, root nodes are level 0, and how many are left
+  private int frontier_level = 0;
+  private int frontier_level_count;
+  private final Set<Label> consumed_set = new LinkedHashSet<>();
+  private final Set<Label> undefined_node_set = new LinkedHashSet<>();
+  // consumed nodes of the current level with an edge to a consumed node
+  private LabelList closes_LabelList = new LabelList();
+
+  // the next node to be returned, resolved ahead by hasNext
+  private Label next_label = null;
+  private Node next_node = null;
+  private int level = -1;
+
+  // level of the node most recently returned by `next`
+  public int level(){
+    return level;
+  }
+
+  // labels reached that neither the map nor a production could resolve
+  public Set<Label> undefined_node_set(){
+    return undefined_node_set;
+  }
+
+  public int consumed_count(){
+    return consumed_set.size();
+  }
+
+  // true when the exploration ended because the graph's AnalysisBudget ran out
+  public boolean budget_exhausted_q(){
+    AnalysisBudget budget = graph.analysis_budget();
+    return budget != null && budget.exhausted_q();
+  }
+
+  /*--------------------------------------------------------------------------------
+    exploration
+  */
+
+  private void discover(Label node_label){
+    if( consumed_set.contains(node_label) || undefined_node_set.contains(node_label) ) return;
+    if( queued_set.add(node_label) ) frontier.addLast(node_label);
+  }
+
+  // marks the cycles closed by the level just consumed
+  private void level_end(){
+    if( closes_LabelList.isEmpty() ) return;
+    graph.scc_mark_within(closes_LabelList ,consumed_set);
+    if(debug){
+      for( Label node_label : closes_LabelList ){
+        LabelList scc = graph.scc(node_label);
+        if(scc != null) Util.print_list("GraphBreadthFirst.level_end:: found cycle:" ,scc);
+      }
+    }
+    closes_LabelList = new LabelList();
+  }
+
+  @Override
+  public boolean hasNext(){
+    AnalysisBudget budget = graph.analysis_budget();
+    while( next_node == null && !frontier.isEmpty() ){
+      if(frontier_level_count == 0){
+        frontier_level++;
+        frontier_level_count = frontier.size();
+      }
+      if(frontier_level > level) level_end();
+      if( budget != null && budget.exhausted_q() ) return false;
+      Label node_label = frontier.removeFirst();
+      frontier_level_count--;
+      Node node = graph.lookup_marked(node_label);
+      if(node == null){
+        if( budget != null && budget.exhausted_q() ){
+          // not tried, put it back
+          frontier.addFirst(node_label);
+          frontier_level_count++;
+          return false;
+        }
+        queued_set.remove(node_label);
+        undefined_node_set.add(node_label);
+        continue;
+      }
+      next_label = node_label;
+      next_node = node;
+    }
+    if(next_node == null) level_end();
+    return next_node != null;
+  }
+
+  @Override
+  public Map.Entry<Label ,Node> next(){
+    if( !hasNext() ) throw new NoSuchElementException();
+    Label node_label = next_label;
+    Node node = next_node;
+    next_label = null;
+    next_node = null;
+
+    level = frontier_level;
+    queued_set.remove(node_label);
+    consumed_set.add(node_label);
+    AnalysisBudget budget = graph.analysis_budget();
+    if(budget != null) budget.node_q();
+    boolean closes_q = false;
+    for( Label neighbor_label : node.neighbor_LabelList() ){
+      if(budget != null) budget.edge_q();
+      if( consumed_set.contains(neighbor_label) ) closes_q = true;
+      else discover(neighbor_label);
+    }
+    if(closes_q) closes_LabelList.add(node_label);
+
+    return new AbstractMap.SimpleImmutableEntry<>(node_label ,node);
+  }
+
+  public Stream<Map.Entry<Label ,Node>> stream(){
+    return StreamSupport.stream(
+      Spliterators.spliteratorUnknownSize(
+        this
+        ,Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL
+      )
+      ,false
+    );
+  }
+
+}
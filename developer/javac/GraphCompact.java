@@ -0,0 +1,646 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Compact storage for a graph definition.
+
+  A `Node` is a HashMap, and each node holds its own neighbor `LabelList`, so a
+  node costs hundreds of bytes before any user data is added. Here instead the
+  nodes are numbered 0 .. node_count - 1 and each property is a column:
+
+    label_array[id]      the interned label
+    type_code[id]        index into `type_token_list`, or -1 for a label that
+                         is referenced as a neighbor but not defined
+    build_array[id]      the build function, or null
+    mark_bits[id]        one bit per mark token in `mark_token_list`
+
+  The edges are in compressed sparse row form. The neighbors of node `id` are
+
+    neighbor_target[ neighbor_offset[id] ] .. neighbor_target[ neighbor_offset[id + 1] - 1 ]
+
+  Any other property spills into `property_map`, which is only created when a
+  node has one.
+
+  `node_map()` presents this storage as a `Map<Label ,Node>`, so `Graph` and
+  `GraphDirectedAcyclic` run on top of it unchanged. The Node it returns is a
+  small `NodeCompact` view that reads and writes the columns. The int based
+  methods, `neighbor_begin`, `neighbor_end` and `neighbor_target`, let a
+  traversal walk the arrays directly. `graph_mark_SCC` does so, and
+  `GraphDirectedAcyclic` uses it when given a compact node map.
+
+  The adjacency is fixed once built. Changing the neighbor list of a node means
+  building a new GraphCompact.
+*/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+public class GraphCompact{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  /*
+    Given a node map, numbers the defined nodes first, in map order, then any
+    labels that are referenced as neighbors but are not defined.
+  */
+  public GraphCompact(Map<Label ,Node> node_map){
+    List<Label> label_list = new ArrayList<>( node_map.size() );
+    Map<Label ,Integer> id_map = new HashMap<>( node_map.size() * 2 );
+    for( Label node_label : node_map.keySet() ){
+      Label interned_label = node_label.intern();
+      id_map.put(interned_label ,label_list.size());
+      label_list.add(interned_label);
+    }
+    defined_count = label_list.size();
+
+    int edge_count = 0;
+    for( Node node : node_map.values() ) edge_count += node.neighbor_LabelList().size();
+
+    neighbor_offset = new int[defined_count + 1];
+    neighbor_target = new int[edge_count];
+    int edge_i = 0;
+    int node_i = 0;
+    for( Node node : node_map.values() ){
+      neighbor_offset[node_i++] = edge_i;
+      for( Label neighbor_label : node.neighbor_LabelList() ){
+        Label interned_label = neighbor_label.intern();
+        Integer neighbor_id = id_map.get(interned_label);
+        if(neighbor_id == null){
+          neighbor_id = label_list.size();
+          id_map.put(interned_label ,neighbor_id);
+          label_list.add(interned_label);
+        }
+        neighbor_target[edge_i++] = neighbor_id;
+      }
+    }
+    neighbor_offset[node_i] = edge_i;
+
+    node_count = label_list.size();
+    label_array = label_list.toArray( new Label[node_count] );
+    type_code = new byte[node_count];
+    build_array = new Runnable[node_count];
+    mark_bits = new long[node_count];
+    id_index_build();
+
+    node_i = 0;
+    for( Node node : node_map.values() ){
+      Object type = node.get("type");
+      type_code[node_i] = (type == null) ? type_code_none : type_code( Token.intern(type.toString()) );
+      Object build_f = node.get("build");
+      if(build_f instanceof Runnable) build_array[node_i] = (Runnable)build_f;
+      Object mark_set = node.get("mark");
+      if(mark_set instanceof TokenSet){
+        for( Token mark : (TokenSet)mark_set ) mark( node_i ,mark.intern() );
+      }
+      for( Map.Entry<String ,Object> property : node.entrySet() ){
+        if( !typed_property_q(property.getKey()) ) property_put( node_i ,property.getKey() ,property.getValue() );
+      }
+      node_i++;
+    }
+    for( int id = defined_count; id < node_count; id++ ) type_code[id] = type_code_undefined;
+  }
+
+  /*
+    Given the columns directly, as read from a snapshot or made by a generator.
+    Nodes defined_count .. label_array.length - 1 are undefined neighbor references.
+    `type_token_list` gives the meaning of the type codes.
+  */
+  public GraphCompact(
+    Label[] label_array
+    ,int defined_count
+    ,byte[] type_code
+    ,List<Token> type_token_list
+    ,int[] neighbor_offset
+    ,int[] neighbor_target
+  ){
+    this(
+      label_array ,defined_count ,type_code ,type_token_list
+      ,null ,new long[label_array.length]
+      ,neighbor_offset ,neighbor_target
+    );
+  }
+
+  // as above, with marks, `mark_token_list` gives the meaning of the mark bits
+  public GraphCompact(
+    Label[] label_array
+    ,int defined_count
+    ,byte[] type_code
+    ,List<Token> type_token_list
+    ,List<Token> mark_token_list
+    ,long[] mark_bits
+    ,int[] neighbor_offset
+    ,int[] neighbor_target
+  ){
+    this.node_count = label_array.length;
+    this.defined_count = defined_count;
+    this.label_array = label_array;
+    for( int id = 0; id < node_count; id++ ) this.label_array[id] = label_array[id].intern();
+    this.type_code = type_code;
+    this.type_token_list.clear();
+    this.type_token_list.addAll(type_token_list);
+    this.build_array = new Runnable[node_count];
+    if(mark_token_list != null){
+      this.mark_token_list.clear();
+      this.mark_token_list.addAll(mark_token_list);
+    }
+    this.mark_bits = mark_bits;
+    this.neighbor_offset = neighbor_offset;
+    this.neighbor_target = neighbor_target;
+    id_index_build();
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  public static final byte type_code_undefined = -1;
+  public static final byte type_code_none = 0;  // defined, but given no type
+
+  private final int node_count;
+  private final int defined_count;
+  private final Label[] label_array;
+  private final byte[] type_code;
+  private final Runnable[] build_array;
+  private final long[] mark_bits;
+  private final int[] neighbor_offset;
+  private final int[] neighbor_target;
+
+  // type code i is type_token_list.get(i), code 0 is reserved for 'no type'
+  private final List<Token> type_token_list = new ArrayList<>(
+    List.of(Token.intern("") ,Token.symbol ,Token.path ,Token.leaf ,Token.error)
+  );
+
+  // bit i of a node's mark_bits is mark_token_list.get(i)
+  private final List<Token> mark_token_list = new ArrayList<>(
+    List.of(Token.cycle_member ,Token.wellformed ,Token.build_failed ,Token.null_node)
+  );
+
+  // node id by interned label id, -1 for labels not in this graph
+  private int[] id_by_label_id;
+
+  private Map<Integer ,Map<String ,Object>> property_map = null;
+
+  private void id_index_build(){
+    int label_id_max = -1;
+    for( Label node_label : label_array ) label_id_max = Math.max( label_id_max ,node_label.id() );
+    id_by_label_id = new int[label_id_max + 1];
+    Arrays.fill(id_by_label_id ,-1);
+    for( int id = 0; id < node_count; id++ ) id_by_label_id[ label_array[id].id() ] = id;
+  }
+
+  static boolean typed_property_q(String property_name){
+    return
+      "label".equals(property_name)
+      || "type".equals(property_name)
+      || "build".equals(property_name)
+      || "mark".equals(property_name)
+      || "neighbor".equals(property_name);
+  }
+
+  /*--------------------------------------------------------------------------------
+    nodes
+  */
+
+  // count of ids, including undefined neighbor references
+  public int node_count(){
+    return node_count;
+  }
+
+  // ids 0 .. defined_count - 1 are the defined nodes
+  public int defined_count(){
+    return defined_count;
+  }
+
+  public boolean defined_q(int id){
+    return type_code[id] != type_code_undefined;
+  }
+
+  // Given a label, returns its node id, or -1 if the label is not in this graph.
+  public int id(Label node_label){
+    if(node_label == null) return -1;
+    Label interned_label = node_label.interned_q() ? node_label : Label.find(node_label.get());
+    if(interned_label == null) return -1;
+    int label_id = interned_label.id();
+    if( label_id >= id_by_label_id.length ) return -1;
+    return id_by_label_id[label_id];
+  }
+
+  public Label label(int id){
+    return label_array[id];
+  }
+
+  public Node node(int id){
+    return defined_q(id) ? new NodeCompact(this ,id) : null;
+  }
+
+  public Map<Label ,Node> node_map(){
+    return new NodeMapCompact(this);
+  }
+
+  /*--------------------------------------------------------------------------------
+    typed properties
+  */
+
+  byte type_code(Token type){
+    int code = type_token_list.indexOf(type);
+    if(code >= 0) return (byte)code;
+    if( type_token_list.size() > Byte.MAX_VALUE ){
+      throw new IllegalStateException("GraphCompact: more than " + Byte.MAX_VALUE + " node types");
+    }
+    type_token_list.add(type);
+    return (byte)( type_token_list.size() - 1 );
+  }
+
+  public List<Token> type_token_list(){
+    return type_token_list;
+  }
+
+  public byte type_code(int id){
+    return type_code[id];
+  }
+
+  // null for an undefined node, or one given no type
+  public Token type(int id){
+    byte code = type_code[id];
+    if( code <= type_code_none ) return null;
+    return type_token_list.get(code);
+  }
+
+  public void type(int id ,Token type){
+    type_code[id] = (type == null) ? type_code_none : type_code(type);
+  }
+
+  public Runnable build(int id){
+    return build_array[id];
+  }
+
+  public void build(int id ,Runnable build_f){
+    build_array[id] = build_f;
+  }
+
+  public Object property(int id ,String property_name){
+    if(property_map == null) return null;
+    Map<String ,Object> node_property_map = property_map.get(id);
+    return (node_property_map == null) ? null : node_property_map.get(property_name);
+  }
+
+  public void property_put(int id ,String property_name ,Object value){
+    if(property_map == null) property_map = new HashMap<>();
+    property_map.computeIfAbsent( id ,k -> new HashMap<>() ).put(property_name ,value);
+  }
+
+  public Object property_remove(int id ,String property_name){
+    if(property_map == null) return null;
+    Map<String ,Object> node_property_map = property_map.get(id);
+    return (node_property_map == null) ? null : node_property_map.remove(property_name);
+  }
+
+  // spilled properties of a node, empty when there are none
+  public Map<String ,Object> property_map(int id){
+    if(property_map == null) return Map.of();
+    Map<String ,Object> node_property_map = property_map.get(id);
+    return (node_property_map == null) ? Map.of() : node_property_map;
+  }
+
+  /*--------------------------------------------------------------------------------
+    marks
+  */
+
+  /*
+    The bit of a mark token is found through `mark_bit_by_token_id`, indexed by
+    interned token id, rather than by a search of `mark_token_list`. A new mark
+    token is added under the lock. The bits are set and cleared with an atomic
+    or and and, so marks made on several threads at once are not lost.
+  */
+  private static final VarHandle mark_bits_handle = MethodHandles.arrayElementVarHandle(long[].class);
+
+  // bit + 1 by interned token id, 0 for a token with no bit
+  private volatile int[] mark_bit_by_token_id = new int[0];
+
+  private int mark_bit(Token mark ,boolean add_q){
+    int token_id = mark.intern().id();
+    int[] bit_by_token_id = mark_bit_by_token_id;
+    if( token_id < bit_by_token_id.length && bit_by_token_id[token_id] != 0 ) return bit_by_token_id[token_id] - 1;
+    synchronized(mark_token_list){
+      int bit = mark_token_list.indexOf( mark.intern() );
+      if( bit < 0 ){
+        if( !add_q ) return -1;
+        if( mark_token_list.size() == Long.SIZE ){
+          throw new IllegalStateException("GraphCompact: more than " + Long.SIZE + " mark tokens");
+        }
+        mark_token_list.add( mark.intern() );
+        bit = mark_token_list.size() - 1;
+      }
+      bit_by_token_id = mark_bit_by_token_id;
+      if( token_id >= bit_by_token_id.length ) bit_by_token_id = Arrays.copyOf( bit_by_token_id ,Math.max(token_id + 1 ,16) );
+      else bit_by_token_id = bit_by_token_id.clone();
+      bit_by_token_id[token_id] = bit + 1;
+      mark_bit_by_token_id = bit_by_token_id;
+      return bit;
+    }
+  }
+
+  public void mark(int id ,Token mark){
+    mark_bits_handle.getAndBitwiseOr( mark_bits ,id ,1L << mark_bit(mark ,true) );
+  }
+
+  public boolean has_mark(int id ,Token mark){
+    int bit = mark_bit(mark ,false);
+    return bit >= 0 && ( (long)mark_bits_handle.getVolatile(mark_bits ,id) & (1L << bit) ) != 0;
+  }
+
+  public void clear_mark(int id ,Token mark){
+    int bit = mark_bit(mark ,false);
+    if(bit >= 0) mark_bits_handle.getAndBitwiseAnd( mark_bits ,id ,~(1L << bit) );
+  }
+
+  public List<Token> mark_token_list(){
+    return mark_token_list;
+  }
+
+  public long[] mark_bits_array(){
+    return mark_bits;
+  }
+
+  public TokenSet mark_TokenSet(int id){
+    TokenSet mark_set = new TokenSet();
+    long bits = mark_bits[id];
+    for( int bit = 0; bits != 0; bit++ , bits >>>= 1 ){
+      if( (bits & 1L) != 0 ) mark_set.add( mark_token_list.get(bit) );
+    }
+    return mark_set;
+  }
+
+  /*--------------------------------------------------------------------------------
+    adjacency
+  */
+
+  public int edge_count(){
+    return neighbor_target.length;
+  }
+
+  // an undefined node has no neighbors
+  public int neighbor_begin(int id){
+    return (id < defined_count) ? neighbor_offset[id] : 0;
+  }
+
+  public int neighbor_end(int id){
+    return (id < defined_count) ? neighbor_offset[id + 1] : 0;
+  }
+
+  public int neighbor_target(int edge_i){
+    return neighbor_target[edge_i];
+  }
+
+  public int[] neighbor_offset_array(){
+    return neighbor_offset;
+  }
+
+  public int[] neighbor_target_array(){
+    return neighbor_target;
+  }
+
+  public Label[] label_array(){
+    return label_array;
+  }
+
+  public byte[] type_code_array(){
+    return type_code;
+  }
+
+  /*
+    The neighbors of a node, as a view of its slice of `neighbor_target`, so a
+    traversal through the Node interface reads the CSR arrays and does not copy
+    them. The view throws on any change, as the adjacency is fixed, and a change
+    made to a copy would be silently lost.
+  */
+  public LabelList neighbor_LabelList(int id){
+    return new NeighborLabelList( label_array ,neighbor_target ,neighbor_begin(id) ,neighbor_end(id) );
+  }
+
+  /*
+    A LabelList over label_array[ target[begin] ] .. label_array[ target[end - 1] ].
+    The ArrayList it extends stays empty, so every read method is given here.
+  */
+  static final class NeighborLabelList extends LabelList{
+    private static final long serialVersionUID = 1L;
+    private final Label[] label_array;
+    private final int[] target;
+    private final int begin;
+    private final int end;
+
+    NeighborLabelList(Label[] label_array ,int[] target ,int begin ,int end){
+      super();
+      this.label_array = label_array;
+      this.target = target;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    private static UnsupportedOperationException fixed_exception(){
+      return new UnsupportedOperationException("GraphCompact: the neighbors of a compact node are fixed, build a new GraphCompact");
+    }
+
+    // serialized as the labels, not as the arrays it is a view of
+    private Object writeReplace(){
+      return new LabelList(this);
+    }
+
+    @Override public int size(){ return end - begin; }
+    @Override public boolean isEmpty(){ return end == begin; }
+
+    @Override public Label get(int i){
+      Objects.checkIndex( i ,end - begin );
+      return label_array[ target[begin + i] ];
+    }
+
+    @Override public int indexOf(Object o){
+      for( int edge_i = begin; edge_i < end; edge_i++ ){
+        if( label_array[ target[edge_i] ].equals(o) ) return edge_i - begin;
+      }
+      return -1;
+    }
+
+    @Override public int lastIndexOf(Object o){
+      for( int edge_i = end - 1; edge_i >= begin; edge_i-- ){
+        if( label_array[ target[edge_i] ].equals(o) ) return edge_i - begin;
+      }
+      return -1;
+    }
+
+    @Override public boolean contains(Object o){ return indexOf(o) >= 0; }
+
+    @Override public Object[] toArray(){
+      Object[] array = new Object[end - begin];
+      for( int i = 0; i < array.length; i++ ) array[i] = label_array[ target[begin + i] ];
+      return array;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array){
+      int size = end - begin;
+      if(array.length < size) array = (T[])Array.newInstance( array.getClass().getComponentType() ,size );
+      for( int i = 0; i < size; i++ ) array[i] = (T)label_array[ target[begin + i] ];
+      if(array.length > size) array[size] = null;
+      return array;
+    }
+
+    @Override public void forEach(Consumer<? super Label> action){
+      for( int edge_i = begin; edge_i < end; edge_i++ ) action.accept( label_array[ target[edge_i] ] );
+    }
+
+    @Override public Iterator<Label> iterator(){ return new Cursor(0); }
+    @Override public ListIterator<Label> listIterator(){ return new Cursor(0); }
+
+    @Override public ListIterator<Label> listIterator(int i){
+      if( i < 0 || i > end - begin ) throw new IndexOutOfBoundsException("Index: " + i);
+      return new Cursor(i);
+    }
+
+    @Override public Spliterator<Label> spliterator(){
+      return Spliterators.spliterator( iterator() ,end - begin ,Spliterator.ORDERED | Spliterator.IMMUTABLE );
+    }
+
+    @Override public List<Label> subList(int from ,int to){
+      if( from < 0 || to > end - begin || from > to ) throw new IndexOutOfBoundsException("from: " + from + " to: " + to);
+      return new NeighborLabelList( label_array ,target ,begin + from ,begin + to );
+    }
+
+    @Override public boolean equals(Object o){
+      if(o == this) return true;
+      if( !(o instanceof List) ) return false;
+      List<?> list = (List<?>)o;
+      if( list.size() != end - begin ) return false;
+      int edge_i = begin;
+      for( Object element : list ){
+        if( !label_array[ target[edge_i++] ].equals(element) ) return false;
+      }
+      return true;
+    }
+
+    @Override public int hashCode(){
+      int hash = 1;
+      for( int edge_i = begin; edge_i < end; edge_i++ ) hash = 31 * hash + label_array[ target[edge_i] ].hashCode();
+      return hash;
+    }
+
+    @Override public boolean add(Label l){ throw fixed_exception(); }
+    @Override public void add(int i ,Label l){ throw fixed_exception(); }
+    @Override public boolean addAll(Collection<? extends Label> c){ throw fixed_exception(); }
+    @Override public boolean addAll(int i ,Collection<? extends Label> c){ throw fixed_exception(); }
+    @Override public Label set(int i ,Label l){ throw fixed_exception(); }
+    @Override public Label remove(int i){ throw fixed_exception(); }
+    @Override public boolean remove(Object o){ throw fixed_exception(); }
+    @Override public boolean removeAll(Collection<?> c){ throw fixed_exception(); }
+    @Override public boolean retainAll(Collection<?> c){ throw fixed_exception(); }
+    @Override public boolean removeIf(Predicate<? super Label> p){ throw fixed_exception(); }
+    @Override public void replaceAll(UnaryOperator<Label> u){ throw fixed_exception(); }
+    @Override public void sort(Comparator<? super Label> c){ throw fixed_exception(); }
+    @Override public void clear(){ throw fixed_exception(); }
+    @Override protected void removeRange(int from ,int to){ throw fixed_exception(); }
+
+    private final class Cursor implements ListIterator<Label>{
+      private int i;
+
+      Cursor(int i){
+        this.i = i;
+      }
+
+      @Override public boolean hasNext(){ return i < end - begin; }
+      @Override public boolean hasPrevious(){ return i > 0; }
+      @Override public int nextIndex(){ return i; }
+      @Override public int previousIndex(){ return i - 1; }
+
+      @Override public Label next(){
+        if( i >= end - begin ) throw new NoSuchElementException();
+        return label_array[ target[begin + i++] ];
+      }
+
+      @Override public Label previous(){
+        if( i <= 0 ) throw new NoSuchElementException();
+        return label_array[ target[begin + --i] ];
+      }
+
+      @Override public void remove(){ throw fixed_exception(); }
+      @Override public void set(Label l){ throw fixed_exception(); }
+      @Override public void add(Label l){ throw fixed_exception(); }
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    Strongly connected components
+
+    StronglyConnected run directly over the CSR columns. The undefined nodes are
+    numbered after the defined ones, so they are the nodes the search does not
+    enter.
+
+    Adds tokens from `GraphDirectedAcyclic.graph_mark_cycles_set` to `ret_value`,
+    marks the members of cyclic SCCs as `cycle_member`, and returns those SCCs.
+  */
+  public List<LabelList> graph_mark_SCC(LabelList root_node_LabelList ,TokenSet ret_value ,boolean verbose){
+    return graph_mark_SCC(root_node_LabelList ,ret_value ,verbose ,null);
+  }
+
+  // as above, stopping with `budget_exhausted` when the budget runs out, null for no budget
+  public List<LabelList> graph_mark_SCC(LabelList root_node_LabelList ,TokenSet ret_value ,boolean verbose ,AnalysisBudget budget){
+    List<LabelList> scc_list = new ArrayList<>();
+    if( root_node_LabelList.isEmpty() ){
+      ret_value.add(Token.empty_root_label_list);
+      return scc_list;
+    }
+
+    StronglyConnected scc_search = new StronglyConnected(defined_count ,neighbor_offset ,neighbor_target ,budget);
+    boolean undefined_exists = false;
+    for( Label root_label : root_node_LabelList ){
+      int root = id(root_label);
+      if( root < 0 || !defined_q(root) ){
+        undefined_exists = true;
+        continue;
+      }
+      if( !scc_search.search(root) ) break;
+    }
+    undefined_exists |= scc_search.outside_q();
+
+    for( int c = 0; c < scc_search.component_count(); c++ ){
+      if( !scc_search.cyclic_q(c) ) continue;
+      LabelList scc = new LabelList();
+      for( int i = scc_search.member_begin(c); i < scc_search.member_end(c); i++ ){
+        int id = scc_search.member(i);
+        scc.add( label_array[id] );
+        mark( id ,Token.cycle_member );
+      }
+      scc_list.add(scc);
+      if(verbose) Util.print_list("Found cycle:" ,scc);
+    }
+
+    if( !scc_list.isEmpty() ) ret_value.add(Token.cycle_exists);
+    if(undefined_exists) ret_value.add(Token.undefined_node_exists);
+    if( budget != null && budget.exhausted_q() ) ret_value.add(Token.budget_exhausted);
+    if( verbose && !scc_list.isEmpty() ){
+      System.out.println("GraphCompact.graph_mark_SCC:: There are one or more cycles in the graph.");
+    }
+    return scc_list;
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A GraphDirectedAcyclic that many threads may look up nodes in at once.
+
+  `Graph` keeps its nodes in a HashMap, and `Node.mark` is not atomic, so a
+  traversal or production may not run on more than one thread. Here instead:
+
+    - The node map is a ConcurrentHashMap, and each node is a NodeConcurrent,
+      so marks are set with compare and swap.
+
+    - A label that the map does not hold is resolved at most once. The first
+      thread to ask for it runs the productions, and any other thread that asks
+      meanwhile waits for that result rather than running them again. A node
+      made by a production is registered in the map, so later lookups of it
+      are map hits. A label no production recognizes is remembered as such.
+
+    - `register` lets a production, on any thread, add the other nodes it
+      discovers. When two threads register the same label, the first wins,
+      and both get back the node that won.
+
+  A production that looks up the label it is itself producing gets null, as
+  waiting for itself would never end. The same holds across threads: when a
+  production on thread A asks for Y, which thread B is producing, while B's
+  production asks for X, which A is producing, the two would wait upon each
+  other forever. Each thread waiting upon a resolution is recorded, and a wait
+  that would lead back, through the owners and what they wait upon, to the
+  thread about to wait is not entered, and the lookup gets null, as for its own
+  label.
+
+  The lookup, register and mark calls are thread safe. The cycle marking and
+  the edit methods inherited from GraphDirectedAcyclic keep unsynchronized
+  state, so each runs on one thread at a time, though lookups may go on
+  alongside. The given node map is copied, and plain Nodes are copied into
+  NodeConcurrents, so marks are to be read through the graph's nodes.
+*/
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GraphConcurrent extends GraphDirectedAcyclic{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public GraphConcurrent(Map<Label ,Node> node_map ,ProductionList recognizer_f_list){
+    super( concurrent_map(node_map) ,recognizer_f_list );
+    // produced nodes are registered in the node map, see `resolve`, so an LRU in front of it would only hold copies
+    lookup_cache(null);
+    // and for the same reason they keep their own marks
+    produced_mark_registry(null);
+  }
+
+  private static Map<Label ,Node> concurrent_map(Map<Label ,Node> node_map){
+    Map<Label ,Node> concurrent_map = new ConcurrentHashMap<>();
+    if(node_map == null) return concurrent_map;
+    for( Map.Entry<Label ,Node> entry : node_map.entrySet() ){
+      concurrent_map.put( entry.getKey() ,NodeConcurrent.of(entry.getValue()) );
+    }
+    return concurrent_map;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  // a label being resolved, or that no production recognized
+  private static class Resolution{
+    final Thread owner = Thread.currentThread();
+    final CompletableFuture<Node> result = new CompletableFuture<>();
+  }
+
+  private final ConcurrentHashMap<Label ,Resolution> resolution_map = new ConcurrentHashMap<>();
+
+  // the resolution each waiting thread waits upon, read and written under its own lock
+  private final Map<Thread ,Resolution> waiting_map = new HashMap<>();
+
+  // true when waiting upon the resolution would, through its owner and what it waits upon, wait upon this thread
+  private boolean wait_cycle_q(Resolution resolution){
+    Thread current_thread = Thread.currentThread();
+    Resolution next = resolution;
+    for( int step = 0; next != null && step <= waiting_map.size(); step++ ){
+      if( next.result.isDone() ) return false;
+      if( next.owner == current_thread ) return true;
+      next = waiting_map.get(next.owner);
+    }
+    return false;
+  }
+
+  // waits for the resolution, or returns null when that wait would never end
+  private Node resolution_wait(Label node_label ,Resolution resolution){
+    Thread current_thread = Thread.currentThread();
+    synchronized(waiting_map){
+      if( wait_cycle_q(resolution) ){
+        if(debug) System.out.println("GraphConcurrent.resolve:: waiting for " + node_label + " would close a cycle of productions");
+        return null;
+      }
+      waiting_map.put(current_thread ,resolution);
+    }
+    try{
+      return resolution.result.join();
+    }finally{
+      synchronized(waiting_map){
+        waiting_map.remove(current_thread);
+      }
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+    interface
+  */
+
+  /*
+    Adds the node under the label unless the label already has one. Returns the
+    node the graph holds for the label afterward, which is the given node, as a
+    NodeConcurrent, when this call won.
+  */
+  public Node register(Label node_label ,Node node){
+    Node concurrent_node = NodeConcurrent.of(node);
+    Node prior_node = node_map().putIfAbsent(node_label ,concurrent_node);
+    return (prior_node != null) ? prior_node : concurrent_node;
+  }
+
+  @Override
+  protected Node resolve(Label node_label){
+    Resolution own = new Resolution();
+    Resolution resolution = resolution_map.putIfAbsent(node_label ,own);
+
+    if(resolution != null){
+      if( resolution.result.isDone() ) return resolution.result.join();
+      return resolution_wait(node_label ,resolution);
+    }
+
+    Node node = null;
+    try{
+      node = produce(node_label);
+      if(node != null) node = register(node_label ,node);
+    }catch(RuntimeException e){
+      resolution_map.remove(node_label ,own);
+      own.result.completeExceptionally(e);
+      throw e;
+    }
+    own.result.complete(node);
+    // the map now answers for a produced node, misses stay to be answered here
+    if(node != null) resolution_map.remove(node_label ,own);
+    return node;
+  }
+
+  // marks are set by compare and swap in each NodeConcurrent, the registry bitmaps are not atomic
+  @Override
+  public void mark_registry(MarkRegistry mark_registry){
+    if(mark_registry != null){
+      throw new UnsupportedOperationException("GraphConcurrent: marks are kept in the nodes, it takes no MarkRegistry");
+    }
+  }
+
+  @Override
+  public void node_add(Label node_label ,Node node){
+    super.node_add( node_label ,NodeConcurrent.of(node) );
+  }
+
+  @Override
+  public Node node_remove(Label node_label){
+    Node node = super.node_remove(node_label);
+    resolution_map.remove(node_label);
+    return node;
+  }
+
+  // count of labels no production recognized, plus those being resolved now
+  public int miss_count(){
+    return resolution_map.size();
+  }
+
+}
@@ -70,10 +70,18 @@ However:
 
 */
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class GraphDirectedAcyclic extends Graph{
 
@@ -83,12 +91,37 @@ public class GraphDirectedAcyclic extends Graph{
 
   public GraphDirectedAcyclic(Map<Label ,Node> node_map ,ProductionList recognizer_f_list ,LabelList root_node_list ,int max_depth ,boolean verbose){
     super( node_map ,recognizer_f_list );
-    TokenSet cycle_detection_result = graph_mark_cycles(root_node_list ,max_depth ,verbose);
+    cycle_detection_result = graph_mark_cycles(root_node_list ,max_depth ,verbose);
   }
 
   public GraphDirectedAcyclic(Map<Label ,Node> node_map ,ProductionList recognizer_f_list ,LabelList root_node_list){
     super( node_map ,recognizer_f_list );
-    TokenSet cycle_detection_result = graph_mark_cycles(root_node_list);
+    cycle_detection_result = graph_mark_cycles(root_node_list);
+  }
+
+  // As above, with the cycle marking bounded by `analysis_budget`, which then stays with the graph.
+  public GraphDirectedAcyclic(Map<Label ,Node> node_map ,ProductionList recognizer_f_list ,LabelList root_node_list ,AnalysisBudget analysis_budget){
+    super( node_map ,recognizer_f_list );
+    analysis_budget(analysis_budget);
+    cycle_detection_result = graph_mark_cycles(root_node_list);
+  }
+
+  // For subclasses that mark the cycles later, or not at all.
+  protected GraphDirectedAcyclic(Map<Label ,Node> node_map ,ProductionList recognizer_f_list){
+    super( node_map ,recognizer_f_list );
+  }
+
+  /*
+    Given a GraphCompact that was marked up when it was written, as read by
+    GraphSnapshot. The map definition marks are taken as they are. Nodes made by
+    productions are not in the snapshot, so when there are productions the
+    cycles are marked again from the root nodes.
+  */
+  public GraphDirectedAcyclic(GraphCompact marked_graph ,ProductionList recognizer_f_list ,LabelList root_node_list){
+    super( marked_graph.node_map() ,recognizer_f_list );
+    if( recognizer_f_list != null && !recognizer_f_list.isEmpty() ){
+      cycle_detection_result = graph_mark_cycles(root_node_list);
+    }
   }
 
 
@@ -98,6 +131,13 @@ public class GraphDirectedAcyclic extends Graph{
 
   private static boolean debug = true;
 
+  // the tokens from the cycle marking done by the constructor, e.g. `budget_exhausted`
+  private TokenSet cycle_detection_result = new TokenSet();
+
+  public TokenSet cycle_detection_result(){
+    return cycle_detection_result;
+  }
+
 
   /*--------------------------------------------------------------------------------
     Interface
@@ -109,42 +149,33 @@ public class GraphDirectedAcyclic extends Graph{
 
     3. A node list consists of a leftmost node, subsequent nodes, and a rightmost node.
 
-    4. `path_stack`
-        
-        The `path_stack` is a list. Each item in the stack is a node list.
+    4. `cursor stack`
 
-        The rightmost items is the top of the stack.
+        The traversal iterator. Each frame of the stack is a cursor: the id of a
+        node, i.e. the id of its interned label, and the index of the next child
+        to follow in its neighbor list.
 
-        The leftmost item is a list of root nodes, where traversal of the graph
-        starts.
+        The bottom frame is a root node, where traversal of the graph starts.
+        Given two adjacent frames, say f0 and f1, the node of f1 is the child
+        of the node of f0 that f0 last followed. We chose a leftmost traversal,
+        so the children are followed in list order.
 
-        Given two adjacent items on the path stack, say e0 and e1:
+                f0:   k_0        child index 1   ; k_0 is following k_0_0
+                f1:   k_0_0      child index 1   ; k_0_0 is following k_0_0_0
+                f2:   k_0_0_0    child index 0
 
-            Say k0 is the leftmost node on the node list e0.
-            
-            The e1 will be the neighbor (child) list from node k0.
-
-            Hence, the path stack consists of the child lists of nodes along
-            a traversal. We chose a leftmost traversal.
-
-                e0:   k_0       k_1    ... k_2  
-
-                e1:   k_0_0    k_0_1   ... k_0_2   ; children of k_0
-
-                e2:   K_0_0_0  k_0_0_1 ... k_0_0_2 ; children of k_0_0
-                
+        Neighbor lists are read in place, so a frame costs no allocation, and the
+        arrays of the stack are kept by the graph from one traversal to the next.
 
     5. `path`
 
-        A list of the leftmost nodes from a path stack.  
-
-        Given that e0 is a root node, `path` will consist of 
+        The nodes of the frames, from the bottom of the stack to the top:
 
             k_0, k_0_0, k_0_0_0 ... k_0_0..._0
 
         Within the context of a path, k_0 is the leftmost item, and k_n is the
-        rightmost item.
-
+        rightmost item. A bitset indexed by node id holds the nodes on the path,
+        so whether a child closes a cycle is one bit test.
 
     6. removing a cycle
 
@@ -174,230 +205,597 @@ public class GraphDirectedAcyclic extends Graph{
   */
 
   /*
-    Given a path to a node in the graph, `left_path`.
+    The cursor stack of the leftmost descent, see `cursor stack` above. The
+    arrays grow by doubling and are then reused, so a descent in steady state
+    allocates nothing.
+  */
+  private static class DescentCursor{
+    int depth = 0;
+    int[] node_id = new int[64];
+    // the interned label of each frame, held so its id stays given to it
+    Label[] node_label = new Label[64];
+    int[] child_index = new int[64];
+    LabelList[] neighbor_list = new LabelList[64];
+    long[] on_path = new long[64];
+
+    boolean on_path_q(int id){
+      return (id >>> 6) < on_path.length && ( on_path[id >>> 6] & (1L << id) ) != 0;
+    }
 
-    Checks if the rightmost node (referenced by label) recurs earlier in the path.
-    Presumably the rightmost node has been recently appended to the path.
+    void push(Label label ,LabelList list){
+      int id = label.id();
+      if(depth == node_id.length){
+        node_id = Arrays.copyOf(node_id ,depth << 1);
+        node_label = Arrays.copyOf(node_label ,depth << 1);
+        child_index = Arrays.copyOf(child_index ,depth << 1);
+        neighbor_list = Arrays.copyOf(neighbor_list ,depth << 1);
+      }
+      if( (id >>> 6) >= on_path.length ) on_path = Arrays.copyOf( on_path ,Math.max( (id >>> 6) + 1 ,on_path.length << 1 ) );
+      node_id[depth] = id;
+      node_label[depth] = label;
+      child_index[depth] = 0;
+      neighbor_list[depth] = list;
+      on_path[id >>> 6] |= 1L << id;
+      depth++;
+    }
 
-    If there is no cycle, returns null, otherwise returns the interval [i ,n],
-    of indexes into the path where the cycle is found. `n` will always be
-    the index of the rightmost node in the path list.
-  */
-  private List<Integer>  path_find_cycle(LabelList path ){
-    if( path.size() <= 1 ) return null; 
+    void pop(){
+      depth--;
+      on_path[ node_id[depth] >>> 6 ] &= ~( 1L << node_id[depth] );
+      neighbor_list[depth] = null;
+      node_label[depth] = null;
+    }
+
+    // the depth of the frame of node id, which is on the path
+    int find(int id){
+      int i = depth - 1;
+      while( node_id[i] != id ) i--;
+      return i;
+    }
 
-    int rightmost_index = path.size() - 1;
-    Label rightmost_node_label = path.get( rightmost_index );
+    void clear(){
+      while(depth > 0) pop();
+    }
+  }
 
-    // if there is no cycle, searching for rightmost_node_label will find itself:
-    int cycle_leftmost_index = path.indexOf(rightmost_node_label);
-    Boolean has_cycle = cycle_leftmost_index < rightmost_index;
-    if( ! has_cycle ) return null;
+  private DescentCursor descent_cursor = null;
 
-    List<Integer> result = new ArrayList<>();
-    result.add(cycle_leftmost_index);
-    result.add(rightmost_index);
-    return result;
+  /*
+    Given the depth of the frame of the node that the top frame's child leads
+    back to, marks the nodes of the frames from there to the top as cycle
+    members. Then unwinds the stack to the top of the cycle, and pops that frame
+    too, so the traversal moves on to the node to its right.
+  */
+  private void cycle_unwind(DescentCursor cursor ,int cycle_i0 ,boolean verbose){
+    if(verbose){
+      LabelList cycle = new LabelList();
+      for( int i = cycle_i0; i < cursor.depth; i++ ) cycle.add( cursor.node_label[i] );
+      cycle.add( cursor.node_label[cycle_i0] );
+      Util.print_list("Found cycle:" ,cycle);
+    }
+    Set<Label> member_set = new LinkedHashSet<>();
+    for( int i = cycle_i0; i < cursor.depth; i++ ){
+      Label member_label = cursor.node_label[i];
+      lookup_marked(member_label).mark(Token.cycle_member);
+      // cycles that share a node are in one SCC, so the groups they touch are merged
+      LabelList group = scc_by_label.get(member_label);
+      if(group != null) member_set.addAll(group);
+      member_set.add(member_label);
+    }
+    scc_enter( new LabelList( new ArrayList<>(member_set) ) );
+    while(cursor.depth > cycle_i0) cursor.pop();
   }
 
   /*
-    Given a path_stack, which is our graph iterator.  Also given `left_path`
-    which is derived from path_stack, and represents the left most neighbor
-    of each of the neighbor lists in the path_stack.
+    Given root_node_label_list and a maximum depth for traversal.
 
-    Calls `path_find_cycle` to see if the most recently added to the path node,
-    i.e. the rightmost node, forms a cycle with other node(s) in the path.  Upon
-    finding a cycle, unwinds the path_stack (decrements the iterator), to the top
-    of the cycle.
+    Cycles are handled gracefully, rather the constraint `max_depth` is present
+    because the user is allowed to provide production *functions* for generating
+    nodes. Who knows what crazy graphs a user could come up with, see the
+    document on the algorithm for more info. A node whose path would be deeper
+    than `max_depth` is not descended into. Set max_depth <= 0 to have no bound.
 
-    If a cycle is found, returns false, otherwise returns true.
+    Does a left first depth first traversal of the graph while marking cycles,
+    with the cursor stack. Each path is followed, there is no visited set, so
+    the work grows with the number of paths rather than the number of nodes.
+    The SCC engine, the one argument form, is the one for large graphs.
+
+    The cycles found are merged where they share a node, and each group is
+    entered in `cycle_list` and `scc_by_label`, so the edit methods can split
+    it later. A group lies within one SCC, though it need not be all of it, as
+    the bound may have kept the descent from some of the cycles.
+
+    Returns one or more symbols that characterize the termination condition.
   */
-  private boolean graph_descend_cycle_case( LabelList left_path ,List<LabelList> path_stack ,boolean verbose ){
 
-    List<Integer> cycle_index_interval = path_find_cycle(left_path);
-    if( cycle_index_interval == null ){
-      return false; // No cycle found
+  public static TokenSet graph_mark_cycles_set = new TokenSet() {{
+    add(Token.empty_root_label_list);
+    add(Token.cycle_exists);
+    add(Token.undefined_node_exists);
+    add(Token.bad_descent_termination);
+    add(Token.max_depth_reached);
+    add(Token.budget_exhausted);
+  }};
+  public TokenSet graph_mark_cycles( LabelList root_node_LabelList ,int max_depth ,boolean verbose ){
+    TokenSet ret_value = new TokenSet();
+
+    if( root_node_LabelList.isEmpty() ){
+      ret_value.add(Token.empty_root_label_list);
+      return ret_value;
     }
 
-    int cycle_i0 = cycle_index_interval.get(0); // Cycle leftmost, inclusive
-    int cycle_n = cycle_index_interval.get(1);  // Cycle rightmost, inclusive
-
-    if(verbose) Util.print_list(
-      "Found cycle:" 
-      ,left_path.subList( cycle_i0 ,cycle_n + 1)
-    );
-
-    // Mark cycle members
-    LabelList undefined_node_list = new LabelList();
-    for( int i = cycle_i0; i <= cycle_n; i++ ){
-      Label node_label = left_path.get(i);
-      Node node = super.lookup( node_label );
-      if (node != null){
-        node.mark(new Token("cycle_member"));
-      }else{
-        undefined_node_list.add( node_label );
+    cycle_list_reset();
+    if(descent_cursor == null) descent_cursor = new DescentCursor();
+    DescentCursor cursor = descent_cursor;
+    cursor.clear();
+    AnalysisBudget budget = analysis_budget();
+
+    descend:
+    for( Label root_label : root_node_LabelList ){
+      if( budget != null && !budget.node_q() ){
+        ret_value.add(Token.budget_exhausted);
+        break descend;
       }
-    }
+      Node root_node = lookup_marked(root_label);
+      if(root_node == null){
+        ret_value.add(Token.undefined_node_exists);
+        continue;
+      }
+      cursor.push( root_label.intern() ,root_node.neighbor_LabelList() );
+
+      while(cursor.depth > 0){
+        int top = cursor.depth - 1;
+        LabelList neighbor_list = cursor.neighbor_list[top];
+
+        // all children followed, return to the parent
+        if( cursor.child_index[top] == neighbor_list.size() ){
+          cursor.pop();
+          continue;
+        }
+        Label child_label = neighbor_list.get( cursor.child_index[top]++ );
+        if( budget != null && !budget.edge_q() ){
+          ret_value.add(Token.budget_exhausted);
+          break descend;
+        }
+
+        // cycle case
+        Label child_interned = child_label.intern();
+        int child_id = child_interned.id();
+        if( cursor.on_path_q(child_id) ){
+          ret_value.add(Token.cycle_exists);
+          cycle_unwind( cursor ,cursor.find(child_id) ,verbose );
+          continue;
+        }
+
+        // non-cycle case, descend a level
+        if( budget != null && !budget.node_q() ){
+          ret_value.add(Token.budget_exhausted);
+          break descend;
+        }
+        Node child_node = lookup_marked(child_label);
+        if(child_node == null){
+          ret_value.add(Token.undefined_node_exists);
+          continue;
+        }
+        if( child_node.neighbor_LabelList().isEmpty() ) continue;  // leaf
 
-    if(verbose) Util.print_list(
-      "Each undefined node could not be marked as a cycle member:" 
-      ,undefined_node_list
-    );
+        // bound the size of problem we are willing to work on
+        if( max_depth > 0 && cursor.depth >= max_depth ){
+          if( verbose && !ret_value.contains(Token.max_depth_reached) ){
+            System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: max_depth reached, not descending below " + child_label);
+          }
+          ret_value.add(Token.max_depth_reached);
+          continue;
+        }
+        cursor.push( child_interned ,child_node.neighbor_LabelList() );
+      }
+    }
+    cursor.clear();
 
-    // Reset the graph iterator to the top of the cycle
-    path_stack.subList( cycle_i0 + 1 ,cycle_n + 1 ).clear();
+    if(verbose){
+      if( ret_value.contains(Token.cycle_exists) ){
+        System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: There are one or more cycles in the graph.");
+      }
+      if( ret_value.contains(Token.undefined_node_exists) ){
+        System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: There are one or more node label references that do not correspond to a defined node in this graph.");
+      }
+    }
 
-    return true; // cycle found
+    return ret_value;
   }
-  
   /*
-    Given a path_stack initialized to the root nodes for the graph traversal.
+    Given root_node_label_list, marks cycles using the SCC engine below.
 
-    Perform depth first descent from each node in succession while searching for
-    cycles by calling graph_descent_cycle_case. Algorithm follows the leftmost
-    nodes in the path_stack list of child lists.
+    This replaces the leftmost descent as the default. Unlike the descent, it
+    needs no `max_depth` bound for graphs built from the map definition, because
+    it visits each node and edge once. The bounded descent is still available
+    through the three argument form.
+  */
+  public TokenSet graph_mark_cycles(LabelList root_node_LabelList){
+    TokenSet ret_value = new TokenSet();
+    graph_mark_SCC(root_node_LabelList ,ret_value ,debug);
+    return ret_value;
+  }
 
-    Returns the descent termination condition.
+  /*
+    As above, with the nodes looked up on `worker_count` threads, see
+    CycleMarkParallel. The marks are the same as those of the sequential form.
   */
-  private static TokenSet graph_descend_set = new TokenSet() {{
-    add(new Token("empty_path_stack"));
-    add(new Token("cycle_found"));
-    add(new Token("undefined_node"));
-    add(new Token("leaf"));
-    add(new Token("max_depth_reached"));
-  }};
-  private TokenSet graph_descend( List<LabelList> path_stack ,int max_depth ,boolean verbose ){
+  public TokenSet graph_mark_cycles(LabelList root_node_LabelList ,int worker_count){
     TokenSet ret_value = new TokenSet();
+    new CycleMarkParallel(this ,worker_count).graph_mark_SCC(root_node_LabelList ,ret_value ,debug);
+    return ret_value;
+  }
 
-    if( path_stack.isEmpty() ){
-      ret_value.add( new Token("empty_path_stack") );
-      return ret_value;
-    }
 
-    // a leftmost path through the neighbor lists of the leftmost nodes
-    LabelList left_path = new LabelList();
-    for( LabelList neighbor_list : path_stack ){
-      left_path.add( neighbor_list.get(0) );
+  /*--------------------------------------------------------------------------------
+    Strongly connected components
+
+    A strongly connected component (SCC) is a maximal set of nodes where each
+    node can reach every other. A node is on a cycle if, and only if, it is in
+    an SCC with more than one member, or it has itself as a neighbor. Hence
+    marking the members of such SCCs as `cycle_member` marks every node that
+    lies on a cycle reachable from the root nodes.
+
+    The nodes reachable from the roots are looked up once, and numbered into
+    int arrays, and then StronglyConnected, Tarjan's algorithm over those arrays,
+    finds the SCCs. Each node is visited once and each edge is followed once, so
+    the run time is O(V + E). The members are marked through the nodes that were
+    looked up, so a produced node that the lookup cache has since let go is
+    still the one marked.
+  */
+
+  private List<LabelList> cycle_list = new ArrayList<>();
+
+  // The cyclic SCCs found by the most recent marking, kept current by the edit methods below.
+  public List<LabelList> cycle_list(){
+    return cycle_list;
+  }
+
+  // The cyclic SCC of each `cycle_member`, kept current by the edit methods below.
+  private final Map<Label ,LabelList> scc_by_label = new HashMap<>();
+
+  // enters a cyclic SCC, in place of the SCCs it has absorbed
+  private void scc_enter(LabelList scc){
+    for( Label member_label : scc ){
+      LabelList prior_scc = scc_by_label.put(member_label ,scc);
+      if( prior_scc != null && prior_scc != scc ) cycle_list_remove(prior_scc);
     }
+    cycle_list.add(scc);
+  }
 
-    // do descend
-    do{
+  // forgets the SCCs of the prior marking, as a marking finds those that still exist
+  private void cycle_list_reset(){
+    cycle_list = new ArrayList<>();
+    scc_by_label.clear();
+  }
 
-      // cycle case
-      if( graph_descend_cycle_case( left_path ,path_stack ,verbose ) ){
-        ret_value.add( new Token("cycle_found") );
-        return ret_value;
+  // SCCs are told apart by identity, two may hold the same labels while one replaces the other
+  private void cycle_list_remove(LabelList scc){
+    for( int i = cycle_list.size() - 1; i >= 0; i-- ){
+      if( cycle_list.get(i) == scc ){
+        cycle_list.remove(i);
+        return;
       }
+    }
+  }
+
+  // Given a node label, returns the members of its cyclic SCC, or null when it is on no known cycle.
+  public LabelList scc(Label node_label){
+    return scc_by_label.get(node_label);
+  }
 
-      // Non-cycle case, descend further into the tree.
-      // Increment the graph iterator (path_stack) to go down a level.
-      Label it_node_label = path_stack.get( path_stack.size() - 1 ).get(0);
-      Node it_node = super.lookup( it_node_label );
-      if( it_node == null ){
-        ret_value.add( new Token("undefined_node") );
-        return ret_value;
+  /*
+    The search of `graph_mark_SCC`. When `region` is given, only nodes in the
+    region are visited, and edges leaving it are ignored. The members of each
+    cyclic SCC found are marked and entered into `cycle_list` and `scc_by_label`.
+
+    The budget is charged while the nodes are looked up. When it runs out the
+    lookups stop where they are, and the SCCs are found among the nodes looked
+    up so far. A cycle among those is a cycle of the graph, so the marks made
+    are correct, though cycles that pass through nodes not yet looked up are
+    not marked.
+  */
+  private List<LabelList> scc_search(
+    LabelList root_node_LabelList
+    ,Set<Label> region
+    ,Set<Label> undefined_node_set
+    ,AnalysisBudget budget
+    ,boolean verbose
+  ){
+    // look up each node reachable from the roots once, label_list doubles as the work queue
+    Set<Label> seen_set = new HashSet<>();
+    List<Label> label_list = new ArrayList<>();
+    List<Node> node_list = new ArrayList<>();
+    List<Label> frontier = new ArrayList<>();
+    for( Label root_label : root_node_LabelList ){
+      if( region != null && !region.contains(root_label) ) continue;
+      if( seen_set.add(root_label) ) frontier.add(root_label);
+    }
+    int frontier_i = 0;
+    discover:
+    while( frontier_i < frontier.size() ){
+      Label node_label = frontier.get(frontier_i++);
+      if( budget != null && !budget.node_q() ) break discover;
+      Node node = super.lookup(node_label ,false);
+      if(node == null){
+        if( budget != null && budget.exhausted_q() ) break discover;
+        undefined_node_set.add(node_label);
+        continue;
       }
-        
-      LabelList neighbor_list = it_node.neighbor_LabelList();
-      if( neighbor_list.isEmpty() ){
-        ret_value.add( new Token("leaf") );
-        return ret_value;
+      label_list.add(node_label);
+      node_list.add(node);
+      for( Label neighbor_label : node.neighbor_LabelList() ){
+        if( budget != null && !budget.edge_q() ) break discover;
+        if( region != null && !region.contains(neighbor_label) ) continue;
+        if( seen_set.add(neighbor_label) ) frontier.add(neighbor_label);
       }
+    }
 
-      // The iterator will destroy the neighbor_list as we traverse the graph,
-      // so we give it a copy.
-      path_stack.add( new LabelList(neighbor_list) );
-      Label it_next_label = neighbor_list.get(0);
-      left_path.add( it_next_label ); // also extend the left_path
-
-      // bound the size of problem we are willing to work on
-      // set max_depth <= 0 to have this test ignored
-      if( max_depth > 0 ){
-        max_depth--;  // Typo fixed
-        if( max_depth == 0 ){
-          if(verbose){
-            Util.print_list("GraphDirectedAcyclic.GraphDescend:: max_depth reached, preternaturally ending the descent:" ,path_stack);
-          }
-          ret_value.add( new Token("max_depth_reached") );
-          return ret_value;
-        }
-      }
+    StronglyConnected.Numbering numbering = new StronglyConnected.Numbering(label_list ,node_list);
+    StronglyConnected scc_engine = numbering.search(null);
+    for( Label root_label : root_node_LabelList ){
+      int root = numbering.id(root_label);
+      if( root >= 0 && root < numbering.defined_count ) scc_engine.search(root);
+    }
 
-    }while(true); // while descend
+    List<LabelList> scc_list = new ArrayList<>();
+    for( int c = 0; c < scc_engine.component_count(); c++ ){
+      if( !scc_engine.cyclic_q(c) ) continue;
+      LabelList scc = new LabelList();
+      for( int i = scc_engine.member_begin(c); i < scc_engine.member_end(c); i++ ){
+        int id = scc_engine.member(i);
+        scc.add( numbering.label_array[id] );
+        numbering.node_array[id].mark(Token.cycle_member);
+      }
+      scc_list.add(scc);
+      scc_enter(scc);
+      if(verbose) Util.print_list("Found cycle:" ,scc);
+    }
+    return scc_list;
   }
 
-   
   /*
-    Given root_node_label_list and a maximum depth for traversal.
+    Given root_node_LabelList, finds the SCCs reachable from the root nodes, and
+    marks the members of each cyclic SCC as `cycle_member`.
 
-    Cycles are handled gracefully, rather the constraint `max_depth` is present
-    because the user is allowed to provide production *functions* for generating
-    nodes. Who knows what crazy graphs a user could come up with, see the
-    document on the algorithm for more info.
-  
-    Does a left first depth first traversal of the graph while marking
-    cycles. This routine pushes the graph traversal iterator to the right one
-    node after a left descent traversal, then it calls `graph_descend` descend
-    from said node.
-
-    Returns one or more symbols that characterize the termination condition.
+    Adds tokens from `graph_mark_cycles_set` to `ret_value`. Returns the cyclic
+    SCCs, each as a list of node labels.
   */
+  public List<LabelList> graph_mark_SCC(LabelList root_node_LabelList ,TokenSet ret_value ,boolean verbose){
+    // compact storage has its own int array engine
+    if( node_map() instanceof NodeMapCompact && recognizer_f_list().isEmpty() ){
+      GraphCompact graph = ( (NodeMapCompact)node_map() ).graph();
+      List<LabelList> scc_list = graph.graph_mark_SCC(root_node_LabelList ,ret_value ,verbose ,analysis_budget());
+      scc_record(scc_list);
+      return scc_list;
+    }
 
-  public static TokenSet graph_mark_cycles_set = new TokenSet() {{
-    add(new Token("empty_root_label_list"));
-    add(new Token("cycle_exists"));
-    add(new Token("undefined_node_exists"));
-    add(new Token("bad_descent_termination"));
-    add(new Token("max_depth_reached"));
-  }};
-  public TokenSet graph_mark_cycles( LabelList root_node_LabelList ,int max_depth ,boolean verbose ){
-    TokenSet ret_value = new TokenSet();
-    boolean exists_malformed = false;
-    TokenSet result; // used variously
+    List<LabelList> scc_list = new ArrayList<>();
+    cycle_list_reset();
 
     if( root_node_LabelList.isEmpty() ){
-      ret_value.add(new Token("empty_root_label_list"));
-      return ret_value;
+      ret_value.add(Token.empty_root_label_list);
+      return scc_list;
     }
 
-    // `path_stack` is our graph iterator. It is initialized with the
-    // `root_node_LabelList`.
-    List<LabelList> path_stack = new ArrayList<>();
-    path_stack.add( new LabelList(root_node_LabelList) );
+    Set<Label> undefined_node_set = new LinkedHashSet<>();
+    AnalysisBudget budget = analysis_budget();
+    scc_list.addAll( scc_search(root_node_LabelList ,null ,undefined_node_set ,budget ,verbose) );
 
-    // each call to graph_descend does a leftmost descent to a leaf
-    do{
-      result = graph_descend( path_stack ,max_depth ,verbose );
-      if( result.contains(new Token("cycle_found")) ) ret_value.add(new Token("cycle_exists"));
-      if( result.contains(new Token("undefined_node")) ) ret_value.add(new Token("undefined_node_exists"));
-      if( result.contains(new Token("max_depth_reached")) ) ret_value.add(new Token("max_depth_reached"));
-      if( !result.contains(new Token("leaf")) && !result.contains(new Token("cycle_found")) ) ret_value.add(new Token("bad_descent_termination"));
-
-      // Push the iterator to the right by one node
-      LabelList top_list = path_stack.get( path_stack.size() - 1 );
-      top_list.remove(0);
-      if( top_list.isEmpty() ) path_stack.remove( path_stack.size() - 1 );
-
-    }while( !path_stack.isEmpty() );
+    if( !scc_list.isEmpty() ) ret_value.add(Token.cycle_exists);
+    if( !undefined_node_set.isEmpty() ) ret_value.add(Token.undefined_node_exists);
+    if( budget != null && budget.exhausted_q() ) ret_value.add(Token.budget_exhausted);
 
     if(verbose){
-      if( ret_value.contains("bad_descent_termination") ){
-        System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: graph_descend terminated with other than leaf or cycle found condition.");
-      }
-      if( ret_value.contains("cycle_exists") ){
-        System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: There are one or more cycles in the graph.");
+      if( !scc_list.isEmpty() ){
+        System.out.println("GraphDirectedAcyclic.graph_mark_SCC:: There are one or more cycles in the graph.");
       }
-      if( ret_value.contains("undefined_node_exists") ){
-        System.out.println("GraphDirectedAcyclic.graph_mark_cycles:: There are one or more node label references that do not correspond to a defined node in this graph.");
+      Util.print_list(
+        "GraphDirectedAcyclic.graph_mark_SCC:: Node label references that do not correspond to a defined node in this graph:"
+        ,new LabelList( new ArrayList<>(undefined_node_set) )
+      );
+    }
+
+    return scc_list;
+  }
+
+
+  /*--------------------------------------------------------------------------------
+    Reachability, see ReachabilityIndex
+  */
+
+  // a snapshot of what depends upon what among the nodes reachable from the roots
+  public ReachabilityIndex reachability_index(LabelList root_node_LabelList ,long memory_budget_bytes){
+    return new ReachabilityIndex(this ,root_node_LabelList ,memory_budget_bytes);
+  }
+
+
+  /*--------------------------------------------------------------------------------
+    Breadth first exploration, see GraphBreadthFirst
+  */
+
+  public GraphBreadthFirst breadth_first(LabelList root_node_LabelList){
+    return new GraphBreadthFirst(this ,root_node_LabelList);
+  }
+
+  // as `Graph.lookup`, so cycle members are returned, with their mark
+  Node lookup_marked(Label node_label){
+    return super.lookup(node_label ,false);
+  }
+
+  // takes the cyclic SCCs found elsewhere, e.g. by CycleMarkParallel, as the result of the latest marking
+  void scc_record(List<LabelList> scc_list){
+    cycle_list_reset();
+    for( LabelList scc : scc_list ) scc_enter(scc);
+  }
+
+  // marks the cycles through node_label that lie within region, or anywhere when region is null
+  List<LabelList> scc_mark_within(Label node_label ,Set<Label> region){
+    LabelList root_list = new LabelList();
+    root_list.add(node_label);
+    return scc_mark_within(root_list ,region);
+  }
+
+  // as above, with one search from all of the roots
+  List<LabelList> scc_mark_within(LabelList root_node_LabelList ,Set<Label> region){
+    return scc_search(root_node_LabelList ,region ,new LinkedHashSet<>() ,null ,false);
+  }
+
+
+  /*--------------------------------------------------------------------------------
+    Edits
+
+    Adds and removes nodes and edges of the map definition, and keeps the
+    `cycle_member` marks and `scc_by_label` current without marking the whole
+    graph again.
+
+    Adding a node or an edge can only join SCCs, and any new cycle passes through
+    the node that was added, or the tail of the edge that was added. So the
+    search is run from that node alone. Every member of its SCC reaches it, so
+    when all nodes are in the map definition the search is kept within the
+    nodes that depend upon it, see `dependent_index`, and an edge whose head
+    does not depend upon its tail closes no cycle and is not searched at all.
+    With productions, the nodes they make are not in the dependent index, and
+    the search visits what the node can reach.
+
+    Removing a node or an edge can only split an SCC, and only the SCC that held
+    it. The marks of its members are cleared, and the search is run again within
+    the old members alone, map defined or produced, re-marking those still on a
+    cycle.
+
+    Compact storage is fixed once built, so the first edit copies its nodes,
+    with their marks, into plain Nodes in a HashMap, and the graph is edited
+    from then on as one made from a map definition.
+
+    Once `dependent_index` has been asked for, these also keep it current.
+  */
+
+  private DependentIndex dependent_index = null;
+
+  /*
+    The dependents of each node of the map definition, made on first use in one
+    pass over the node map. Nodes made by productions are not in it, see
+    DependentIndex.
+  */
+  public DependentIndex dependent_index(){
+    if(dependent_index == null) dependent_index = DependentIndex.of( node_map() );
+    return dependent_index;
+  }
+
+  public void dependent_index(DependentIndex dependent_index){
+    this.dependent_index = dependent_index;
+  }
+
+  // the changed nodes, and every node of the map definition that depends upon one of them
+  public Set<Label> dependent_cone(Collection<Label> changed_collection){
+    return dependent_index().dependent_cone(changed_collection);
+  }
+
+  private void edit_check(){
+    if( !(node_map() instanceof NodeMapCompact) ) return;
+    Map<Label ,Node> plain_map = new HashMap<>( node_map().size() * 2 );
+    for( Map.Entry<Label ,Node> entry : node_map().entrySet() ){
+      Node node = new Node();
+      for( Map.Entry<String ,Object> property : entry.getValue().entrySet() ){
+        if( "neighbor".equals(property.getKey()) ){
+          node.neighbor_LabelList().addAll( (LabelList)property.getValue() );
+        }else if( "mark".equals(property.getKey()) ){
+          for( Token mark : (TokenSet)property.getValue() ) node.mark(mark);
+        }else{
+          node.put( property.getKey() ,property.getValue() );
+        }
       }
+      plain_map.put( entry.getKey() ,node );
     }
+    node_map(plain_map);
+  }
 
-    return ret_value;
+  // clears and re-marks the SCC that held node_label, it has lost a node or an edge
+  private void scc_split(Label node_label){
+    LabelList old_scc = scc_by_label.get(node_label);
+    if(old_scc == null) return;
+    cycle_list_remove(old_scc);
+    Set<Label> region = new LinkedHashSet<>();
+    for( Label member_label : old_scc ){
+      scc_by_label.remove(member_label);
+      Node member = lookup_marked(member_label);
+      if(member == null) continue;
+      member.clear_mark(Token.cycle_member);
+      region.add(member_label);
+    }
+    scc_search( new LabelList( new ArrayList<>(region) ) ,region ,new LinkedHashSet<>() ,null ,false );
+  }
+
+  /*
+    The nodes a new cycle through node_label could lie on, those that depend
+    upon it, or null for no bound when productions may make nodes the dependent
+    index does not know.
+  */
+  private Set<Label> scc_region(Label node_label){
+    if( !recognizer_f_list().isEmpty() ) return null;
+    return dependent_index().dependent_cone( Collections.singletonList(node_label) );
+  }
+
+  // Adds the node, or replaces the node of the same label.
+  public void node_add(Label node_label ,Node node){
+    edit_check();
+    if( node_map().containsKey(node_label) ) node_remove(node_label);
+    node.clear_mark(Token.cycle_member);
+    node_map().put(node_label ,node);
+    // the map node takes the label over from the productions, and from any SCC its produced node was in
+    produced_mark_forget(node_label);
+    scc_split(node_label);
+    if( mark_registry() != null ) node.mark_registry_attach( mark_registry() ,node_label.intern() );
+    if(dependent_index != null) dependent_index.node_add(node_label ,node);
+    // marks the cycles through node_label, it has gained a node
+    scc_mark_within( node_label ,scc_region(node_label) );
   }
-   public TokenSet graph_mark_cycles(LabelList root_node_LabelList){
-    return graph_mark_cycles(root_node_LabelList ,this.debug?40:-1 ,this.debug);
+
+  // Removes the node from the map definition. Edges to it are left in place, as references to an undefined node.
+  public Node node_remove(Label node_label){
+    edit_check();
+    Node node = node_map().get(node_label);
+    if(node == null) return null;
+    node_map().remove(node_label);
+    if(dependent_index != null) dependent_index.node_remove(node_label ,node);
+    // a production may recognize the label now that the map does not hold it,
+    // the split then looks the label up as a produced node
+    if( lookup_cache() != null ) lookup_cache().invalidate(node_label);
+    produced_mark_forget(node_label);
+    node.clear_mark(Token.cycle_member);
+    // the node leaves with its marks, and its id is free for a node of the same label
+    node.mark_registry_detach();
+    scc_split(node_label);
+    return node;
+  }
+
+  // Returns false when from_label is not a node of the map definition.
+  public boolean edge_add(Label from_label ,Label to_label){
+    edit_check();
+    Node node = node_map().get(from_label);
+    if(node == null) return false;
+    node.neighbor_LabelList().add(to_label);
+    if(dependent_index != null) dependent_index.edge_add(from_label ,to_label);
+    // marks the cycles through from_label, it has gained an edge, unless to_label does not lead back
+    Set<Label> region = scc_region(from_label);
+    if( region == null || region.contains(to_label) ) scc_mark_within(from_label ,region);
+    return true;
   }
-  
+
+  // Returns false when there is no such edge.
+  public boolean edge_remove(Label from_label ,Label to_label){
+    edit_check();
+    Node node = node_map().get(from_label);
+    if( node == null || !node.neighbor_LabelList().remove(to_label) ) return false;
+    if(dependent_index != null) dependent_index.edge_remove(from_label ,to_label);
+    // a duplicate edge still joins the two nodes
+    if( node.neighbor_LabelList().contains(to_label) ) return true;
+    LabelList old_scc = scc_by_label.get(from_label);
+    if( old_scc != null && old_scc.contains(to_label) ) scc_split(from_label);
+    return true;
+  }
+
 
   /*--------------------------------------------------------------------------------
     Graph traversal
@@ -406,7 +804,7 @@ public class GraphDirectedAcyclic extends Graph{
   @Override
   public Node lookup(Label node_label, boolean verbose){
     Node node = super.lookup(node_label, verbose);
-    if(node != null && node.has_mark(new Token("cycle_member"))){
+    if(node != null && node.has_mark(Token.cycle_member)){
       if(verbose){
         System.out.println("GraphDirectedAcyclic.lookup:: Node is part of a cycle so it will not be returned: " + node_label);
       }
@@ -419,4 +817,147 @@ public class GraphDirectedAcyclic extends Graph{
     return lookup(node_label ,this.debug);
   }
 
+  // as `Graph.lookup_all`, with null for the cycle members, as `lookup` gives
+  @Override
+  public NodeList lookup_all(LabelList node_label_list ,Executor executor){
+    NodeList node_list = super.lookup_all(node_label_list ,executor);
+    for( int i = 0; i < node_list.size(); i++ ){
+      Node node = node_list.get(i);
+      if( node != null && node.has_mark(Token.cycle_member) ) node_list.set(i ,null);
+    }
+    return node_list;
+  }
+
+
+  /*--------------------------------------------------------------------------------
+    Build predicates
+
+    These follow the semantics of the build walk in the deprecated Graph. A node
+    is 'good' when `lookup` returns it, i.e. it is defined and not a cycle member,
+    and it has not been marked `build_failed`.
+
+    The node label is passed along with the node because nodes given in the map
+    definition are not required to carry a 'label' property.
+  */
+
+  // When set, the file checks below go through this cache. See FileStatCache.
+  private FileStatCache file_stat_cache = null;
+
+  public FileStatCache file_stat_cache(){
+    return file_stat_cache;
+  }
+
+  public void file_stat_cache(FileStatCache file_stat_cache){
+    this.file_stat_cache = file_stat_cache;
+  }
+
+  // When set, path nodes are checked by content digest rather than by mtime. See BuildDatabase.
+  private BuildDatabase build_database = null;
+
+  public BuildDatabase build_database(){
+    return build_database;
+  }
+
+  public void build_database(BuildDatabase build_database){
+    this.build_database = build_database;
+  }
+
+  public boolean good_node_q(Node node){
+    return node != null && !node.has_mark(Token.build_failed);
+  }
+
+  // A dependency is "good" if it is a good node, and for leaf or path, if the
+  // corresponding file exists.
+  public boolean good_dependency_q(LabelList node_label_list){
+    if(file_stat_cache != null) file_stat_cache.prefetch( fp_list(node_label_list) );
+    NodeList node_list = lookup_all(node_label_list);
+    for( int i = 0; i < node_list.size(); i++ ){
+      Label node_label = node_label_list.get(i);
+      Node node = node_list.get(i);
+      if( !good_node_q(node) ) return false;
+      if(
+         ( "path".equals(node.get("type")) || "leaf".equals(node.get("type")) )
+         && !File.file_exists_q( node_label.get() ,file_stat_cache )
+      ){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean can_be_built_q(Label node_label ,Node node){
+    if( !good_node_q(node) ) return false;
+    if(
+       ( "symbol".equals(node.get("type")) || "path".equals(node.get("type")) )
+       && !good_dependency_q( node.neighbor_LabelList() )
+    ){
+      return false;
+    }
+    if(
+       "leaf".equals( node.get("type") )
+       && !File.file_exists_q( node_label.get() ,file_stat_cache )
+    ){
+      return false;
+    }
+    return true;
+  }
+
+  static List<String> fp_list(LabelList node_label_list){
+    List<String> fp_list = new ArrayList<>( node_label_list.size() );
+    for( Label node_label : node_label_list ) fp_list.add( node_label.get() );
+    return fp_list;
+  }
+
+  // `can_be_built_q` must be true for this to be meaningful:
+  public boolean should_be_built_q(Label node_label ,Node node ,boolean verbose) throws IOException{
+    if( "leaf".equals(node.get("type")) ) return false;
+    if( "symbol".equals(node.get("type")) ) return true;
+    if( "path".equals(node.get("type")) ){
+      if(build_database != null){
+        return !build_database.up_to_date_q( node_label ,node.neighbor_LabelList() ,file_stat_cache );
+      }
+      List<String> dependency_fp_list = fp_list( node.neighbor_LabelList() );
+      return !File.newer_than_all( node_label.get() ,dependency_fp_list ,file_stat_cache );
+    }
+
+    if(verbose){
+      System.out.println("should_be_built_q:: unrecognized node type, so assuming it should not be built.");
+    }
+    return false;
+  }
+  public boolean should_be_built_q(Label node_label ,Node node) throws IOException{
+    return should_be_built_q(node_label ,node ,debug);
+  }
+
+  /*
+    A guess, made before the build, at whether `should_be_built_q` will be true,
+    for BuildParallel to order the ready jobs by. A path node is guessed stale
+    when its file is missing or older than one of its dependencies, by the
+    modification times alone, even when there is a build database, so that the
+    guess reads no file content. The dependencies that are themselves rebuilt
+    are not known here, see `BuildParallel.priority_set`.
+  */
+  public boolean likely_built_q(Label node_label ,Node node){
+    if( "leaf".equals(node.get("type")) ) return false;
+    if( "symbol".equals(node.get("type")) ) return true;
+    if( !"path".equals(node.get("type")) ) return false;
+    try{
+      return !File.newer_than_all( node_label.get() ,fp_list( node.neighbor_LabelList() ) ,file_stat_cache );
+    }catch(IOException e){
+      return true;
+    }
+  }
+
+  /*
+    Called after the build script for a node has run. For path nodes, true when
+    the build updated the target path. With a build database the target need only
+    exist, as the content it had before the build is not known here, and the
+    digests are then recorded so that the next build finds the node up to date.
+  */
+  public boolean built_q(Label node_label ,Node node ,boolean verbose) throws IOException{
+    if( !"path".equals(node.get("type")) ) return true;
+    if(build_database == null) return !should_be_built_q(node_label ,node ,verbose);
+    return build_database.record_build( node_label ,node.neighbor_LabelList() ,file_stat_cache );
+  }
+
 }
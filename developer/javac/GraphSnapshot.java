@@ -0,0 +1,381 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Binary snapshot of a marked up GraphCompact, for fast startup.
+
+  Building the graph means running the graph definition class to make the node
+  map, and then marking cycles from the root nodes. For a large graph this takes
+  seconds before the first build script runs. When the definition has not
+  changed, neither has the result, so it is written to a snapshot file, and on
+  the next run the snapshot is memory mapped and read back into the columns of a
+  GraphCompact instead.
+
+  A snapshot carries the fingerprint of the definition it was made from. `read`
+  returns null when the file is missing, is not a snapshot, or has another
+  fingerprint, and the caller then falls back to evaluating the definition.
+  `fingerprint(Class)` digests every class file in the package directory of the
+  definition class, so its inner and anonymous classes, e.g. `TestGraph$1`, and
+  the helper classes beside it are covered. A definition that reads other files
+  gives them to `fingerprint(Class ,Path...)` to be folded in as well.
+
+  Build functions are code and are not in the snapshot. After a read they are
+  bound by label with `build_bind`. Properties that spilled into the
+  GraphCompact property map are not kept.
+
+  File layout, big endian:
+
+    magic "AGS1"
+    fingerprint           32 bytes
+    int node_count ,int defined_count ,int edge_count
+    type token table      int count ,then for each int length and UTF-8
+    mark token table      same form
+    label table           node_count entries, each int length and UTF-8
+    byte type_code[node_count]
+    long mark_bits[node_count]
+    int neighbor_offset[defined_count + 1]
+    int neighbor_target[edge_count]
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+public class GraphSnapshot{
+
+  private static boolean debug = false;
+
+  private static final byte[] magic = "AGS1".getBytes(StandardCharsets.US_ASCII);
+  public static final int fingerprint_length = 32;
+
+  /*--------------------------------------------------------------------------------
+    fingerprint
+  */
+
+  private static MessageDigest digest_new(){
+    try{
+      return MessageDigest.getInstance("SHA-256");
+    }catch(NoSuchAlgorithmException e){
+      throw new IllegalStateException("GraphSnapshot: SHA-256 is not available" ,e);
+    }
+  }
+
+  private static void digest_entry(MessageDigest digest ,String name ,InputStream in) throws IOException{
+    byte[] name_bytes = name.getBytes(StandardCharsets.UTF_8);
+    digest.update( ByteBuffer.allocate(Integer.BYTES).putInt(name_bytes.length).array() );
+    digest.update(name_bytes);
+    byte[] block = new byte[1 << 16];
+    long length = 0;
+    int n;
+    while( (n = in.read(block)) > 0 ){
+      digest.update(block ,0 ,n);
+      length += n;
+    }
+    digest.update( ByteBuffer.allocate(Long.BYTES).putLong(length).array() );
+  }
+
+  /*
+    Digest of the class files of the package of the definition class, read from
+    the directory or jar the class was loaded from, in name order. When the
+    class came from elsewhere, only its own class file is digested.
+  */
+  private static void digest_package(MessageDigest digest ,Class<?> definition_class) throws IOException{
+    String class_fp = definition_class.getName().replace('.' ,'/') + ".class";
+    ClassLoader class_loader = definition_class.getClassLoader();
+    URL class_url = (class_loader == null) ? null : class_loader.getResource(class_fp);
+    if(class_url == null) throw new IOException("GraphSnapshot: could not find class file " + class_fp);
+    int slash = class_fp.lastIndexOf('/');
+    String package_prefix = class_fp.substring(0 ,slash + 1);
+
+    if( "file".equals(class_url.getProtocol()) ){
+      Path package_dp;
+      try{
+        package_dp = Paths.get( class_url.toURI() ).getParent();
+      }catch(URISyntaxException e){
+        throw new IOException("GraphSnapshot: bad class file location " + class_url ,e);
+      }
+      List<Path> class_fp_list = new ArrayList<>();
+      try( DirectoryStream<Path> stream = Files.newDirectoryStream(package_dp ,"*.class") ){
+        for( Path fp : stream ) class_fp_list.add(fp);
+      }
+      Collections.sort(class_fp_list);
+      for( Path fp : class_fp_list ){
+        try( InputStream in = Files.newInputStream(fp) ){
+          digest_entry( digest ,package_prefix + fp.getFileName() ,in );
+        }
+      }
+      return;
+    }
+
+    if( "jar".equals(class_url.getProtocol()) ){
+      JarURLConnection connection = (JarURLConnection)class_url.openConnection();
+      connection.setUseCaches(false);
+      try( JarFile jar = connection.getJarFile() ){
+        List<String> name_list = new ArrayList<>();
+        for( Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ){
+          String name = e.nextElement().getName();
+          if(
+             name.startsWith(package_prefix)
+             && name.endsWith(".class")
+             && name.indexOf('/' ,package_prefix.length()) < 0
+             ){
+            name_list.add(name);
+          }
+        }
+        Collections.sort(name_list);
+        for( String name : name_list ){
+          try( InputStream in = jar.getInputStream( jar.getJarEntry(name) ) ){
+            digest_entry(digest ,name ,in);
+          }
+        }
+      }
+      return;
+    }
+
+    try( InputStream in = class_url.openStream() ){
+      digest_entry(digest ,class_fp ,in);
+    }
+  }
+
+  // digest of the class files that define the graph
+  public static byte[] fingerprint(Class<?> definition_class) throws IOException{
+    return fingerprint(definition_class ,new Path[0]);
+  }
+
+  // as above, with the given input files, e.g. those the definition reads, folded in
+  public static byte[] fingerprint(Class<?> definition_class ,Path... input_fp_array) throws IOException{
+    MessageDigest digest = digest_new();
+    digest_entry( digest ,definition_class.getName() ,new ByteArrayInputStream(new byte[0]) );
+    digest_package(digest ,definition_class);
+    for( Path input_fp : input_fp_array ){
+      try( InputStream in = Files.newInputStream(input_fp) ){
+        digest_entry( digest ,input_fp.toString() ,in );
+      }
+    }
+    return digest.digest();
+  }
+
+  /*--------------------------------------------------------------------------------
+    write
+  */
+
+  private static byte[][] utf8_table(List<String> string_list){
+    byte[][] table = new byte[string_list.size()][];
+    for( int i = 0; i < table.length; i++ ) table[i] = string_list.get(i).getBytes(StandardCharsets.UTF_8);
+    return table;
+  }
+
+  private static long table_size(byte[][] table){
+    long size = Integer.BYTES;
+    for( byte[] entry : table ) size += Integer.BYTES + entry.length;
+    return size;
+  }
+
+  private static void table_put(ByteBuffer buffer ,byte[][] table){
+    buffer.putInt(table.length);
+    for( byte[] entry : table ){
+      buffer.putInt(entry.length);
+      buffer.put(entry);
+    }
+  }
+
+  private static List<String> token_string_list(List<Token> token_list){
+    List<String> string_list = new ArrayList<>( token_list.size() );
+    for( Token token : token_list ) string_list.add( token.get() );
+    return string_list;
+  }
+
+  /*
+    Given the node map of the definition, returns the GraphCompact to snapshot,
+    with the cycles marked from every defined node. Marking from the root nodes
+    of one run alone would leave unmarked any cycle that only another root list
+    reaches, so a snapshot made this way serves any root list.
+  */
+  public static GraphCompact marked(Map<Label ,Node> node_map){
+    GraphCompact graph = new GraphCompact(node_map);
+    LabelList all_LabelList = new LabelList();
+    for( int id = 0; id < graph.defined_count(); id++ ) all_LabelList.add( graph.label(id) );
+    graph.graph_mark_SCC(all_LabelList ,new TokenSet() ,false);
+    return graph;
+  }
+
+  /*
+    Writes the graph to `snapshot_fp`. The file is written beside the target
+    and then moved into place, so a reader never sees a partial snapshot.
+  */
+  public static void write(Path snapshot_fp ,byte[] fingerprint ,GraphCompact graph) throws IOException{
+    if( fingerprint.length != fingerprint_length ){
+      throw new IllegalArgumentException("GraphSnapshot: fingerprint must be " + fingerprint_length + " bytes");
+    }
+    int node_count = graph.node_count();
+    int defined_count = graph.defined_count();
+    int edge_count = graph.edge_count();
+
+    byte[][] type_table = utf8_table( token_string_list(graph.type_token_list()) );
+    byte[][] mark_table = utf8_table( token_string_list(graph.mark_token_list()) );
+    List<String> label_string_list = new ArrayList<>(node_count);
+    for( Label node_label : graph.label_array() ) label_string_list.add( node_label.get() );
+    byte[][] label_table = utf8_table(label_string_list);
+
+    long size =
+      magic.length + fingerprint_length + 3 * Integer.BYTES
+      + table_size(type_table) + table_size(mark_table) + table_size(label_table) - Integer.BYTES
+      + node_count
+      + (long)node_count * Long.BYTES
+      + (long)(defined_count + 1) * Integer.BYTES
+      + (long)edge_count * Integer.BYTES;
+
+    Path temp_fp = snapshot_fp.resolveSibling( snapshot_fp.getFileName() + ".tmp" );
+    try(
+      FileChannel channel = FileChannel.open(
+        temp_fp
+        ,StandardOpenOption.CREATE
+        ,StandardOpenOption.TRUNCATE_EXISTING
+        ,StandardOpenOption.READ
+        ,StandardOpenOption.WRITE
+      )
+    ){
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE ,0 ,size);
+      buffer.put(magic);
+      buffer.put(fingerprint);
+      buffer.putInt(node_count);
+      buffer.putInt(defined_count);
+      buffer.putInt(edge_count);
+      table_put(buffer ,type_table);
+      table_put(buffer ,mark_table);
+      // the label table count is node_count, already given
+      for( byte[] entry : label_table ){
+        buffer.putInt(entry.length);
+        buffer.put(entry);
+      }
+      buffer.put( graph.type_code_array() ,0 ,node_count );
+      buffer.asLongBuffer().put( graph.mark_bits_array() ,0 ,node_count );
+      buffer.position( Math.toIntExact( buffer.position() + (long)node_count * Long.BYTES ) );
+      buffer.asIntBuffer().put( graph.neighbor_offset_array() ,0 ,defined_count + 1 );
+      buffer.position( Math.toIntExact( buffer.position() + (long)(defined_count + 1) * Integer.BYTES ) );
+      buffer.asIntBuffer().put( graph.neighbor_target_array() ,0 ,edge_count );
+      buffer.force();
+    }
+    Files.move(temp_fp ,snapshot_fp ,StandardCopyOption.REPLACE_EXISTING ,StandardCopyOption.ATOMIC_MOVE);
+    if(debug) System.out.println("GraphSnapshot.write:: " + node_count + " nodes, " + size + " bytes to " + snapshot_fp);
+  }
+
+  /*--------------------------------------------------------------------------------
+    read
+  */
+
+  private static String string_get(ByteBuffer buffer){
+    int length = buffer.getInt();
+    if( length < 0 || length > buffer.remaining() ) throw new BufferUnderflowException();
+    byte[] entry = new byte[length];
+    buffer.get(entry);
+    return new String(entry ,StandardCharsets.UTF_8);
+  }
+
+  private static List<Token> token_table_get(ByteBuffer buffer){
+    int count = buffer.getInt();
+    if( count < 0 || count > buffer.remaining() / Integer.BYTES ) throw new BufferUnderflowException();
+    List<Token> token_list = new ArrayList<>(count);
+    for( int i = 0; i < count; i++ ) token_list.add( Token.intern(string_get(buffer)) );
+    return token_list;
+  }
+
+  /*
+    Given the snapshot file and the fingerprint of the current definition,
+    returns the graph, or null when there is no usable snapshot.
+  */
+  public static GraphCompact read(Path snapshot_fp ,byte[] fingerprint) throws IOException{
+    if( !Files.isRegularFile(snapshot_fp) ) return null;
+    try( FileChannel channel = FileChannel.open(snapshot_fp ,StandardOpenOption.READ) ){
+      long size = channel.size();
+      if( size < magic.length + fingerprint_length ) return null;
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY ,0 ,size);
+
+      byte[] file_magic = new byte[magic.length];
+      buffer.get(file_magic);
+      if( !Arrays.equals(file_magic ,magic) ) return null;
+      byte[] file_fingerprint = new byte[fingerprint_length];
+      buffer.get(file_fingerprint);
+      if( !Arrays.equals(file_fingerprint ,fingerprint) ){
+        if(debug) System.out.println("GraphSnapshot.read:: fingerprint differs, snapshot is stale: " + snapshot_fp);
+        return null;
+      }
+
+      int node_count = buffer.getInt();
+      int defined_count = buffer.getInt();
+      int edge_count = buffer.getInt();
+      // counts that the file could not hold mean a corrupt header, checked before anything is allocated
+      if(
+         node_count < 0 || defined_count < 0 || defined_count > node_count || edge_count < 0
+         || (long)node_count * (Integer.BYTES + 1 + Long.BYTES) + (long)(defined_count + 1 + edge_count) * Integer.BYTES > size
+         ){
+        System.err.println("GraphSnapshot: corrupt snapshot header, ignoring it: " + snapshot_fp);
+        return null;
+      }
+      List<Token> type_token_list = token_table_get(buffer);
+      List<Token> mark_token_list = token_table_get(buffer);
+
+      Label[] label_array = new Label[node_count];
+      for( int id = 0; id < node_count; id++ ) label_array[id] = Label.intern( string_get(buffer) );
+
+      byte[] type_code = new byte[node_count];
+      buffer.get(type_code);
+      long[] mark_bits = new long[node_count];
+      buffer.asLongBuffer().get(mark_bits);
+      buffer.position( Math.toIntExact( buffer.position() + (long)node_count * Long.BYTES ) );
+      int[] neighbor_offset = new int[defined_count + 1];
+      buffer.asIntBuffer().get(neighbor_offset);
+      buffer.position( Math.toIntExact( buffer.position() + (long)(defined_count + 1) * Integer.BYTES ) );
+      int[] neighbor_target = new int[edge_count];
+      buffer.asIntBuffer().get(neighbor_target);
+
+      if(debug) System.out.println("GraphSnapshot.read:: " + node_count + " nodes from " + snapshot_fp);
+      return new GraphCompact(
+        label_array ,defined_count ,type_code ,type_token_list
+        ,mark_token_list ,mark_bits
+        ,neighbor_offset ,neighbor_target
+      );
+    }catch(RuntimeException e){
+      // BufferUnderflowException for a truncated file, and for a corrupt one e.g.
+      // NegativeArraySizeException, IllegalArgumentException or ArithmeticException
+      System.err.println("GraphSnapshot: unreadable snapshot, ignoring it: " + snapshot_fp + ": " + e);
+      return null;
+    }
+  }
+
+  /*
+    Binds the build function of each defined node, as given by `build_resolver`
+    for its label. A null from the resolver leaves the node without one.
+  */
+  public static void build_bind(GraphCompact graph ,Function<Label ,Runnable> build_resolver){
+    for( int id = 0; id < graph.defined_count(); id++ ){
+      Runnable build_f = build_resolver.apply( graph.label(id) );
+      if(build_f != null) graph.build(id ,build_f);
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Gives each distinct string value one canonical instance of type T, and a dense
+  integer id for it.
+
+  The ids are 0, 1, 2 ..., in the order of first interning while none are
+  reused, so they can be used to index arrays. `Label` and `Token` each keep
+  one of these tables.
+
+  Lookups of values already interned do not lock, nor does `by_id`. The
+  instances are kept by id in chunks of `chunk_size` slots, and the count of
+  ids given out is published after the slot is written, so a reader that sees
+  an id below the count sees its slot, as does one reading the slot of a reused
+  id, the chunks being republished after the write. The value is entered after
+  that, so an instance found by value is also found by id. Growing the table adds a chunk,
+  and copies only the short array of chunks. Adding a value takes a lock, so
+  that the ids stay dense when several threads intern at once.
+
+  A weak table holds its instances through weak references, so an instance
+  that nothing else refers to is collected, and the value and the slot are
+  dropped from the table. Interning the value again gives a new instance. The
+  id of a collected instance is given to the next new one, so the ids, and the
+  arrays indexed by them, stay within the count of instances live at once in a
+  process that makes labels for as long as it runs, e.g. BuildWatch or
+  BuildServer. So whoever keeps an id, rather than the instance, must keep the
+  instance too, or else a later instance may be confused with it, see
+  DependentIndex and MarkRegistry.
+*/
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+public class InternTable<T>{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  // `make_f` is given the value and its id, and returns the canonical instance
+  public InternTable(BiFunction<String ,Integer ,T> make_f ,boolean weak_q){
+    this.make_f = make_f;
+    this.weak_q = weak_q;
+  }
+
+  public InternTable(BiFunction<String ,Integer ,T> make_f){
+    this(make_f ,false);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static final int chunk_shift = 10;
+  private static final int chunk_size = 1 << chunk_shift;
+
+  private final BiFunction<String ,Integer ,T> make_f;
+  private final boolean weak_q;
+
+  // the instance of each value, or its Entry when weak
+  private final ConcurrentHashMap<String ,Object> instance_map = new ConcurrentHashMap<>();
+  // slot id holds the instance, or its Entry when weak, null once collected
+  private volatile Object[][] chunk_array = new Object[1][];
+  // one more than the largest id given out, written after its slot
+  private volatile int size = 0;
+  private final Object lock = new Object();
+  private final ReferenceQueue<T> collected_queue = new ReferenceQueue<>();
+  // the ids of collected instances, to be given out again, the first free_count of them
+  private int[] free_id_array = new int[0];
+  private int free_count = 0;
+
+  private static final class Entry<T> extends WeakReference<T>{
+    final String value;
+    final int id;
+    Entry(T instance ,String value ,int id ,ReferenceQueue<T> queue){
+      super(instance ,queue);
+      this.value = value;
+      this.id = id;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T instance(Object slot){
+    if(slot == null) return null;
+    return weak_q ? ( (Entry<T>)slot ).get() : (T)slot;
+  }
+
+  /*--------------------------------------------------------------------------------
+   interface
+  */
+
+  public T intern(String value){
+    T instance = instance( instance_map.get(value) );
+    if(instance != null) return instance;
+    synchronized(lock){
+      if(weak_q) expunge();
+      instance = instance( instance_map.get(value) );
+      if(instance == null){
+        int id = (free_count > 0) ? free_id_array[--free_count] : size;
+        instance = make_f.apply(value ,id);
+        Object slot = weak_q ? new Entry<>(instance ,value ,id ,collected_queue) : instance;
+        Object[][] chunks = chunk_array;
+        int chunk_i = id >>> chunk_shift;
+        if( chunk_i == chunks.length ) chunks = Arrays.copyOf(chunks ,chunks.length << 1);
+        if( chunks[chunk_i] == null ) chunks[chunk_i] = new Object[chunk_size];
+        chunks[chunk_i][id & (chunk_size - 1)] = slot;
+        chunk_array = chunks;
+        // published by id before by value, so an instance found by value is found by its id
+        if(id == size) size = id + 1;
+        instance_map.put(value ,slot);
+      }
+    }
+    return instance;
+  }
+
+  // drops the values and slots of collected instances, called under the lock
+  @SuppressWarnings("unchecked")
+  private void expunge(){
+    for( Object collected = collected_queue.poll(); collected != null; collected = collected_queue.poll() ){
+      Entry<T> entry = (Entry<T>)collected;
+      instance_map.remove(entry.value ,entry);
+      chunk_array[entry.id >>> chunk_shift][entry.id & (chunk_size - 1)] = null;
+      if( free_count == free_id_array.length ) free_id_array = Arrays.copyOf( free_id_array ,Math.max(16 ,free_count << 1) );
+      free_id_array[free_count++] = entry.id;
+    }
+  }
+
+  // returns the canonical instance for `value`, or null if it has not been interned
+  public T find(String value){
+    return instance( instance_map.get(value) );
+  }
+
+  // the instance with the given id, or null when there is none, or it was collected
+  public T by_id(int id){
+    if( id < 0 || id >= size ) return null;
+    return instance( chunk_array[id >>> chunk_shift][id & (chunk_size - 1)] );
+  }
+
+  // one more than the largest id given out, never less than the count of live instances
+  public int size(){
+    return size;
+  }
+
+}
@@ -6,14 +6,77 @@ package com.ReasoningTechnology.Ariadne;
   This is a wrapper for a String. We can't instead use an alias by extending
   String, because String is a JavaScript 'final' type.
 
+  `Label.intern` returns the canonical Label for a value. Interned labels carry a
+  dense integer `id` that can be used to index arrays, and two interned labels
+  are equal only when they are the same object. A label made with `new` has id
+  -1, and is compared by value, so it still matches the interned label of the
+  same value in a map. The hash is computed once, at construction.
+
+  The intern table holds the interned labels weakly, so the labels of nodes a
+  long lived build, e.g. BuildWatch or BuildServer, has dropped are collected
+  rather than kept for the life of the process. A label is kept as long as
+  anything refers to it. The id of a collected label is given to the next new
+  one, so code that keeps a label id rather than the label must keep the label
+  too, see InternTable.
+
 */
 public class Label {
   private final String value;
+  private final int hash;
+  private final int id;
 
   public Label(String value){
+    this(value ,-1);
+  }
+
+  private Label(String value ,int id){
     this.value = value;
+    this.hash = value.hashCode();
+    this.id = id;
   }
 
+  /*--------------------------------------------------------------------------------
+    intern table
+  */
+
+  private static final InternTable<Label> intern_table = new InternTable<>(Label::new ,true);
+
+  public static Label intern(String value){
+    return intern_table.intern(value);
+  }
+
+  // the interned label for `value`, or null if there is none
+  public static Label find(String value){
+    return intern_table.find(value);
+  }
+
+  // the interned label with the given id, or null
+  public static Label by_id(int id){
+    return intern_table.by_id(id);
+  }
+
+  // one more than the largest id given out so far, i.e. a size for id indexed arrays
+  public static int intern_count(){
+    return intern_table.size();
+  }
+
+  public Label intern(){
+    return (id >= 0) ? this : intern_table.intern(value);
+  }
+
+  // -1 when this label was not interned
+  public int id(){
+    return id;
+  }
+
+  public boolean interned_q(){
+    return id >= 0;
+  }
+
+  /*--------------------------------------------------------------------------------
+    value
+  */
+
   public boolean isEmpty() {
     return value.isEmpty();
   }
@@ -32,11 +95,12 @@ public class Label {
     if(this == o) return true;
     if( o == null || getClass() != o.getClass() ) return false;
     Label label = (Label)o;
-    return value.equals( label.value );
+    if( id >= 0 && label.id >= 0 ) return false;  // interned, and not the same object
+    return hash == label.hash && value.equals( label.value );
   }
 
   @Override
   public int hashCode(){
-    return value.hashCode();
+    return hash;
   }
 }
@@ -0,0 +1,166 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Memoizes the results of running a label through the production list.
+
+  Both outcomes are kept: the node a production returned, and the fact that no
+  production recognized the label (a negative entry). A label that is looked
+  up again, during cycle marking, the well-formed check, or the build walk,
+  then does not run the productions again. This relies upon productions giving
+  the same output for the same input, which is criterion 1 in the
+  GraphDirectedAcyclic header.
+
+  It also means that a node made by a production is the same object on each
+  lookup while it stays in the cache. Once evicted it is made again as a new
+  node, so the graph keeps the cycle_member and build_failed marks of produced
+  nodes apart from the nodes, see `Graph.produced_mark_registry`.
+
+  A production that looks at the file system breaks criterion 1 over time: a
+  label it did not recognize may be recognized once the file is made. So a
+  graph kept from one build to the next drops the negative entries before each
+  build, see `negative_clear`. BuildWatch and Build do this.
+
+  The cache is bounded to `capacity` entries and evicts the least recently used
+  entry. Hit, miss, and eviction counts are kept for tuning.
+*/
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class LookupCache{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public LookupCache(int capacity){
+    this.capacity = capacity;
+    this.entry_map = new LinkedHashMap<Label ,Node>(16 ,0.75f ,true){
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Label ,Node> eldest){
+        if( size() <= LookupCache.this.capacity ) return false;
+        eviction_count++;
+        return true;
+      }
+    };
+  }
+
+  public LookupCache(){
+    this(capacity_default);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  public static int capacity_default = 1 << 16;
+
+  // stands in for 'no production recognized this label'
+  private static final Node negative_node = new Node();
+
+  private final int capacity;
+  private final LinkedHashMap<Label ,Node> entry_map;
+
+  private long hit_count = 0;
+  private long negative_hit_count = 0;
+  private long miss_count = 0;
+  private long eviction_count = 0;
+
+  /*--------------------------------------------------------------------------------
+   interface
+  */
+
+  /*
+    Given a label and the function that runs the productions, returns the cached
+    result if there is one. Otherwise calls `produce_f`, caches what it returns,
+    null included, and returns that.
+
+    The productions are run outside of the lock, so a slow production does not
+    hold up lookups of other labels.
+  */
+  public Node resolve(Label node_label ,Function<Label ,Node> produce_f){
+    synchronized(this){
+      Node node = entry_map.get(node_label);
+      if(node != null){
+        hit_count++;
+        if(node == negative_node){
+          negative_hit_count++;
+          return null;
+        }
+        return node;
+      }
+      miss_count++;
+    }
+
+    Node node = produce_f.apply(node_label);
+
+    synchronized(this){
+      // another thread may have produced it meanwhile, keep the first
+      Node prior = entry_map.putIfAbsent( node_label ,(node == null) ? negative_node : node );
+      if( prior != null ) return (prior == negative_node) ? null : prior;
+    }
+    return node;
+  }
+
+  public synchronized void invalidate(Label node_label){
+    entry_map.remove(node_label);
+  }
+
+  public synchronized void clear(){
+    entry_map.clear();
+  }
+
+  // drops the negative entries, so those labels run the productions again, returns how many were dropped
+  public synchronized int negative_clear(){
+    int prior_size = entry_map.size();
+    entry_map.values().removeIf( node -> node == negative_node );
+    return prior_size - entry_map.size();
+  }
+
+  // the nodes held, negative entries left out
+  public synchronized List<Node> node_list(){
+    List<Node> node_list = new ArrayList<>( entry_map.size() );
+    for( Node node : entry_map.values() ){
+      if(node != negative_node) node_list.add(node);
+    }
+    return node_list;
+  }
+
+  public int capacity(){
+    return capacity;
+  }
+
+  public synchronized int size(){
+    return entry_map.size();
+  }
+
+  public synchronized long hit_count(){
+    return hit_count;
+  }
+
+  // hits that found a negative entry, included in `hit_count`
+  public synchronized long negative_hit_count(){
+    return negative_hit_count;
+  }
+
+  public synchronized long miss_count(){
+    return miss_count;
+  }
+
+  public synchronized long eviction_count(){
+    return eviction_count;
+  }
+
+  @Override
+  public synchronized String toString(){
+    return
+      "LookupCache: size " + entry_map.size() + " of " + capacity
+      + ", hit " + hit_count + " (negative " + negative_hit_count + ")"
+      + ", miss " + miss_count
+      + ", eviction " + eviction_count;
+  }
+
+}
@@ -0,0 +1,287 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Marks kept per mark rather than per node: for each registered mark token, a
+  bitmap with one bit per node.
+
+  A Node keeps its marks in a TokenSet made on first use, so a mark costs a hash
+  set per node, and clearing a mark from the whole graph visits every node. Once
+  a graph is given a registry, see `Graph.mark_registry`, its nodes keep the
+  registered marks here instead, and `Node.mark`, `clear_mark` and `has_mark`
+  read and write the bitmaps. Tokens that are not registered stay in the node.
+
+  The node id is the id of the interned node label, so the bitmaps can be
+  indexed without a map. Interned labels are held weakly, and the id of a
+  collected label is given to the next new one, see InternTable. So the
+  registry holds the label of each id that has a bit set in some bitmap, which
+  keeps the id given to that label, and lets go of it once the last of its bits
+  is cleared. The bitmaps are then no longer than the count of labels live at
+  once, however many come and go in a watch or server process. The int based
+  methods do not allocate, except when a bitmap grows to take a larger id.
+  Clearing a mark from every node, `clear_all`, is a fill of its bitmap. The
+  bulk methods combine whole bitmaps, e.g.
+
+    int good = registry.register( Token.intern("good") );
+    registry.and_not( good ,registry.register(Token.wellformed) ,registry.register(Token.cycle_member) );
+
+  leaves in `good` the nodes that are wellformed and not on a cycle.
+
+  A mark may be registered after the registry has been given to a graph, as
+  `good` is above. The nodes of that graph holding the mark in their TokenSet,
+  those of the map definition and the produced nodes in its lookup cache, then
+  have it moved into the new bitmap as it is registered.
+
+  The methods are synchronized, as the build workers of BuildParallel mark the
+  nodes they fail on at the same time, nodes of neighboring ids share a bitmap
+  word, and a bitmap is replaced when it grows.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MarkRegistry{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public MarkRegistry(){
+  }
+
+  // registers each of the given marks
+  public MarkRegistry(Token... mark_array){
+    for( Token mark : mark_array ) register(mark);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private final List<Token> mark_token_list = new ArrayList<>();
+  // mark index by token id, -1 when not registered
+  private int[] mark_index_by_token_id = new int[0];
+  // one bitmap per mark index, bit id set when node id has the mark
+  private long[][] bitmap_array = new long[0][];
+  // the interned label of each node id a bit was set for
+  private Label[] label_by_id = new Label[0];
+  // the graphs whose nodes keep their marks here, see `Graph.mark_registry`
+  private final List<Graph> graph_list = new ArrayList<>();
+
+  synchronized void graph_attach(Graph graph){
+    if( !graph_list.contains(graph) ) graph_list.add(graph);
+  }
+
+  synchronized void graph_detach(Graph graph){
+    graph_list.remove(graph);
+  }
+
+  public synchronized List<Token> mark_token_list(){
+    return Collections.unmodifiableList( new ArrayList<>(mark_token_list) );
+  }
+
+  public synchronized int mark_count(){
+    return mark_token_list.size();
+  }
+
+  /*--------------------------------------------------------------------------------
+    registration
+  */
+
+  // returns the index of the mark, registering it when it is not already
+  public synchronized int register(Token mark){
+    int index = mark_index(mark);
+    if(index >= 0) return index;
+    int token_id = mark.intern().id();
+    if(token_id >= mark_index_by_token_id.length){
+      int length = mark_index_by_token_id.length;
+      mark_index_by_token_id = Arrays.copyOf( mark_index_by_token_id ,Math.max(token_id + 1 ,2 * length) );
+      Arrays.fill(mark_index_by_token_id ,length ,mark_index_by_token_id.length ,-1);
+    }
+    index = mark_token_list.size();
+    mark_index_by_token_id[token_id] = index;
+    mark_token_list.add( mark.intern() );
+    bitmap_array = Arrays.copyOf(bitmap_array ,index + 1);
+    bitmap_array[index] = new long[ ( Label.intern_count() >>> 6 ) + 1 ];
+    if(debug) System.out.println("MarkRegistry.register:: " + mark + " as " + index);
+    for( Graph graph : graph_list ) graph.mark_migrate(this ,mark.intern() ,index);
+    return index;
+  }
+
+  // the index of the mark, or -1 when it is not registered
+  public synchronized int mark_index(Token mark){
+    int token_id = mark.intern().id();
+    return (token_id < mark_index_by_token_id.length) ? mark_index_by_token_id[token_id] : -1;
+  }
+
+  public synchronized Token mark(int mark_index){
+    return mark_token_list.get(mark_index);
+  }
+
+  /*--------------------------------------------------------------------------------
+    one node
+  */
+
+  public synchronized void set(int mark_index ,int node_id){
+    if( node_id >= label_by_id.length ) label_by_id = Arrays.copyOf( label_by_id ,Math.max(node_id + 1 ,label_by_id.length + (label_by_id.length >> 1)) );
+    if( label_by_id[node_id] == null ) label_by_id[node_id] = Label.by_id(node_id);
+    long[] bitmap = bitmap_array[mark_index];
+    if( (node_id >>> 6) >= bitmap.length ){
+      bitmap = Arrays.copyOf( bitmap ,Math.max( (node_id >>> 6) + 1 ,bitmap.length + (bitmap.length >> 1) ) );
+      bitmap_array[mark_index] = bitmap;
+    }
+    bitmap[node_id >>> 6] |= 1L << node_id;
+  }
+
+  public synchronized void clear(int mark_index ,int node_id){
+    long[] bitmap = bitmap_array[mark_index];
+    if( (node_id >>> 6) >= bitmap.length ) return;
+    bitmap[node_id >>> 6] &= ~(1L << node_id);
+    if( node_id < label_by_id.length && !marked_q(node_id >>> 6 ,1L << node_id) ) label_by_id[node_id] = null;
+  }
+
+  public synchronized boolean has_q(int mark_index ,int node_id){
+    long[] bitmap = bitmap_array[mark_index];
+    return (node_id >>> 6) < bitmap.length && ( bitmap[node_id >>> 6] & (1L << node_id) ) != 0;
+  }
+
+  // true when the node has the first mark and not the second, e.g. wellformed and not cycle_member
+  public synchronized boolean has_and_not_q(int node_id ,int mark_index ,int not_mark_index){
+    return has_q(mark_index ,node_id) && !has_q(not_mark_index ,node_id);
+  }
+
+  public void set(int mark_index ,Label node_label){
+    set( mark_index ,node_label.intern().id() );
+  }
+
+  public void clear(int mark_index ,Label node_label){
+    clear( mark_index ,node_label.intern().id() );
+  }
+
+  public boolean has_q(int mark_index ,Label node_label){
+    return has_q( mark_index ,node_label.intern().id() );
+  }
+
+  /*--------------------------------------------------------------------------------
+    whole bitmaps
+  */
+
+  // true when a bit of `bits` is set in word w of some bitmap
+  private boolean marked_q(int w ,long bits){
+    for( long[] bitmap : bitmap_array ){
+      if( w < bitmap.length && (bitmap[w] & bits) != 0 ) return true;
+    }
+    return false;
+  }
+
+  // lets go of the labels of the ids that no longer have a bit set in any bitmap
+  private void label_release(){
+    for( int w = 0; (w << 6) < label_by_id.length; w++ ){
+      long marked = 0L;
+      for( long[] bitmap : bitmap_array ) if( w < bitmap.length ) marked |= bitmap[w];
+      if(marked == -1L) continue;
+      int end = Math.min( (w + 1) << 6 ,label_by_id.length );
+      for( int id = w << 6; id < end; id++ ){
+        if( (marked & (1L << id)) == 0 ) label_by_id[id] = null;
+      }
+    }
+  }
+
+  // clears the mark from every node
+  public synchronized void clear_all(int mark_index){
+    Arrays.fill(bitmap_array[mark_index] ,0L);
+    label_release();
+  }
+
+  // the count of nodes with the mark
+  public synchronized int count(int mark_index){
+    int count = 0;
+    for( long word : bitmap_array[mark_index] ) count += Long.bitCount(word);
+    return count;
+  }
+
+  // the least node id at or above from_node_id that has the mark, or -1
+  public synchronized int next(int mark_index ,int from_node_id){
+    long[] bitmap = bitmap_array[mark_index];
+    int w = from_node_id >>> 6;
+    if(w >= bitmap.length) return -1;
+    long word = bitmap[w] & (-1L << from_node_id);
+    while(true){
+      if(word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+      if(++w == bitmap.length) return -1;
+      word = bitmap[w];
+    }
+  }
+
+  // the interned label of a node id that has had a mark set, or null
+  public synchronized Label label(int node_id){
+    return (node_id < label_by_id.length) ? label_by_id[node_id] : null;
+  }
+
+  // the labels of the nodes with the mark, in id order
+  public synchronized LabelList label_list(int mark_index){
+    LabelList label_list = new LabelList();
+    for( int id = next(mark_index ,0); id >= 0; id = next(mark_index ,id + 1) ) label_list.add( label(id) );
+    return label_list;
+  }
+
+  // makes the bitmap of `to_index` at least `length` words
+  private long[] bitmap_length(int to_index ,int length){
+    if( bitmap_array[to_index].length < length ) bitmap_array[to_index] = Arrays.copyOf(bitmap_array[to_index] ,length);
+    return bitmap_array[to_index];
+  }
+
+  // to = a AND b
+  public synchronized void and(int to_index ,int a_index ,int b_index){
+    long[] a = bitmap_array[a_index];
+    long[] b = bitmap_array[b_index];
+    int n = Math.min(a.length ,b.length);
+    long[] to = bitmap_length(to_index ,n);
+    for( int w = 0; w < to.length; w++ ) to[w] = (w < n) ? a[w] & b[w] : 0L;
+    label_release();
+  }
+
+  // to = a OR b
+  public synchronized void or(int to_index ,int a_index ,int b_index){
+    long[] a = bitmap_array[a_index];
+    long[] b = bitmap_array[b_index];
+    long[] to = bitmap_length( to_index ,Math.max(a.length ,b.length) );
+    for( int w = 0; w < to.length; w++ ){
+      to[w] = ( (w < a.length) ? a[w] : 0L ) | ( (w < b.length) ? b[w] : 0L );
+    }
+  }
+
+  // to = a AND NOT b
+  public synchronized void and_not(int to_index ,int a_index ,int b_index){
+    long[] a = bitmap_array[a_index];
+    long[] b = bitmap_array[b_index];
+    long[] to = bitmap_length(to_index ,a.length);
+    for( int w = 0; w < to.length; w++ ){
+      to[w] = (w < a.length) ? a[w] & ( (w < b.length) ? ~b[w] : -1L ) : 0L;
+    }
+    label_release();
+  }
+
+  // to = a
+  public synchronized void copy(int to_index ,int a_index){
+    long[] a = bitmap_array[a_index];
+    long[] to = bitmap_length(to_index ,a.length);
+    System.arraycopy(a ,0 ,to ,0 ,a.length);
+    Arrays.fill(to ,a.length ,to.length ,0L);
+    label_release();
+  }
+
+  @Override
+  public synchronized String toString(){
+    StringBuilder sb = new StringBuilder("MarkRegistry(");
+    for( int i = 0; i < mark_token_list.size(); i++ ){
+      if(i > 0) sb.append(" ,");
+      sb.append( mark_token_list.get(i) ).append(' ').append( count(i) );
+    }
+    return sb.append(')').toString();
+  }
+
+}
@@ -14,18 +14,110 @@ public class Node extends HashMap<String, Object>{
     this.put(neighbor_property_name, new LabelList());
   }
 
+  // For subclasses that keep the neighbor list somewhere other than the map.
+  protected Node(boolean neighbor_property_q){
+    super();
+    if(neighbor_property_q) this.put(neighbor_property_name, new LabelList());
+  }
+
+  /*
+    When the node's graph has a MarkRegistry, the registered marks of the node
+    are bits there, at the node id, and only the other marks are in the 'mark'
+    TokenSet. `get("mark")` gives both. The interned label is held, so its id
+    stays given to it while the node has marks there.
+  */
+  private MarkRegistry mark_registry = null;
+  private Label mark_label = null;
+  private int mark_node_id = -1;
+
+  // moves the registered marks of this node into the registry, given the interned node label
+  void mark_registry_attach(MarkRegistry mark_registry ,Label mark_label){
+    int node_id = mark_label.id();
+    if(this.mark_registry == mark_registry && mark_node_id == node_id) return;
+    mark_registry_detach();
+    this.mark_registry = mark_registry;
+    this.mark_label = mark_label;
+    this.mark_node_id = node_id;
+    TokenSet mark = (TokenSet)super.get(mark_property_name);
+    if(mark == null) return;
+    for( Token token : new ArrayList<>(mark) ){
+      int mark_index = mark_registry.mark_index(token);
+      if(mark_index >= 0){
+        mark_registry.set(mark_index ,node_id);
+        mark.remove(token);
+      }
+    }
+  }
+
+  // moves a mark just registered with the node's registry out of its TokenSet
+  void mark_registry_migrate(MarkRegistry mark_registry ,Token token ,int mark_index){
+    if(this.mark_registry != mark_registry) return;
+    TokenSet mark = (TokenSet)super.get(mark_property_name);
+    if( mark != null && mark.remove(token) ) mark_registry.set(mark_index ,mark_node_id);
+  }
+
+  // moves the registered marks of this node back into its TokenSet, and clears them in the registry
+  void mark_registry_detach(){
+    if(mark_registry == null) return;
+    MarkRegistry prior_registry = mark_registry;
+    mark_registry = null;
+    for( int mark_index = 0; mark_index < prior_registry.mark_count(); mark_index++ ){
+      if( prior_registry.has_q(mark_index ,mark_node_id) ){
+        prior_registry.clear(mark_index ,mark_node_id);
+        mark( prior_registry.mark(mark_index) );
+      }
+    }
+    mark_label = null;
+    mark_node_id = -1;
+  }
+
   public void mark(Token token){
-    if( this.get(mark_property_name) == null ){
+    if(mark_registry != null){
+      int mark_index = mark_registry.mark_index(token);
+      if(mark_index >= 0){
+        mark_registry.set(mark_index ,mark_node_id);
+        return;
+      }
+    }
+    if( super.get(mark_property_name) == null ){
       this.put(mark_property_name, new TokenSet());
     }
-    ((TokenSet)this.get(mark_property_name)).add(token);
+    ((TokenSet)super.get(mark_property_name)).add(token);
+  }
+
+  public void clear_mark(Token token){
+    if(mark_registry != null){
+      int mark_index = mark_registry.mark_index(token);
+      if(mark_index >= 0){
+        mark_registry.clear(mark_index ,mark_node_id);
+        return;
+      }
+    }
+    TokenSet mark = (TokenSet)super.get(mark_property_name);
+    if(mark != null) mark.remove(token);
   }
 
   public boolean has_mark(Token token){
-    TokenSet mark = (TokenSet)this.get(mark_property_name);
+    if(mark_registry != null){
+      int mark_index = mark_registry.mark_index(token);
+      if(mark_index >= 0) return mark_registry.has_q(mark_index ,mark_node_id);
+    }
+    TokenSet mark = (TokenSet)super.get(mark_property_name);
     return mark != null && mark.contains(token);
   }
 
+  @Override
+  public Object get(Object key){
+    if( mark_registry == null || !mark_property_name.equals(key) ) return super.get(key);
+    TokenSet mark = new TokenSet();
+    TokenSet own_mark = (TokenSet)super.get(mark_property_name);
+    if(own_mark != null) mark.addAll(own_mark);
+    for( int mark_index = 0; mark_index < mark_registry.mark_count(); mark_index++ ){
+      if( mark_registry.has_q(mark_index ,mark_node_id) ) mark.add( mark_registry.mark(mark_index) );
+    }
+    return mark.isEmpty() ? null : mark;
+  }
+
   // Return the neighbor list (always exists after initialization)
   public LabelList neighbor_LabelList(){
     return (LabelList)this.get(neighbor_property_name);
@@ -0,0 +1,170 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A Node that is a view of one node of a `GraphCompact`.
+
+  The properties 'label', 'type', 'build', 'mark' and 'neighbor' are read from,
+  and written to, the columns of the GraphCompact. Any other property spills to
+  the GraphCompact property map. The HashMap this class extends stays empty.
+
+  As in a map defined node, 'type' reads back as a String. 'mark' reads back as
+  a fresh copy. 'neighbor', and `neighbor_LabelList`, read back as a view of the
+  node's CSR slice, which throws on any change, as the adjacency is fixed, so to
+  add a neighbor build a new GraphCompact.
+
+  Views are cheap and made on each lookup. Two views of the same node are equal.
+*/
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class NodeCompact extends Node{
+
+  private static final long serialVersionUID = 1L;
+
+  public NodeCompact(GraphCompact graph ,int id){
+    super(false);
+    this.graph = graph;
+    this.id = id;
+  }
+
+  private final GraphCompact graph;
+  private final int id;
+
+  public GraphCompact graph(){
+    return graph;
+  }
+
+  public int id(){
+    return id;
+  }
+
+  /*--------------------------------------------------------------------------------
+    Node interface
+  */
+
+  @Override
+  public void mark(Token token){
+    graph.mark(id ,token);
+  }
+
+  @Override
+  public void clear_mark(Token token){
+    graph.clear_mark(id ,token);
+  }
+
+  @Override
+  public boolean has_mark(Token token){
+    return graph.has_mark(id ,token);
+  }
+
+  @Override
+  public LabelList neighbor_LabelList(){
+    return graph.neighbor_LabelList(id);
+  }
+
+  /*--------------------------------------------------------------------------------
+    Map interface
+  */
+
+  @Override
+  public Object get(Object key){
+    if( !(key instanceof String) ) return null;
+    switch( (String)key ){
+      case "label": return graph.label(id);
+      case "type":
+        Token type = graph.type(id);
+        return (type == null) ? null : type.get();
+      case "build": return graph.build(id);
+      case "mark": return graph.mark_TokenSet(id);
+      case "neighbor": return graph.neighbor_LabelList(id);
+      default: return graph.property(id ,(String)key);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key){
+    return get(key) != null;
+  }
+
+  @Override
+  public Object put(String key ,Object value){
+    Object prior = get(key);
+    switch(key){
+      case "type":
+        graph.type( id ,(value == null) ? null : Token.intern(value.toString()) );
+        break;
+      case "build":
+        graph.build( id ,(Runnable)value );
+        break;
+      case "label":
+      case "mark":
+      case "neighbor":
+        throw new UnsupportedOperationException("NodeCompact: '" + key + "' can not be replaced on a compact node");
+      default:
+        graph.property_put(id ,key ,value);
+    }
+    return prior;
+  }
+
+  @Override
+  public Object remove(Object key){
+    if( !(key instanceof String) ) return null;
+    if( GraphCompact.typed_property_q((String)key) ){
+      throw new UnsupportedOperationException("NodeCompact: '" + key + "' can not be removed from a compact node");
+    }
+    return graph.property_remove(id ,(String)key);
+  }
+
+  // a copy of all properties, for iteration and printing
+  public Map<String ,Object> as_HashMap(){
+    Map<String ,Object> property_map = new HashMap<>( graph.property_map(id) );
+    for( String key : new String[]{"label" ,"type" ,"build" ,"neighbor"} ){
+      Object value = get(key);
+      if(value != null) property_map.put(key ,value);
+    }
+    TokenSet mark_set = graph.mark_TokenSet(id);
+    if( !mark_set.isEmpty() ) property_map.put("mark" ,mark_set);
+    return property_map;
+  }
+
+  @Override
+  public Set<Map.Entry<String ,Object>> entrySet(){
+    return as_HashMap().entrySet();
+  }
+
+  @Override
+  public Set<String> keySet(){
+    return as_HashMap().keySet();
+  }
+
+  @Override
+  public int size(){
+    return as_HashMap().size();
+  }
+
+  @Override
+  public boolean isEmpty(){
+    return false;
+  }
+
+  @Override
+  public String toString(){
+    return as_HashMap().toString();
+  }
+
+  @Override
+  public boolean equals(Object o){
+    if(this == o) return true;
+    if( !(o instanceof NodeCompact) ) return false;
+    NodeCompact node = (NodeCompact)o;
+    return graph == node.graph && id == node.id;
+  }
+
+  @Override
+  public int hashCode(){
+    return System.identityHashCode(graph) * 31 + id;
+  }
+
+}
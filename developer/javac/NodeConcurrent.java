@@ -0,0 +1,189 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A Node whose marks may be set and read from many threads at once.
+
+  `Node.mark` creates the mark TokenSet on first use with a check then put, and
+  TokenSet is a HashSet, so two threads marking the same node can lose a mark or
+  corrupt the set. Here the marks are bits in an AtomicLong, and a mark is set
+  or cleared by compare and swap. Bits are given out to mark tokens in the order
+  they are first used as marks, the same bit for a token in every
+  NodeConcurrent, see `mark_bit`. Token intern ids are not used as bit numbers,
+  as every interned string, e.g. each type name, takes an id, and the ids of
+  user marks soon pass 63. Once 64 tokens have bits, further mark tokens go to
+  a concurrent set instead.
+
+  The other properties, and the neighbor list, are plain Node storage. They are
+  to be written before the node is handed to other threads, e.g. before it is
+  registered with a GraphConcurrent, and only read after.
+
+  'mark' reads back as a TokenSet copy of the marks, as it does for a Node.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NodeConcurrent extends Node{
+
+  private static final long serialVersionUID = 1L;
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public NodeConcurrent(){
+    super();
+  }
+
+  // Given a node, returns it if it is already a NodeConcurrent, else a copy that is.
+  public static NodeConcurrent of(Node node){
+    if(node instanceof NodeConcurrent) return (NodeConcurrent)node;
+    NodeConcurrent copy = new NodeConcurrent();
+    for( Map.Entry<String ,Object> property : node.entrySet() ){
+      if( "mark".equals(property.getKey()) ) continue;
+      if( "neighbor".equals(property.getKey()) ){
+        copy.neighbor_LabelList().addAll( node.neighbor_LabelList() );
+        continue;
+      }
+      copy.put( property.getKey() ,property.getValue() );
+    }
+    Object mark_set = node.get("mark");
+    if(mark_set instanceof TokenSet){
+      for( Token mark : (TokenSet)mark_set ) copy.mark(mark);
+    }
+    return copy;
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  // bit i of mark_bits is mark_token_list.get(i), shared by all NodeConcurrents
+  private static final List<Token> mark_token_list = new ArrayList<>();
+  // bit + 1 by token id, 0 for no bit yet, replaced whole when a bit is given out
+  private static volatile int[] mark_bit_by_token_id = new int[0];
+
+  /*
+    The bit of the mark token. Given add_q, a token without a bit is given the
+    next, and -1 means all are taken. Otherwise -1 means the token has no bit,
+    as it has never been set, or went to the overflow set.
+  */
+  private static int mark_bit(Token mark ,boolean add_q){
+    int token_id = mark.id();
+    int[] bit_by_token_id = mark_bit_by_token_id;
+    if( token_id < bit_by_token_id.length && bit_by_token_id[token_id] != 0 ) return bit_by_token_id[token_id] - 1;
+    synchronized(mark_token_list){
+      int bit = mark_token_list.indexOf(mark);
+      if( bit < 0 ){
+        if( !add_q || mark_token_list.size() == Long.SIZE ) return -1;
+        mark_token_list.add(mark);
+        bit = mark_token_list.size() - 1;
+      }
+      bit_by_token_id = mark_bit_by_token_id;
+      if( token_id >= bit_by_token_id.length ) bit_by_token_id = Arrays.copyOf( bit_by_token_id ,Math.max(token_id + 1 ,2 * bit_by_token_id.length) );
+      else bit_by_token_id = bit_by_token_id.clone();
+      bit_by_token_id[token_id] = bit + 1;
+      mark_bit_by_token_id = bit_by_token_id;
+      return bit;
+    }
+  }
+
+  private static Token mark_token(int bit){
+    synchronized(mark_token_list){
+      return mark_token_list.get(bit);
+    }
+  }
+
+  private final AtomicLong mark_bits = new AtomicLong(0);
+  private volatile Set<Token> mark_overflow_set = null;
+
+  private Set<Token> mark_overflow_set(){
+    Set<Token> overflow_set = mark_overflow_set;
+    if(overflow_set == null){
+      synchronized(this){
+        if(mark_overflow_set == null) mark_overflow_set = ConcurrentHashMap.newKeySet();
+        overflow_set = mark_overflow_set;
+      }
+    }
+    return overflow_set;
+  }
+
+  /*--------------------------------------------------------------------------------
+    marks
+  */
+
+  @Override
+  public void mark(Token token){
+    Token interned = token.intern();
+    int bit = mark_bit(interned ,true);
+    if(bit < 0){
+      mark_overflow_set().add(interned);
+      return;
+    }
+    long mask = 1L << bit;
+    long bits;
+    do{
+      bits = mark_bits.get();
+      if( (bits & mask) != 0 ) return;
+    }while( !mark_bits.compareAndSet(bits ,bits | mask) );
+  }
+
+  // Sets the mark, and returns true if this call set it, false if it was already set.
+  public boolean mark_first_q(Token token){
+    Token interned = token.intern();
+    int bit = mark_bit(interned ,true);
+    if(bit < 0) return mark_overflow_set().add(interned);
+    long mask = 1L << bit;
+    return ( mark_bits.getAndUpdate(bits -> bits | mask) & mask ) == 0;
+  }
+
+  @Override
+  public void clear_mark(Token token){
+    Token interned = token.intern();
+    int bit = mark_bit(interned ,false);
+    if(bit < 0){
+      Set<Token> overflow_set = mark_overflow_set;
+      if(overflow_set != null) overflow_set.remove(interned);
+      return;
+    }
+    long mask = 1L << bit;
+    mark_bits.getAndUpdate(bits -> bits & ~mask);
+  }
+
+  @Override
+  public boolean has_mark(Token token){
+    Token interned = token.intern();
+    int bit = mark_bit(interned ,false);
+    if(bit < 0){
+      Set<Token> overflow_set = mark_overflow_set;
+      return overflow_set != null && overflow_set.contains(interned);
+    }
+    return ( mark_bits.get() & (1L << bit) ) != 0;
+  }
+
+  public TokenSet mark_TokenSet(){
+    TokenSet mark_set = new TokenSet();
+    long bits = mark_bits.get();
+    for( int bit = 0; bits != 0; bit++ , bits >>>= 1 ){
+      if( (bits & 1L) != 0 ) mark_set.add( mark_token(bit) );
+    }
+    Set<Token> overflow_set = mark_overflow_set;
+    if(overflow_set != null) mark_set.addAll(overflow_set);
+    return mark_set;
+  }
+
+  @Override
+  public Object get(Object key){
+    if( "mark".equals(key) ){
+      TokenSet mark_set = mark_TokenSet();
+      return mark_set.isEmpty() ? null : mark_set;
+    }
+    return super.get(key);
+  }
+
+}
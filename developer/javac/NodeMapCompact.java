@@ -0,0 +1,73 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  A read only `Map<Label ,Node>` over a `GraphCompact`, so that `Graph` and
+  `GraphDirectedAcyclic` can be run on compact storage. `get` returns a
+  `NodeCompact` view. Labels that are referenced but not defined are not keys.
+*/
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+public class NodeMapCompact extends AbstractMap<Label ,Node>{
+
+  public NodeMapCompact(GraphCompact graph){
+    this.graph = graph;
+  }
+
+  private final GraphCompact graph;
+
+  public GraphCompact graph(){
+    return graph;
+  }
+
+  @Override
+  public Node get(Object key){
+    if( !(key instanceof Label) ) return null;
+    int id = graph.id((Label)key);
+    return (id < 0) ? null : graph.node(id);
+  }
+
+  @Override
+  public boolean containsKey(Object key){
+    if( !(key instanceof Label) ) return false;
+    int id = graph.id((Label)key);
+    return id >= 0 && graph.defined_q(id);
+  }
+
+  @Override
+  public int size(){
+    return graph.defined_count();
+  }
+
+  @Override
+  public Set<Map.Entry<Label ,Node>> entrySet(){
+    return new AbstractSet<Map.Entry<Label ,Node>>(){
+      @Override
+      public int size(){
+        return graph.defined_count();
+      }
+      @Override
+      public Iterator<Map.Entry<Label ,Node>> iterator(){
+        return new Iterator<Map.Entry<Label ,Node>>(){
+          private int id = 0;
+          @Override
+          public boolean hasNext(){
+            return id < graph.defined_count();
+          }
+          @Override
+          public Map.Entry<Label ,Node> next(){
+            if( !hasNext() ) throw new NoSuchElementException();
+            int next_id = id++;
+            return new AbstractMap.SimpleImmutableEntry<>( graph.label(next_id) ,graph.node(next_id) );
+          }
+        };
+      }
+    };
+  }
+
+}
@@ -2,4 +2,25 @@
 package com.ReasoningTechnology.Ariadne;
 import java.util.function.Function;
 
-public interface Production extends Function<Label, Node> {}
+public interface Production extends Function<Label, Node> {
+
+  // The labels this production can recognize, null for any label. See ProductionKey.
+  default ProductionKey key(){
+    return null;
+  }
+
+  // Gives a production function a match key.
+  static Production keyed(ProductionKey key ,Function<Label ,Node> production_f){
+    return new Production(){
+      @Override
+      public Node apply(Label node_label){
+        return production_f.apply(node_label);
+      }
+      @Override
+      public ProductionKey key(){
+        return key;
+      }
+    };
+  }
+
+}
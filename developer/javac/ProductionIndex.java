@@ -0,0 +1,181 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Dispatch index over a ProductionList.
+
+  Without an index, a label that misses the node map is given to each
+  production in turn until one returns a node. With hundreds of pattern
+  productions a miss costs hundreds of calls.
+
+  Here each production that declares a `ProductionKey` is filed:
+
+    prefix key            in `prefix_trie`, under the prefix
+    suffix key            in `suffix_trie`, under the suffix read backwards
+    regex key             in `prefix_trie` under its literal leading text, or
+                          in `scan_list` when it has none
+    no key                in `scan_list`
+
+  To resolve a label, the label is walked down `prefix_trie` forwards and down
+  `suffix_trie` backwards, collecting the productions filed at each trie node
+  passed. These, plus the `scan_list`, are the candidates. Candidates are run
+  in list order, i.e. the declared priority, and a candidate whose key does not
+  match the label is skipped without being called.
+
+  The cost of a lookup is then the label length plus the number of candidates,
+  rather than the number of productions.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ProductionIndex{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public ProductionIndex(List<Production> production_list){
+    this.production_array = production_list.toArray( new Production[0] );
+    this.key_array = new ProductionKey[production_array.length];
+
+    List<Integer> scan_index_list = new ArrayList<>();
+    for( int i = 0; i < production_array.length; i++ ){
+      ProductionKey key = production_array[i].key();
+      key_array[i] = key;
+      if(key == null){
+        scan_index_list.add(i);
+        continue;
+      }
+      switch( key.kind() ){
+        case ProductionKey.prefix_kind:
+          prefix_trie.insert(key.text() ,false ,i);
+          break;
+        case ProductionKey.suffix_kind:
+          suffix_trie.insert(key.text() ,true ,i);
+          break;
+        default:
+          String literal = key.literal_prefix();
+          if( literal.isEmpty() ) scan_index_list.add(i);
+          else prefix_trie.insert(literal ,false ,i);
+      }
+    }
+    scan_index_array = scan_index_list.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private final Production[] production_array;
+  private final ProductionKey[] key_array;
+  private final int[] scan_index_array;
+  private final Trie prefix_trie = new Trie();
+  private final Trie suffix_trie = new Trie();
+
+  private static class Trie{
+    final Map<Character ,Trie> child_map = new HashMap<>(4);
+    int[] index_array = new int[0];  // productions filed here
+
+    void insert(String text ,boolean backwards_q ,int production_index){
+      Trie trie = this;
+      for( int i = 0; i < text.length(); i++ ){
+        char c = text.charAt( backwards_q ? text.length() - 1 - i : i );
+        trie = trie.child_map.computeIfAbsent( c ,k -> new Trie() );
+      }
+      trie.index_array = Arrays.copyOf( trie.index_array ,trie.index_array.length + 1 );
+      trie.index_array[trie.index_array.length - 1] = production_index;
+    }
+
+    // the count of productions filed along the label's path through this trie
+    int count(String value ,boolean backwards_q){
+      Trie trie = this;
+      int count = 0;
+      int i = 0;
+      do{
+        count += trie.index_array.length;
+        if( i == value.length() ) break;
+        char c = value.charAt( backwards_q ? value.length() - 1 - i : i );
+        trie = trie.child_map.get(c);
+        i++;
+      }while(trie != null);
+      return count;
+    }
+
+    // adds the productions filed along the label's path through this trie
+    int collect(String value ,boolean backwards_q ,int[] candidate ,int candidate_n){
+      Trie trie = this;
+      int i = 0;
+      do{
+        for( int production_index : trie.index_array ) candidate[candidate_n++] = production_index;
+        if( i == value.length() ) break;
+        char c = value.charAt( backwards_q ? value.length() - 1 - i : i );
+        trie = trie.child_map.get(c);
+        i++;
+      }while(trie != null);
+      return candidate_n;
+    }
+  }
+
+  /*--------------------------------------------------------------------------------
+   interface
+  */
+
+  public int size(){
+    return production_array.length;
+  }
+
+  /*
+    Given a label, returns the indexes into the production list of the
+    productions that could recognize it, in priority order.
+  */
+  public int[] candidate_array(Label node_label){
+    int[] candidate = candidate(node_label);
+    return (candidate == scan_index_array) ? candidate.clone() : candidate;
+  }
+
+  /*
+    As `candidate_array`, but sized to the candidates rather than to the
+    production list, and when no key is on the label's path it is the shared
+    `scan_index_array` itself, so a miss that only meets scan productions does
+    not allocate. Not to be modified.
+  */
+  private int[] candidate(Label node_label){
+    String value = node_label.get();
+    int trie_n = prefix_trie.count(value ,false) + suffix_trie.count(value ,true);
+    if(trie_n == 0) return scan_index_array;
+    int[] candidate = Arrays.copyOf(scan_index_array ,scan_index_array.length + trie_n);
+    int candidate_n = prefix_trie.collect(value ,false ,candidate ,scan_index_array.length);
+    suffix_trie.collect(value ,true ,candidate ,candidate_n);
+    Arrays.sort(candidate);
+    return candidate;
+  }
+
+  /*
+    The index of the first candidate whose key matches the label, i.e. the first
+    production `produce` would call, or -1 when none would be called.
+  */
+  public int first_candidate(Label node_label){
+    for( int production_index : candidate(node_label) ){
+      ProductionKey key = key_array[production_index];
+      if( key == null || key.match_q(node_label) ) return production_index;
+    }
+    return -1;
+  }
+
+  // Runs the candidate productions in priority order, returns the first node made, or null.
+  public Node produce(Label node_label){
+    for( int production_index : candidate(node_label) ){
+      ProductionKey key = key_array[production_index];
+      if( key != null && !key.match_q(node_label) ) continue;
+      Node node = production_array[production_index].apply(node_label);
+      if(node != null) return node;
+    }
+    return null;
+  }
+
+}
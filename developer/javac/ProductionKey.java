@@ -0,0 +1,94 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Declares which labels a production can possibly recognize.
+
+  A production that declares a key is only tried on labels that match it. A
+  production without a key is tried on every label, as before.
+
+    prefix   the label starts with the given text
+    suffix   the label ends with the given text, e.g. ".class"
+    regex    the whole label matches the given regular expression
+
+  `ProductionIndex` files prefix and suffix keys in tries. A regex key is filed
+  under its literal leading text when it has some, e.g. "build/.*\\.class" under
+  "build/", and otherwise is checked against every label.
+*/
+
+import java.util.regex.Pattern;
+
+public class ProductionKey{
+
+  public static final int prefix_kind = 0;
+  public static final int suffix_kind = 1;
+  public static final int regex_kind = 2;
+
+  private ProductionKey(int kind ,String text){
+    this.kind = kind;
+    this.text = text;
+    this.pattern = (kind == regex_kind) ? Pattern.compile(text) : null;
+  }
+
+  public static ProductionKey prefix(String text){
+    return new ProductionKey(prefix_kind ,text);
+  }
+
+  public static ProductionKey suffix(String text){
+    return new ProductionKey(suffix_kind ,text);
+  }
+
+  public static ProductionKey regex(String expression){
+    return new ProductionKey(regex_kind ,expression);
+  }
+
+  private final int kind;
+  private final String text;
+  private final Pattern pattern;
+
+  public int kind(){
+    return kind;
+  }
+
+  public String text(){
+    return text;
+  }
+
+  public boolean match_q(Label node_label){
+    String value = node_label.get();
+    switch(kind){
+      case prefix_kind: return value.startsWith(text);
+      case suffix_kind: return value.endsWith(text);
+      default: return pattern.matcher(value).matches();
+    }
+  }
+
+  /*
+    For a regex key, the literal text that every match must start with, or ""
+    when there is none. For other kinds, "".
+  */
+  public String literal_prefix(){
+    if(kind != regex_kind) return "";
+    StringBuilder literal = new StringBuilder();
+    int i = text.startsWith("^") ? 1 : 0;
+    for( ; i < text.length(); i++ ){
+      char c = text.charAt(i);
+      if( "\\^$.|?*+()[]{}".indexOf(c) >= 0 ){
+        // a quantifier applies to the character before it, so that one is optional
+        if( "?*{".indexOf(c) >= 0 && literal.length() > 0 ) literal.setLength( literal.length() - 1 );
+        if( c == '|' ) return "";
+        break;
+      }
+      literal.append(c);
+    }
+    // an alternation later in the expression can match without the literal
+    if( text.indexOf('|') >= 0 ) return "";
+    return literal.toString();
+  }
+
+  @Override
+  public String toString(){
+    String[] kind_name = {"prefix" ,"suffix" ,"regex"};
+    return kind_name[kind] + ":" + text;
+  }
+
+}
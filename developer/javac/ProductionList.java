@@ -1,10 +1,50 @@
 // ProductionList.java
 package com.ReasoningTechnology.Ariadne;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.UnaryOperator;
 
 public class ProductionList extends ArrayList<Production> {
+  private static final long serialVersionUID = 1L;
+
   // Constructor
   public ProductionList(){
     super();
   }
+
+  private ProductionIndex index = null;
+  private int index_mod_count = -1;
+
+  // The dispatch index for this list, rebuilt when the list has been modified.
+  public synchronized ProductionIndex index(){
+    if( index == null || index_mod_count != modCount ){
+      index = new ProductionIndex(this);
+      index_mod_count = modCount;
+    }
+    return index;
+  }
+
+  // `set` and, depending upon the JDK, `replaceAll` and `sort` leave modCount alone, so they drop the index here
+  private synchronized void index_invalidate(){
+    index = null;
+  }
+
+  @Override
+  public Production set(int i ,Production production){
+    Production prior = super.set(i ,production);
+    index_invalidate();
+    return prior;
+  }
+
+  @Override
+  public void replaceAll(UnaryOperator<Production> operator){
+    super.replaceAll(operator);
+    index_invalidate();
+  }
+
+  @Override
+  public void sort(Comparator<? super Production> comparator){
+    super.sort(comparator);
+    index_invalidate();
+  }
 }
@@ -0,0 +1,491 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Answers "does A depend upon B", directly or transitively, without walking the
+  graph.
+
+  Made once from a GraphDirectedAcyclic and root nodes. The nodes reachable from
+  the roots are numbered, the SCCs are found and each is condensed to one
+  component, so what remains is a DAG. Tarjan gives the components in reverse
+  topological order: every component a component depends upon has a smaller
+  number. The reachable set of each component is then made from those of its
+  dependencies, in component order, with one of three encodings, picked by the
+  memory budget given:
+
+    encoding_bitset    a bit row of every component per component, so
+                       component_count^2 / 8 bytes. A query tests one bit.
+
+    encoding_interval  the components are numbered again, in the post order of
+                       a depth first search, and each component keeps its
+                       reachable set as a sorted list of post order intervals.
+                       A search tree subtree is one interval, so the lists stay
+                       short for graphs that are mostly tree. A query is a
+                       binary search in one list.
+
+    encoding_search    used when neither of the above fits. Only the condensed
+                       DAG is kept, with the depth first subtree interval and the
+                       component number of each component. A query first tries
+                       the two cheap answers, "in my subtree" is yes, "numbered
+                       above me" is no, then searches the DAG.
+
+  Labels are mapped to node numbers through an int array indexed by interned
+  label id, so with encoding_bitset a query is constant time.
+
+  A node reaches itself. Members of a cycle reach each other, and each of them
+  reaches all that any of them reaches. A label that was not reached from the
+  roots, or that has no node, is not in the index, and reaches nothing.
+
+  The index is a snapshot. Edits to the graph after it is made are not seen.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReachabilityIndex{
+
+  public static final int encoding_bitset = 0;
+  public static final int encoding_interval = 1;
+  public static final int encoding_search = 2;
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  /*
+    Indexes the nodes reachable from the roots, cycle members included. The
+    encoding is the most direct one whose reachable sets fit in
+    `memory_budget_bytes`.
+  */
+  public ReachabilityIndex(GraphDirectedAcyclic graph ,LabelList root_node_LabelList ,long memory_budget_bytes){
+    number(graph ,root_node_LabelList);
+    condense();
+    post_order();
+    long bitset_bytes = (long)component_count * ( (component_count + 63) >>> 6 ) * 8;
+    if( bitset_bytes <= memory_budget_bytes - memory_bytes ){
+      bitset_make();
+    }else if( !interval_make(memory_budget_bytes - memory_bytes) ){
+      encoding = encoding_search;
+    }
+    if(debug) System.out.println("ReachabilityIndex:: " + this);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private int encoding;
+  private long memory_bytes = 0;
+
+  // node numbers, by interned label id, -1 for a label not indexed
+  private int[] node_by_label_id;
+  private Label[] label_array;
+  private int node_count;
+
+  // the edges between nodes, CSR
+  private int[] node_edge_offset;
+  private int[] node_edge_target;
+
+  // the component of each node, and the nodes of each component, CSR
+  private int[] component_of_node;
+  private int[] component_member_offset;
+  private int[] component_member;
+  private int component_count;
+
+  // the edges between components, CSR, without self edges
+  private int[] component_edge_offset;
+  private int[] component_edge_target;
+
+  // depth first post order number of each component, the component of each
+  // post order number, and the least post order number in its search subtree
+  private int[] post_of_component;
+  private int[] component_of_post;
+  private int[] subtree_low_post;
+
+  // encoding_bitset, one row per component
+  private long[][] reach_row_array;
+
+  // encoding_interval, pairs of low ,high post order numbers, sorted
+  private int[][] reach_interval_array;
+
+  public int encoding(){
+    return encoding;
+  }
+
+  // an estimate of the bytes held by the index
+  public long memory_bytes(){
+    return memory_bytes;
+  }
+
+  public int node_count(){
+    return node_count;
+  }
+
+  public int component_count(){
+    return component_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    making the index
+  */
+
+  private static long int_bytes(int length){
+    return 16 + 4L * length;
+  }
+
+  // numbers the nodes reachable from the roots, and gathers their edges
+  private void number(GraphDirectedAcyclic graph ,LabelList root_node_LabelList){
+    Map<Label ,Integer> id_map = new HashMap<>();
+    List<Label> label_list = new ArrayList<>();
+    List<LabelList> neighbor_list_list = new ArrayList<>();
+    for( Label root_label : root_node_LabelList ){
+      Label interned_label = root_label.intern();
+      if( id_map.containsKey(interned_label) || graph.lookup_marked(interned_label) == null ) continue;
+      id_map.put(interned_label ,label_list.size());
+      label_list.add(interned_label);
+    }
+    // label_list doubles as the work queue
+    for( int id = 0; id < label_list.size(); id++ ){
+      LabelList neighbor_list = graph.lookup_marked( label_list.get(id) ).neighbor_LabelList();
+      neighbor_list_list.add(neighbor_list);
+      for( Label neighbor_label : neighbor_list ){
+        Label interned_label = neighbor_label.intern();
+        if( id_map.containsKey(interned_label) || graph.lookup_marked(interned_label) == null ) continue;
+        id_map.put(interned_label ,label_list.size());
+        label_list.add(interned_label);
+      }
+    }
+
+    node_count = label_list.size();
+    label_array = label_list.toArray( new Label[node_count] );
+    node_by_label_id = new int[ Label.intern_count() ];
+    Arrays.fill(node_by_label_id ,-1);
+    for( int id = 0; id < node_count; id++ ) node_by_label_id[ label_array[id].id() ] = id;
+
+    int edge_count = 0;
+    for( LabelList neighbor_list : neighbor_list_list ) edge_count += neighbor_list.size();
+    node_edge_offset = new int[node_count + 1];
+    node_edge_target = new int[edge_count];
+    int edge_i = 0;
+    for( int id = 0; id < node_count; id++ ){
+      node_edge_offset[id] = edge_i;
+      for( Label neighbor_label : neighbor_list_list.get(id) ){
+        Integer neighbor_id = id_map.get( neighbor_label.intern() );
+        // an undefined neighbor is not a node
+        if(neighbor_id != null) node_edge_target[edge_i++] = neighbor_id;
+      }
+    }
+    node_edge_offset[node_count] = edge_i;
+    memory_bytes += int_bytes(node_by_label_id.length) + 16 + 8L * node_count;
+  }
+
+  // Tarjan over the node arrays, see StronglyConnected, numbering the components in the order found
+  private void condense(){
+    StronglyConnected scc_search = new StronglyConnected(node_count ,node_edge_offset ,node_edge_target);
+    scc_search.search_all();
+    component_count = scc_search.component_count();
+    component_of_node = new int[node_count];
+    for( int id = 0; id < node_count; id++ ) component_of_node[id] = scc_search.component(id);
+
+    // members of each component
+    component_member_offset = new int[component_count + 1];
+    for( int c = 0; c <= component_count; c++ ){
+      component_member_offset[c] = (c < component_count) ? scc_search.member_begin(c) : node_count;
+    }
+    component_member = new int[node_count];
+    for( int i = 0; i < node_count; i++ ) component_member[i] = scc_search.member(i);
+
+    // edges between components, duplicates left in
+    int[] degree = new int[component_count + 1];
+    for( int id = 0; id < node_count; id++ ){
+      int c = component_of_node[id];
+      for( int edge_i = node_edge_offset[id]; edge_i < node_edge_offset[id + 1]; edge_i++ ){
+        if( component_of_node[ node_edge_target[edge_i] ] != c ) degree[c + 1]++;
+      }
+    }
+    for( int c = 0; c < component_count; c++ ) degree[c + 1] += degree[c];
+    component_edge_offset = degree;
+    component_edge_target = new int[ degree[component_count] ];
+    int[] fill = Arrays.copyOf(component_edge_offset ,component_count);
+    for( int id = 0; id < node_count; id++ ){
+      int c = component_of_node[id];
+      for( int edge_i = node_edge_offset[id]; edge_i < node_edge_offset[id + 1]; edge_i++ ){
+        int d = component_of_node[ node_edge_target[edge_i] ];
+        if(d != c) component_edge_target[ fill[c]++ ] = d;
+      }
+    }
+    // the node edges are only needed to make the component edges
+    node_edge_offset = null;
+    node_edge_target = null;
+    memory_bytes +=
+      int_bytes(node_count) * 2
+      + int_bytes(component_count + 1) * 2
+      + int_bytes(component_edge_target.length);
+  }
+
+  // numbers the components in depth first post order, starting from the highest numbered, i.e. the sources first
+  private void post_order(){
+    post_of_component = new int[component_count];
+    component_of_post = new int[component_count];
+    subtree_low_post = new int[component_count];
+    int[] edge_next = new int[component_count];
+    int[] call_stack = new int[component_count];
+    boolean[] visited = new boolean[component_count];
+    int next_post = 0;
+    for( int root = component_count - 1; root >= 0; root-- ){
+      if(visited[root]) continue;
+      int call_top = 0;
+      call_stack[call_top++] = root;
+      visited[root] = true;
+      subtree_low_post[root] = next_post;
+      edge_next[root] = component_edge_offset[root];
+      while(call_top > 0){
+        int c = call_stack[call_top - 1];
+        if( edge_next[c] < component_edge_offset[c + 1] ){
+          int d = component_edge_target[ edge_next[c]++ ];
+          if( !visited[d] ){
+            visited[d] = true;
+            subtree_low_post[d] = next_post;
+            edge_next[d] = component_edge_offset[d];
+            call_stack[call_top++] = d;
+          }
+          continue;
+        }
+        call_top--;
+        post_of_component[c] = next_post;
+        component_of_post[next_post] = c;
+        next_post++;
+      }
+    }
+    memory_bytes += int_bytes(component_count) * 3;
+  }
+
+  private void bitset_make(){
+    encoding = encoding_bitset;
+    int word_count = (component_count + 63) >>> 6;
+    reach_row_array = new long[component_count][];
+    // dependencies are numbered below, so their rows are complete when a row is made
+    for( int c = 0; c < component_count; c++ ){
+      long[] row = new long[word_count];
+      row[c >>> 6] |= 1L << c;
+      for( int edge_i = component_edge_offset[c]; edge_i < component_edge_offset[c + 1]; edge_i++ ){
+        long[] dependency_row = reach_row_array[ component_edge_target[edge_i] ];
+        // the dependency row has no bits at or above its own number
+        int top = ( component_edge_target[edge_i] >>> 6 ) + 1;
+        for( int w = 0; w < top; w++ ) row[w] |= dependency_row[w];
+      }
+      reach_row_array[c] = row;
+    }
+    memory_bytes += 16 + 8L * component_count + (long)component_count * (16 + 8L * word_count);
+  }
+
+  // merges interval lists, each a sorted array of low ,high pairs, joining overlapping and adjacent intervals
+  private static int[] interval_merge(int[][] list_array ,int list_count){
+    int pair_count = 0;
+    for( int i = 0; i < list_count; i++ ) pair_count += list_array[i].length >>> 1;
+    long[] pair = new long[pair_count];
+    int pair_i = 0;
+    for( int i = 0; i < list_count; i++ ){
+      int[] list = list_array[i];
+      for( int j = 0; j < list.length; j += 2 ) pair[pair_i++] = ( (long)list[j] << 32 ) | list[j + 1];
+    }
+    Arrays.sort(pair);
+    int[] merged = new int[pair_count * 2];
+    int merged_count = 0;
+    for( long p : pair ){
+      int low = (int)(p >>> 32);
+      int high = (int)p;
+      if( merged_count > 0 && low <= merged[merged_count - 1] + 1 ){
+        if(high > merged[merged_count - 1]) merged[merged_count - 1] = high;
+      }else{
+        merged[merged_count++] = low;
+        merged[merged_count++] = high;
+      }
+    }
+    return Arrays.copyOf(merged ,merged_count);
+  }
+
+  // returns false, keeping nothing, when the lists outgrow the budget
+  private boolean interval_make(long budget_bytes){
+    long bytes = 16 + 8L * component_count;
+    if(bytes > budget_bytes) return false;
+    reach_interval_array = new int[component_count][];
+    int[][] list_array = new int[8][];
+    for( int c = 0; c < component_count; c++ ){
+      int list_count = 0;
+      list_array[list_count++] = new int[]{ subtree_low_post[c] ,post_of_component[c] };
+      for( int edge_i = component_edge_offset[c]; edge_i < component_edge_offset[c + 1]; edge_i++ ){
+        if(list_count == list_array.length) list_array = Arrays.copyOf(list_array ,list_count << 1);
+        list_array[list_count++] = reach_interval_array[ component_edge_target[edge_i] ];
+      }
+      int[] merged = interval_merge(list_array ,list_count);
+      reach_interval_array[c] = merged;
+      bytes += int_bytes(merged.length);
+      if(bytes > budget_bytes){
+        reach_interval_array = null;
+        return false;
+      }
+    }
+    encoding = encoding_interval;
+    memory_bytes += bytes;
+    return true;
+  }
+
+  /*--------------------------------------------------------------------------------
+    queries
+  */
+
+  private int node(Label node_label){
+    int label_id = node_label.intern().id();
+    return (label_id < node_by_label_id.length) ? node_by_label_id[label_id] : -1;
+  }
+
+  public boolean indexed_q(Label node_label){
+    return node(node_label) >= 0;
+  }
+
+  private boolean component_reaches_q(int from_c ,int to_c){
+    if(from_c == to_c) return true;
+    // a component only reaches components numbered below it
+    if(to_c > from_c) return false;
+    switch(encoding){
+    case encoding_bitset:
+      return ( reach_row_array[from_c][to_c >>> 6] & (1L << to_c) ) != 0;
+    case encoding_interval:
+      return interval_contains_q( reach_interval_array[from_c] ,post_of_component[to_c] );
+    default:
+      return search_q(from_c ,to_c);
+    }
+  }
+
+  private static boolean interval_contains_q(int[] list ,int post){
+    int low_i = 0;
+    int high_i = (list.length >>> 1) - 1;
+    while(low_i <= high_i){
+      int mid_i = (low_i + high_i) >>> 1;
+      if( post < list[2 * mid_i] ) high_i = mid_i - 1;
+      else if( post > list[2 * mid_i + 1] ) low_i = mid_i + 1;
+      else return true;
+    }
+    return false;
+  }
+
+  private boolean in_subtree_q(int c ,int d){
+    int post = post_of_component[d];
+    return subtree_low_post[c] <= post && post <= post_of_component[c];
+  }
+
+  // depth first search of the condensed DAG, pruned by the component numbering and the search subtrees
+  private boolean search_q(int from_c ,int to_c){
+    if( in_subtree_q(from_c ,to_c) ) return true;
+    long[] visited = new long[ (component_count >>> 6) + 1 ];
+    int[] stack = new int[16];
+    int top = 0;
+    stack[top++] = from_c;
+    visited[from_c >>> 6] |= 1L << from_c;
+    while(top > 0){
+      int c = stack[--top];
+      for( int edge_i = component_edge_offset[c]; edge_i < component_edge_offset[c + 1]; edge_i++ ){
+        int d = component_edge_target[edge_i];
+        if( d < to_c || (visited[d >>> 6] & (1L << d)) != 0 ) continue;
+        if( d == to_c || in_subtree_q(d ,to_c) ) return true;
+        visited[d >>> 6] |= 1L << d;
+        if(top == stack.length) stack = Arrays.copyOf(stack ,top << 1);
+        stack[top++] = d;
+      }
+    }
+    return false;
+  }
+
+  // true when from_label depends upon to_label, directly or transitively, or they are the same node
+  public boolean reaches_q(Label from_label ,Label to_label){
+    int from_id = node(from_label);
+    int to_id = node(to_label);
+    if(from_id < 0 || to_id < 0) return false;
+    return component_reaches_q( component_of_node[from_id] ,component_of_node[to_id] );
+  }
+
+  // `reaches_q` for each pair from_list[i] ,to_list[i]
+  public boolean[] reaches_q(LabelList from_list ,LabelList to_list){
+    if( from_list.size() != to_list.size() ){
+      throw new IllegalArgumentException("ReachabilityIndex.reaches_q: from_list and to_list differ in length");
+    }
+    boolean[] result = new boolean[ from_list.size() ];
+    for( int i = 0; i < result.length; i++ ) result[i] = reaches_q( from_list.get(i) ,to_list.get(i) );
+    return result;
+  }
+
+  // `reaches_q` of from_label to each of to_list
+  public boolean[] reaches_q(Label from_label ,LabelList to_list){
+    boolean[] result = new boolean[ to_list.size() ];
+    int from_id = node(from_label);
+    if(from_id < 0) return result;
+    int from_c = component_of_node[from_id];
+    for( int i = 0; i < result.length; i++ ){
+      int to_id = node( to_list.get(i) );
+      result[i] = to_id >= 0 && component_reaches_q( from_c ,component_of_node[to_id] );
+    }
+    return result;
+  }
+
+  // every node that from_label reaches, itself included, in no particular order
+  public LabelList reachable_list(Label from_label){
+    LabelList reachable_list = new LabelList();
+    int from_id = node(from_label);
+    if(from_id < 0) return reachable_list;
+    int from_c = component_of_node[from_id];
+    switch(encoding){
+    case encoding_bitset:
+      long[] row = reach_row_array[from_c];
+      for( int w = 0; w < row.length; w++ ){
+        for( long bits = row[w]; bits != 0; bits &= bits - 1 ){
+          member_add( reachable_list ,(w << 6) + Long.numberOfTrailingZeros(bits) );
+        }
+      }
+      break;
+    case encoding_interval:
+      int[] list = reach_interval_array[from_c];
+      for( int i = 0; i < list.length; i += 2 ){
+        for( int post = list[i]; post <= list[i + 1]; post++ ) member_add( reachable_list ,component_of_post[post] );
+      }
+      break;
+    default:
+      boolean[] visited = new boolean[component_count];
+      int[] stack = new int[component_count];
+      int top = 0;
+      stack[top++] = from_c;
+      visited[from_c] = true;
+      while(top > 0){
+        int c = stack[--top];
+        member_add(reachable_list ,c);
+        for( int edge_i = component_edge_offset[c]; edge_i < component_edge_offset[c + 1]; edge_i++ ){
+          int d = component_edge_target[edge_i];
+          if( !visited[d] ){
+            visited[d] = true;
+            stack[top++] = d;
+          }
+        }
+      }
+    }
+    return reachable_list;
+  }
+
+  private void member_add(LabelList label_list ,int c){
+    for( int i = component_member_offset[c]; i < component_member_offset[c + 1]; i++ ){
+      label_list.add( label_array[ component_member[i] ] );
+    }
+  }
+
+  @Override
+  public String toString(){
+    String[] encoding_name = {"bitset" ,"interval" ,"search"};
+    return
+      "ReachabilityIndex(" + node_count + " nodes ," + component_count + " components ,"
+      + encoding_name[encoding] + " ," + memory_bytes + " bytes)";
+  }
+
+}
@@ -0,0 +1,341 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Tarjan's strongly connected components over a graph held as int arrays.
+
+  The nodes are numbered 0 .. node_count - 1, and the edges are in compressed
+  sparse row form, as in GraphCompact: the neighbors of node `v` are
+
+    neighbor_target[ neighbor_offset[v] ] .. neighbor_target[ neighbor_offset[v + 1] - 1 ]
+
+  An edge to a node numbered node_count or above, e.g. an undefined neighbor
+  reference, is followed no further, and `outside_q` records that there was one.
+
+  This is the one SCC engine of the package. GraphCompact runs it over its own
+  columns. GraphDirectedAcyclic, CycleMarkParallel, GraphBreadthFirst and
+  ReachabilityIndex first number the nodes they have looked up into arrays of
+  this form, and then run it.
+
+  The algorithm is made iterative, so deep graphs do not overflow the Java
+  stack. Each node is visited once and each edge is followed once, so the run
+  time is O(V + E), and the per node state is a few int arrays made once.
+
+  `search` may be called again with other roots, and continues where the last
+  call left off, the nodes already visited are not visited again. The
+  components are numbered in the order they are completed, which is a reverse
+  topological order: every component a component reaches has a smaller number.
+
+  With an AnalysisBudget, each node visited and each edge followed is charged,
+  and the search stops when it is exhausted. A component is only completed once
+  all that its members reach has been searched, so the components found before
+  the stop are correct. The nodes of components not yet completed are left
+  without a component, -1.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StronglyConnected{
+
+  /*--------------------------------------------------------------------------------
+    constructors
+  */
+
+  public StronglyConnected(int node_count ,int[] neighbor_offset ,int[] neighbor_target ,AnalysisBudget budget){
+    this.node_count = node_count;
+    this.neighbor_offset = neighbor_offset;
+    this.neighbor_target = neighbor_target;
+    this.budget = budget;
+    index = new int[node_count];
+    low = new int[node_count];
+    child_index = new int[node_count];
+    call_stack = new int[node_count];
+    scc_stack = new int[node_count];
+    component = new int[node_count];
+    Arrays.fill(component ,-1);
+    member = new int[node_count];
+    member_offset = new int[16];
+    cyclic = new boolean[16];
+  }
+
+  public StronglyConnected(int node_count ,int[] neighbor_offset ,int[] neighbor_target){
+    this(node_count ,neighbor_offset ,neighbor_target ,null);
+  }
+
+  /*--------------------------------------------------------------------------------
+   instance data
+  */
+
+  private static boolean debug = false;
+
+  private final int node_count;
+  private final int[] neighbor_offset;
+  private final int[] neighbor_target;
+  private final AnalysisBudget budget;
+
+  private final int[] index;        // visit order + 1, 0 for unvisited
+  private final int[] low;
+  private final int[] child_index;  // next edge to follow
+  private final int[] call_stack;
+  private final int[] scc_stack;
+  private int visit_count = 0;
+  private boolean outside = false;
+  private boolean stopped = false;
+
+  // the component of each node, and the members of each component, CSR, in stack order
+  private final int[] component;
+  private final int[] member;
+  private int[] member_offset;
+  private boolean[] cyclic;
+  private int member_count = 0;
+  private int component_count = 0;
+
+  // on the scc stack, not yet in a component, is index != 0 && component == -1
+  private boolean on_stack_q(int v){
+    return index[v] != 0 && component[v] < 0;
+  }
+
+  private int neighbor_begin(int v){
+    return (v < neighbor_offset.length - 1) ? neighbor_offset[v] : 0;
+  }
+
+  private int neighbor_end(int v){
+    return (v < neighbor_offset.length - 1) ? neighbor_offset[v + 1] : 0;
+  }
+
+  /*--------------------------------------------------------------------------------
+    search
+  */
+
+  /*
+    Searches from `root`, unless it has been visited already. Returns false when
+    the budget is exhausted, by this or an earlier call, and the search stopped.
+  */
+  public boolean search(int root){
+    if(stopped) return false;
+    if( root < 0 || root >= node_count ){
+      outside = true;
+      return true;
+    }
+    if( index[root] != 0 ) return true;
+    if( budget != null && !budget.node_q() ) return stop();
+
+    int call_n = 0;
+    int scc_n = 0;
+    index[root] = low[root] = ++visit_count;
+    child_index[root] = neighbor_begin(root);
+    call_stack[call_n++] = root;
+    scc_stack[scc_n++] = root;
+
+    while(call_n > 0){
+      int v = call_stack[call_n - 1];
+
+      // follow the next edge
+      if( child_index[v] < neighbor_end(v) ){
+        if( budget != null && !budget.edge_q() ) return stop();
+        int w = neighbor_target[ child_index[v]++ ];
+        if( w >= node_count ){
+          outside = true;
+        }else if( index[w] == 0 ){
+          if( budget != null && !budget.node_q() ) return stop();
+          index[w] = low[w] = ++visit_count;
+          child_index[w] = neighbor_begin(w);
+          call_stack[call_n++] = w;
+          scc_stack[scc_n++] = w;
+        }else if( on_stack_q(w) ){
+          if( index[w] < low[v] ) low[v] = index[w];
+        }
+        continue;
+      }
+
+      // all edges followed, return to the parent
+      call_n--;
+      if(call_n > 0){
+        int parent = call_stack[call_n - 1];
+        if( low[v] < low[parent] ) low[parent] = low[v];
+      }
+      if( low[v] != index[v] ) continue;
+
+      // v is the root of an SCC, its members are on top of the scc_stack
+      int scc_i0 = scc_n - 1;
+      while( scc_stack[scc_i0] != v ) scc_i0--;
+      boolean self_loop = false;
+      if( scc_n - scc_i0 == 1 ){
+        for( int edge_i = neighbor_begin(v); edge_i < neighbor_end(v); edge_i++ ){
+          if( neighbor_target[edge_i] == v ) self_loop = true;
+        }
+      }
+      component_add( scc_i0 ,scc_n ,scc_n - scc_i0 > 1 || self_loop );
+      scc_n = scc_i0;
+    }
+    return true;
+  }
+
+  // searches from each root in turn, returns false when the budget ran out
+  public boolean search(int[] root_array){
+    for( int root : root_array ){
+      if( !search(root) ) return false;
+    }
+    return true;
+  }
+
+  // searches from every node, in id order
+  public boolean search_all(){
+    for( int root = 0; root < node_count; root++ ){
+      if( !search(root) ) return false;
+    }
+    return true;
+  }
+
+  private boolean stop(){
+    stopped = true;
+    if(debug) System.out.println("StronglyConnected.search:: budget exhausted after " + visit_count + " nodes");
+    return false;
+  }
+
+  private void component_add(int scc_i0 ,int scc_n ,boolean cyclic_q){
+    if(component_count + 2 > member_offset.length){
+      member_offset = Arrays.copyOf(member_offset ,member_offset.length << 1);
+      cyclic = Arrays.copyOf(cyclic ,cyclic.length << 1);
+    }
+    member_offset[component_count] = member_count;
+    for( int i = scc_i0; i < scc_n; i++ ){
+      component[ scc_stack[i] ] = component_count;
+      member[member_count++] = scc_stack[i];
+    }
+    cyclic[component_count] = cyclic_q;
+    component_count++;
+    member_offset[component_count] = member_count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    results
+  */
+
+  public int node_count(){
+    return node_count;
+  }
+
+  public boolean visited_q(int v){
+    return index[v] != 0;
+  }
+
+  // true when a visited node has an edge to a node numbered node_count or above
+  public boolean outside_q(){
+    return outside;
+  }
+
+  // true when the budget ran out
+  public boolean stopped_q(){
+    return stopped;
+  }
+
+  public int component_count(){
+    return component_count;
+  }
+
+  // the component of the node, or -1 when it was not visited, or its component was not completed
+  public int component(int v){
+    return component[v];
+  }
+
+  // true when the component has more than one member, or its one member is its own neighbor
+  public boolean cyclic_q(int c){
+    return cyclic[c];
+  }
+
+  public int member_begin(int c){
+    return member_offset[c];
+  }
+
+  public int member_end(int c){
+    return member_offset[c + 1];
+  }
+
+  // member i of the members of all components, see `member_begin`
+  public int member(int i){
+    return member[i];
+  }
+
+  public int cyclic_count(){
+    int count = 0;
+    for( int c = 0; c < component_count; c++ ){
+      if( cyclic[c] ) count++;
+    }
+    return count;
+  }
+
+  /*--------------------------------------------------------------------------------
+    Numbering looked up nodes
+
+    The label based callers hold the nodes they have looked up, each with its
+    neighbor list. `Numbering` numbers them into the arrays of the search: ids
+    0 .. defined_count - 1 are the given nodes, in the order given, and the
+    labels their neighbor lists reference that were not given are numbered
+    after, so the search does not enter them. The nodes are kept, so the members
+    of a cycle are marked through the node the caller looked up, rather than by
+    looking them up again.
+  */
+  static final class Numbering{
+    final int defined_count;
+    final Label[] label_array;
+    final Node[] node_array;
+    final int[] neighbor_offset;
+    final int[] neighbor_target;
+    private final Map<Label ,Integer> id_map;
+
+    Numbering(List<Label> label_list ,List<Node> node_list){
+      defined_count = label_list.size();
+      id_map = new HashMap<>( defined_count * 2 );
+      List<Label> all_label_list = new ArrayList<>(label_list);
+      for( int id = 0; id < defined_count; id++ ) id_map.put( label_list.get(id) ,id );
+      node_array = node_list.toArray( new Node[defined_count] );
+
+      int edge_count = 0;
+      for( Node node : node_array ) edge_count += node.neighbor_LabelList().size();
+      neighbor_offset = new int[defined_count + 1];
+      neighbor_target = new int[edge_count];
+      int edge_i = 0;
+      for( int id = 0; id < defined_count; id++ ){
+        neighbor_offset[id] = edge_i;
+        for( Label neighbor_label : node_array[id].neighbor_LabelList() ){
+          Integer neighbor_id = id_map.get(neighbor_label);
+          if(neighbor_id == null){
+            neighbor_id = all_label_list.size();
+            id_map.put(neighbor_label ,neighbor_id);
+            all_label_list.add(neighbor_label);
+          }
+          neighbor_target[edge_i++] = neighbor_id;
+        }
+      }
+      neighbor_offset[defined_count] = edge_i;
+      label_array = all_label_list.toArray( new Label[all_label_list.size()] );
+    }
+
+    // the id of the label, or -1 when it is not numbered
+    int id(Label node_label){
+      Integer id = id_map.get(node_label);
+      return (id == null) ? -1 : id;
+    }
+
+    StronglyConnected search(AnalysisBudget budget){
+      return new StronglyConnected(defined_count ,neighbor_offset ,neighbor_target ,budget);
+    }
+  }
+
+  // the labels of the members of each cyclic component, in the order found, given the label of each node
+  public List<LabelList> cyclic_list(Label[] label_array){
+    List<LabelList> scc_list = new ArrayList<>();
+    for( int c = 0; c < component_count; c++ ){
+      if( !cyclic[c] ) continue;
+      LabelList scc = new LabelList();
+      for( int i = member_offset[c]; i < member_offset[c + 1]; i++ ) scc.add( label_array[ member[i] ] );
+      scc_list.add(scc);
+    }
+    return scc_list;
+  }
+
+}
@@ -3,14 +3,98 @@ package com.ReasoningTechnology.Ariadne;
 /*
 An error token.
 
+`Token.intern` returns the canonical Token for a value, with a dense integer
+`id`. Interned tokens compare by identity. A token made with `new` has id -1 and
+is compared by value, so code that still says `new Token("leaf")` keeps working.
+
+The tokens used by Ariadne itself are interned once, below, so that the hot
+loops need not allocate them.
+
 */
 public class Token {
   private final String value;
+  private final int hash;
+  private final int id;
 
   public Token(String value){
+    this(value ,-1);
+  }
+
+  private Token(String value ,int id){
     this.value = value;
+    this.hash = value.hashCode();
+    this.id = id;
+  }
+
+  /*--------------------------------------------------------------------------------
+    intern table
+  */
+
+  private static final InternTable<Token> intern_table = new InternTable<>(Token::new);
+
+  public static Token intern(String value){
+    return intern_table.intern(value);
+  }
+
+  // the interned token with the given id, or null
+  public static Token by_id(int id){
+    return intern_table.by_id(id);
+  }
+
+  // one more than the largest id given out so far
+  public static int intern_count(){
+    return intern_table.size();
   }
 
+  public Token intern(){
+    return (id >= 0) ? this : intern_table.intern(value);
+  }
+
+  // -1 when this token was not interned
+  public int id(){
+    return id;
+  }
+
+  /*--------------------------------------------------------------------------------
+    built in tokens
+  */
+
+  // node types
+  public static final Token symbol = intern("symbol");
+  public static final Token path = intern("path");
+  public static final Token leaf = intern("leaf");
+  public static final Token error = intern("error");
+
+  // persistent node marks
+  public static final Token cycle_member = intern("cycle_member");
+  public static final Token wellformed = intern("wellformed");
+  public static final Token build_failed = intern("build_failed");
+  public static final Token null_node = intern("null_node");
+
+  // graph_descend termination
+  public static final Token empty_path_stack = intern("empty_path_stack");
+  public static final Token cycle_found = intern("cycle_found");
+  public static final Token undefined_node = intern("undefined_node");
+  public static final Token max_depth_reached = intern("max_depth_reached");
+
+  // graph_mark_cycles termination
+  public static final Token empty_root_label_list = intern("empty_root_label_list");
+  public static final Token cycle_exists = intern("cycle_exists");
+  public static final Token undefined_node_exists = intern("undefined_node_exists");
+  public static final Token bad_descent_termination = intern("bad_descent_termination");
+  public static final Token budget_exhausted = intern("budget_exhausted");
+
+  // build walk
+  public static final Token empty_root_node_label_list = intern("empty_root_node_label_list");
+  public static final Token lookup_fail = intern("lookup_fail");
+  public static final Token up_to_date_check_failed = intern("up_to_date_check_failed");
+  public static final Token build_script_exception = intern("build_script_exception");
+  public static final Token build_interrupted = intern("build_interrupted");
+
+  /*--------------------------------------------------------------------------------
+    value
+  */
+
   public String get(){
     return value;
   }
@@ -25,11 +109,12 @@ public class Token {
     if(this == o) return true;  // No padding, not nested
     if( o == null || getClass() != o.getClass() ) return false;  // Padded, because it's nested
     Token token = (Token)o;
-    return value.equals( token.value );
+    if( id >= 0 && token.id >= 0 ) return false;  // interned, and not the same object
+    return hash == token.hash && value.equals( token.value );
   }
 
   @Override
   public int hashCode(){
-    return value.hashCode();
+    return hash;
   }
 }
@@ -0,0 +1,139 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Cycle marking on graphs of various shapes.
+
+    chain        node i has neighbor i + 1
+    fanout       one root with `node_count` leaf neighbors
+    diamond      a DiamondLattice of width 16, node_count / 16 levels deep
+    dense_cycle  each node has 8 neighbors picked at random, seeded, so most
+                 of the graph is one large SCC
+    synthetic    a GraphGenerator graph 16 levels deep, power law fan out of
+                 mean 3, diamonds, and a cycle per thousand nodes
+
+  `graph_mark_cycles(roots)` prints when the class debug flag is on, so the
+  benchmarks call the engine it runs, `graph_mark_SCC`, with verbose off. The
+  marks persist from one call to the next, but setting a mark that is already
+  set is the same work, so every call does the same work.
+
+    scc           GraphDirectedAcyclic over the HashMap node map
+    scc_compact   GraphCompact over the int arrays
+    scc_parallel  CycleMarkParallel over a GraphConcurrent, one worker per
+                  processor
+
+  Run with `developer/tool/jmh`.
+*/
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CycleMarkBenchmark{
+
+  @Param({"chain" ,"fanout" ,"diamond" ,"dense_cycle" ,"synthetic"})
+  public String shape;
+
+  @Param({"1024" ,"65536"})
+  public int node_count;
+
+  private GraphDirectedAcyclic graph;
+  private GraphCompact compact;
+  private GraphConcurrent concurrent;
+  private LabelList root_list;
+
+  private static Label label(int i){
+    return new Label("n_" + i);
+  }
+
+  private static Node node(){
+    Node node = new Node();
+    node.put("type" ,"symbol");
+    return node;
+  }
+
+  private Map<Label ,Node> node_map(){
+    Map<Label ,Node> node_map = new HashMap<>();
+    root_list = new LabelList();
+    switch(shape){
+      case "chain":
+        for( int i = 0; i < node_count; i++ ){
+          Node node = node();
+          if( i + 1 < node_count ) node.neighbor_LabelList().add( label(i + 1) );
+          node_map.put( label(i) ,node );
+        }
+        root_list.add( label(0) );
+        break;
+      case "fanout":
+        Node root = node();
+        for( int i = 1; i < node_count; i++ ){
+          root.neighbor_LabelList().add( label(i) );
+          node_map.put( label(i) ,node() );
+        }
+        node_map.put( label(0) ,root );
+        root_list.add( label(0) );
+        break;
+      case "diamond":
+        int width = 16;
+        node_map = DiamondLattice.lattice(node_count / width ,width ,false);
+        root_list = DiamondLattice.root_list(width);
+        break;
+      case "dense_cycle":
+        Random random = new Random(1);
+        for( int i = 0; i < node_count; i++ ){
+          Node node = node();
+          for( int k = 0; k < 8; k++ ) node.neighbor_LabelList().add( label(random.nextInt(node_count)) );
+          node_map.put( label(i) ,node );
+        }
+        root_list.add( label(0) );
+        break;
+      case "synthetic":
+        GraphGenerator generator = new GraphGenerator(1 ,node_count ,16);
+        generator.fan_out(GraphGenerator.fan_out_power_law ,3);
+        generator.diamond_density(0.3);
+        generator.cycle_count(node_count / 1000);
+        node_map = generator.node_map();
+        root_list = generator.root_list();
+        break;
+      default:
+        throw new IllegalArgumentException("CycleMarkBenchmark: unknown shape " + shape);
+    }
+    return node_map;
+  }
+
+  @Setup
+  public void setup(){
+    Map<Label ,Node> node_map = node_map();
+    graph = new GraphDirectedAcyclic(node_map ,null ,new LabelList() ,-1 ,false);
+    compact = new GraphCompact(node_map);
+    concurrent = new GraphConcurrent(node_map ,null);
+  }
+
+  @Benchmark
+  public Object scc(){
+    return graph.graph_mark_SCC(root_list ,new TokenSet() ,false);
+  }
+
+  @Benchmark
+  public Object scc_compact(){
+    return compact.graph_mark_SCC(root_list ,new TokenSet() ,false);
+  }
+
+  @Benchmark
+  public Object scc_parallel(){
+    return new CycleMarkParallel(concurrent ,0).graph_mark_SCC(root_list ,new TokenSet() ,false);
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  `Graph.lookup` hits and misses, for nodes held in the map and for nodes made by
+  productions.
+
+    map_hit             label defined in the map
+    map_miss            label in neither map nor productions, no productions
+    production_hit      label made by a production, served by the LookupCache
+    production_miss     label no production recognizes, a negative cache entry
+    production_uncached production_hit with the cache turned off, so the
+                        productions run on each lookup
+
+  The labels are made in setup, so the measurement does not include Label
+  construction. Each call cycles through `label_count` labels.
+
+  The warmed cache holds an entry for each produced label and each missing
+  label, 2 * `label_count` in all. Were that more than the cache capacity,
+  cycling through the labels in order would evict each entry before it is used
+  again, and production_hit would measure the productions rather than the
+  cache. So the cache of `production_graph` is made with a capacity of
+  2 * `label_count`, rather than `LookupCache.capacity_default`.
+
+  Run with `developer/tool/jmh`. JMH is fetched separately, see
+  tool_shared/document/install_jmh.txt, and was not available where these
+  benchmarks were written, so no results are given here. Their setup and
+  benchmark methods were run directly, outside of the harness.
+*/
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark{
+
+  @Param({"1024" ,"65536"})
+  public int label_count;
+
+  private Graph map_graph;
+  private Graph production_graph;
+  private Graph uncached_graph;
+
+  private Label[] map_label_array;
+  private Label[] missing_label_array;
+  private Label[] produced_label_array;
+  private int i = 0;
+
+  private static ProductionList production_list(){
+    ProductionList production_list = new ProductionList();
+    production_list.add(
+      Production.keyed(
+        ProductionKey.prefix("p/")
+        ,node_label -> {
+          Node node = new Node();
+          node.put("type" ,"path");
+          return node;
+        }
+      )
+    );
+    production_list.add(
+      Production.keyed(
+        ProductionKey.suffix(".o")
+        ,node_label -> {
+          Node node = new Node();
+          node.put("type" ,"path");
+          return node;
+        }
+      )
+    );
+    return production_list;
+  }
+
+  @Setup
+  public void setup(){
+    Map<Label ,Node> node_map = new HashMap<>();
+    map_label_array = new Label[label_count];
+    missing_label_array = new Label[label_count];
+    produced_label_array = new Label[label_count];
+    for( int j = 0; j < label_count; j++ ){
+      map_label_array[j] = new Label("m/" + j);
+      missing_label_array[j] = new Label("x/" + j);
+      produced_label_array[j] = new Label("p/" + j);
+      Node node = new Node();
+      node.put("type" ,"leaf");
+      node_map.put(map_label_array[j] ,node);
+    }
+    map_graph = new Graph(node_map ,null);
+    production_graph = new Graph(node_map ,production_list());
+    production_graph.lookup_cache( new LookupCache(2 * label_count) );
+    uncached_graph = new Graph(node_map ,production_list());
+    uncached_graph.lookup_cache(null);
+
+    // warm the cache, so the production benchmarks measure the steady state
+    for( int j = 0; j < label_count; j++ ){
+      production_graph.lookup(produced_label_array[j] ,false);
+      production_graph.lookup(missing_label_array[j] ,false);
+    }
+    if( production_graph.lookup_cache().size() != 2 * label_count ){
+      throw new IllegalStateException("LookupBenchmark: the warmed cache does not hold every label: " + production_graph.lookup_cache());
+    }
+  }
+
+  private int next(){
+    int j = i;
+    i = (j + 1 == label_count) ? 0 : j + 1;
+    return j;
+  }
+
+  @Benchmark
+  public Node map_hit(){
+    return map_graph.lookup(map_label_array[next()] ,false);
+  }
+
+  @Benchmark
+  public Node map_miss(){
+    return map_graph.lookup(missing_label_array[next()] ,false);
+  }
+
+  @Benchmark
+  public Node production_hit(){
+    return production_graph.lookup(produced_label_array[next()] ,false);
+  }
+
+  @Benchmark
+  public Node production_miss(){
+    return production_graph.lookup(missing_label_array[next()] ,false);
+  }
+
+  @Benchmark
+  public Node production_uncached(){
+    return uncached_graph.lookup(produced_label_array[next()] ,false);
+  }
+
+}
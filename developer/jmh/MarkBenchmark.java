@@ -0,0 +1,88 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  Setting and testing node marks.
+
+  A Node keeps its marks in a TokenSet property, a NodeConcurrent in the bits
+  of an AtomicLong, and a NodeCompact in the mark_bits column of its
+  GraphCompact.
+
+    *_mark      sets cycle_member, which is already set after the first call
+    *_has_mark  tests cycle_member, set, and build_failed, not set
+    *_mark_new  a fresh Node marked once, i.e. the TokenSet creation included
+
+  Run with `developer/tool/jmh`.
+*/
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MarkBenchmark{
+
+  private Node node;
+  private NodeConcurrent node_concurrent;
+  private Node node_compact;
+
+  @Setup
+  public void setup(){
+    node = new Node();
+    node.put("type" ,"symbol");
+    node_concurrent = NodeConcurrent.of(node);
+    Map<Label ,Node> node_map = new HashMap<>();
+    node_map.put( new Label("n") ,node );
+    node_compact = new GraphCompact(node_map).node(0);
+    node.mark(Token.cycle_member);
+    node_concurrent.mark(Token.cycle_member);
+    node_compact.mark(Token.cycle_member);
+  }
+
+  @Benchmark
+  public void node_mark(){
+    node.mark(Token.cycle_member);
+  }
+
+  @Benchmark
+  public boolean node_has_mark(){
+    return node.has_mark(Token.cycle_member) & !node.has_mark(Token.build_failed);
+  }
+
+  @Benchmark
+  public Node node_mark_new(){
+    Node fresh_node = new Node();
+    fresh_node.mark(Token.cycle_member);
+    return fresh_node;
+  }
+
+  @Benchmark
+  public void concurrent_mark(){
+    node_concurrent.mark(Token.cycle_member);
+  }
+
+  @Benchmark
+  public boolean concurrent_has_mark(){
+    return node_concurrent.has_mark(Token.cycle_member) & !node_concurrent.has_mark(Token.build_failed);
+  }
+
+  @Benchmark
+  public void compact_mark(){
+    node_compact.mark(Token.cycle_member);
+  }
+
+  @Benchmark
+  public boolean compact_has_mark(){
+    return node_compact.has_mark(Token.cycle_member) & !node_compact.has_mark(Token.build_failed);
+  }
+
+}
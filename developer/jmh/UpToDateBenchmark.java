@@ -0,0 +1,111 @@
+package com.ReasoningTechnology.Ariadne;
+
+/*
+  `File.newer_than_all` over large dependency lists.
+
+  Setup writes `dependency_count` files and then a target file, into a fresh
+  temporary directory, so the target is newer and every dependency is checked.
+
+    uncached      one stat per file on every call
+    stat_cache    a fresh FileStatCache per call, as a build has, so the stats
+                  are prefetched in parallel and each file is read once
+    stat_cache_warm  the same FileStatCache on every call, i.e. the cost of the
+                  second and later checks in one build
+    digest        BuildDatabase.up_to_date_q, with the digests already recorded,
+                  so only the stats are compared
+
+  Run with `developer/tool/jmh`.
+*/
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UpToDateBenchmark{
+
+  @Param({"16" ,"256" ,"4096"})
+  public int dependency_count;
+
+  private Path directory;
+  private String target_fp;
+  private Label target_label;
+  private List<String> dependency_fp_list;
+  private LabelList dependency_LabelList;
+  private FileStatCache warm_cache;
+  private BuildDatabase build_database;
+
+  @Setup
+  public void setup() throws IOException{
+    directory = Files.createTempDirectory("ariadne_jmh");
+    dependency_fp_list = new ArrayList<>(dependency_count);
+    dependency_LabelList = new LabelList();
+    // dependencies an hour old, so the racy window of the build database does not apply
+    FileTime old_time = FileTime.fromMillis( System.currentTimeMillis() - 3_600_000L );
+    for( int i = 0; i < dependency_count; i++ ){
+      Path dependency_fp = directory.resolve("dependency_" + i);
+      Files.write( dependency_fp ,("dependency " + i).getBytes() );
+      Files.setLastModifiedTime(dependency_fp ,old_time);
+      dependency_fp_list.add( dependency_fp.toString() );
+      dependency_LabelList.add( new Label(dependency_fp.toString()) );
+    }
+    Path target = directory.resolve("target");
+    Files.write( target ,"target".getBytes() );
+    Files.setLastModifiedTime( target ,FileTime.fromMillis(System.currentTimeMillis() - 1_800_000L) );
+    target_fp = target.toString();
+    target_label = new Label(target_fp);
+
+    warm_cache = new FileStatCache();
+    File.newer_than_all(target_fp ,dependency_fp_list ,warm_cache);
+
+    build_database = new BuildDatabase( directory.resolve("build_database") );
+    build_database.record_build(target_label ,dependency_LabelList ,null);
+  }
+
+  @TearDown
+  public void teardown() throws IOException{
+    build_database.close();
+    try( Stream<Path> path_stream = Files.walk(directory) ){
+      path_stream.sorted( Comparator.reverseOrder() ).forEach( fp -> fp.toFile().delete() );
+    }
+  }
+
+  @Benchmark
+  public boolean uncached() throws IOException{
+    return File.newer_than_all(target_fp ,dependency_fp_list);
+  }
+
+  @Benchmark
+  public boolean stat_cache() throws IOException{
+    return File.newer_than_all(target_fp ,dependency_fp_list ,new FileStatCache());
+  }
+
+  @Benchmark
+  public boolean stat_cache_warm() throws IOException{
+    return File.newer_than_all(target_fp ,dependency_fp_list ,warm_cache);
+  }
+
+  @Benchmark
+  public boolean digest() throws IOException{
+    return build_database.up_to_date_q(target_label ,dependency_LabelList ,new FileStatCache());
+  }
+
+}
@@ -58,9 +58,9 @@ public class TestBench{
       return false;
     }
 
-    // Check that all parameters are ByteArrayOutputStream
+    // Check that the parameters are the stdin, stdout and stderr streams
     if(
-       !parameterTypes[0].equals(ByteArrayOutputStream.class) // Check first parameter
+       !parameterTypes[0].equals(ByteArrayInputStream.class) // Check first parameter
        || !parameterTypes[1].equals(ByteArrayOutputStream.class) // Check second parameter
        || !parameterTypes[2].equals(ByteArrayOutputStream.class) // Check third parameter
        ){
@@ -71,6 +71,10 @@ public class TestBench{
     return true;
   }
 
+  public static void run(Object test_suite){
+    run(test_suite ,new String[0]);
+  }
+
   public static void run(Object test_suite ,String[] stdin_array){
 
     int failed_test = 0;
@@ -95,16 +99,16 @@ public class TestBench{
         continue;
       }
 
-      try{
-        // Redirect the I/O channels so the tests can manipulate them as data.
-        PrintStream original_out = System.out;
-        PrintStream original_err = System.err;
-        InputStream original_in = System.in;
-  
-        ByteArrayOutputStream out_content = new ByteArrayOutputStream();
-        ByteArrayOutputStream err_content = new ByteArrayOutputStream();
-        ByteArrayInputStream in_content = new ByteArrayInputStream(String.join("\n" ,stdin_array).getBytes());
+      // Redirect the I/O channels so the tests can manipulate them as data.
+      PrintStream original_out = System.out;
+      PrintStream original_err = System.err;
+      InputStream original_in = System.in;
 
+      ByteArrayOutputStream out_content = new ByteArrayOutputStream();
+      ByteArrayOutputStream err_content = new ByteArrayOutputStream();
+      ByteArrayInputStream in_content = new ByteArrayInputStream(String.join("\n" ,stdin_array).getBytes());
+
+      try{
         System.setOut(new PrintStream(out_content));
         System.setErr(new PrintStream(err_content));
         System.setIn(in_content);
@@ -116,13 +120,13 @@ public class TestBench{
         System.setIn(original_in);
 
         // Report the error
-        System.out.println("TestBench:: when redirecting i/o in preparation for running test \'" + test.getName() + "\' ,test bench itself throws error: " + e.toString());
+        System.out.println("TestBench:: when redirecting i/o in preparation for running test \'" + method.getName() + "\' ,test bench itself throws error: " + e.toString());
         failed_test++;
         continue;
       }
 
       // Capture detritus 
-      Exception exception_string = "";
+      String exception_string = "";
       String stdout_string = "";
       String stderr_string = "";
 
@@ -146,7 +150,7 @@ public class TestBench{
         fail_exception = true;
 
         // We keep it to report it
-        exception = e;
+        exception_string = e.toString();
 
       } finally{
         
@@ -167,13 +171,17 @@ public class TestBench{
 
         if(fail_reported) System.out.println("failed: \'" + method.getName() + "\' by report from test.");
         if(fail_exception) System.out.println("failed: \'" + method.getName() + "\' due to unhandled exception: " + exception_string);
-        if(fail_extraneous_stdout){
-          System.out.println("failed: \'" + method.getName() + "\' due extraneous stdout output ,see log.");
-          log_output(method.getName() ,"stdout" ,stdout_string);
-        }
-        if(fail_extraneous_stderr){
-          System.out.println("failed: \'" + method.getName() + "\' due extraneous stderr output ,see log.");
-          log_output(method.getName() ,"stderr" ,stderr_string);
+        try{
+          if(fail_extraneous_stdout){
+            System.out.println("failed: \'" + method.getName() + "\' due extraneous stdout output ,see log.");
+            log_output(method.getName() ,"stdout" ,stdout_string);
+          }
+          if(fail_extraneous_stderr){
+            System.out.println("failed: \'" + method.getName() + "\' due extraneous stderr output ,see log.");
+            log_output(method.getName() ,"stderr" ,stderr_string);
+          }
+        } catch(IOException e){
+          System.out.println("TestBench:: could not write the test log: " + e.toString());
         }
 
       } else{
@@ -0,0 +1,1613 @@
+package com.ReasoningTechnology.Ariadne.TestBench;
+
+/*
+Ariadne build tests, run on the TestBench.
+
+Each test builds a small graph, often over files in a temporary directory, runs
+it, and checks what was built and in what order. The library prints progress
+to stdout as it goes, so a test clears the captured streams before it returns.
+
+The helpers are outside of the TestSuite, as the TestBench runs every method
+declared in the suite, lambda bodies included.
+*/
+
+import com.ReasoningTechnology.Ariadne.*;
+import com.ReasoningTechnology.TestBench.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class TestBenchAriadne extends TestBench{
+
+  /*--------------------------------------------------------------------------------
+    helpers
+  */
+
+  // a node of the given type whose build script appends the name to the run list
+  static Node node(String type ,String name ,List<String> run_list ,Label... neighbor_array){
+    Node node = new Node();
+    node.put("type" ,type);
+    node.put("build" ,(Runnable)() -> run_list.add(name));
+    for( Label neighbor : neighbor_array ) node.neighbor_LabelList().add(neighbor);
+    return node;
+  }
+
+  static LabelList label_list(String... label_string_array){
+    LabelList label_list = new LabelList();
+    for( String label_string : label_string_array ) label_list.add( new Label(label_string) );
+    return label_list;
+  }
+
+  static void touch(Path fp ,long modified_ms) throws IOException{
+    if( !Files.exists(fp) ) Files.write( fp ,new byte[]{'x'} );
+    Files.setLastModifiedTime( fp ,FileTime.fromMillis(modified_ms) );
+  }
+
+  // the names of the nodes of a one worker build, in the order they were taken up
+  static List<String> trace_order(BuildTrace trace ,Path dp) throws IOException{
+    Path trace_fp = dp.resolve("trace.json");
+    trace.chrome_trace_write(trace_fp);
+    String trace_string = new String( Files.readAllBytes(trace_fp) ,"UTF-8" );
+    List<String> order = new ArrayList<>();
+    Matcher matcher = Pattern.compile("\\{\"name\":\"([^\"]*)\",\"cat\":\"(skipped|up_to_date|built|failed)\"").matcher(trace_string);
+    while( matcher.find() ) order.add( matcher.group(1).replace( dp.toString() + "/" ,"" ) );
+    return order;
+  }
+
+  /*
+    The priority order graph. A chain c_0 <- c_1 <- c_2, a pair sym_a <- a_user,
+    four loose nodes w_*, and the path up.txt, made from src.txt and up to date,
+    under up_user. The history has up.txt at 100 ms, more than any other chain.
+  */
+  static List<String> priority_order(Path dp) throws IOException{
+    List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+    Path src_fp = dp.resolve("src.txt");
+    Path up_fp = dp.resolve("up.txt");
+    long now_ms = System.currentTimeMillis();
+    touch(src_fp ,now_ms - 100_000);
+    touch(up_fp ,now_ms);
+    Label src = new Label( src_fp.toString() );
+    Label up = new Label( up_fp.toString() );
+
+    Map<Label ,Node> node_map = new HashMap<>();
+    node_map.put( src ,node("leaf" ,"src.txt" ,run_list) );
+    node_map.put( up ,node("path" ,"up.txt" ,run_list ,src) );
+    node_map.put( new Label("up_user") ,node("symbol" ,"up_user" ,run_list ,up) );
+    node_map.put( new Label("sym_a") ,node("symbol" ,"sym_a" ,run_list) );
+    node_map.put( new Label("a_user") ,node("symbol" ,"a_user" ,run_list ,new Label("sym_a")) );
+    node_map.put( new Label("c_0") ,node("symbol" ,"c_0" ,run_list) );
+    node_map.put( new Label("c_1") ,node("symbol" ,"c_1" ,run_list ,new Label("c_0")) );
+    node_map.put( new Label("c_2") ,node("symbol" ,"c_2" ,run_list ,new Label("c_1")) );
+    LabelList root_neighbor = label_list("up_user" ,"a_user" ,"c_2" ,"w_0" ,"w_1" ,"w_2" ,"w_3");
+    for( int i = 0; i < 4; i++ ) node_map.put( new Label("w_" + i) ,node("symbol" ,"w_" + i ,run_list) );
+    node_map.put( new Label("root") ,node("symbol" ,"root" ,run_list ,root_neighbor.toArray(new Label[0])) );
+
+    DurationHistory history = new DurationHistory();
+    history.record(up ,100_000_000L);
+    history.record(new Label("sym_a") ,50_000_000L);
+    for( int i = 0; i < 3; i++ ) history.record(new Label("c_" + i) ,20_000_000L);
+    for( String name : new String[]{"up_user" ,"a_user" ,"w_0" ,"w_1" ,"w_2" ,"w_3" ,"root"} ){
+      history.record(new Label(name) ,1_000_000L);
+    }
+
+    LabelList root_list = label_list("root");
+    GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,root_list ,-1 ,false);
+    BuildParallel build = new BuildParallel(graph ,1);
+    BuildTrace trace = new BuildTrace();
+    build.build_trace(trace);
+    build.duration_history(history);
+    TokenSet error_token_set = build.run_build_scripts_f(root_list ,false);
+    if( !error_token_set.isEmpty() ) return null;
+    return trace_order(trace ,dp);
+  }
+
+  /*
+    Symbol nodes, each given as a name and its neighbors, built on `worker_count`
+    workers. Returns the names in the order their build scripts ran, and adds
+    the error tokens of the build to `error_token_set`.
+  */
+  static List<String> symbol_build(String[][] definition ,String root ,int worker_count ,TokenSet error_token_set){
+    List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+    Map<Label ,Node> node_map = new HashMap<>();
+    for( String[] node_definition : definition ){
+      LabelList neighbor = label_list( Arrays.copyOfRange(node_definition ,1 ,node_definition.length) );
+      node_map.put( new Label(node_definition[0]) ,node("symbol" ,node_definition[0] ,run_list ,neighbor.toArray(new Label[0])) );
+    }
+    LabelList root_list = label_list(root);
+    GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,root_list ,-1 ,false);
+    error_token_set.addAll( new BuildParallel(graph ,worker_count).run_build_scripts_f(root_list ,false) );
+    return new ArrayList<>(run_list);
+  }
+
+  /*
+    Builds all, which depends upon slow, on one worker, on a thread of its own.
+    The build script of slow runs for `slow_ms` and ignores interrupts. The
+    thread is interrupted once slow has started. Returns the error tokens, and
+    adds to `run_list` "slow" when the script ends, then "returned" when the
+    build returns. With a history the workers take the jobs from the queue.
+  */
+  static TokenSet interrupted_build(List<String> run_list ,boolean history ,long slow_ms) throws InterruptedException{
+    CountDownLatch started = new CountDownLatch(1);
+    Map<Label ,Node> node_map = new HashMap<>();
+    node_map.put( new Label("all") ,node("symbol" ,"all" ,run_list ,new Label("slow")) );
+    Node slow_node = new Node();
+    slow_node.put("type" ,"symbol");
+    slow_node.put("build" ,(Runnable)() -> {
+      started.countDown();
+      long end_ms = System.currentTimeMillis() + slow_ms;
+      while( System.currentTimeMillis() < end_ms ){
+        try{
+          Thread.sleep(10);
+        }catch(InterruptedException e){
+          // a script that does not stop when interrupted
+        }
+      }
+      run_list.add("slow");
+    });
+    node_map.put( new Label("slow") ,slow_node );
+    LabelList root_list = label_list("all");
+    BuildParallel build = new BuildParallel( new GraphDirectedAcyclic(node_map ,null ,root_list) ,1 );
+    if(history) build.duration_history( new DurationHistory() );
+    TokenSet error_token_set = new TokenSet();
+    Thread thread = new Thread( () -> {
+      error_token_set.addAll( build.run_build_scripts_f(root_list ,false) );
+      run_list.add("returned");
+    });
+    thread.setDaemon(true);
+    thread.start();
+    started.await();
+    thread.interrupt();
+    thread.join(10000);
+    return error_token_set;
+  }
+
+  /*
+    Starts thread_count threads at once, each looking up the label and then
+    marking the node found with a token of its own, and returns the nodes found.
+  */
+  static List<Node> concurrent_lookup(GraphConcurrent graph ,Label node_label ,int thread_count) throws InterruptedException{
+    CountDownLatch start = new CountDownLatch(1);
+    Node[] node_array = new Node[thread_count];
+    List<Thread> thread_list = new ArrayList<>();
+    for( int i = 0; i < thread_count; i++ ){
+      int index = i;
+      Thread thread = new Thread( () -> {
+        try{
+          start.await();
+        }catch(InterruptedException e){
+          return;
+        }
+        node_array[index] = graph.lookup(node_label ,false);
+        if( node_array[index] != null ) node_array[index].mark( Token.intern("concurrent_" + index) );
+      });
+      thread.setDaemon(true);
+      thread.start();
+      thread_list.add(thread);
+    }
+    start.countDown();
+    for( Thread thread : thread_list ) thread.join(10000);
+    return Arrays.asList(node_array);
+  }
+
+  // produces a leaf node for each label that starts with g, slowly, and counts the calls per label
+  static ProductionList slow_production_list(Map<String ,Integer> call_map){
+    ProductionList production_list = new ProductionList();
+    production_list.add( node_label -> {
+      call_map.merge(node_label.get() ,1 ,Integer::sum);
+      try{
+        Thread.sleep(50);
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+      return node_label.get().startsWith("g") ? leaf_node() : null;
+    });
+    return production_list;
+  }
+
+  /*
+    The graph definition of the Build command line tests: out.txt is made by
+    copying in.txt, both in the directory `dp`, and each build is counted.
+  */
+  public static class FlagDefinition{
+    static Path dp;
+    static final AtomicInteger build_count = new AtomicInteger();
+
+    public static Map<Label ,Node> getNodeMap(){
+      Path in_fp = dp.resolve("in.txt");
+      Path out_fp = dp.resolve("out.txt");
+      Node in_node = new Node();
+      in_node.put("type" ,"leaf");
+      Node out_node = new Node();
+      out_node.put("type" ,"path");
+      out_node.neighbor_LabelList().add( new Label( in_fp.toString() ) );
+      out_node.put("build" ,(Runnable)() -> {
+        try{
+          Files.write( out_fp ,Files.readAllBytes(in_fp) );
+        }catch(IOException e){
+          throw new UncheckedIOException(e);
+        }
+        build_count.incrementAndGet();
+      });
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label( in_fp.toString() ) ,in_node );
+      node_map.put( new Label( out_fp.toString() ) ,out_node );
+      return node_map;
+    }
+
+    public static ProductionList getNodeFList(){
+      return new ProductionList();
+    }
+  }
+
+  /*
+    The graph definition of the server production test: all depends upon gen,
+    which a production makes while gen.list exists in `dp`, with the names in
+    it as its neighbors. The map nodes a and b record their builds.
+  */
+  public static class ProducedDefinition{
+    static Path dp;
+    static final List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+
+    public static Map<Label ,Node> getNodeMap(){
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("all") ,node("symbol" ,"all" ,run_list ,new Label("gen")) );
+      node_map.put( new Label("a") ,node("symbol" ,"a" ,run_list) );
+      node_map.put( new Label("b") ,node("symbol" ,"b" ,run_list) );
+      return node_map;
+    }
+
+    public static ProductionList getNodeFList(){
+      ProductionList production_list = new ProductionList();
+      production_list.add( node_label -> {
+        Path list_fp = dp.resolve("gen.list");
+        if( !node_label.get().equals("gen") || !Files.exists(list_fp) ) return null;
+        try{
+          return node( "symbol" ,"gen" ,run_list ,label_list( Files.readAllLines(list_fp).toArray(new String[0]) ).toArray(new Label[0]) );
+        }catch(IOException e){
+          throw new UncheckedIOException(e);
+        }
+      });
+      return production_list;
+    }
+  }
+
+  static final String produced_definition_fp = "com/ReasoningTechnology/Ariadne/TestBench/TestBenchAriadne$ProducedDefinition.class";
+
+  // the builds a server request for all ran, in order
+  static List<String> produced_request(Path state_dp) throws IOException{
+    ProducedDefinition.run_list.clear();
+    int status = Build.command( List.of(produced_definition_fp ,"all") ,state_dp );
+    List<String> run_list = new ArrayList<>(ProducedDefinition.run_list);
+    run_list.add( "status " + status );
+    return run_list;
+  }
+
+  static final String flag_definition_fp = "com/ReasoningTechnology/Ariadne/TestBench/TestBenchAriadne$FlagDefinition.class";
+
+  // the given options, then the definition and its one root, out.txt
+  static List<String> flag_args(String... option_array){
+    List<String> arg_list = new ArrayList<>( Arrays.asList(option_array) );
+    arg_list.add(flag_definition_fp);
+    arg_list.add( FlagDefinition.dp.resolve("out.txt").toString() );
+    return arg_list;
+  }
+
+  static void flag_input(String content) throws IOException{
+    Files.write( FlagDefinition.dp.resolve("in.txt") ,content.getBytes(StandardCharsets.UTF_8) );
+  }
+
+  // runs `Build.command` on a thread of its own, e.g. a server or a watch
+  static Thread command_thread(List<String> arg_list ,Path state_dp){
+    Thread thread = new Thread( () -> Build.command(arg_list ,state_dp) );
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  // waits for a count of FlagDefinition builds, changing in.txt each time round, as a watch may still be starting
+  static boolean flag_rebuilt(int build_count ,long timeout_ms) throws IOException ,InterruptedException{
+    long end_ms = System.currentTimeMillis() + timeout_ms;
+    for( int round = 0; System.currentTimeMillis() < end_ms; round++ ){
+      flag_input("watch " + round);
+      for( int i = 0; i < 25; i++ ){
+        if( FlagDefinition.build_count.get() >= build_count ) return true;
+        Thread.sleep(20);
+      }
+    }
+    return false;
+  }
+
+  static boolean file_appears(Path fp ,long timeout_ms) throws InterruptedException{
+    long end_ms = System.currentTimeMillis() + timeout_ms;
+    while( !Files.exists(fp) ){
+      if( System.currentTimeMillis() > end_ms ) return false;
+      Thread.sleep(20);
+    }
+    return true;
+  }
+
+  // a BuildServer whose builds count the requests served, and exit with 7, running on a thread of its own
+  static Thread server_thread(BuildServer server){
+    Thread thread = new Thread( () -> {
+      try{
+        server.run();
+      }catch(IOException e){
+        System.err.println("server_thread: " + e.getMessage());
+      }
+    });
+    // a failed test leaves the server up, which must not keep the TestBench running
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  static BuildServer counting_server(Path state_dp ,AtomicInteger run_count){
+    return new BuildServer( state_dp ,arg_list -> { run_count.incrementAndGet(); return 7; } );
+  }
+
+  /*
+    Sends a request by hand, with the secret and the argument count given, and
+    no arguments. Returns whether the server accepted it. A server that declines
+    closes the connection without reading the rest of the request, so the
+    connection may also be reset before the answer is read.
+  */
+  static boolean raw_request(Path state_dp ,String secret ,int arg_count) throws IOException{
+    String[] field = new String( Files.readAllBytes( BuildServer.server_fp(state_dp) ) ,StandardCharsets.UTF_8 ).trim().split(" ");
+    try( Socket socket = new Socket( InetAddress.getLoopbackAddress() ,Integer.parseInt(field[0]) ) ){
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream(socket.getOutputStream()) );
+      out.writeUTF( secret == null ? field[1] : secret );
+      out.writeUTF( BuildServer.working_directory().toString() );
+      out.writeInt(arg_count);
+      out.flush();
+      return new DataInputStream( socket.getInputStream() ).readBoolean();
+    }catch(SocketException e){
+      return false;
+    }
+  }
+
+  // the offset of the last record of a BuildDatabase file, see its file layout
+  static int last_record_offset(Path db_fp) throws IOException{
+    ByteBuffer buffer = ByteBuffer.wrap( Files.readAllBytes(db_fp) );
+    int offset = 4;
+    int last_offset = -1;
+    while( offset + 4 <= buffer.limit() && buffer.getInt(offset) > 0 ){
+      last_offset = offset;
+      offset += 4 + buffer.getInt(offset);
+    }
+    return last_offset;
+  }
+
+  /*
+    Compiles a definition class snap.Definition into `dp`, whose anonymous
+    inner class, snap.Definition$1, returns `inner_string`, and loads it with a
+    class loader of its own. Returns null when there is no compiler.
+  */
+  static Class<?> snapshot_definition(Path dp ,String inner_string) throws IOException ,ClassNotFoundException{
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if(compiler == null) return null;
+    Path source_fp = dp.resolve("Definition.java");
+    String source =
+      "package snap;\n"
+      + "public class Definition{\n"
+      + "  public static Object inner(){\n"
+      + "    return new Object(){ public String toString(){ return \"" + inner_string + "\"; } };\n"
+      + "  }\n"
+      + "}\n";
+    Files.write( source_fp ,source.getBytes(StandardCharsets.UTF_8) );
+    if( compiler.run(null ,null ,null ,"-d" ,dp.resolve("class").toString() ,source_fp.toString()) != 0 ) return null;
+    URLClassLoader loader = new URLClassLoader( new URL[]{ dp.resolve("class").toUri().toURL() } ,null );
+    return loader.loadClass("snap.Definition");
+  }
+
+  // a symbol node with the given neighbors
+  static Node symbol_node(String... neighbor_array){
+    return node( "symbol" ,"" ,new ArrayList<>() ,label_list(neighbor_array).toArray(new Label[0]) );
+  }
+
+  // produces p, with neighbors q, and q, with neighbors a and p
+  static ProductionList split_production_list(){
+    ProductionList production_list = new ProductionList();
+    production_list.add( node_label -> {
+      if( node_label.get().equals("p") ) return symbol_node("q");
+      if( node_label.get().equals("q") ) return symbol_node("a" ,"p");
+      return null;
+    });
+    return production_list;
+  }
+
+  // a path node whose build script concatenates its sources into its target, and appends its name to the run list
+  static Node concat_node(Path target_fp ,List<String> run_list ,Path... source_array){
+    Node node = new Node();
+    node.put("type" ,"path");
+    for( Path source_fp : source_array ) node.neighbor_LabelList().add( new Label( source_fp.toString() ) );
+    node.put("build" ,(Runnable)() -> {
+      try{
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for( Path source_fp : source_array ) content.write( Files.readAllBytes(source_fp) );
+        Files.write( target_fp ,content.toByteArray() );
+      }catch(IOException e){
+        throw new UncheckedIOException(e);
+      }
+      run_list.add( target_fp.getFileName().toString() );
+    });
+    return node;
+  }
+
+  // produces a leaf node for the label of any file that exists
+  static ProductionList file_production_list(){
+    ProductionList production_list = new ProductionList();
+    production_list.add( node_label -> Files.exists( Paths.get(node_label.get()) ) ? leaf_node() : null );
+    return production_list;
+  }
+
+  /*
+    0 prefix src/, 1 no key, 2 suffix .c, 3 regex src/.*\.h, 4 prefix src/lib/,
+    5 suffix .h. Each appends its index to the call list, and 2, 3 and 5 make a
+    node.
+  */
+  static ProductionList keyed_production_list(List<Integer> call_list){
+    ProductionKey[] key_array = {
+      ProductionKey.prefix("src/")
+      ,null
+      ,ProductionKey.suffix(".c")
+      ,ProductionKey.regex("src/.*\\.h")
+      ,ProductionKey.prefix("src/lib/")
+      ,ProductionKey.suffix(".h")
+    };
+    ProductionList production_list = new ProductionList();
+    for( int i = 0; i < key_array.length; i++ ){
+      int index = i;
+      Function<Label ,Node> production_f = node_label -> {
+        call_list.add(index);
+        return (index == 2 || index == 3 || index == 5) ? leaf_node() : null;
+      };
+      production_list.add( (key_array[i] == null) ? production_f::apply : Production.keyed(key_array[i] ,production_f) );
+    }
+    return production_list;
+  }
+
+  // symbol nodes n0 .. n<node_count - 1> with edge_count edges picked at random, the same for the same seed
+  static Map<Label ,Node> random_node_map(long seed ,int node_count ,int edge_count){
+    Random random = new Random(seed);
+    Map<Label ,Node> node_map = new HashMap<>();
+    for( int i = 0; i < node_count; i++ ) node_map.put( new Label("n" + i) ,symbol_node() );
+    for( int i = 0; i < edge_count; i++ ){
+      Node from_node = node_map.get( new Label( "n" + random.nextInt(node_count) ) );
+      from_node.neighbor_LabelList().add( new Label( "n" + random.nextInt(node_count) ) );
+    }
+    return node_map;
+  }
+
+  // the labels of the map that reach the target, the target included, found by walking the forward edges
+  static Set<Label> reaching_set(Map<Label ,Node> node_map ,Label target_label){
+    Set<Label> reaching_set = new HashSet<>();
+    reaching_set.add(target_label);
+    boolean grew = true;
+    while(grew){
+      grew = false;
+      for( Map.Entry<Label ,Node> entry : node_map.entrySet() ){
+        if( reaching_set.contains( entry.getKey() ) ) continue;
+        for( Label neighbor_label : entry.getValue().neighbor_LabelList() ){
+          if( reaching_set.contains(neighbor_label) ){
+            reaching_set.add( entry.getKey() );
+            grew = true;
+            break;
+          }
+        }
+      }
+    }
+    return reaching_set;
+  }
+
+  // the labels of the map reachable from the given one, itself included, found breadth first
+  static Set<Label> reachable_set(Map<Label ,Node> node_map ,Label from_label){
+    Set<Label> reachable_set = new HashSet<>();
+    List<Label> queue = new ArrayList<>();
+    reachable_set.add(from_label);
+    queue.add(from_label);
+    for( int next = 0; next < queue.size(); next++ ){
+      Node node = node_map.get( queue.get(next) );
+      if(node == null) continue;
+      for( Label neighbor_label : node.neighbor_LabelList() ){
+        if( reachable_set.add(neighbor_label) ) queue.add(neighbor_label);
+      }
+    }
+    return reachable_set;
+  }
+
+  // symbol nodes n0 -> n1 -> ... -> n<node_count - 1>
+  static Map<Label ,Node> chain_node_map(int node_count){
+    Map<Label ,Node> node_map = new HashMap<>();
+    for( int i = 0; i < node_count; i++ ){
+      node_map.put( new Label("n" + i) ,(i + 1 < node_count) ? symbol_node( "n" + (i + 1) ) : symbol_node() );
+    }
+    return node_map;
+  }
+
+  // a random tree of symbol nodes from n0 down to n<node_count - 1>, and extra_count more edges picked at random
+  static Map<Label ,Node> random_tree_map(long seed ,int node_count ,int extra_count){
+    Random random = new Random(seed);
+    Map<Label ,Node> node_map = new HashMap<>();
+    for( int i = 0; i < node_count; i++ ) node_map.put( new Label("n" + i) ,symbol_node() );
+    for( int i = 1; i < node_count; i++ ){
+      node_map.get( new Label( "n" + random.nextInt(i) ) ).neighbor_LabelList().add( new Label("n" + i) );
+    }
+    for( int i = 0; i < extra_count; i++ ){
+      node_map.get( new Label( "n" + random.nextInt(node_count) ) ).neighbor_LabelList().add( new Label( "n" + random.nextInt(node_count) ) );
+    }
+    return node_map;
+  }
+
+  // the labels of the nodes marked as cycle members
+  static Set<Label> cycle_member_set(Map<Label ,Node> node_map){
+    Set<Label> cycle_member_set = new HashSet<>();
+    for( Map.Entry<Label ,Node> entry : node_map.entrySet() ){
+      if( entry.getValue().has_mark(Token.cycle_member) ) cycle_member_set.add( entry.getKey() );
+    }
+    return cycle_member_set;
+  }
+
+  // produces a leaf node for each label that starts with g, and counts the calls
+  static ProductionList counting_production_list(AtomicInteger call_count){
+    ProductionList production_list = new ProductionList();
+    production_list.add( node_label -> {
+      call_count.incrementAndGet();
+      return node_label.get().startsWith("g") ? leaf_node() : null;
+    });
+    return production_list;
+  }
+
+  static Node leaf_node(){
+    Node node = new Node();
+    node.put("type" ,"leaf");
+    return node;
+  }
+
+  static boolean appears(List<String> run_list ,String name ,long timeout_ms) throws InterruptedException{
+    long end_ms = System.currentTimeMillis() + timeout_ms;
+    while( !run_list.contains(name) ){
+      if( System.currentTimeMillis() > end_ms ) return false;
+      Thread.sleep(20);
+    }
+    return true;
+  }
+
+  static Thread watch_thread(BuildWatch watch){
+    Thread thread = new Thread( () -> {
+      try{
+        watch.run();
+      }catch(IOException e){
+        System.err.println("watch_thread: " + e.getMessage());
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /*--------------------------------------------------------------------------------
+    tests
+  */
+
+  public static class TestSuite{
+
+    TestSuite(){
+    }
+
+    /*
+      With one worker the ready jobs run in priority order, the same order on
+      every run. up.txt is up to date, so its 100 ms of history does not count,
+      and it waits for the chains that will run their scripts.
+    */
+    public boolean test_priority_order(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException{
+      Path dp = Files.createTempDirectory("ariadne_priority");
+      List<String> first = priority_order(dp);
+      List<String> second = priority_order(dp);
+      out_content.reset();
+      err_content.reset();
+      if(first == null || second == null) return false;
+      return TestBench.all(new boolean[]{
+        first.equals(second)
+        ,first.size() == 13
+        ,first.subList(0 ,4).equals( List.of("c_0" ,"sym_a" ,"c_1" ,"c_2") )
+        ,first.get(12).equals("root")
+      });
+    }
+
+    // under -j the base of a diamond is built once, before both sides, and they before the top
+    public boolean test_parallel_diamond(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      String[][] definition = {
+        {"top" ,"left" ,"right"}
+        ,{"left" ,"base"}
+        ,{"right" ,"base"}
+        ,{"base"}
+      };
+      TokenSet error_token_set = new TokenSet();
+      List<String> run_list = symbol_build(definition ,"top" ,4 ,error_token_set);
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        error_token_set.isEmpty()
+        ,run_list.size() == 4
+        ,run_list.get(0).equals("base")
+        ,run_list.get(3).equals("top")
+      });
+    }
+
+    // under -j the members of a cycle are not built, nor is a node that depends upon them, the rest is built
+    public boolean test_parallel_cycle(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      String[][] definition = {
+        {"top" ,"user" ,"free"}
+        ,{"user" ,"a"}
+        ,{"a" ,"b"}
+        ,{"b" ,"a"}
+        ,{"free"}
+      };
+      TokenSet error_token_set = new TokenSet();
+      List<String> run_list = symbol_build(definition ,"top" ,4 ,error_token_set);
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        !error_token_set.isEmpty()
+        ,run_list.contains("free")
+        ,!run_list.contains("user")
+        ,!run_list.contains("a")
+        ,!run_list.contains("b")
+      });
+    }
+
+    /*
+      Every Build command line flag: -j, --content-hash, --snapshot, --trace
+      and --history on in process builds, then --watch, --no-server and
+      --server.
+    */
+    public boolean test_build_flags(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException ,InterruptedException{
+      Path dp = Files.createTempDirectory("ariadne_flags");
+      Path state_dp = dp.resolve(".ariadne");
+      FlagDefinition.dp = dp;
+      FlagDefinition.build_count.set(0);
+      flag_input("first");
+      List<Boolean> condition_list = new ArrayList<>();
+
+      // in process, every file option
+      List<String> file_arg_list = flag_args(
+        "-j" ,"2"
+        ,"--content-hash" ,dp.resolve("db").toString()
+        ,"--snapshot" ,dp.resolve("snapshot").toString()
+        ,"--trace" ,dp.resolve("trace.json").toString()
+        ,"--history" ,dp.resolve("history").toString()
+      );
+      condition_list.add( Build.run(file_arg_list) == 0 );
+      condition_list.add( FlagDefinition.build_count.get() == 1 );
+      for( String fn : new String[]{"db" ,"snapshot" ,"trace.json" ,"history"} ){
+        condition_list.add( Files.exists( dp.resolve(fn) ) );
+      }
+      out_content.reset();
+      condition_list.add( Build.run(file_arg_list) == 0 );
+      condition_list.add( FlagDefinition.build_count.get() == 1 );
+      condition_list.add( out_content.toString().contains("snapshot used") );
+      flag_input("second");
+      condition_list.add( Build.run(file_arg_list) == 0 );
+      condition_list.add( FlagDefinition.build_count.get() == 2 );
+
+      // a bad worker count is reported, not thrown
+      condition_list.add( Build.run( flag_args("-j" ,"many") ) == 1 );
+
+      // a file option with no file after it is a usage error, not the graph definition
+      for( String option : new String[]{"--content-hash" ,"--snapshot" ,"--trace" ,"--history"} ){
+        List<String> trailing_arg_list = flag_args();
+        trailing_arg_list.add(option);
+        condition_list.add( Build.run( List.of(option) ) == 1 );
+        condition_list.add( Build.run( List.of(option ,"--watch") ) == 1 );
+        condition_list.add( Build.run(trailing_arg_list) == 1 );
+      }
+      condition_list.add( FlagDefinition.build_count.get() == 2 );
+
+      // --watch rebuilds on a change to in.txt, until interrupted
+      Thread watch_thread = command_thread( flag_args("--watch") ,state_dp );
+      condition_list.add( flag_rebuilt(3 ,10000) );
+      watch_thread.interrupt();
+      watch_thread.join(10000);
+      condition_list.add( !watch_thread.isAlive() );
+
+      // --server serves the builds of this directory, and keeps the graph between them
+      Thread server_thread = command_thread( List.of("--server") ,state_dp );
+      condition_list.add( file_appears( BuildServer.server_fp(state_dp) ,10000 ) );
+      out_content.reset();
+      condition_list.add( Build.command( flag_args() ,state_dp ) == 0 );
+      condition_list.add( Build.command( flag_args() ,state_dp ) == 0 );
+      condition_list.add( out_content.toString().contains("reusing the resident graph") );
+
+      // --no-server does not hand the stop to the server, so it is still there after
+      condition_list.add( Build.command( List.of("--no-server" ,BuildServer.stop_argument) ,state_dp ) == 0 );
+      condition_list.add( server_thread.isAlive() );
+      condition_list.add( Build.command( List.of(BuildServer.stop_argument) ,state_dp ) == 0 );
+      server_thread.join(10000);
+      condition_list.add( !server_thread.isAlive() );
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A request with a wrong secret, or an argument count out of range, is
+      declined without running a build, and the server carries on. A declined
+      client gets -1, and so builds in process.
+    */
+    public boolean test_server_decline(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException ,InterruptedException{
+      Path state_dp = Files.createTempDirectory("ariadne_server");
+      AtomicInteger run_count = new AtomicInteger();
+      Thread thread = server_thread( counting_server(state_dp ,run_count) );
+      List<Boolean> condition_list = new ArrayList<>();
+      condition_list.add( file_appears( BuildServer.server_fp(state_dp) ,10000 ) );
+      condition_list.add( BuildServer.request( state_dp ,List.of("a") ,out_content ) == 7 );
+
+      // the server file of another state directory, with the port and a wrong secret
+      Path wrong_dp = Files.createTempDirectory("ariadne_server_wrong");
+      String port = new String( Files.readAllBytes( BuildServer.server_fp(state_dp) ) ,StandardCharsets.UTF_8 ).trim().split(" ")[0];
+      Files.write( BuildServer.server_fp(wrong_dp) ,(port + " 00000000000000000000000000000000\n").getBytes(StandardCharsets.UTF_8) );
+      condition_list.add( BuildServer.request( wrong_dp ,List.of("a") ,out_content ) == -1 );
+      condition_list.add( !raw_request(state_dp ,"wrong" ,0) );
+
+      condition_list.add( !raw_request(state_dp ,null ,-1) );
+      condition_list.add( !raw_request(state_dp ,null ,BuildServer.arg_count_max + 1) );
+      condition_list.add( run_count.get() == 1 );
+
+      condition_list.add( BuildServer.request( state_dp ,List.of("b") ,out_content ) == 7 );
+      condition_list.add( run_count.get() == 2 );
+      condition_list.add( BuildServer.request( state_dp ,List.of(BuildServer.stop_argument) ,out_content ) == 0 );
+      thread.join(10000);
+      condition_list.add( !thread.isAlive() );
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A forgotten node stays forgotten when the database is read again. A
+      record torn at the end of the log is cut off, the records before it are
+      kept, and what is recorded after the cut is read back.
+    */
+    public boolean test_database_reload(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException{
+      Path dp = Files.createTempDirectory("ariadne_database");
+      Path db_fp = dp.resolve("db");
+      Path src_fp = dp.resolve("s.c");
+      Path target_fp = dp.resolve("s.o");
+      Files.write( src_fp ,"source".getBytes(StandardCharsets.UTF_8) );
+      Files.write( target_fp ,"object".getBytes(StandardCharsets.UTF_8) );
+      Label target = new Label( target_fp.toString() );
+      LabelList dependency_list = label_list( src_fp.toString() );
+      List<Boolean> condition_list = new ArrayList<>();
+
+      try( BuildDatabase db = new BuildDatabase(db_fp) ){
+        condition_list.add( db.record_build(target ,dependency_list ,null) );
+      }
+      try( BuildDatabase db = new BuildDatabase(db_fp) ){
+        condition_list.add( db.up_to_date_q(target ,dependency_list ,null) );
+        db.forget(target);
+      }
+      try( BuildDatabase db = new BuildDatabase(db_fp) ){
+        condition_list.add( !db.up_to_date_q(target ,dependency_list ,null) );
+        db.record_build(target ,dependency_list ,null);
+      }
+
+      // cut the log inside its last record, the build of the target after it was forgotten
+      int last_offset = last_record_offset(db_fp);
+      condition_list.add( last_offset > 0 );
+      byte[] db_bytes = Files.readAllBytes(db_fp);
+      Files.write( db_fp ,Arrays.copyOf(db_bytes ,last_offset + 20) );
+      try( BuildDatabase db = new BuildDatabase(db_fp) ){
+        condition_list.add( db.record_count() > 0 );
+        condition_list.add( !db.up_to_date_q(target ,dependency_list ,null) );
+        db.record_build(target ,dependency_list ,null);
+      }
+      try( BuildDatabase db = new BuildDatabase(db_fp) ){
+        condition_list.add( db.up_to_date_q(target ,dependency_list ,null) );
+      }
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A snapshot is read back while the definition is unchanged, and is stale
+      once a class of the definition package changes, here only its anonymous
+      inner class.
+    */
+    public boolean test_snapshot_inner_class(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException ,ClassNotFoundException{
+      Path dp = Files.createTempDirectory("ariadne_snapshot");
+      Path snapshot_fp = dp.resolve("snapshot");
+      Path outer_fp = dp.resolve("class/snap/Definition.class");
+      Path inner_fp = dp.resolve("class/snap/Definition$1.class");
+      List<Boolean> condition_list = new ArrayList<>();
+
+      Class<?> definition_class = snapshot_definition(dp ,"first");
+      condition_list.add( definition_class != null );
+      if(definition_class == null) return false;
+      byte[] fingerprint = GraphSnapshot.fingerprint(definition_class);
+      byte[] outer_bytes = Files.readAllBytes(outer_fp);
+      byte[] inner_bytes = Files.readAllBytes(inner_fp);
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("top") ,node("symbol" ,"top" ,new ArrayList<>() ,new Label("base")) );
+      node_map.put( new Label("base") ,node("symbol" ,"base" ,new ArrayList<>()) );
+      GraphSnapshot.write( snapshot_fp ,fingerprint ,GraphSnapshot.marked(node_map) );
+      condition_list.add( GraphSnapshot.read(snapshot_fp ,fingerprint) != null );
+      condition_list.add( GraphSnapshot.read( snapshot_fp ,GraphSnapshot.fingerprint(definition_class) ) != null );
+
+      Class<?> changed_class = snapshot_definition(dp ,"second");
+      condition_list.add( changed_class != null );
+      if(changed_class == null) return false;
+      condition_list.add( Arrays.equals( outer_bytes ,Files.readAllBytes(outer_fp) ) );
+      condition_list.add( !Arrays.equals( inner_bytes ,Files.readAllBytes(inner_fp) ) );
+      condition_list.add( GraphSnapshot.read( snapshot_fp ,GraphSnapshot.fingerprint(changed_class) ) == null );
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The cycle a -> p -> q -> a, where p and q are made by a production, and
+      the cycle p <-> q within it. Removing the edge a -> p splits a out of the
+      component, so it is built again, while the produced p and q are still
+      cycle members, and the one cycle left is theirs.
+    */
+    public boolean test_scc_split_produced(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("a") ,symbol_node("p") );
+      LabelList root_list = label_list("a");
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,split_production_list() ,root_list);
+      Label a = new Label("a");
+      Label p = new Label("p");
+      Label q = new Label("q");
+      List<Boolean> condition_list = new ArrayList<>();
+      condition_list.add( graph.cycle_list().size() == 1 );
+      condition_list.add( graph.scc(a) != null && graph.scc(a).size() == 3 );
+      condition_list.add( graph.lookup(a ,false) == null );
+      condition_list.add( graph.lookup(p ,false) == null );
+
+      graph.edge_remove(a ,p);
+      condition_list.add( graph.scc(a) == null );
+      Node a_node = graph.lookup(a ,false);
+      condition_list.add( a_node != null && !a_node.has_mark(Token.cycle_member) );
+      condition_list.add( graph.scc(p) != null && graph.scc(p).size() == 2 && graph.scc(p).contains(q) );
+      condition_list.add( graph.lookup(p ,false) == null );
+      condition_list.add( graph.lookup(q ,false) == null );
+      condition_list.add( graph.cycle_list().size() == 1 );
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      app.o is made from a.o and b.o, each made from its .c file. A change to
+      a.c makes the dirty cone a.c, a.o and app.o, and the watch rebuilds
+      those, and not b.o.
+    */
+    public boolean test_watch_dirty_cone(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException ,InterruptedException{
+      Path dp = Files.createTempDirectory("ariadne_watch");
+      Path a_c = dp.resolve("a.c");
+      Path b_c = dp.resolve("b.c");
+      Path a_o = dp.resolve("a.o");
+      Path b_o = dp.resolve("b.o");
+      Path app_o = dp.resolve("app.o");
+      long now_ms = System.currentTimeMillis();
+      touch(a_c ,now_ms - 100_000);
+      touch(b_c ,now_ms - 100_000);
+      List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label( a_c.toString() ) ,leaf_node() );
+      node_map.put( new Label( b_c.toString() ) ,leaf_node() );
+      node_map.put( new Label( a_o.toString() ) ,concat_node(a_o ,run_list ,a_c) );
+      node_map.put( new Label( b_o.toString() ) ,concat_node(b_o ,run_list ,b_c) );
+      node_map.put( new Label( app_o.toString() ) ,concat_node(app_o ,run_list ,a_o ,b_o) );
+      LabelList root_list = label_list( app_o.toString() );
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,root_list);
+      BuildWatch watch = new BuildWatch( graph ,new BuildParallel(graph ,2) ,root_list );
+      watch.debounce_ms(50);
+      List<Boolean> condition_list = new ArrayList<>();
+
+      Thread thread = watch_thread(watch);
+      condition_list.add( appears(run_list ,"app.o" ,10000) );
+      condition_list.add( run_list.size() == 3 );
+      Set<Label> cone = watch.dirty_cone( new HashSet<>( label_list( a_c.toString() ) ) );
+      condition_list.add( cone.equals( new HashSet<>( label_list( a_c.toString() ,a_o.toString() ,app_o.toString() ) ) ) );
+
+      run_list.clear();
+      Thread.sleep(50);
+      Files.write( a_c ,"changed".getBytes(StandardCharsets.UTF_8) );
+      condition_list.add( appears(run_list ,"app.o" ,10000) );
+      condition_list.add( run_list.equals( List.of("a.o" ,"app.o") ) );
+      condition_list.add( watch.build_count() == 2 );
+
+      watch.stop();
+      thread.join(10000);
+      condition_list.add( !thread.isAlive() );
+
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A no-op build of 20 up to date targets that share one header. The up to
+      date checks ask for a file stat 81 times, each a file system read without
+      the cache, and with it each of the 21 files is read once.
+    */
+    public boolean test_stat_cache_shared_header(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException{
+      Path dp = Files.createTempDirectory("ariadne_stat");
+      Path header_fp = dp.resolve("common.h");
+      long now_ms = System.currentTimeMillis();
+      touch(header_fp ,now_ms - 100_000);
+      List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label( header_fp.toString() ) ,leaf_node() );
+      LabelList target_list = new LabelList();
+      for( int i = 0; i < 20; i++ ){
+        Path target_fp = dp.resolve("t_" + i + ".o");
+        touch(target_fp ,now_ms);
+        node_map.put( new Label( target_fp.toString() ) ,concat_node(target_fp ,run_list ,header_fp) );
+        target_list.add( new Label( target_fp.toString() ) );
+      }
+      node_map.put( new Label("all") ,node("symbol" ,"all" ,run_list ,target_list.toArray(new Label[0])) );
+      LabelList root_list = label_list("all");
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,root_list);
+
+      out_content.reset();
+      TokenSet error_token_set = new BuildParallel(graph ,4).run_build_scripts_f(root_list ,true);
+      Matcher matcher = Pattern.compile("FileStatCache: (\\d+) paths, (\\d+) requests, (\\d+) file system reads").matcher( out_content.toString() );
+      boolean found = matcher.find();
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        error_token_set.isEmpty()
+        ,run_list.equals( List.of("all") )
+        ,found
+        ,found && matcher.group(2).equals("81")
+        ,found && matcher.group(3).equals("21")
+      });
+    }
+
+
+    /*
+      The neighbors of a compact node read back in order, through every read
+      method, from the CSR columns, and refuse any change.
+    */
+    public boolean test_compact_neighbor_view(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<String> run_list = new ArrayList<>();
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("a") ,node("symbol" ,"a" ,run_list ,label_list("b" ,"c" ,"b" ,"u").toArray(new Label[0])) );
+      node_map.put( new Label("b") ,node("symbol" ,"b" ,run_list) );
+      node_map.put( new Label("c") ,node("symbol" ,"c" ,run_list ,new Label("a")) );
+      GraphCompact graph = new GraphCompact(node_map);
+      LabelList expected = label_list("b" ,"c" ,"b" ,"u");
+      LabelList neighbor_list = graph.node( graph.id(new Label("a")) ).neighbor_LabelList();
+
+      List<Label> iterated = new ArrayList<>();
+      for( Label neighbor_label : neighbor_list ) iterated.add(neighbor_label);
+      boolean add_refused = false;
+      try{
+        neighbor_list.add( new Label("d") );
+      }catch(UnsupportedOperationException e){
+        add_refused = true;
+      }
+      boolean iterator_remove_refused = false;
+      try{
+        Iterator<Label> iterator = neighbor_list.iterator();
+        iterator.next();
+        iterator.remove();
+      }catch(UnsupportedOperationException e){
+        iterator_remove_refused = true;
+      }
+      return TestBench.all(new boolean[]{
+        neighbor_list.size() == 4
+        ,neighbor_list.equals(expected)
+        ,expected.equals(neighbor_list)
+        ,neighbor_list.hashCode() == expected.hashCode()
+        ,iterated.equals(expected)
+        ,new LabelList(neighbor_list).equals(expected)
+        ,Arrays.asList( neighbor_list.toArray(new Label[0]) ).equals(expected)
+        ,neighbor_list.get(1).equals( new Label("c") )
+        ,neighbor_list.indexOf( new Label("b") ) == 0
+        ,neighbor_list.lastIndexOf( new Label("b") ) == 2
+        ,neighbor_list.contains( new Label("u") )
+        ,!neighbor_list.contains( new Label("a") )
+        ,neighbor_list.subList(1 ,3).equals( label_list("c" ,"b") )
+        ,neighbor_list.stream().count() == 4
+        ,graph.node( graph.id(new Label("b")) ).neighbor_LabelList().isEmpty()
+        ,add_refused
+        ,iterator_remove_refused
+      });
+    }
+
+    /*
+      A production that looks at the file system misses a label until its file
+      is made. The negative entry answers until it is dropped, as is done before
+      each build, and then the label is produced. The positive entries stay.
+    */
+    public boolean test_lookup_cache_negative(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException{
+      Path dp = Files.createTempDirectory("ariadne_lookup");
+      Path made_fp = dp.resolve("made.txt");
+      Path there_fp = dp.resolve("there.txt");
+      Files.write( there_fp ,new byte[]{'x'} );
+      Label made = new Label( made_fp.toString() );
+      Label there = new Label( there_fp.toString() );
+      Graph graph = new Graph( new HashMap<>() ,file_production_list() );
+
+      Node there_node = graph.lookup(there ,false);
+      boolean missed = graph.lookup(made ,false) == null;
+      Files.write( made_fp ,new byte[]{'x'} );
+      boolean miss_cached = graph.lookup(made ,false) == null;
+      int dropped_count = graph.lookup_cache().negative_clear();
+      boolean found = graph.lookup(made ,false) != null;
+      return TestBench.all(new boolean[]{
+        there_node != null
+        ,missed
+        ,miss_cached
+        ,dropped_count == 1
+        ,found
+        ,graph.lookup(there ,false) == there_node
+        ,graph.lookup_cache().negative_clear() == 0
+      });
+    }
+
+    /*
+      A marking forgets the SCCs of the one before. Here the cycle a <-> b is
+      broken behind the graph's back, and once marked again neither a nor b is
+      given an SCC. An edit of compact storage prints nothing.
+    */
+    public boolean test_scc_remark(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("a") ,symbol_node("b") );
+      node_map.put( new Label("b") ,symbol_node("a") );
+      LabelList root_list = label_list("a");
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,root_list);
+      boolean marked = graph.scc( new Label("a") ) != null;
+      node_map.get( new Label("b") ).neighbor_LabelList().clear();
+      List<LabelList> scc_list = graph.graph_mark_SCC( root_list ,new TokenSet() ,false );
+
+      Map<Label ,Node> compact_map = new HashMap<>();
+      compact_map.put( new Label("c") ,symbol_node("d") );
+      compact_map.put( new Label("d") ,symbol_node() );
+      GraphDirectedAcyclic compact_graph = new GraphDirectedAcyclic( new GraphCompact(compact_map) ,null ,label_list("c") );
+      out_content.reset();
+      compact_graph.edge_add( new Label("d") ,new Label("c") );
+      boolean edit_quiet = out_content.size() == 0;
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        marked
+        ,scc_list.isEmpty()
+        ,graph.cycle_list().isEmpty()
+        ,graph.scc( new Label("a") ) == null
+        ,graph.scc( new Label("b") ) == null
+        ,edit_quiet
+        ,compact_graph.scc( new Label("c") ) != null
+      });
+    }
+
+    /*
+      A server keeps the graph between requests, but not what its productions
+      made. gen.list is made between the first two requests, so gen is produced
+      for the second, and changed before the third, so gen is produced again,
+      with the new neighbor.
+    */
+    public boolean test_server_produced(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException ,InterruptedException{
+      Path dp = Files.createTempDirectory("ariadne_produced");
+      Path state_dp = dp.resolve(".ariadne");
+      ProducedDefinition.dp = dp;
+      Thread server_thread = command_thread( List.of("--server") ,state_dp );
+      List<Boolean> condition_list = new ArrayList<>();
+      condition_list.add( file_appears( BuildServer.server_fp(state_dp) ,10000 ) );
+
+      condition_list.add( produced_request(state_dp).equals( List.of("status 1") ) );
+      Files.write( dp.resolve("gen.list") ,List.of("a") );
+      out_content.reset();
+      condition_list.add( produced_request(state_dp).equals( List.of("a" ,"gen" ,"all" ,"status 0") ) );
+      condition_list.add( out_content.toString().contains("reusing the resident graph") );
+      Files.write( dp.resolve("gen.list") ,List.of("b") );
+      condition_list.add( produced_request(state_dp).equals( List.of("b" ,"gen" ,"all" ,"status 0") ) );
+
+      condition_list.add( Build.command( List.of(BuildServer.stop_argument) ,state_dp ) == 0 );
+      server_thread.join(10000);
+      condition_list.add( !server_thread.isAlive() );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A history file whose counts or lengths are damaged reads as an empty
+      history, and a saved history reads back.
+    */
+    public boolean test_duration_history_damaged(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws IOException{
+      Path dp = Files.createTempDirectory("ariadne_history");
+      Path history_fp = dp.resolve("history");
+      List<Boolean> condition_list = new ArrayList<>();
+      int[][] damage_array = { {1 ,-5} ,{1 ,Integer.MAX_VALUE} ,{-1 ,0} ,{Integer.MAX_VALUE ,3} };
+      for( int[] damage : damage_array ){
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put( "ADH1".getBytes(StandardCharsets.US_ASCII) ).putInt(damage[0]).putInt(damage[1]);
+        Files.write( history_fp ,Arrays.copyOf( buffer.array() ,buffer.position() ) );
+        condition_list.add( new DurationHistory(history_fp).size() == 0 );
+      }
+      Files.delete(history_fp);
+      DurationHistory history = new DurationHistory(history_fp);
+      history.record( new Label("a") ,5_000_000L );
+      history.close();
+      condition_list.add( new DurationHistory(history_fp).duration_ns( new Label("a") ) == 5_000_000L );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      An interrupted build returns build_interrupted, starts no more jobs, and
+      returns only after the build script that was running has ended, with the
+      workers forking jobs, and with the workers taking them from the queue.
+    */
+    public boolean test_parallel_interrupt(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws InterruptedException{
+      List<Boolean> condition_list = new ArrayList<>();
+      for( boolean history : new boolean[]{false ,true} ){
+        List<String> run_list = Collections.synchronizedList( new ArrayList<>() );
+        TokenSet error_token_set = interrupted_build(run_list ,history ,300);
+        condition_list.add( error_token_set.contains(Token.build_interrupted) );
+        condition_list.add( run_list.equals( List.of("slow" ,"returned") ) );
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The bulk methods of a MarkRegistry combine whole bitmaps, and the
+      registry lets go of the label of an id once its last bit is cleared. The
+      id of a collected label is given out again, when the collector gets to it.
+    */
+    public boolean test_mark_registry(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws InterruptedException{
+      MarkRegistry registry = new MarkRegistry();
+      int good = registry.register( Token.intern("good") );
+      int wellformed = registry.register(Token.wellformed);
+      int cycle_member = registry.register(Token.cycle_member);
+      Label a = Label.intern("mark_registry_a");
+      Label b = Label.intern("mark_registry_b");
+      Label c = Label.intern("mark_registry_c");
+      registry.set(wellformed ,a);
+      registry.set(wellformed ,b);
+      registry.set(cycle_member ,b);
+      registry.set(cycle_member ,c);
+      List<Boolean> condition_list = new ArrayList<>();
+      registry.and_not(good ,wellformed ,cycle_member);
+      condition_list.add( registry.label_list(good).equals( List.of(a) ) );
+      registry.and(good ,wellformed ,cycle_member);
+      condition_list.add( registry.label_list(good).equals( List.of(b) ) );
+      registry.or(good ,wellformed ,cycle_member);
+      condition_list.add( registry.count(good) == 3 );
+
+      registry.clear_all(good);
+      registry.clear(wellformed ,a);
+      condition_list.add( registry.label( a.id() ) == null );
+      condition_list.add( registry.label( b.id() ) == b );
+      registry.clear_all(cycle_member);
+      condition_list.add( registry.label( c.id() ) == null );
+
+      int collected_id = Label.intern( "mark_registry_collected_" + System.nanoTime() ).id();
+      for( int i = 0; i < 50 && Label.by_id(collected_id) != null; i++ ){
+        System.gc();
+        Thread.sleep(10);
+      }
+      if( Label.by_id(collected_id) == null ){
+        int count = Label.intern_count();
+        Label reused = Label.intern( "mark_registry_reused_" + System.nanoTime() );
+        condition_list.add( reused.id() < count && Label.intern_count() == count );
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      Breadth first exploration hands out each node once, with its level, when
+      edges lead back to the level before and to earlier ones, and marks the
+      cycles they close. An undefined label reached twice is looked up once.
+    */
+    public boolean test_breadth_first(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("a") ,symbol_node("b" ,"c") );
+      node_map.put( new Label("b") ,symbol_node("d") );
+      node_map.put( new Label("c") ,symbol_node("a") );
+      node_map.put( new Label("d") ,symbol_node("b" ,"e" ,"x") );
+      node_map.put( new Label("e") ,symbol_node("x" ,"a") );
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic( node_map ,null ,label_list("a") );
+      GraphBreadthFirst explorer = graph.breadth_first( label_list("a") );
+      List<String> visit_list = new ArrayList<>();
+      while( explorer.hasNext() ){
+        Map.Entry<Label ,Node> entry = explorer.next();
+        visit_list.add( entry.getKey() + " " + explorer.level() );
+      }
+      LabelList scc_a = graph.scc( new Label("a") );
+      LabelList scc_b = graph.scc( new Label("b") );
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        visit_list.equals( List.of("a 0" ,"b 1" ,"c 1" ,"d 2" ,"e 3") )
+        ,explorer.undefined_node_set().equals( Set.of( new Label("x") ) )
+        ,explorer.consumed_count() == 5
+        ,scc_a != null && scc_a.contains( new Label("c") ) && scc_a.contains( new Label("e") )
+        ,scc_b != null && scc_b.contains( new Label("b") ) && scc_b.contains( new Label("d") )
+      });
+    }
+
+    /*
+      lookup_all gives the nodes in list order, with null for a label nothing
+      resolves, and runs the productions once for a label listed twice, with and
+      without an executor. Given an executor and a budget, the misses are still
+      resolved concurrently, and stop soon after the budget is exhausted.
+    */
+    public boolean test_lookup_all(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      AtomicInteger call_count = new AtomicInteger();
+      ProductionList production_list = counting_production_list(call_count);
+      for( boolean executor_q : new boolean[]{false ,true} ){
+        call_count.set(0);
+        Map<Label ,Node> node_map = new HashMap<>();
+        Node m = symbol_node();
+        node_map.put( new Label("m") ,m );
+        GraphDirectedAcyclic graph = new GraphDirectedAcyclic( node_map ,production_list ,label_list("m") );
+        LabelList lookup_list = label_list("g1" ,"m" ,"g2" ,"g1" ,"z" ,"g2" ,"m");
+        NodeList node_list = executor_q ? graph.lookup_all( lookup_list ,ForkJoinPool.commonPool() ) : graph.lookup_all(lookup_list);
+        condition_list.add( node_list.size() == 7 );
+        condition_list.add( node_list.get(1) == m && node_list.get(6) == m );
+        condition_list.add( node_list.get(0) != null && node_list.get(0) == node_list.get(3) );
+        condition_list.add( node_list.get(2) != null && node_list.get(2) == node_list.get(5) && node_list.get(0) != node_list.get(2) );
+        condition_list.add( node_list.get(4) == null );
+        condition_list.add( call_count.get() == 3 );
+      }
+
+      int chunk = Graph.lookup_all_chunk;
+      Graph.lookup_all_chunk = 4;
+      try{
+        AnalysisBudget budget = new AnalysisBudget(0 ,0 ,3 ,0);
+        GraphDirectedAcyclic graph = new GraphDirectedAcyclic( new HashMap<>() ,production_list ,new LabelList() ,budget );
+        LabelList lookup_list = new LabelList();
+        for( int i = 0; i < 40; i++ ) lookup_list.add( new Label("g" + i) );
+        NodeList node_list = graph.lookup_all( lookup_list ,ForkJoinPool.commonPool() );
+        int found_count = 0;
+        for( Node node : node_list ) if(node != null) found_count++;
+        condition_list.add( budget.exhausted_q() );
+        condition_list.add( found_count >= 3 && found_count <= budget.production_count() );
+        condition_list.add( budget.production_count() <= 3 + 40 / 4 );
+      }finally{
+        Graph.lookup_all_chunk = chunk;
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The SCC search marks the same cycle members as the bounded descent, on
+      random graphs small enough for the descent to follow every path.
+    */
+    public boolean test_scc_marks_descent(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      for( long seed = 0; seed < 40; seed++ ){
+        Map<Label ,Node> scc_map = random_node_map(seed ,12 ,16);
+        Map<Label ,Node> descent_map = random_node_map(seed ,12 ,16);
+        LabelList root_list = label_list("n0" ,"n1");
+        TokenSet scc_result = new GraphDirectedAcyclic(scc_map ,null ,root_list).graph_mark_cycles(root_list);
+        TokenSet descent_result = new GraphDirectedAcyclic(descent_map ,null ,root_list).graph_mark_cycles(root_list ,64 ,false);
+        condition_list.add( cycle_member_set(scc_map).equals( cycle_member_set(descent_map) ) );
+        condition_list.add( scc_result.contains(Token.cycle_exists) == descent_result.contains(Token.cycle_exists) );
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      Interning gives one instance per value, with an id that finds it again. A
+      label made with new has no id, and equals the interned label of its value.
+    */
+    public boolean test_intern(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      Label a = Label.intern("intern_a");
+      Label b = Label.intern("intern_b");
+      Label a_new = new Label("intern_a");
+      Token t = Token.intern("intern_t");
+      out_content.reset();
+      err_content.reset();
+      return TestBench.all(new boolean[]{
+        Label.intern("intern_a") == a
+        ,a_new.intern() == a
+        ,a.intern() == a
+        ,a.id() >= 0 && a.id() != b.id()
+        ,a.id() < Label.intern_count() && b.id() < Label.intern_count()
+        ,Label.by_id( a.id() ) == a
+        ,Label.find("intern_a") == a
+        ,a_new.id() == -1 && !a_new.interned_q() && a.interned_q()
+        ,a_new.equals(a) && a.equals(a_new) && a_new.hashCode() == a.hashCode()
+        ,!a.equals(b)
+        ,Token.intern("intern_t") == t && new Token("intern_t").intern() == t
+        ,Token.by_id( t.id() ) == t
+        ,new Token("intern_t").equals(t)
+      });
+    }
+
+    /*
+      The index gives the productions whose keys lie on the label's path through
+      the tries, and the unkeyed ones, in list order, and runs those that match
+      in that order until one makes a node.
+    */
+    public boolean test_production_index(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Integer> call_list = new ArrayList<>();
+      ProductionIndex index = keyed_production_list(call_list).index();
+      List<Boolean> condition_list = new ArrayList<>();
+      condition_list.add( Arrays.equals( index.candidate_array( new Label("src/lib/x.c") ) ,new int[]{0 ,1 ,2 ,3 ,4} ) );
+      condition_list.add( Arrays.equals( index.candidate_array( new Label("src/a.h") ) ,new int[]{0 ,1 ,3 ,5} ) );
+      condition_list.add( Arrays.equals( index.candidate_array( new Label("other.h") ) ,new int[]{1 ,5} ) );
+      condition_list.add( Arrays.equals( index.candidate_array( new Label("zzz") ) ,new int[]{1} ) );
+      condition_list.add( index.first_candidate( new Label("src/a.h") ) == 0 );
+
+      condition_list.add( index.produce( new Label("src/lib/x.c") ) != null );
+      condition_list.add( call_list.equals( List.of(0 ,1 ,2) ) );
+      call_list.clear();
+      condition_list.add( index.produce( new Label("src/lib/x.h") ) != null );
+      condition_list.add( call_list.equals( List.of(0 ,1 ,3) ) );
+      call_list.clear();
+      condition_list.add( index.produce( new Label("lib/x.o") ) == null );
+      condition_list.add( call_list.equals( List.of(1) ) );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      A node budget stops the SCC search, the bounded descent and the breadth
+      first exploration of a long chain early, with budget_exhausted, and a
+      cancelled budget stops them before they start.
+    */
+    public boolean test_budget_exhausted(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      LabelList root_list = label_list("n0");
+      List<Boolean> condition_list = new ArrayList<>();
+
+      AnalysisBudget constructor_budget = new AnalysisBudget(10 ,0 ,0 ,0);
+      GraphDirectedAcyclic constructed = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,root_list ,constructor_budget );
+      condition_list.add( constructed.cycle_detection_result().contains(Token.budget_exhausted) );
+      condition_list.add( constructor_budget.node_count() < 20 );
+
+      // no roots given, so the constructor leaves the budget to the marking below
+      AnalysisBudget scc_budget = new AnalysisBudget(10 ,0 ,0 ,0);
+      TokenSet scc_result = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,new LabelList() ,scc_budget ).graph_mark_cycles(root_list);
+      condition_list.add( scc_result.contains(Token.budget_exhausted) );
+      condition_list.add( scc_budget.node_count() >= 10 && scc_budget.node_count() < 20 );
+
+      AnalysisBudget descent_budget = new AnalysisBudget(10 ,0 ,0 ,0);
+      TokenSet descent_result = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,new LabelList() ,descent_budget ).graph_mark_cycles(root_list ,2000 ,false);
+      condition_list.add( descent_result.contains(Token.budget_exhausted) );
+      condition_list.add( descent_budget.node_count() >= 10 && descent_budget.node_count() < 20 );
+
+      AnalysisBudget breadth_budget = new AnalysisBudget(10 ,0 ,0 ,0);
+      GraphBreadthFirst explorer = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,new LabelList() ,breadth_budget ).breadth_first(root_list);
+      while( explorer.hasNext() ) explorer.next();
+      condition_list.add( explorer.budget_exhausted_q() );
+      condition_list.add( explorer.consumed_count() >= 10 && explorer.consumed_count() <= 11 );
+
+      AnalysisBudget cancelled_budget = new AnalysisBudget(0 ,0 ,0 ,0);
+      cancelled_budget.cancel();
+      TokenSet cancelled_result = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,new LabelList() ,cancelled_budget ).graph_mark_cycles(root_list);
+      condition_list.add( cancelled_result.contains(Token.budget_exhausted) );
+      condition_list.add( cancelled_budget.node_count() <= 1 );
+
+      AnalysisBudget ample_budget = new AnalysisBudget(5000 ,5000 ,0 ,0);
+      TokenSet ample_result = new GraphDirectedAcyclic( chain_node_map(1000) ,null ,root_list ,ample_budget ).graph_mark_cycles(root_list);
+      condition_list.add( !ample_result.contains(Token.budget_exhausted) && !ample_budget.exhausted_q() );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      Threads looking up the same label at once run the productions for it once,
+      all get the one node made, and each mark they set on it is kept. A label
+      no production recognizes is also tried once.
+    */
+    public boolean test_concurrent_resolution(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content) throws InterruptedException{
+      Map<String ,Integer> call_map = new ConcurrentHashMap<>();
+      GraphConcurrent graph = new GraphConcurrent( new HashMap<>() ,slow_production_list(call_map) );
+      int thread_count = 8;
+      List<Node> found_list = concurrent_lookup( graph ,new Label("g") ,thread_count );
+      List<Node> missed_list = concurrent_lookup( graph ,new Label("z") ,thread_count );
+      List<Boolean> condition_list = new ArrayList<>();
+      Node node = graph.lookup( new Label("g") ,false );
+      condition_list.add( node != null );
+      for( Node found : found_list ) condition_list.add( found == node );
+      for( int i = 0; i < thread_count; i++ ) condition_list.add( node.has_mark( Token.intern("concurrent_" + i) ) );
+      for( Node missed : missed_list ) condition_list.add( missed == null );
+      condition_list.add( graph.lookup( new Label("z") ,false ) == null );
+      condition_list.add( call_map.equals( Map.of("g" ,1 ,"z" ,1) ) );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      Cycle marking with several workers marks the same cycle members, and finds
+      the same cycles, as the sequential marking, from several roots.
+    */
+    public boolean test_parallel_cycle_marks(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      LabelList root_list = label_list("n0" ,"n1" ,"n2" ,"n3");
+      for( long seed = 0; seed < 20; seed++ ){
+        Map<Label ,Node> sequential_map = random_node_map(seed ,300 ,330);
+        Map<Label ,Node> parallel_map = random_node_map(seed ,300 ,330);
+        GraphDirectedAcyclic sequential_graph = new GraphDirectedAcyclic(sequential_map ,null ,new LabelList());
+        GraphDirectedAcyclic parallel_graph = new GraphDirectedAcyclic(parallel_map ,null ,new LabelList());
+        TokenSet sequential_result = sequential_graph.graph_mark_cycles(root_list);
+        TokenSet parallel_result = parallel_graph.graph_mark_cycles(root_list ,4);
+        condition_list.add( sequential_result.equals(parallel_result) );
+        condition_list.add( cycle_member_set(sequential_map).equals( cycle_member_set(parallel_map) ) );
+        Set<Set<Label>> sequential_cycle_set = new HashSet<>();
+        for( LabelList scc : sequential_graph.cycle_list() ) sequential_cycle_set.add( new HashSet<>(scc) );
+        Set<Set<Label>> parallel_cycle_set = new HashSet<>();
+        for( LabelList scc : parallel_graph.cycle_list() ) parallel_cycle_set.add( new HashSet<>(scc) );
+        condition_list.add( sequential_cycle_set.equals(parallel_cycle_set) );
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The dependent cone of a label is the label and every node that reaches it,
+      the changed labels first, and it follows the graph edits.
+    */
+    public boolean test_dependent_cone(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      Map<Label ,Node> node_map = new HashMap<>();
+      node_map.put( new Label("a") ,symbol_node("b") );
+      node_map.put( new Label("b") ,symbol_node("c") );
+      node_map.put( new Label("d") ,symbol_node("c" ,"c") );
+      node_map.put( new Label("e") ,symbol_node("a") );
+      node_map.put( new Label("f") ,symbol_node() );
+      GraphDirectedAcyclic graph = new GraphDirectedAcyclic( node_map ,null ,label_list("e" ,"d" ,"f") );
+      List<Label> cone_list = new ArrayList<>( graph.dependent_cone( label_list("c") ) );
+      condition_list.add( cone_list.get(0).equals( new Label("c") ) );
+      condition_list.add( new HashSet<>(cone_list).equals( new HashSet<>( label_list("c" ,"b" ,"d" ,"a" ,"e") ) ) );
+      condition_list.add( cone_list.size() == 5 );
+      condition_list.add( graph.dependent_index().dependent_count( new Label("c") ) == 3 );
+
+      graph.edge_remove( new Label("e") ,new Label("a") );
+      graph.node_add( new Label("g") ,symbol_node("b") );
+      graph.node_remove( new Label("d") );
+      condition_list.add( graph.dependent_cone( label_list("c") ).equals( new HashSet<>( label_list("c" ,"b" ,"a" ,"g") ) ) );
+      condition_list.add( graph.dependent_cone( label_list("f") ).equals( Set.of( new Label("f") ) ) );
+
+      for( long seed = 0; seed < 20; seed++ ){
+        Map<Label ,Node> random_map = random_node_map(seed ,200 ,300);
+        DependentIndex index = DependentIndex.of(random_map);
+        Label target_label = new Label("n" + seed);
+        condition_list.add( index.dependent_cone( List.of(target_label) ).equals( reaching_set(random_map ,target_label) ) );
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The reachability index answers as a breadth first walk does, for every
+      pair of nodes, with each of its three encodings, on graphs that are
+      mostly tree, so the intervals fit in less than the bit rows. The memory
+      budget is raised until each encoding has been picked.
+    */
+    public boolean test_reachability_index(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      for( long seed = 0; seed < 3; seed++ ){
+        Map<Label ,Node> node_map = random_tree_map(seed ,300 ,6);
+        LabelList root_list = label_list("n0");
+        GraphDirectedAcyclic graph = new GraphDirectedAcyclic(node_map ,null ,new LabelList());
+        Map<Integer ,ReachabilityIndex> index_by_encoding = new HashMap<>();
+        for( long budget_bytes = 0; !index_by_encoding.containsKey(ReachabilityIndex.encoding_bitset); budget_bytes += 64 ){
+          ReachabilityIndex index = graph.reachability_index(root_list ,budget_bytes);
+          index_by_encoding.putIfAbsent( index.encoding() ,index );
+        }
+        condition_list.add( index_by_encoding.size() == 3 );
+        Set<Label> indexed_set = new HashSet<>();
+        for( Label root_label : root_list ) indexed_set.addAll( reachable_set(node_map ,root_label) );
+        for( ReachabilityIndex index : index_by_encoding.values() ){
+          condition_list.add( index.node_count() == indexed_set.size() );
+          for( Label from_label : indexed_set ){
+            Set<Label> from_reachable_set = reachable_set(node_map ,from_label);
+            condition_list.add( new HashSet<>( index.reachable_list(from_label) ).equals(from_reachable_set) );
+            for( Label to_label : indexed_set ){
+              condition_list.add( index.reaches_q(from_label ,to_label) == from_reachable_set.contains(to_label) );
+            }
+          }
+          condition_list.add( !index.reaches_q( new Label("n0") ,new Label("not_a_node") ) );
+        }
+      }
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+
+    /*
+      The bounded descent runs on its cursor stack, so a node with a hundred
+      thousand neighbors, and a chain far deeper than the call stack would
+      allow, are descended, their cycles marked, and marked again the same way.
+    */
+    public boolean test_descent_cursor(ByteArrayInputStream in_content ,ByteArrayOutputStream out_content ,ByteArrayOutputStream err_content){
+      List<Boolean> condition_list = new ArrayList<>();
+      int wide_count = 100_000;
+      Map<Label ,Node> wide_map = new HashMap<>();
+      Node wide_node = symbol_node();
+      for( int i = 0; i < wide_count; i++ ){
+        wide_map.put( new Label("leaf" + i) ,symbol_node() );
+        wide_node.neighbor_LabelList().add( new Label("leaf" + i) );
+      }
+      wide_node.neighbor_LabelList().add( new Label("back") );
+      wide_map.put( new Label("wide") ,wide_node );
+      wide_map.put( new Label("back") ,symbol_node("wide") );
+      LabelList wide_root_list = label_list("wide");
+      GraphDirectedAcyclic wide_graph = new GraphDirectedAcyclic(wide_map ,null ,new LabelList());
+      for( int run = 0; run < 2; run++ ){
+        TokenSet result = wide_graph.graph_mark_cycles(wide_root_list ,8 ,false);
+        condition_list.add( result.contains(Token.cycle_exists) );
+        condition_list.add( cycle_member_set(wide_map).equals( new HashSet<>( label_list("wide" ,"back") ) ) );
+      }
+
+      int deep_count = 50_000;
+      Map<Label ,Node> deep_map = chain_node_map(deep_count);
+      deep_map.get( new Label( "n" + (deep_count - 1) ) ).neighbor_LabelList().add( new Label("n0") );
+      GraphDirectedAcyclic deep_graph = new GraphDirectedAcyclic(deep_map ,null ,new LabelList());
+      TokenSet deep_result = deep_graph.graph_mark_cycles( label_list("n0") ,deep_count + 1 ,false );
+      condition_list.add( deep_result.contains(Token.cycle_exists) );
+      condition_list.add( cycle_member_set(deep_map).size() == deep_count );
+      out_content.reset();
+      err_content.reset();
+      return !condition_list.contains(false);
+    }
+  }
+
+  public static void main(String[] args){
+    TestBench.run( new TestSuite() );
+  }
+
+}
@@ -7,6 +7,7 @@ Component smoke test. At least call each method of each class.
 
 import com.ReasoningTechnology.Ariadne.*;
 import com.ReasoningTechnology.TestBench.*;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -21,11 +22,11 @@ public class TestTestBench extends TestBench{
     TestSuite(){
     }
 
-    public boolean test_pass(ByteArrayOutputStream out_content, ByteArrayOutputStream err_content){
+    public boolean test_pass(ByteArrayInputStream in_content, ByteArrayOutputStream out_content, ByteArrayOutputStream err_content){
       return true;
     }
 
-    public boolean test_fail_0(ByteArrayOutputStream out_content, ByteArrayOutputStream err_content){
+    public boolean test_fail_0(ByteArrayInputStream in_content, ByteArrayOutputStream out_content, ByteArrayOutputStream err_content){
       return false;
     }
 